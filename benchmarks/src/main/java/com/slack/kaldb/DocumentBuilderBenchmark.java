@@ -0,0 +1,103 @@
+package com.slack.kaldb;
+
+import static com.slack.kaldb.logstore.schema.SchemaAwareLogDocumentBuilderImpl.FieldConflictPolicy.CONVERT_VALUE_AND_DUPLICATE_FIELD;
+
+import com.google.protobuf.ByteString;
+import com.slack.kaldb.logstore.DocumentBuilder;
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.schema.SchemaAwareLogDocumentBuilderImpl;
+import com.slack.kaldb.writer.SpanFormatter;
+import com.slack.service.murron.trace.Trace;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.document.Document;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the cost of converting a message into a Lucene document, without indexing it. Run it
+ * with the gc profiler to see the allocation rate per document, for example: ./jmh.sh
+ * DocumentBuilderBenchmark -prof gc
+ */
+@State(Scope.Thread)
+public class DocumentBuilderBenchmark {
+
+  private DocumentBuilder<LogMessage> documentBuilder;
+  private LogMessage nestedLogMessage;
+  private LogMessage spanLogMessage;
+
+  @Setup(Level.Iteration)
+  public void createDocumentBuilder() throws Exception {
+    documentBuilder =
+        SchemaAwareLogDocumentBuilderImpl.build(
+            CONVERT_VALUE_AND_DUPLICATE_FIELD, false, new SimpleMeterRegistry());
+
+    Map<String, Object> request = new HashMap<>();
+    request.put("http_method", "POST");
+    request.put("method", "callbacks.test");
+    request.put("status", "ok");
+    request.put("request_queue_time", 2262L);
+    request.put("microtime_elapsed", 1418L);
+    request.put("http_params", Map.of("param1", "value1", "param2", "value2", "param3", false));
+
+    Map<String, Object> mysql = new HashMap<>();
+    mysql.put("query_count", 0L);
+    mysql.put("query_time", 0L);
+    mysql.put("conns_count", 0L);
+    mysql.put("rows_count", 0L);
+    mysql.put("rows_affected", 0L);
+
+    Map<String, Object> source = new HashMap<>();
+    source.put(LogMessage.ReservedField.HOSTNAME.fieldName, "company-www-php-dev-cluster-abc");
+    source.put(LogMessage.ReservedField.MESSAGE.fieldName, "Callback request finished");
+    source.put("ip_address", "127.0.0.1");
+    source.put("enterprise", "E1234ABCD56");
+    source.put("team", "T98765XYZ12");
+    source.put("user", "U000111222A");
+    source.put("auth", true);
+    source.put("php_version", "5.11.0");
+    source.put("env", "env-value");
+    source.put("level", "info");
+    source.put("experiments", List.of("exp1", "exp2", "exp3"));
+    source.put("request", request);
+    source.put("stats", Map.of("mysql", mysql, "frl_time", 0L, "init_time", 1283L));
+
+    nestedLogMessage =
+        new LogMessage("hhvm_api_log", "INFO", "id1", Instant.now(), Map.copyOf(source));
+
+    Trace.Span.Builder spanBuilder =
+        Trace.Span.newBuilder()
+            .setId(ByteString.copyFromUtf8("span1"))
+            .setParentId(ByteString.copyFromUtf8("parent1"))
+            .setTraceId(ByteString.copyFromUtf8("trace1"))
+            .setName("callbacks.test")
+            .setTimestamp(Instant.now().toEpochMilli() * 1000)
+            .setDuration(1418000);
+    for (Map.Entry<String, Object> entry : source.entrySet()) {
+      if (!(entry.getValue() instanceof Map) && !(entry.getValue() instanceof List)) {
+        spanBuilder.addTags(SpanFormatter.convertKVtoProto(entry.getKey(), entry.getValue()));
+      }
+    }
+    spanBuilder.addTags(
+        SpanFormatter.convertKVtoProto(
+            LogMessage.ReservedField.SERVICE_NAME.fieldName, "hhvm-api_log"));
+    spanLogMessage = SpanFormatter.toSpanLogMessage(spanBuilder.build());
+
+    // Build the documents once, so the benchmark doesn't measure registering the new fields.
+    documentBuilder.fromMessage(nestedLogMessage);
+    documentBuilder.fromMessage(spanLogMessage);
+  }
+
+  @Benchmark
+  public Document measureNestedLogMessageToDocument() throws IOException {
+    return documentBuilder.fromMessage(nestedLogMessage);
+  }
+
+  @Benchmark
+  public Document measureSpanToDocument() throws IOException {
+    return documentBuilder.fromMessage(spanLogMessage);
+  }
+}
@@ -0,0 +1,83 @@
+package com.slack.kaldb;
+
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.SearchQuery;
+import com.slack.kaldb.logstore.search.SearchResult;
+import com.slack.kaldb.logstore.search.SearchResultAggregatorImpl;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures merging the hits of many search results, like a query node merging the results of its
+ * cache and indexer nodes. Every search result has hitsPerResult hits sorted by timestamp
+ * descending, and the merge keeps the 500 most recent hits.
+ */
+@State(Scope.Thread)
+public class SearchResultAggregatorBenchmark {
+  private static final int HOW_MANY = 500;
+
+  @Param({"100", "500"})
+  private int resultCount;
+
+  @Param({"500"})
+  private int hitsPerResult;
+
+  private List<SearchResult<LogMessage>> searchResults;
+  private SearchResultAggregatorImpl<LogMessage> aggregator;
+
+  @Setup(Level.Trial)
+  public void createSearchResults() {
+    Random random = new Random(0);
+    long endTime = Instant.now().toEpochMilli();
+    searchResults = new ArrayList<>(resultCount);
+    for (int i = 0; i < resultCount; i++) {
+      List<LogMessage> hits = new ArrayList<>(hitsPerResult);
+      for (int j = 0; j < hitsPerResult; j++) {
+        hits.add(
+            new LogMessage(
+                "testindex",
+                "INFO",
+                "message-" + i + "-" + j,
+                Instant.ofEpochMilli(endTime - random.nextInt(60 * 60 * 1000)),
+                Map.of()));
+      }
+      hits.sort(Comparator.comparing(LogMessage::getTimestamp, Comparator.reverseOrder()));
+      searchResults.add(new SearchResult<>(hits, 0, 0, 1, 1, 0, null));
+    }
+
+    aggregator =
+        new SearchResultAggregatorImpl<>(
+            new SearchQuery(
+                "testindex",
+                "*:*",
+                endTime - 60 * 60 * 1000,
+                endTime,
+                HOW_MANY,
+                null,
+                Collections.emptyList()));
+  }
+
+  @Benchmark
+  public SearchResult<LogMessage> measureAggregate() {
+    return aggregator.aggregate(searchResults, true);
+  }
+
+  /** The previous implementation, which sorts all the hits, for comparison. */
+  @Benchmark
+  public List<LogMessage> measureSortAllHits() {
+    return searchResults.stream()
+        .flatMap(r -> r.hits.stream())
+        .sorted(
+            Comparator.comparing(
+                (LogMessage m) -> m.getTimestamp().toEpochMilli(), Comparator.reverseOrder()))
+        .limit(HOW_MANY)
+        .collect(Collectors.toList());
+  }
+}
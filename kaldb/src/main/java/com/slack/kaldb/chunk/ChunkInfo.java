@@ -164,10 +164,21 @@ public class ChunkInfo {
     return snapshotPath;
   }
 
-  public void updateMaxOffset(long newOffset) {
+  // Chunks may be written to from multiple indexing threads, so offset and time range updates are
+  // synchronized.
+  public synchronized void updateMaxOffset(long newOffset) {
     maxOffset = Math.max(maxOffset, newOffset);
   }
 
+  /**
+   * Overwrite the max offset of the chunk. When indexing in parallel, the largest offset seen by a
+   * chunk may be ahead of offsets that are still being indexed, so the chunk manager sets the max
+   * offset to the highest contiguous indexed offset before the chunk is rolled over.
+   */
+  public synchronized void setMaxOffset(long maxOffset) {
+    this.maxOffset = maxOffset;
+  }
+
   // Return true if chunk contains data in this time range.
   public boolean containsDataInTimeRange(long startTimeMs, long endTimeMs) {
     return containsDataInTimeRange(
@@ -192,7 +203,7 @@ public class ChunkInfo {
   /*
    * Update the max and min data time range of the chunk given a new timestamp.
    */
-  public void updateDataTimeRange(long messageTimeStampMs) {
+  public synchronized void updateDataTimeRange(long messageTimeStampMs) {
     if (dataEndTimeEpochMs == MAX_FUTURE_TIME) {
       dataStartTimeEpochMs = Math.min(dataStartTimeEpochMs, messageTimeStampMs);
       dataEndTimeEpochMs = messageTimeStampMs;
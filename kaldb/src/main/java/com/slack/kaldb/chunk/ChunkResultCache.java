@@ -0,0 +1,146 @@
+package com.slack.kaldb.chunk;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.SearchQuery;
+import com.slack.kaldb.logstore.search.SearchResult;
+import com.slack.kaldb.logstore.search.SearchResultUtils;
+import com.slack.kaldb.proto.service.KaldbSearch;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.NotImplementedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A size bounded cache of the search results of the read only chunks of a cache node. A snapshot
+ * never changes once it is loaded, so the dashboards that run the same queries every few seconds
+ * can be served from this cache instead of searching the chunk again.
+ *
+ * <p>The time range of a query is clamped to the data time range of the chunk in the cache key, so
+ * a query whose time range covers the entire chunk reuses the same entry as the time range moves.
+ * The results are stored serialized, which bounds the cache by the actual size of the results.
+ */
+public class ChunkResultCache {
+  private static final Logger LOG = LoggerFactory.getLogger(ChunkResultCache.class);
+
+  public static final String RESULT_CACHE_HITS = "kaldb_chunk_result_cache_hits";
+  public static final String RESULT_CACHE_MISSES = "kaldb_chunk_result_cache_misses";
+  public static final String RESULT_CACHE_BYTES = "kaldb_chunk_result_cache_bytes";
+
+  private final Cache<ResultKey, KaldbSearch.SearchResult> cache;
+  private final AtomicLong cacheBytes;
+  private final Counter hits;
+  private final Counter misses;
+
+  /** Creates a result cache that holds up to maxBytes of results, or none if maxBytes is 0. */
+  public ChunkResultCache(long maxBytes, MeterRegistry meterRegistry) {
+    this.cacheBytes = meterRegistry.gauge(RESULT_CACHE_BYTES, new AtomicLong());
+    this.hits = meterRegistry.counter(RESULT_CACHE_HITS);
+    this.misses = meterRegistry.counter(RESULT_CACHE_MISSES);
+    this.cache =
+        maxBytes > 0
+            ? CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .<ResultKey, KaldbSearch.SearchResult>weigher(
+                    (key, value) -> value.getSerializedSize())
+                .removalListener(this::onRemoval)
+                .build()
+            : null;
+  }
+
+  /** A result cache that doesn't cache any results. */
+  public static ChunkResultCache disabled(MeterRegistry meterRegistry) {
+    return new ChunkResultCache(0, meterRegistry);
+  }
+
+  private void onRemoval(
+      RemovalNotification<ResultKey, KaldbSearch.SearchResult> removalNotification) {
+    cacheBytes.addAndGet(-removalNotification.getValue().getSerializedSize());
+  }
+
+  /**
+   * Returns the cached result of the query on the chunk, or runs the search and caches its result.
+   */
+  public SearchResult<LogMessage> get(
+      ChunkInfo chunkInfo, SearchQuery query, Supplier<SearchResult<LogMessage>> search) {
+    if (cache == null) {
+      return search.get();
+    }
+
+    ResultKey key;
+    try {
+      key = ResultKey.of(chunkInfo, query);
+    } catch (NotImplementedException e) {
+      LOG.debug("Not caching the result of a query with an unsupported aggregation", e);
+      return search.get();
+    }
+
+    KaldbSearch.SearchResult cachedResult = cache.getIfPresent(key);
+    if (cachedResult != null) {
+      try {
+        SearchResult<LogMessage> result = SearchResultUtils.fromSearchResultProto(cachedResult);
+        hits.increment();
+        return result;
+      } catch (IOException e) {
+        LOG.error("Error reading a cached result, searching the chunk instead", e);
+        cache.invalidate(key);
+      }
+    }
+
+    misses.increment();
+    SearchResult<LogMessage> result = search.get();
+    KaldbSearch.SearchResult serializedResult = SearchResultUtils.toSearchResultProto(result);
+    cacheBytes.addAndGet(serializedResult.getSerializedSize());
+    cache.put(key, serializedResult);
+    return result;
+  }
+
+  /** Drops all the cached results of the chunk, once it is evicted from the cache node. */
+  public void invalidateChunk(String chunkId) {
+    if (cache != null) {
+      cache.asMap().keySet().removeIf(key -> key.chunkId.equals(chunkId));
+    }
+  }
+
+  @VisibleForTesting
+  long size() {
+    return cache == null ? 0 : cache.size();
+  }
+
+  // The components are only read through equals and hashCode.
+  @SuppressWarnings("UnusedVariable")
+  private record ResultKey(
+      String chunkId,
+      String dataset,
+      String queryStr,
+      long startTimeEpochMs,
+      long endTimeEpochMs,
+      int howMany,
+      SearchQuery.SearchAfter searchAfter,
+      SearchQuery.SortOrder sortOrder,
+      KaldbSearch.SearchRequest.SearchAggregation aggregation) {
+    static ResultKey of(ChunkInfo chunkInfo, SearchQuery query) {
+      // The agg builders don't compare their types in equals, so the aggregation is compared by
+      // its proto instead.
+      return new ResultKey(
+          chunkInfo.chunkId,
+          query.dataset,
+          query.queryStr.strip(),
+          Math.max(query.startTimeEpochMs, chunkInfo.getDataStartTimeEpochMs()),
+          Math.min(query.endTimeEpochMs, chunkInfo.getDataEndTimeEpochMs()),
+          query.howMany,
+          query.searchAfter,
+          query.sortOrder,
+          query.aggBuilder == null
+              ? null
+              : SearchResultUtils.toSearchAggregationProto(query.aggBuilder));
+    }
+  }
+}
@@ -2,6 +2,7 @@ package com.slack.kaldb.chunk;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.slack.kaldb.blobfs.BlobFs;
+import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.logstore.search.LogIndexSearcher;
 import com.slack.kaldb.logstore.search.LogIndexSearcherImpl;
 import com.slack.kaldb.logstore.search.SearchQuery;
@@ -70,6 +71,7 @@ public class ReadOnlyChunkImpl<T> implements Chunk<T> {
 
   private final ExecutorService executorService;
   private final BlobFs blobFs;
+  private final ChunkResultCache resultCache;
 
   public static final String CHUNK_ASSIGNMENT_TIMER = "chunk_assignment_timer";
   public static final String CHUNK_EVICTION_TIMER = "chunk_eviction_timer";
@@ -96,6 +98,37 @@ public class ReadOnlyChunkImpl<T> implements Chunk<T> {
       SearchMetadataStore searchMetadataStore,
       ExecutorService executorService)
       throws Exception {
+    this(
+        curatorFramework,
+        meterRegistry,
+        blobFs,
+        searchContext,
+        s3Bucket,
+        dataDirectoryPrefix,
+        replicaSet,
+        cacheSlotMetadataStore,
+        replicaMetadataStore,
+        snapshotMetadataStore,
+        searchMetadataStore,
+        executorService,
+        ChunkResultCache.disabled(meterRegistry));
+  }
+
+  public ReadOnlyChunkImpl(
+      AsyncCuratorFramework curatorFramework,
+      MeterRegistry meterRegistry,
+      BlobFs blobFs,
+      SearchContext searchContext,
+      String s3Bucket,
+      String dataDirectoryPrefix,
+      String replicaSet,
+      CacheSlotMetadataStore cacheSlotMetadataStore,
+      ReplicaMetadataStore replicaMetadataStore,
+      SnapshotMetadataStore snapshotMetadataStore,
+      SearchMetadataStore searchMetadataStore,
+      ExecutorService executorService,
+      ChunkResultCache resultCache)
+      throws Exception {
     this.meterRegistry = meterRegistry;
     this.blobFs = blobFs;
     this.s3Bucket = s3Bucket;
@@ -103,6 +136,7 @@ public class ReadOnlyChunkImpl<T> implements Chunk<T> {
     this.executorService = executorService;
     this.searchContext = searchContext;
     this.slotId = UUID.randomUUID().toString();
+    this.resultCache = resultCache;
 
     this.cacheSlotMetadataStore = cacheSlotMetadataStore;
     this.replicaMetadataStore = replicaMetadataStore;
@@ -286,6 +320,9 @@ public class ReadOnlyChunkImpl<T> implements Chunk<T> {
       if (logSearcher != null) {
         logSearcher.close();
       }
+      if (chunkInfo != null) {
+        resultCache.invalidateChunk(chunkInfo.chunkId);
+      }
 
       chunkInfo = null;
       logSearcher = null;
@@ -385,14 +422,25 @@ public class ReadOnlyChunkImpl<T> implements Chunk<T> {
 
   @Override
   public SearchResult<T> query(SearchQuery query) {
-    if (logSearcher != null) {
-      return logSearcher.search(
-          query.dataset,
-          query.queryStr,
-          query.startTimeEpochMs,
-          query.endTimeEpochMs,
-          query.howMany,
-          query.aggBuilder);
+    // Read the fields once, as an eviction can clear them while the query runs.
+    ChunkInfo chunkInfo = this.chunkInfo;
+    LogIndexSearcher<T> logSearcher = this.logSearcher;
+    if (chunkInfo != null && logSearcher != null) {
+      return (SearchResult<T>)
+          resultCache.get(
+              chunkInfo,
+              query,
+              () ->
+                  (SearchResult<LogMessage>)
+                      logSearcher.search(
+                          query.dataset,
+                          query.queryStr,
+                          query.startTimeEpochMs,
+                          query.endTimeEpochMs,
+                          query.howMany,
+                          query.searchAfter,
+                          query.sortOrder,
+                          query.aggBuilder));
     } else {
       return (SearchResult<T>) SearchResult.empty();
     }
@@ -13,6 +13,7 @@ import com.slack.kaldb.logstore.search.LogIndexSearcher;
 import com.slack.kaldb.logstore.search.LogIndexSearcherImpl;
 import com.slack.kaldb.logstore.search.SearchQuery;
 import com.slack.kaldb.logstore.search.SearchResult;
+import com.slack.kaldb.logstore.search.TermBloomFilters;
 import com.slack.kaldb.metadata.schema.ChunkSchema;
 import com.slack.kaldb.metadata.schema.FieldType;
 import com.slack.kaldb.metadata.search.SearchMetadata;
@@ -163,6 +164,39 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
     }
   }
 
+  /**
+   * Index a batch of messages in the logstore. The chunk data time range and the max offset are
+   * updated once for the whole batch.
+   */
+  public void addMessages(List<T> messages, String kafkaPartitionId, long maxOffset) {
+    if (!this.kafkaPartitionId.equals(kafkaPartitionId)) {
+      throw new IllegalArgumentException(
+          "All messages for this chunk should belong to partition: "
+              + this.kafkaPartitionId
+              + " not "
+              + kafkaPartitionId);
+    }
+    if (!readOnly) {
+      logStore.addMessages(messages);
+      long minTimestamp = Long.MAX_VALUE;
+      long maxTimestamp = Long.MIN_VALUE;
+      for (T message : messages) {
+        if (message instanceof LogMessage) {
+          long timestamp = ((LogMessage) message).getTimestamp().toEpochMilli();
+          minTimestamp = Math.min(minTimestamp, timestamp);
+          maxTimestamp = Math.max(maxTimestamp, timestamp);
+        }
+      }
+      if (minTimestamp <= maxTimestamp) {
+        chunkInfo.updateDataTimeRange(minTimestamp);
+        chunkInfo.updateDataTimeRange(maxTimestamp);
+        chunkInfo.updateMaxOffset(maxOffset);
+      }
+    } else {
+      throw new IllegalStateException(String.format("Chunk %s is read only", chunkInfo));
+    }
+  }
+
   @Override
   public ChunkInfo info() {
     return chunkInfo;
@@ -203,6 +237,8 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
   public void preSnapshot() {
     logger.info("Started RW chunk pre-snapshot {}", chunkInfo);
     setReadOnly(true);
+    // The chunk no longer changes, so merge its segments once before it's uploaded.
+    logStore.forceMerge();
     commit();
     logger.info("Finished RW chunk pre-snapshot {}", chunkInfo);
   }
@@ -234,6 +270,17 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
       indexCommit = logStore.getIndexCommit();
       filesToUpload.addAll(indexCommit.getFileNames());
 
+      // The bloom filters only let queries skip the snapshot, so the snapshot is uploaded without
+      // them if they can't be built.
+      File termBloomFiltersFile = new File(dirPath + "/" + TermBloomFilters.FILE_NAME);
+      try {
+        if (logStore.writeTermBloomFilters(indexCommit, termBloomFiltersFile)) {
+          filesToUpload.add(termBloomFiltersFile.getName());
+        }
+      } catch (Exception e) {
+        logger.warn("Failed to build the term bloom filters of RW chunk " + chunkInfo, e);
+      }
+
       // Upload files
       logger.info("{} active files in {} in index", filesToUpload.size(), dirPath);
       for (String fileName : filesToUpload) {
@@ -271,12 +318,16 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
 
   @Override
   public SearchResult<T> query(SearchQuery query) {
+    // The searcher of a live chunk is only refreshed when it's searched.
+    logStore.refreshIfStale();
     return logSearcher.search(
         query.dataset,
         query.queryStr,
         query.startTimeEpochMs,
         query.endTimeEpochMs,
         query.howMany,
+        query.searchAfter,
+        query.sortOrder,
         query.aggBuilder);
   }
 
@@ -2,6 +2,7 @@ package com.slack.kaldb.chunkManager;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.slack.kaldb.blobfs.BlobFs;
+import com.slack.kaldb.chunk.ChunkResultCache;
 import com.slack.kaldb.chunk.ReadOnlyChunkImpl;
 import com.slack.kaldb.chunk.SearchContext;
 import com.slack.kaldb.logstore.LogMessage;
@@ -12,6 +13,7 @@ import com.slack.kaldb.metadata.snapshot.SnapshotMetadataStore;
 import com.slack.kaldb.proto.config.KaldbConfigs;
 import io.micrometer.core.instrument.MeterRegistry;
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import org.apache.curator.x.async.AsyncCuratorFramework;
@@ -38,6 +40,7 @@ public class CachingChunkManager<T> extends ChunkManagerBase<T> {
   private SearchMetadataStore searchMetadataStore;
   private CacheSlotMetadataStore cacheSlotMetadataStore;
   private final ExecutorService executorService;
+  private final ChunkResultCache resultCache;
 
   public CachingChunkManager(
       MeterRegistry registry,
@@ -48,6 +51,28 @@ public class CachingChunkManager<T> extends ChunkManagerBase<T> {
       String dataDirectoryPrefix,
       String replicaSet,
       int slotCountPerInstance) {
+    this(
+        registry,
+        curatorFramework,
+        blobFs,
+        searchContext,
+        s3Bucket,
+        dataDirectoryPrefix,
+        replicaSet,
+        slotCountPerInstance,
+        0);
+  }
+
+  public CachingChunkManager(
+      MeterRegistry registry,
+      AsyncCuratorFramework curatorFramework,
+      BlobFs blobFs,
+      SearchContext searchContext,
+      String s3Bucket,
+      String dataDirectoryPrefix,
+      String replicaSet,
+      int slotCountPerInstance,
+      long resultCacheSizeBytes) {
     this.meterRegistry = registry;
     this.curatorFramework = curatorFramework;
     this.blobFs = blobFs;
@@ -56,6 +81,8 @@ public class CachingChunkManager<T> extends ChunkManagerBase<T> {
     this.dataDirectoryPrefix = dataDirectoryPrefix;
     this.replicaSet = replicaSet;
     this.slotCountPerInstance = slotCountPerInstance;
+    // The result cache is shared by all the chunks, so its size bounds the whole cache node.
+    this.resultCache = new ChunkResultCache(resultCacheSizeBytes, registry);
 
     // todo - consider making the thread count a config option; this would allow for more
     //  fine-grained tuning, but we might not need to expose this to the user if we can set sensible
@@ -93,7 +120,8 @@ public class CachingChunkManager<T> extends ChunkManagerBase<T> {
               replicaMetadataStore,
               snapshotMetadataStore,
               searchMetadataStore,
-              ProtectedExecutorService.wrap(executorService)));
+              ProtectedExecutorService.wrap(executorService),
+              resultCache));
     }
   }
 
@@ -137,7 +165,8 @@ public class CachingChunkManager<T> extends ChunkManagerBase<T> {
         s3Config.getS3Bucket(),
         cacheConfig.getDataDirectory(),
         cacheConfig.getReplicaSet(),
-        cacheConfig.getSlotsPerInstance());
+        cacheConfig.getSlotsPerInstance(),
+        cacheConfig.getResultCacheSizeBytes());
   }
 
   @Override
@@ -146,4 +175,11 @@ public class CachingChunkManager<T> extends ChunkManagerBase<T> {
     throw new UnsupportedOperationException(
         "Adding messages is not supported on caching chunk manager");
   }
+
+  @Override
+  public void addMessages(List<T> messages, long batchSize, String kafkaPartitionId, long maxOffset)
+      throws IOException {
+    throw new UnsupportedOperationException(
+        "Adding messages is not supported on caching chunk manager");
+  }
 }
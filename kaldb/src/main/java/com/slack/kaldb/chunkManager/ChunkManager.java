@@ -5,12 +5,29 @@ import com.slack.kaldb.logstore.search.SearchResult;
 import com.slack.kaldb.metadata.schema.FieldType;
 import java.io.IOException;
 import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public interface ChunkManager<T> {
   void addMessage(T message, long msgSize, String kafkaPartitionId, long offset) throws IOException;
 
+  /**
+   * Add a batch of messages read from a kafka partition. The batch size is the total serialized
+   * size of the messages and the max offset is the largest kafka offset in the batch.
+   */
+  void addMessages(List<T> messages, long batchSize, String kafkaPartitionId, long maxOffset)
+      throws IOException;
+
   SearchResult<T> query(SearchQuery query, Duration queryTimeout);
 
+  /**
+   * Query the chunks, and send the result of every chunk to the result consumer as soon as the
+   * chunk is searched, instead of waiting for all the chunks. The results add up to the result of
+   * query.
+   */
+  void streamingQuery(
+      SearchQuery query, Duration queryTimeout, Consumer<SearchResult<T>> resultConsumer);
+
   Map<String, FieldType> getSchema();
 }
@@ -6,7 +6,6 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.slack.kaldb.chunk.Chunk;
@@ -14,19 +13,24 @@ import com.slack.kaldb.logstore.search.SearchQuery;
 import com.slack.kaldb.logstore.search.SearchResult;
 import com.slack.kaldb.logstore.search.SearchResultAggregator;
 import com.slack.kaldb.logstore.search.SearchResultAggregatorImpl;
+import com.slack.kaldb.logstore.search.SegmentSearchExecutor;
 import com.slack.kaldb.metadata.schema.FieldType;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,7 +48,10 @@ public abstract class ChunkManagerBase<T> extends AbstractIdleService implements
   // to the amount of reads, and it must be a threadsafe implementation
   protected final List<Chunk<T>> chunkList = new CopyOnWriteArrayList<>();
 
-  private static final ListeningExecutorService queryExecutorService = queryThreadPool();
+  // Cheap searches are queued ahead of expensive aggregations, so that a heavy dashboard doesn't
+  // hold up the log searches of everyone else.
+  private static final ChunkQueryScheduler queryScheduler =
+      new ChunkQueryScheduler(queryThreadPool());
 
   private static final ScheduledExecutorService queryCancellationService =
       Executors.newSingleThreadScheduledExecutor(
@@ -61,18 +68,22 @@ public abstract class ChunkManagerBase<T> extends AbstractIdleService implements
    * Revisit the thread pool settings if this becomes a perf issue. Also, we may need
    * different thread pools for indexer and cache nodes in the future.
    */
-  private static ListeningExecutorService queryThreadPool() {
+  private static ExecutorService queryThreadPool() {
     // todo - consider making the thread count a config option; this would allow for more
     //  fine-grained tuning, but we might not need to expose this to the user if we can set sensible
     //  defaults
-    return MoreExecutors.listeningDecorator(
-        Executors.newFixedThreadPool(
-            Math.max(1, Runtime.getRuntime().availableProcessors() - 2),
-            new ThreadFactoryBuilder()
-                .setNameFormat("chunk-manager-query-%d")
-                .setUncaughtExceptionHandler(
-                    (t, e) -> LOG.error("Exception on thread {}: {}", t.getName(), e))
-                .build()));
+    return Executors.newFixedThreadPool(
+        Math.max(1, Runtime.getRuntime().availableProcessors() - 2),
+        new ThreadFactoryBuilder()
+            .setNameFormat("chunk-manager-query-%d")
+            .setUncaughtExceptionHandler(
+                (t, e) -> LOG.error("Exception on thread {}: {}", t.getName(), e))
+            .build());
+  }
+
+  /** Registers the queue depth and wait time metrics of the chunk queries of the node. */
+  public static void registerQueryMetrics(MeterRegistry meterRegistry) {
+    queryScheduler.registerMetrics(meterRegistry);
   }
 
   /*
@@ -81,24 +92,92 @@ public abstract class ChunkManagerBase<T> extends AbstractIdleService implements
    * 1. topK results sorted by timestamp
    * 2. histogram over a fixed time range
    * We will not aggregate locally for future use-cases that have complex group by etc
+   *
+   * If the query times out, the results of the chunks that were searched in time are returned, and
+   * the other chunks are counted as timed out.
    */
   public SearchResult<T> query(SearchQuery query, Duration queryTimeout) {
-    SearchResult<T> errorResult = new SearchResult<>(new ArrayList<>(), 0, 0, 0, 1, 0, null);
+    List<ListenableFuture<SearchResult<T>>> queries = queryChunks(query, queryTimeout);
+    boolean skippedChunks = skippedChunksPastSearchAfter(query, queries.size());
 
-    CurrentTraceContext currentTraceContext = Tracing.current().currentTraceContext();
+    Future<List<SearchResult<T>>> searchResultFuture = Futures.successfulAsList(queries);
+    try {
+      awaitChunkQueries(searchResultFuture, queryTimeout);
+      List<SearchResult<T>> searchResults = new ArrayList<>(getSearchedChunkResults(queries));
+      searchResults.add(getUnsearchedChunksResult(queries, skippedChunks));
 
-    List<Chunk<T>> chunksMatchingQuery;
-    if (query.chunkIds.isEmpty()) {
-      chunksMatchingQuery =
-          chunkList.stream()
-              .filter(c -> c.containsDataInTimeRange(query.startTimeEpochMs, query.endTimeEpochMs))
-              .collect(Collectors.toList());
-    } else {
-      chunksMatchingQuery =
-          chunkList.stream()
-              .filter(c -> query.chunkIds.contains(c.id()))
-              .collect(Collectors.toList());
+      //noinspection unchecked
+      return ((SearchResultAggregator<T>) new SearchResultAggregatorImpl<>(query))
+          .aggregate(searchResults, false);
+    } catch (Exception e) {
+      LOG.error("Error searching across chunks ", e);
+      throw new RuntimeException(e);
+    } finally {
+      // always request future cancellation. This won't interrupt I/O or downstream futures,
+      // but is good practice. Since this is backed by a CompletableFuture
+      // mayInterruptIfRunning has no effect
+      searchResultFuture.cancel(true);
     }
+  }
+
+  /*
+   * Query the chunks like query does, but send the result of every chunk as soon as it completes. A
+   * slow chunk doesn't hold back the results of the other chunks, and the chunk results don't have
+   * to be buffered until all the chunks are searched. Once all the chunks are searched, or the
+   * query times out, a last result counts this node and the chunks that failed or timed out, so the
+   * results add up to the result of query.
+   */
+  @Override
+  public void streamingQuery(
+      SearchQuery query, Duration queryTimeout, Consumer<SearchResult<T>> resultConsumer) {
+    ChunkResultSender<T> resultSender = new ChunkResultSender<>(resultConsumer);
+    List<ListenableFuture<SearchResult<T>>> queries =
+        queryChunks(query, queryTimeout).stream()
+            .map(
+                future ->
+                    Futures.transform(
+                        future,
+                        (searchResult) -> {
+                          resultSender.send(searchResult);
+                          return searchResult;
+                        },
+                        MoreExecutors.directExecutor()))
+            .collect(Collectors.toList());
+    boolean skippedChunks = skippedChunksPastSearchAfter(query, queries.size());
+
+    Future<List<SearchResult<T>>> searchResultFuture = Futures.successfulAsList(queries);
+    SearchResult<T> unsearchedChunksResult;
+    try {
+      awaitChunkQueries(searchResultFuture, queryTimeout);
+      // The results of the chunks that were searched were already sent.
+      getSearchedChunkResults(queries);
+      unsearchedChunksResult = getUnsearchedChunksResult(queries, skippedChunks);
+    } catch (IllegalArgumentException e) {
+      throw e;
+    } catch (Exception e) {
+      LOG.error("Error searching across chunks ", e);
+      throw new RuntimeException(e);
+    } finally {
+      searchResultFuture.cancel(true);
+    }
+    resultSender.sendLast(unsearchedChunksResult);
+  }
+
+  private List<ListenableFuture<SearchResult<T>>> queryChunks(
+      SearchQuery query, Duration queryTimeout) {
+    // The hits of a chunk that failed or timed out are missing, so the total is a lower bound.
+    SearchResult<T> errorResult =
+        new SearchResult<>(new ArrayList<>(), 0, 0, 0, 1, 0, 0, 0, true, null);
+    SearchResult<T> timedOutResult =
+        new SearchResult<>(new ArrayList<>(), 0, 0, 0, 1, 0, 1, 0, true, null);
+
+    CurrentTraceContext currentTraceContext = Tracing.current().currentTraceContext();
+
+    // The chunks that only hold data past the search after cursor of the query, in the sort order
+    // of the query, are skipped.
+    List<Chunk<T>> chunksMatchingQuery =
+        getChunksMatchingQuery(
+            query, query.getResultStartTimeEpochMs(), query.getResultEndTimeEpochMs());
 
     // Shuffle the chunks to query. The chunkList is ordered, meaning if you had multiple concurrent
     // queries that need to search the same N chunks, they would all attempt to search the same
@@ -107,84 +186,177 @@ public abstract class ChunkManagerBase<T> extends AbstractIdleService implements
     // a single IndexSearcher.
     Collections.shuffle(chunksMatchingQuery);
 
-    List<ListenableFuture<SearchResult<T>>> queries =
-        chunksMatchingQuery.stream()
-            .map(
-                (chunk) ->
-                    queryExecutorService.submit(
-                        currentTraceContext.wrap(
-                            () -> {
-                              try {
-                                if (Thread.interrupted()) {
-                                  LOG.warn(
-                                      "Chunk query thread timed out without starting work, returning error result.");
-                                  return errorResult;
-                                }
-                                return chunk.query(query);
-                              } catch (Exception err) {
-                                // Only log the exception message as warn, and not the entire trace
-                                // as this can cause performance issues if significant amounts of
-                                // invalid queries are received
-                                LOG.warn("Chunk Query Exception: {}", err.getMessage());
-                                LOG.debug("Chunk Query Exception", err);
-                                // We catch IllegalArgumentException ( and any other exception that
-                                // represents a parse failure ) and instead of returning an empty
-                                // result we throw back an error to the user
-                                if (err instanceof IllegalArgumentException) {
-                                  throw err;
-                                }
-                                return errorResult;
-                              }
-                            })))
-            .peek(
-                (future) ->
-                    queryCancellationService.schedule(
-                        () -> future.cancel(true), queryTimeout.toMillis(), TimeUnit.MILLISECONDS))
-            .collect(Collectors.toList());
+    // The segments of a chunk are only searched concurrently while fewer chunk queries are pending
+    // than the node has cores.
+    SegmentSearchExecutor.chunkQueriesSubmitted(chunksMatchingQuery.size());
+    return chunksMatchingQuery.stream()
+        .map(
+            (chunk) ->
+                queryScheduler.submit(
+                    query,
+                    currentTraceContext.wrap(
+                        () -> {
+                          try {
+                            if (Thread.interrupted()) {
+                              LOG.warn(
+                                  "Chunk query thread timed out without starting work, returning timed out result.");
+                              return timedOutResult;
+                            }
+                            return chunk.query(query);
+                          } catch (Exception err) {
+                            // Only log the exception message as warn, and not the entire trace
+                            // as this can cause performance issues if significant amounts of
+                            // invalid queries are received
+                            LOG.warn("Chunk Query Exception: {}", err.getMessage());
+                            LOG.debug("Chunk Query Exception", err);
+                            // We catch IllegalArgumentException ( and any other exception that
+                            // represents a parse failure ) and instead of returning an empty
+                            // result we throw back an error to the user
+                            if (err instanceof IllegalArgumentException) {
+                              throw err;
+                            }
+                            return errorResult;
+                          }
+                        })))
+        .peek(
+            (future) -> {
+              future.addListener(
+                  SegmentSearchExecutor::chunkQueryCompleted, MoreExecutors.directExecutor());
+              queryCancellationService.schedule(
+                  () -> future.cancel(true), queryTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            })
+        .collect(Collectors.toList());
+  }
 
-    Future<List<SearchResult<T>>> searchResultFuture = Futures.successfulAsList(queries);
+  private List<Chunk<T>> getChunksMatchingQuery(
+      SearchQuery query, long startTimeEpochMs, long endTimeEpochMs) {
+    if (endTimeEpochMs < startTimeEpochMs) {
+      return new ArrayList<>();
+    } else if (query.chunkIds.isEmpty()) {
+      return chunkList.stream()
+          .filter(c -> c.containsDataInTimeRange(startTimeEpochMs, endTimeEpochMs))
+          .collect(Collectors.toList());
+    } else {
+      return chunkList.stream()
+          .filter(c -> query.chunkIds.contains(c.id()))
+          .collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Returns true if chunks in the time range of the query were skipped because they only hold data
+   * past the search after cursor. The hits of those chunks aren't counted, so the total hits are
+   * only a lower bound.
+   */
+  private boolean skippedChunksPastSearchAfter(SearchQuery query, int queriedChunks) {
+    if (query.getResultStartTimeEpochMs() == query.startTimeEpochMs
+        && query.getResultEndTimeEpochMs() == query.endTimeEpochMs) {
+      return false;
+    }
+    return queriedChunks
+        < getChunksMatchingQuery(query, query.startTimeEpochMs, query.endTimeEpochMs).size();
+  }
+
+  /** Waits for the chunk queries to complete, or for the query to time out. */
+  private static void awaitChunkQueries(Future<?> searchResultFuture, Duration queryTimeout)
+      throws ExecutionException, InterruptedException {
     try {
-      List<SearchResult<T>> searchResults =
-          searchResultFuture.get(queryTimeout.toMillis(), TimeUnit.MILLISECONDS);
+      searchResultFuture.get(queryTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      // The chunks that were not searched in time are counted as timed out, instead of discarding
+      // the results of the chunks that were.
+      LOG.warn("Search across chunks timed out after {}, returning partial results", queryTimeout);
+    }
+  }
 
-      // check if all results are null, and if so return an error to the user
-      if (searchResults.size() > 0 && searchResults.stream().allMatch(Objects::isNull)) {
+  /**
+   * Returns the results of the chunks that were searched. If none of the chunks were searched and a
+   * chunk query failed, for example because the query can't be parsed, the error is returned to the
+   * user instead.
+   */
+  private static <T> List<SearchResult<T>> getSearchedChunkResults(
+      List<ListenableFuture<SearchResult<T>>> queries) {
+    List<SearchResult<T>> searchResults = new ArrayList<>(queries.size());
+    ExecutionException failure = null;
+    for (ListenableFuture<SearchResult<T>> future : queries) {
+      if (future.isDone() && !future.isCancelled()) {
         try {
-          Futures.allAsList(queries).get(0, TimeUnit.SECONDS);
-        } catch (Exception e) {
-          throw new IllegalArgumentException(e);
+          searchResults.add(Futures.getDone(future));
+        } catch (ExecutionException e) {
+          failure = e;
         }
-        // not expected to happen - we should be guaranteed that the list has at least one failed
-        // future, which should throw when we try to get on allAsList
-        throw new IllegalArgumentException(
-            "Chunk query error - all results returned null values with no exceptions thrown");
       }
-
-      //noinspection unchecked
-      SearchResult<T> aggregatedResults =
-          ((SearchResultAggregator<T>) new SearchResultAggregatorImpl<>(query))
-              .aggregate(searchResults, false);
-      return incrementNodeCount(aggregatedResults);
-    } catch (Exception e) {
-      LOG.error("Error searching across chunks ", e);
-      throw new RuntimeException(e);
-    } finally {
-      // always request future cancellation. This won't interrupt I/O or downstream futures,
-      // but is good practice. Since this is backed by a CompletableFuture
-      // mayInterruptIfRunning has no effect
-      searchResultFuture.cancel(true);
     }
+    if (searchResults.isEmpty() && failure != null) {
+      throw new IllegalArgumentException(failure);
+    }
+    return searchResults;
   }
 
-  private SearchResult<T> incrementNodeCount(SearchResult<T> searchResult) {
+  /**
+   * Returns a result that counts this node, and the chunks that failed or were not searched before
+   * the query timed out. The total hits are a lower bound if any chunk was not searched, or if
+   * chunks were skipped because of the search after cursor.
+   */
+  private static <T> SearchResult<T> getUnsearchedChunksResult(
+      List<ListenableFuture<SearchResult<T>>> queries, boolean skippedChunks) {
+    int failedChunks = 0;
+    int timedOutChunks = 0;
+    for (ListenableFuture<SearchResult<T>> future : queries) {
+      if (!future.isDone() || future.isCancelled()) {
+        timedOutChunks++;
+      } else {
+        try {
+          Futures.getDone(future);
+        } catch (ExecutionException e) {
+          failedChunks++;
+        }
+      }
+    }
+    int unsearchedChunks = failedChunks + timedOutChunks;
     return new SearchResult<>(
-        searchResult.hits,
-        searchResult.tookMicros,
-        searchResult.failedNodes,
-        searchResult.totalNodes + 1,
-        searchResult.totalSnapshots,
-        searchResult.snapshotsWithReplicas,
-        searchResult.internalAggregation);
+        new ArrayList<>(),
+        0,
+        0,
+        1,
+        unsearchedChunks,
+        0,
+        timedOutChunks,
+        0,
+        unsearchedChunks > 0 || skippedChunks,
+        null);
+  }
+
+  /**
+   * Sends the chunk results of a streaming query from the query threads one at a time. It stops
+   * sending them once the last result was sent, so a chunk that completes after the query timed out
+   * is not sent after the stream is completed.
+   */
+  private static class ChunkResultSender<T> {
+    private final Consumer<SearchResult<T>> resultConsumer;
+    private boolean closed = false;
+
+    private ChunkResultSender(Consumer<SearchResult<T>> resultConsumer) {
+      this.resultConsumer = resultConsumer;
+    }
+
+    private synchronized void send(SearchResult<T> searchResult) {
+      if (closed) {
+        return;
+      }
+      try {
+        resultConsumer.accept(searchResult);
+      } catch (RuntimeException e) {
+        // The results can't be sent anymore, for example once the client cancelled the query.
+        LOG.warn("Failed to send a chunk result, dropping the remaining results", e);
+        closed = true;
+      }
+    }
+
+    private synchronized void sendLast(SearchResult<T> searchResult) {
+      send(searchResult);
+      closed = true;
+    }
   }
 
   @VisibleForTesting
@@ -0,0 +1,203 @@
+package com.slack.kaldb.chunkManager;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.slack.kaldb.logstore.search.SearchQuery;
+import com.slack.kaldb.logstore.search.aggregations.AggBuilder;
+import com.slack.kaldb.logstore.search.aggregations.DateHistogramAggBuilder;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the chunk queries of a node on the query thread pool. Instead of running the chunk
+ * queries in the order they were submitted, the queries are queued in lanes by their cost, and the
+ * lanes share the query threads by weighted fair queuing. A search for hits only gets a query
+ * thread after a few chunks of an expensive aggregation, instead of after all of them. Within a
+ * lane, the queries of the datasets take turns, so a single dataset can't hold up the others.
+ *
+ * <p>Every submitted query enqueues one task on the thread pool, which runs the next query of the
+ * lanes once it gets a thread, so the pool keeps its size and no thread is left idle.
+ */
+public class ChunkQueryScheduler {
+  public static final String CHUNK_QUERY_QUEUE_DEPTH = "kaldb_chunk_query_queue_depth";
+  public static final String CHUNK_QUERY_WAIT_TIME = "kaldb_chunk_query_wait_time";
+
+  // Searches over a longer time range than this touch many chunks, so they are a cheaper lane.
+  @VisibleForTesting static final Duration LONG_RANGE = Duration.ofHours(24);
+
+  /** The lanes of the chunk queries, with their share of the query threads. */
+  public enum QueryLane {
+    // Hits, optionally with a plain date histogram, as requested by log panels.
+    SEARCH(6),
+    // Searches over a long time range.
+    LONG_RANGE_SEARCH(3),
+    // Any other aggregation, like the terms aggregations of dashboards.
+    AGGREGATION(1);
+
+    private final int weight;
+
+    QueryLane(int weight) {
+      this.weight = weight;
+    }
+  }
+
+  private final Executor executor;
+  private final Map<QueryLane, Lane> lanes = new EnumMap<>(QueryLane.class);
+  // The pass of the lane that was served last. A lane that was idle starts from here, so it can't
+  // claim the threads for the time it was idle.
+  private double virtualTime = 0;
+  private volatile Map<QueryLane, Timer> waitTimers = null;
+
+  public ChunkQueryScheduler(Executor executor) {
+    this.executor = executor;
+    for (QueryLane queryLane : QueryLane.values()) {
+      lanes.put(queryLane, new Lane(queryLane));
+    }
+  }
+
+  /** Registers the queue depth and wait time metrics of the lanes. */
+  public void registerMetrics(MeterRegistry meterRegistry) {
+    Map<QueryLane, Timer> timers = new EnumMap<>(QueryLane.class);
+    for (QueryLane queryLane : QueryLane.values()) {
+      Gauge.builder(CHUNK_QUERY_QUEUE_DEPTH, this, scheduler -> scheduler.getQueueDepth(queryLane))
+          .tag("lane", queryLane.name())
+          .register(meterRegistry);
+      timers.put(
+          queryLane,
+          Timer.builder(CHUNK_QUERY_WAIT_TIME)
+              .tag("lane", queryLane.name())
+              .publishPercentiles(0.5, 0.99)
+              .register(meterRegistry));
+    }
+    waitTimers = timers;
+  }
+
+  @VisibleForTesting
+  static QueryLane getLane(SearchQuery query) {
+    boolean search = query.aggBuilder == null;
+    if (query.aggBuilder instanceof DateHistogramAggBuilder) {
+      List<AggBuilder> subAggregations =
+          ((DateHistogramAggBuilder) query.aggBuilder).getSubAggregations();
+      search = subAggregations == null || subAggregations.isEmpty();
+    }
+    if (!search) {
+      return QueryLane.AGGREGATION;
+    }
+    if (query.endTimeEpochMs - query.startTimeEpochMs > LONG_RANGE.toMillis()) {
+      return QueryLane.LONG_RANGE_SEARCH;
+    }
+    return QueryLane.SEARCH;
+  }
+
+  /** Queues a chunk query in the lane of the query, and runs it once it's the lane's turn. */
+  public <T> ListenableFuture<T> submit(SearchQuery query, Callable<T> chunkQuery) {
+    ListenableFutureTask<T> task = ListenableFutureTask.create(chunkQuery);
+    synchronized (this) {
+      Lane lane = lanes.get(getLane(query));
+      if (lane.size == 0) {
+        lane.pass = Math.max(lane.pass, virtualTime);
+      }
+      lane.add(query.dataset, new QueuedTask(task, System.nanoTime()));
+    }
+    executor.execute(this::runNext);
+    return task;
+  }
+
+  /** Runs the next chunk query. Queries that were cancelled while queued are skipped. */
+  private void runNext() {
+    QueuedTask queuedTask;
+    do {
+      synchronized (this) {
+        queuedTask = poll();
+      }
+      if (queuedTask == null) {
+        return;
+      }
+    } while (queuedTask.task.isCancelled());
+
+    Map<QueryLane, Timer> timers = waitTimers;
+    if (timers != null) {
+      timers
+          .get(queuedTask.lane)
+          .record(System.nanoTime() - queuedTask.queuedNanos, TimeUnit.NANOSECONDS);
+    }
+    queuedTask.task.run();
+  }
+
+  // Picks the lane with the lowest pass, which advances by the inverse of the lane's weight.
+  private QueuedTask poll() {
+    Lane nextLane = null;
+    for (Lane lane : lanes.values()) {
+      if (lane.size > 0 && (nextLane == null || lane.pass < nextLane.pass)) {
+        nextLane = lane;
+      }
+    }
+    if (nextLane == null) {
+      return null;
+    }
+    virtualTime = nextLane.pass;
+    nextLane.pass += 1.0 / nextLane.queryLane.weight;
+    return nextLane.poll();
+  }
+
+  @VisibleForTesting
+  synchronized int getQueueDepth(QueryLane queryLane) {
+    return lanes.get(queryLane).size;
+  }
+
+  /** The queued chunk queries of a lane, per dataset. The datasets take turns. */
+  private static class Lane {
+    private final QueryLane queryLane;
+    private final LinkedHashMap<String, ArrayDeque<QueuedTask>> datasetTasks =
+        new LinkedHashMap<>();
+    private int size = 0;
+    private double pass = 0;
+
+    private Lane(QueryLane queryLane) {
+      this.queryLane = queryLane;
+    }
+
+    private void add(String dataset, QueuedTask queuedTask) {
+      queuedTask.lane = queryLane;
+      datasetTasks.computeIfAbsent(dataset, (k) -> new ArrayDeque<>()).add(queuedTask);
+      size++;
+    }
+
+    private QueuedTask poll() {
+      Iterator<Map.Entry<String, ArrayDeque<QueuedTask>>> datasets =
+          datasetTasks.entrySet().iterator();
+      Map.Entry<String, ArrayDeque<QueuedTask>> next = datasets.next();
+      datasets.remove();
+      QueuedTask queuedTask = next.getValue().poll();
+      if (!next.getValue().isEmpty()) {
+        // The dataset goes to the back of the line.
+        datasetTasks.put(next.getKey(), next.getValue());
+      }
+      size--;
+      return queuedTask;
+    }
+  }
+
+  private static class QueuedTask {
+    private final ListenableFutureTask<?> task;
+    private final long queuedNanos;
+    private QueryLane lane;
+
+    private QueuedTask(ListenableFutureTask<?> task, long queuedNanos) {
+      this.task = task;
+      this.queuedNanos = queuedNanos;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.slack.kaldb.chunkManager;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * When kafka records are indexed from multiple threads, they finish out of order. So, the largest
+ * offset seen by a chunk is no longer a safe max offset for that chunk: a record with a smaller
+ * offset may still be in flight and would be skipped if the indexer restarted from the chunk's max
+ * offset.
+ *
+ * <p>This class tracks the highest offset below which every record has been fully indexed. Offsets
+ * are registered by the single consumer thread in the order they are read from kafka and completed
+ * by the indexing threads in any order. Since kafka offsets in a partition may have gaps, we only
+ * consider registered offsets when computing the contiguous offset.
+ */
+public class IndexedOffsetTracker {
+  private final ConcurrentSkipListSet<Long> pendingOffsets = new ConcurrentSkipListSet<>();
+  private final AtomicLong highestRegisteredOffset = new AtomicLong(-1);
+
+  /** Register an offset before it is handed to an indexing thread. Must be called in order. */
+  public void register(long offset) {
+    // Add to the pending set before publishing the offset, so a reader never sees an offset as
+    // registered without it being pending.
+    pendingOffsets.add(offset);
+    highestRegisteredOffset.set(offset);
+  }
+
+  /**
+   * Mark a registered offset as indexed. Failed records are also completed, since they are skipped.
+   */
+  public void complete(long offset) {
+    pendingOffsets.remove(offset);
+  }
+
+  /** Returns true once any offset has been registered with this tracker. */
+  public boolean isTracking() {
+    return highestRegisteredOffset.get() >= 0;
+  }
+
+  /**
+   * Returns the highest offset such that all registered offsets less than or equal to it have been
+   * indexed, or -1 if no offset has been indexed yet.
+   */
+  public long getHighestContiguousOffset() {
+    // Read the registered offset first. Any offset registered after this read is larger, so it
+    // can only lower the result below.
+    long highestRegistered = highestRegisteredOffset.get();
+    Long lowestPending = pendingOffsets.ceiling(Long.MIN_VALUE);
+    if (lowestPending == null) {
+      return highestRegistered;
+    }
+    return Math.min(highestRegistered, lowestPending - 1);
+  }
+}
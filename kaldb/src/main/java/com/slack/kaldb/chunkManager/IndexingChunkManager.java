@@ -34,6 +34,7 @@ import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.curator.x.async.AsyncCuratorFramework;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,7 +62,7 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
   private final AsyncCuratorFramework curatorFramework;
   private final SearchContext searchContext;
   private final KaldbConfigs.IndexerConfig indexerConfig;
-  private ReadWriteChunk<T> activeChunk;
+  private volatile ReadWriteChunk<T> activeChunk;
 
   private final MeterRegistry meterRegistry;
   private final AtomicLong liveMessagesIndexedGauge;
@@ -75,6 +76,20 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
 
   private ListenableFuture<Boolean> rolloverFuture;
 
+  /**
+   * Messages may be added to the active chunk from several indexing threads. Adding a message holds
+   * the read lock, so many threads can write to the active chunk at once, while rolling over a
+   * chunk holds the write lock, so a chunk is only rolled over once all in-flight writes to it
+   * finish.
+   */
+  private final ReentrantReadWriteLock activeChunkLock = new ReentrantReadWriteLock();
+
+  /**
+   * Tracks the contiguous offset indexed when messages are indexed from multiple threads. When the
+   * tracker is in use, the max offset of a chunk is set from it at roll over time.
+   */
+  private final IndexedOffsetTracker indexedOffsetTracker = new IndexedOffsetTracker();
+
   /**
    * A flag to indicate that ingestion should be stopped. Currently, we only stop ingestion when a
    * chunk roll over fails. Ideally, access to this field should be synchronized. But we don't
@@ -151,8 +166,9 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
    * shouldRollOver function to check if the chunk is full. 4. If the chunk is full, initiate the
    * roll over of the active chunk.
    *
-   * <p>We assume that there is a single chunk manager per process and only one thread is writing to
-   * this class. We allow several readers though.
+   * <p>We assume that there is a single chunk manager per process. Multiple threads may write to
+   * this class concurrently, in which case the writers should register the offsets they index with
+   * the {@link IndexedOffsetTracker} returned by getIndexedOffsetTracker. We allow several readers.
    *
    * @param message Message to be ingested
    * @param msgSize Serialized size of raw message in bytes.
@@ -169,14 +185,74 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
     }
 
     // find the active chunk and add a message to it
-    ReadWriteChunk<T> currentChunk = getOrCreateActiveChunk(kafkaPartitionId, indexerConfig);
-    currentChunk.addMessage(message, kafkaPartitionId, offset);
-    long currentIndexedMessages = liveMessagesIndexedGauge.incrementAndGet();
-    long currentIndexedBytes = liveBytesIndexedGauge.addAndGet(msgSize);
+    ReadWriteChunk<T> currentChunk;
+    long currentIndexedMessages;
+    long currentIndexedBytes;
+    activeChunkLock.readLock().lock();
+    try {
+      currentChunk = getOrCreateActiveChunk(kafkaPartitionId, indexerConfig);
+      currentChunk.addMessage(message, kafkaPartitionId, offset);
+      currentIndexedMessages = liveMessagesIndexedGauge.incrementAndGet();
+      currentIndexedBytes = liveBytesIndexedGauge.addAndGet(msgSize);
+    } finally {
+      activeChunkLock.readLock().unlock();
+    }
+
+    rollOverIfFull(currentChunk, currentIndexedBytes, currentIndexedMessages);
+  }
+
+  /**
+   * Ingest a batch of messages into the active chunk. This is the same as calling addMessage for
+   * every message, except that the gauges and chunk info are updated once per batch and the chunk
+   * is only checked for a roll over after the whole batch is indexed. So, a chunk may exceed the
+   * roll over limits by up to one batch.
+   *
+   * @param messages Messages to be ingested
+   * @param batchSize Serialized size of the raw messages in bytes.
+   * @param kafkaPartitionId Kafka partition the messages are read from.
+   * @param maxOffset Largest kafka offset of the messages.
+   */
+  @Override
+  public void addMessages(
+      final List<T> messages, long batchSize, String kafkaPartitionId, long maxOffset)
+      throws IOException {
+    if (stopIngestion) {
+      LOG.warn("Stopping ingestion due to a chunk roll over exception.");
+      throw new ChunkRollOverException("Stopping ingestion due to chunk roll over exception.");
+    }
+    if (messages.isEmpty()) {
+      return;
+    }
+
+    ReadWriteChunk<T> currentChunk;
+    long currentIndexedMessages;
+    long currentIndexedBytes;
+    activeChunkLock.readLock().lock();
+    try {
+      currentChunk = getOrCreateActiveChunk(kafkaPartitionId, indexerConfig);
+      currentChunk.addMessages(messages, kafkaPartitionId, maxOffset);
+      currentIndexedMessages = liveMessagesIndexedGauge.addAndGet(messages.size());
+      currentIndexedBytes = liveBytesIndexedGauge.addAndGet(batchSize);
+    } finally {
+      activeChunkLock.readLock().unlock();
+    }
 
-    // If active chunk is full roll it over.
+    rollOverIfFull(currentChunk, currentIndexedBytes, currentIndexedMessages);
+  }
+
+  // If active chunk is full roll it over.
+  private void rollOverIfFull(
+      ReadWriteChunk<T> currentChunk, long currentIndexedBytes, long currentIndexedMessages) {
     if (chunkRollOverStrategy.shouldRollOver(currentIndexedBytes, currentIndexedMessages)) {
-      doRollover(currentChunk);
+      activeChunkLock.writeLock().lock();
+      try {
+        // Another indexing thread may have already rolled over this chunk while we waited.
+        if (activeChunk == currentChunk) {
+          doRollover(currentChunk);
+        }
+      } finally {
+        activeChunkLock.writeLock().unlock();
+      }
     }
   }
 
@@ -191,6 +267,13 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
     liveMessagesIndexedGauge.set(0);
     // Set the end time of the chunk and start the roll over.
     currentChunk.info().setChunkLastUpdatedTimeEpochMs(Instant.now().toEpochMilli());
+    if (indexedOffsetTracker.isTracking()) {
+      // When indexing in parallel, the chunk may contain offsets past a record that is still being
+      // indexed. Only claim the offsets that are fully indexed, so a restart from this chunk's max
+      // offset re-indexes any missing records (at the cost of a few duplicates) instead of
+      // skipping them.
+      currentChunk.info().setMaxOffset(indexedOffsetTracker.getHighestContiguousOffset());
+    }
 
     RollOverChunkTask<T> rollOverChunkTask =
         new RollOverChunkTask<>(
@@ -231,7 +314,16 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
    */
   public void rollOverActiveChunk() {
     LOG.info("Rolling over active chunk");
-    doRollover(getActiveChunk());
+    activeChunkLock.writeLock().lock();
+    try {
+      doRollover(getActiveChunk());
+    } finally {
+      activeChunkLock.writeLock().unlock();
+    }
+  }
+
+  public IndexedOffsetTracker getIndexedOffsetTracker() {
+    return indexedOffsetTracker;
   }
 
   @VisibleForTesting
@@ -246,10 +338,20 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
    * <p>NOTE: Currently, this logic assumes that we are indexing live data. So, the startTime of the
    * data in the chunk is set as system time. However, this assumption may not be true always. In
    * future, set the start time of the chunk based on the timestamp from the message.
+   *
+   * <p>Chunk creation is synchronized since several indexing threads may find no active chunk at
+   * the same time.
    */
   private ReadWriteChunk<T> getOrCreateActiveChunk(
       String kafkaPartitionId, KaldbConfigs.IndexerConfig indexerConfig) throws IOException {
-    if (activeChunk == null) {
+    ReadWriteChunk<T> currentChunk = activeChunk;
+    if (currentChunk != null) {
+      return currentChunk;
+    }
+    synchronized (this) {
+      if (activeChunk != null) {
+        return activeChunk;
+      }
       @SuppressWarnings("unchecked")
       LogStore<T> logStore =
           (LogStore<T>)
@@ -271,8 +373,8 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
       // Register the chunk, so we can search it.
       newChunk.postCreate();
       activeChunk = newChunk;
+      return newChunk;
     }
-    return activeChunk;
   }
 
   public void removeStaleChunks(List<Chunk<T>> staleChunks) {
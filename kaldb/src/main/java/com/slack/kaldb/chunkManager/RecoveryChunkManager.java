@@ -22,6 +22,7 @@ import com.slack.kaldb.proto.config.KaldbConfigs;
 import io.micrometer.core.instrument.MeterRegistry;
 import java.io.IOException;
 import java.time.Instant;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -91,6 +92,21 @@ public class RecoveryChunkManager<T> extends ChunkManagerBase<T> {
     liveBytesIndexedGauge.addAndGet(msgSize);
   }
 
+  @Override
+  public void addMessages(
+      final List<T> messages, long batchSize, String kafkaPartitionId, long maxOffset)
+      throws IOException {
+    if (readOnly) {
+      LOG.warn("Ingestion is stopped since the chunk is in read only mode.");
+      throw new IllegalStateException("Ingestion is stopped since chunk is read only.");
+    }
+
+    ReadWriteChunk<T> currentChunk = getOrCreateActiveChunk(kafkaPartitionId);
+    currentChunk.addMessages(messages, kafkaPartitionId, maxOffset);
+    liveMessagesIndexedGauge.addAndGet(messages.size());
+    liveBytesIndexedGauge.addAndGet(batchSize);
+  }
+
   /** This method initiates a roll over of the active chunk. */
   private void doRollover(ReadWriteChunk<T> currentChunk) {
     // Set activeChunk to null first, so we can initiate the roll over.
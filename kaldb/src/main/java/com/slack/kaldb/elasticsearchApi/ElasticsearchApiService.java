@@ -115,13 +115,17 @@ public class ElasticsearchApiService {
     span.tag("requestQueryStartTimeEpochMs", String.valueOf(searchRequest.getStartTimeEpochMs()));
     span.tag("requestQueryEndTimeEpochMs", String.valueOf(searchRequest.getEndTimeEpochMs()));
     span.tag("requestHowMany", String.valueOf(searchRequest.getHowMany()));
-    span.tag("resultHitsCount", String.valueOf(searchResult.getHitsCount()));
+    span.tag(
+        "resultHitsCount",
+        String.valueOf(searchResult.getHitsCount() + searchResult.getSearchHitsCount()));
+    span.tag("resultTotalHits", String.valueOf(searchResult.getTotalHits()));
     span.tag("resultTookMicros", String.valueOf(searchResult.getTookMicros()));
     span.tag("resultFailedNodes", String.valueOf(searchResult.getFailedNodes()));
     span.tag("resultTotalNodes", String.valueOf(searchResult.getTotalNodes()));
-    span.tag("resultTotalSnapshots", String.valueOf(searchResult.getTotalNodes()));
+    span.tag("resultTotalSnapshots", String.valueOf(searchResult.getTotalSnapshots()));
     span.tag(
         "resultSnapshotsWithReplicas", String.valueOf(searchResult.getSnapshotsWithReplicas()));
+    span.tag("resultTimedOutSnapshots", String.valueOf(searchResult.getTimedOutSnapshots()));
 
     try {
       HitsMetadata hits = getHits(searchResult);
@@ -129,8 +133,13 @@ public class ElasticsearchApiService {
           .hits(hits)
           .aggregations(parseAggregations(searchResult.getInternalAggregations()))
           .took(Duration.of(searchResult.getTookMicros(), ChronoUnit.MICROS).toMillis())
-          .shardsMetadata(searchResult.getTotalNodes(), searchResult.getFailedNodes())
-          .debugMetadata(Map.of())
+          .timedOut(searchResult.getTimedOutSnapshots() > 0)
+          .shardsMetadata(
+              searchResult.getTotalSnapshots(),
+              searchResult.getSnapshotsWithReplicas(),
+              0,
+              getFailedSnapshots(searchResult))
+          .debugMetadata(getDebugMetadata(searchResult))
           .status(200)
           .build();
     } catch (Exception e) {
@@ -138,7 +147,13 @@ public class ElasticsearchApiService {
       span.error(e);
       return new EsSearchResponse.Builder()
           .took(Duration.of(searchResult.getTookMicros(), ChronoUnit.MICROS).toMillis())
-          .shardsMetadata(searchResult.getTotalNodes(), searchResult.getFailedNodes())
+          .timedOut(searchResult.getTimedOutSnapshots() > 0)
+          .shardsMetadata(
+              searchResult.getTotalSnapshots(),
+              searchResult.getSnapshotsWithReplicas(),
+              0,
+              getFailedSnapshots(searchResult))
+          .debugMetadata(getDebugMetadata(searchResult))
           .status(500)
           .build();
     } finally {
@@ -146,6 +161,21 @@ public class ElasticsearchApiService {
     }
   }
 
+  /**
+   * The snapshots are reported as the shards of the response. The snapshots that returned a result
+   * are counted as snapshots with replicas, so the other snapshots either failed or timed out.
+   */
+  private static int getFailedSnapshots(KaldbSearch.SearchResult searchResult) {
+    return Math.max(0, searchResult.getTotalSnapshots() - searchResult.getSnapshotsWithReplicas());
+  }
+
+  private static Map<String, String> getDebugMetadata(KaldbSearch.SearchResult searchResult) {
+    return Map.of(
+        "total_nodes", String.valueOf(searchResult.getTotalNodes()),
+        "failed_nodes", String.valueOf(searchResult.getFailedNodes()),
+        "timed_out_snapshots", String.valueOf(searchResult.getTimedOutSnapshots()));
+  }
+
   private JsonNode parseAggregations(ByteString byteInput) throws IOException {
     InternalAggregation internalAggregations =
         OpenSearchInternalAggregation.fromByteArray(byteInput.toByteArray());
@@ -165,13 +195,25 @@ public class ElasticsearchApiService {
 
   private HitsMetadata getHits(KaldbSearch.SearchResult searchResult) throws IOException {
     List<ByteString> hitsByteList = searchResult.getHitsList().asByteStringList();
-    List<SearchResponseHit> responseHits = new ArrayList<>(hitsByteList.size());
+    List<SearchResponseHit> responseHits =
+        new ArrayList<>(hitsByteList.size() + searchResult.getSearchHitsCount());
     for (ByteString bytes : hitsByteList) {
       responseHits.add(SearchResponseHit.fromByteString(bytes));
     }
+    // The span sources are only decoded here, when the response is written as json.
+    for (KaldbSearch.SearchHit searchHit : searchResult.getSearchHitsList()) {
+      responseHits.add(
+          SearchResponseHit.fromLogMessage(SearchResultUtils.fromSearchHitProto(searchHit)));
+    }
 
+    // The total is the number of hits that matched the query, not the number of hits returned.
     return new HitsMetadata.Builder()
-        .hitsTotal(ImmutableMap.of("value", responseHits.size(), "relation", "eq"))
+        .hitsTotal(
+            ImmutableMap.of(
+                "value",
+                searchResult.getTotalHits(),
+                "relation",
+                searchResult.getTotalHitsLowerBound() ? "gte" : "eq"))
         .hits(responseHits)
         .build();
   }
@@ -54,7 +54,7 @@ public class OpenSearchRequest {
       JsonNode header = OM.readTree(pair.get(0));
       JsonNode body = OM.readTree(pair.get(1));
 
-      searchRequests.add(
+      KaldbSearch.SearchRequest.Builder searchRequestBuilder =
           KaldbSearch.SearchRequest.newBuilder()
               .setDataset(getDataset(header))
               .setQueryString(getQueryString(body))
@@ -62,7 +62,11 @@ public class OpenSearchRequest {
               .setStartTimeEpochMs(getStartTimeEpochMs(body))
               .setEndTimeEpochMs(getEndTimeEpochMs(body))
               .setAggregations(getAggregations(body))
-              .build());
+              .setSortOrder(getSortOrder(body));
+      if (body.get("search_after") != null) {
+        searchRequestBuilder.setSearchAfter(getSearchAfter(body));
+      }
+      searchRequests.add(searchRequestBuilder.build());
     }
     return searchRequests;
   }
@@ -89,6 +93,38 @@ public class OpenSearchRequest {
     return body.get("size").asInt();
   }
 
+  /** The hits are always sorted by timestamp, so only the order of the sort is read. */
+  private static KaldbSearch.SearchRequest.SortOrder getSortOrder(JsonNode body) {
+    if (body.get("sort") != null && body.get("sort").findValue("order") != null) {
+      String order = body.get("sort").findValue("order").asText();
+      if (order.equals("asc")) {
+        return KaldbSearch.SearchRequest.SortOrder.ASC;
+      } else if (!order.equals("desc")) {
+        throw new IllegalArgumentException("sort order must be asc or desc: " + order);
+      }
+    }
+    return KaldbSearch.SearchRequest.SortOrder.DESC;
+  }
+
+  /**
+   * The search after cursor is the sort values of the last hit of the previous page, which are the
+   * timestamp and the id of the hit.
+   */
+  private static KaldbSearch.SearchRequest.SearchAfter getSearchAfter(JsonNode body) {
+    JsonNode searchAfter = body.get("search_after");
+    if (!searchAfter.isArray()
+        || searchAfter.size() != 2
+        || !searchAfter.get(0).canConvertToLong()
+        || !searchAfter.get(1).isTextual()) {
+      throw new IllegalArgumentException(
+          "search_after must be the timestamp and the id of a hit: " + searchAfter);
+    }
+    return KaldbSearch.SearchRequest.SearchAfter.newBuilder()
+        .setTimestampEpochMs(searchAfter.get(0).asLong())
+        .setId(searchAfter.get(1).asText())
+        .build();
+  }
+
   private static long getStartTimeEpochMs(JsonNode body) {
     return body.get("query").findValue("gte").asLong();
   }
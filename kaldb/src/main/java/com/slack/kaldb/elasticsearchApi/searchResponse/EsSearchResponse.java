@@ -57,6 +57,10 @@ public class EsSearchResponse {
     return shardsMetadata;
   }
 
+  public Map<String, String> getDebugMetadata() {
+    return debugMetadata;
+  }
+
   public HitsMetadata getHitsMetadata() {
     return hitsMetadata;
   }
@@ -88,10 +92,12 @@ public class EsSearchResponse {
       return this;
     }
 
-    public Builder shardsMetadata(int total, int failed) {
+    public Builder shardsMetadata(int total, int successful, int skipped, int failed) {
       this.shardsMetadata =
           Map.of(
               "total", total,
+              "successful", successful,
+              "skipped", skipped,
               "failed", failed);
       return this;
     }
@@ -33,8 +33,10 @@ public class SearchResponseHit {
   @JsonProperty("_source")
   private final Map<String, Object> source;
 
+  // The timestamp and the id of the hit, which can be used as the search_after cursor of the next
+  // page.
   @JsonProperty("sort")
-  private List<Long> sort;
+  private List<Object> sort;
 
   public SearchResponseHit(
       String index,
@@ -43,7 +45,7 @@ public class SearchResponseHit {
       String score,
       Instant timestamp,
       Map<String, Object> source,
-      List<Long> sort) {
+      List<Object> sort) {
     this.index = index;
     this.type = type;
     this.id = id;
@@ -77,7 +79,7 @@ public class SearchResponseHit {
     return source;
   }
 
-  public List<Long> getSort() {
+  public List<Object> getSort() {
     return sort;
   }
 
@@ -88,7 +90,7 @@ public class SearchResponseHit {
     private Instant timestamp;
     private String score;
     private Map<String, Object> source = new HashMap<>();
-    private List<Long> sort = new ArrayList<>();
+    private List<Object> sort = new ArrayList<>();
 
     public Builder index(String index) {
       this.index = index;
@@ -120,7 +122,7 @@ public class SearchResponseHit {
       return this;
     }
 
-    public Builder sort(List<Long> sort) {
+    public Builder sort(List<Object> sort) {
       this.sort = sort;
       return this;
     }
@@ -133,15 +135,17 @@ public class SearchResponseHit {
 
   public static SearchResponseHit fromByteString(ByteString byteString) throws IOException {
     LogWireMessage hit = JsonUtil.read(byteString.toStringUtf8(), LogWireMessage.class);
-    LogMessage message = LogMessage.fromWireMessage(hit);
+    return fromLogMessage(LogMessage.fromWireMessage(hit));
+  }
 
+  public static SearchResponseHit fromLogMessage(LogMessage message) {
     return new Builder()
         .index(message.getIndex())
         .type("_doc")
         .id(message.getId())
         .timestamp(message.getTimestamp())
         .source(message.getSource())
-        .sort(ImmutableList.of(message.getTimestamp().toEpochMilli()))
+        .sort(ImmutableList.of(message.getTimestamp().toEpochMilli(), message.getId()))
         .build();
   }
 }
@@ -0,0 +1,32 @@
+package com.slack.kaldb.logstore;
+
+import com.slack.kaldb.proto.config.KaldbConfigs;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene95.Lucene95Codec;
+
+/**
+ * The codec used to write the chunks. It's the default lucene codec with a configurable stored
+ * fields compression mode and per field postings formats. Both of these settings are recorded in
+ * the segments, so the snapshots can still be read with the default codec.
+ */
+public class KalDBCodec extends Lucene95Codec {
+  private final Map<String, PostingsFormat> postingsFormats;
+
+  public KalDBCodec(KaldbConfigs.LuceneCodecConfig codecConfig) {
+    super(codecConfig.getBestCompression() ? Mode.BEST_COMPRESSION : Mode.BEST_SPEED);
+    // Look up the postings formats early, so an unknown postings format fails the index creation.
+    postingsFormats =
+        codecConfig.getPostingsFormatsMap().entrySet().stream()
+            .collect(
+                Collectors.toUnmodifiableMap(
+                    Map.Entry::getKey, entry -> PostingsFormat.forName(entry.getValue())));
+  }
+
+  @Override
+  public PostingsFormat getPostingsFormatForField(String field) {
+    PostingsFormat postingsFormat = postingsFormats.get(field);
+    return postingsFormat != null ? postingsFormat : super.getPostingsFormatForField(field);
+  }
+}
@@ -2,7 +2,9 @@ package com.slack.kaldb.logstore;
 
 import com.slack.kaldb.metadata.schema.LuceneFieldDef;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexWriter;
@@ -13,6 +15,9 @@ import org.apache.lucene.store.FSDirectory;
 public interface LogStore<T> extends Closeable {
   void addMessage(T message);
 
+  // Add a batch of messages, so the per message overhead is only paid once per batch.
+  void addMessages(List<T> messages);
+
   // TODO: Instead of exposing the searcherManager, consider returning an instance of the searcher.
   SearcherManager getSearcherManager();
 
@@ -20,6 +25,12 @@ public interface LogStore<T> extends Closeable {
 
   void refresh();
 
+  // Refresh the searcher only if it's older than the allowed staleness.
+  void refreshIfStale();
+
+  // Merge the segments of the index down to the configured number of segments and commit them.
+  void forceMerge();
+
   boolean isOpen();
 
   void cleanup() throws IOException;
@@ -39,6 +50,12 @@ public interface LogStore<T> extends Closeable {
    */
   public IndexCommit getIndexCommit();
 
+  /**
+   * Writes the bloom filters of the terms of the configured keyword fields in the index commit to
+   * the file. Returns false, and doesn't write the file, if there are no such fields in the index.
+   */
+  boolean writeTermBloomFilters(IndexCommit indexCommit, File file) throws IOException;
+
   // needed by JMH tests. Cannot add @VisibleForTesting on an abstract class
   public IndexWriter getIndexWriter();
 
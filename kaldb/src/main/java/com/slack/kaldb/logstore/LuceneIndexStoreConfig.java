@@ -2,6 +2,7 @@ package com.slack.kaldb.logstore;
 
 import static com.slack.kaldb.util.ArgValidationUtils.ensureTrue;
 
+import com.slack.kaldb.proto.config.KaldbConfigs;
 import java.io.File;
 import java.time.Duration;
 
@@ -17,7 +18,7 @@ public class LuceneIndexStoreConfig {
   // Controls how often the documents are flushed to disk.
   public final Duration commitDuration;
 
-  // Controls how often the documents are visible for search.
+  // Controls how stale the documents visible for search can be when the index is searched.
   public final Duration refreshDuration;
 
   // The file system path for storing the files.
@@ -29,6 +30,18 @@ public class LuceneIndexStoreConfig {
   // A flag that turns on internal logging.
   public final boolean enableTracing;
 
+  // The codec settings of the index.
+  public final KaldbConfigs.LuceneCodecConfig codecConfig;
+
+  // The number of segments the index is force merged to before a snapshot. Disabled if 0.
+  public final int forceMergeMaxSegments;
+
+  // The rate limit of force merges in MB per second. Not rate limited if 0.
+  public final double forceMergeMaxMBPerSec;
+
+  // The keyword fields whose terms are added to the bloom filters uploaded with a snapshot.
+  public final KaldbConfigs.TermBloomFilterConfig termBloomFilterConfig;
+
   // TODO: Tweak the default values once in prod.
   static final Duration defaultCommitDuration = Duration.ofSeconds(15);
   static final Duration defaultRefreshDuration = Duration.ofSeconds(15);
@@ -45,7 +58,36 @@ public class LuceneIndexStoreConfig {
 
   public LuceneIndexStoreConfig(
       Duration commitDuration, Duration refreshDuration, String indexRoot, boolean enableTracing) {
-    this(commitDuration, refreshDuration, indexRoot, DEFAULT_LOG_FILE_NAME, enableTracing);
+    this(
+        commitDuration,
+        refreshDuration,
+        indexRoot,
+        enableTracing,
+        KaldbConfigs.LuceneCodecConfig.getDefaultInstance(),
+        0,
+        0,
+        KaldbConfigs.TermBloomFilterConfig.getDefaultInstance());
+  }
+
+  public LuceneIndexStoreConfig(
+      Duration commitDuration,
+      Duration refreshDuration,
+      String indexRoot,
+      boolean enableTracing,
+      KaldbConfigs.LuceneCodecConfig codecConfig,
+      int forceMergeMaxSegments,
+      double forceMergeMaxMBPerSec,
+      KaldbConfigs.TermBloomFilterConfig termBloomFilterConfig) {
+    this(
+        commitDuration,
+        refreshDuration,
+        indexRoot,
+        DEFAULT_LOG_FILE_NAME,
+        enableTracing,
+        codecConfig,
+        forceMergeMaxSegments,
+        forceMergeMaxMBPerSec,
+        termBloomFilterConfig);
   }
 
   public LuceneIndexStoreConfig(
@@ -54,6 +96,28 @@ public class LuceneIndexStoreConfig {
       String indexRoot,
       String logFileName,
       boolean enableTracing) {
+    this(
+        commitDuration,
+        refreshDuration,
+        indexRoot,
+        logFileName,
+        enableTracing,
+        KaldbConfigs.LuceneCodecConfig.getDefaultInstance(),
+        0,
+        0,
+        KaldbConfigs.TermBloomFilterConfig.getDefaultInstance());
+  }
+
+  public LuceneIndexStoreConfig(
+      Duration commitDuration,
+      Duration refreshDuration,
+      String indexRoot,
+      String logFileName,
+      boolean enableTracing,
+      KaldbConfigs.LuceneCodecConfig codecConfig,
+      int forceMergeMaxSegments,
+      double forceMergeMaxMBPerSec,
+      KaldbConfigs.TermBloomFilterConfig termBloomFilterConfig) {
     ensureTrue(
         !(commitDuration.isZero() || commitDuration.isNegative()),
         "Commit duration should be greater than zero");
@@ -65,6 +129,10 @@ public class LuceneIndexStoreConfig {
     this.indexRoot = indexRoot;
     this.logFileName = logFileName;
     this.enableTracing = enableTracing;
+    this.codecConfig = codecConfig;
+    this.forceMergeMaxSegments = forceMergeMaxSegments;
+    this.forceMergeMaxMBPerSec = forceMergeMaxMBPerSec;
+    this.termBloomFilterConfig = termBloomFilterConfig;
   }
 
   public File indexFolder(String id) {
@@ -1,27 +1,41 @@
 package com.slack.kaldb.logstore;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.slack.kaldb.logstore.schema.SchemaAwareLogDocumentBuilderImpl;
+import com.slack.kaldb.logstore.search.TermBloomFilters;
+import com.slack.kaldb.metadata.schema.FieldType;
 import com.slack.kaldb.metadata.schema.LuceneFieldDef;
 import com.slack.kaldb.proto.config.KaldbConfigs;
 import com.slack.kaldb.util.RuntimeHalterImpl;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.apache.commons.io.FileUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.index.SnapshotDeletionPolicy;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
@@ -47,11 +61,35 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
   public static final String MESSAGES_FAILED_COUNTER = "messages_failed";
   public static final String COMMITS_TIMER = "kaldb_index_commits";
   public static final String REFRESHES_TIMER = "kaldb_index_refreshes";
+  public static final String COMMIT_LAG_TIMER = "kaldb_index_commit_lag";
+  public static final String REFRESH_LAG_TIMER = "kaldb_index_refresh_lag";
+  public static final String REFRESHES_SKIPPED_COUNTER = "kaldb_index_refreshes_skipped";
+  public static final String FORCE_MERGE_TIMER = "kaldb_index_force_merge";
+  public static final String FORCE_MERGE_FAILED_COUNTER = "kaldb_index_force_merge_failed";
+  public static final String FORCE_MERGED_SEGMENTS_COUNTER = "kaldb_index_force_merged_segments";
+
+  // We sort by timestamp descending, as that is the order we expect to return results the
+  // majority of the time. Ties are sorted by id, the same as the hits of a search, so the search
+  // sort stays a prefix of the index sort and a search can still exit early.
+  public static final Sort INDEX_SORT =
+      new Sort(
+          new SortField(
+              LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName, SortField.Type.LONG, true),
+          new SortField(LogMessage.SystemField.ID.fieldName, SortField.Type.STRING));
+
+  // A node wide scheduler that commits all the index stores on this node, instead of a timer
+  // thread per index store.
+  private static final int COMMIT_SCHEDULER_THREADS = 2;
+  private static final ScheduledThreadPoolExecutor commitScheduler = makeCommitScheduler();
 
   private final SearcherManager searcherManager;
   private final DocumentBuilder<LogMessage> documentBuilder;
   private final FSDirectory indexDirectory;
-  private final Timer timer;
+  private final ScheduledFuture<?> commitFuture;
+  private final Duration refreshDuration;
+  private final Object refreshLock = new Object();
+  private volatile long lastCommitTimeNanos;
+  private volatile long lastRefreshTimeNanos;
   private final SnapshotDeletionPolicy snapshotDeletionPolicy;
   private Optional<IndexWriter> indexWriter;
 
@@ -60,6 +98,14 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
   private final Counter messagesFailedCounter;
   private final io.micrometer.core.instrument.Timer commitsTimer;
   private final io.micrometer.core.instrument.Timer refreshesTimer;
+  private final io.micrometer.core.instrument.Timer commitLagTimer;
+  private final io.micrometer.core.instrument.Timer refreshLagTimer;
+  private final Counter refreshesSkippedCounter;
+  private final io.micrometer.core.instrument.Timer forceMergeTimer;
+  private final Counter forceMergeFailedCounter;
+  private final Counter forceMergedSegmentsCounter;
+  private final int forceMergeMaxSegments;
+  private final KaldbConfigs.TermBloomFilterConfig termBloomFilterConfig;
 
   // We think if the segments being flushed to disk are smaller than this then we should use
   // compound files or not.
@@ -70,12 +116,43 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
   public static LuceneIndexStoreImpl makeLogStore(
       File dataDirectory, KaldbConfigs.LuceneConfig luceneConfig, MeterRegistry metricsRegistry)
       throws IOException {
+    LuceneIndexStoreConfig indexStoreCfg =
+        new LuceneIndexStoreConfig(
+            LuceneIndexStoreConfig.getCommitDuration(luceneConfig.getCommitDurationSecs()),
+            LuceneIndexStoreConfig.getRefreshDuration(luceneConfig.getRefreshDurationSecs()),
+            dataDirectory.getAbsolutePath(),
+            false,
+            luceneConfig.getCodecConfig(),
+            luceneConfig.getForceMergeMaxSegments(),
+            luceneConfig.getForceMergeMaxMbPerSec(),
+            luceneConfig.getTermBloomFilterConfig());
+
+    return new LuceneIndexStoreImpl(
+        indexStoreCfg,
+        SchemaAwareLogDocumentBuilderImpl.build(
+            SchemaAwareLogDocumentBuilderImpl.FieldConflictPolicy.CONVERT_VALUE_AND_DUPLICATE_FIELD,
+            luceneConfig.getEnableFullTextSearch(),
+            luceneConfig.getBinarySpanSource(),
+            Set.copyOf(luceneConfig.getCodecConfig().getTextFieldsWithPositionsList()),
+            metricsRegistry),
+        metricsRegistry);
+  }
+
+  public static LuceneIndexStoreImpl makeLogStore(
+      File dataDirectory,
+      Duration commitInterval,
+      Duration refreshInterval,
+      boolean enableFullTextSearch,
+      SchemaAwareLogDocumentBuilderImpl.FieldConflictPolicy fieldConflictPolicy,
+      MeterRegistry metricsRegistry)
+      throws IOException {
     return makeLogStore(
         dataDirectory,
-        LuceneIndexStoreConfig.getCommitDuration(luceneConfig.getCommitDurationSecs()),
-        LuceneIndexStoreConfig.getRefreshDuration(luceneConfig.getRefreshDurationSecs()),
-        luceneConfig.getEnableFullTextSearch(),
-        SchemaAwareLogDocumentBuilderImpl.FieldConflictPolicy.CONVERT_VALUE_AND_DUPLICATE_FIELD,
+        commitInterval,
+        refreshInterval,
+        enableFullTextSearch,
+        false,
+        fieldConflictPolicy,
         metricsRegistry);
   }
 
@@ -84,6 +161,7 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
       Duration commitInterval,
       Duration refreshInterval,
       boolean enableFullTextSearch,
+      boolean binarySpanSource,
       SchemaAwareLogDocumentBuilderImpl.FieldConflictPolicy fieldConflictPolicy,
       MeterRegistry metricsRegistry)
       throws IOException {
@@ -96,7 +174,7 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
     return new LuceneIndexStoreImpl(
         indexStoreCfg,
         SchemaAwareLogDocumentBuilderImpl.build(
-            fieldConflictPolicy, enableFullTextSearch, metricsRegistry),
+            fieldConflictPolicy, enableFullTextSearch, binarySpanSource, metricsRegistry),
         metricsRegistry);
   }
 
@@ -117,36 +195,48 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
     indexWriter = Optional.of(new IndexWriter(indexDirectory, indexWriterConfig));
     this.searcherManager = new SearcherManager(indexWriter.get(), false, false, null);
 
-    timer = new Timer(true);
-    timer.schedule(
-        new TimerTask() {
-          @Override
-          public void run() {
-            commit();
-          }
-        },
-        config.commitDuration.toMillis(),
-        config.commitDuration.toMillis());
-    timer.schedule(
-        new TimerTask() {
-          @Override
-          public void run() {
-            refresh();
-          }
-        },
-        config.refreshDuration.toMillis(),
-        config.refreshDuration.toMillis());
-
     // Initialize stats counters
     messagesReceivedCounter = registry.counter(MESSAGES_RECEIVED_COUNTER);
     messagesFailedCounter = registry.counter(MESSAGES_FAILED_COUNTER);
     commitsTimer = registry.timer(COMMITS_TIMER);
     refreshesTimer = registry.timer(REFRESHES_TIMER);
+    commitLagTimer = registry.timer(COMMIT_LAG_TIMER);
+    refreshLagTimer = registry.timer(REFRESH_LAG_TIMER);
+    refreshesSkippedCounter = registry.counter(REFRESHES_SKIPPED_COUNTER);
+    forceMergeTimer = registry.timer(FORCE_MERGE_TIMER);
+    forceMergeFailedCounter = registry.counter(FORCE_MERGE_FAILED_COUNTER);
+    forceMergedSegmentsCounter = registry.counter(FORCE_MERGED_SEGMENTS_COUNTER);
+    forceMergeMaxSegments = config.forceMergeMaxSegments;
+    termBloomFilterConfig = config.termBloomFilterConfig;
+
+    // The searcher is only refreshed on demand, see refreshIfStale.
+    refreshDuration = config.refreshDuration;
+    lastCommitTimeNanos = System.nanoTime();
+    lastRefreshTimeNanos = lastCommitTimeNanos;
+    commitFuture =
+        commitScheduler.scheduleWithFixedDelay(
+            this::commit,
+            config.commitDuration.toMillis(),
+            config.commitDuration.toMillis(),
+            TimeUnit.MILLISECONDS);
 
     LOG.info(
         "Created a lucene index {} at: {}", id, indexDirectory.getDirectory().toAbsolutePath());
   }
 
+  private static ScheduledThreadPoolExecutor makeCommitScheduler() {
+    ScheduledThreadPoolExecutor scheduler =
+        new ScheduledThreadPoolExecutor(
+            COMMIT_SCHEDULER_THREADS,
+            new ThreadFactoryBuilder()
+                .setNameFormat("lucene-index-store-commit-%d")
+                .setDaemon(true)
+                .build());
+    // Index stores are created and closed with every chunk, so drop their tasks on close.
+    scheduler.setRemoveOnCancelPolicy(true);
+    return scheduler;
+  }
+
   /**
    * Attempts to determine an optimal ram buffer size based on the size of the heap. The target of
    * 10% matches that of the defaults of ES.
@@ -172,21 +262,19 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
       MeterRegistry metricsRegistry) {
     long ramBufferSizeMb = getRAMBufferSizeMB(Runtime.getRuntime().maxMemory());
     boolean useCFSFiles = ramBufferSizeMb <= CFS_FILES_SIZE_MB_CUTOFF;
+    KalDBMergeScheduler mergeScheduler = new KalDBMergeScheduler(metricsRegistry);
+    if (config.forceMergeMaxMBPerSec > 0) {
+      mergeScheduler.setForceMergeMBPerSec(config.forceMergeMaxMBPerSec);
+    }
     final IndexWriterConfig indexWriterCfg =
         new IndexWriterConfig(analyzer)
             .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
-            .setMergeScheduler(new KalDBMergeScheduler(metricsRegistry))
+            .setMergeScheduler(mergeScheduler)
             .setRAMBufferSizeMB(ramBufferSizeMb)
             .setUseCompoundFile(useCFSFiles)
-            // we sort by timestamp descending, as that is the order we expect to return results the
-            // majority of the time
-            .setIndexSort(
-                new Sort(
-                    new SortField(
-                        LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName,
-                        SortField.Type.LONG,
-                        true)))
-            .setIndexDeletionPolicy(snapshotDeletionPolicy);
+            .setIndexSort(INDEX_SORT)
+            .setIndexDeletionPolicy(snapshotDeletionPolicy)
+            .setCodec(new KalDBCodec(config.codecConfig));
 
     // This applies to segments when they are being merged
     // Use the default in case the ramBufferSize is below the cutoff
@@ -248,6 +336,56 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
     }
   }
 
+  /**
+   * Index a batch of messages with a single IndexWriter.addDocuments call. Messages that fail to
+   * convert into a document are skipped like in addMessage. Since addDocuments is atomic, if the
+   * index writer rejects a document we add the documents one at a time so only that document is
+   * dropped.
+   */
+  @Override
+  public void addMessages(List<LogMessage> messages) {
+    if (messages.isEmpty()) {
+      return;
+    }
+    try {
+      messagesReceivedCounter.increment(messages.size());
+      if (indexWriter.isEmpty()) {
+        LOG.error("IndexWriter should never be null when adding a message");
+        throw new IllegalStateException("IndexWriter should never be null when adding a message");
+      }
+
+      int failedMessages = 0;
+      List<Document> documents = new ArrayList<>(messages.size());
+      for (LogMessage message : messages) {
+        try {
+          documents.add(documentBuilder.fromMessage(message));
+        } catch (FieldDefMismatchException | IllegalArgumentException e) {
+          LOG.error(String.format("Indexing message %s failed with error:", message), e);
+          failedMessages++;
+        }
+      }
+
+      try {
+        indexWriter.get().addDocuments(documents);
+      } catch (IllegalArgumentException batchException) {
+        LOG.warn("Indexing a batch of documents failed, retrying them one at a time.");
+        for (Document document : documents) {
+          try {
+            indexWriter.get().addDocument(document);
+          } catch (IllegalArgumentException e) {
+            LOG.error(String.format("Indexing document %s failed with error:", document), e);
+            failedMessages++;
+          }
+        }
+      }
+      messagesFailedCounter.increment(failedMessages);
+    } catch (IOException e) {
+      // TODO: In future may need to handle this case more gracefully.
+      LOG.error("failed to add documents", e);
+      new RuntimeHalterImpl().handleFatal(e);
+    }
+  }
+
   @Override
   public void commit() {
     commitsTimer.record(
@@ -255,6 +393,9 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
           LOG.debug("Indexer starting commit for: " + indexDirectory.getDirectory().toString());
           try {
             syncCommit();
+            long now = System.nanoTime();
+            commitLagTimer.record(now - lastCommitTimeNanos, TimeUnit.NANOSECONDS);
+            lastCommitTimeNanos = now;
             LOG.debug("Indexer finished commit for: " + indexDirectory.getDirectory().toString());
           } catch (IOException e) {
             handleNonFatal(e);
@@ -269,6 +410,9 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
           LOG.debug("Indexer starting refresh for: " + indexDirectory.getDirectory().toString());
           try {
             syncRefresh();
+            long now = System.nanoTime();
+            refreshLagTimer.record(now - lastRefreshTimeNanos, TimeUnit.NANOSECONDS);
+            lastRefreshTimeNanos = now;
             LOG.debug("Indexer finished refresh for: " + indexDirectory.getDirectory().toString());
           } catch (IOException e) {
             handleNonFatal(e);
@@ -276,6 +420,73 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
         });
   }
 
+  /**
+   * Refreshing on a fixed interval creates many small segments on indexes nobody is searching,
+   * which then need to be merged. So, searches call this method instead and the searcher is only
+   * refreshed if it's older than the refresh duration.
+   */
+  @Override
+  public void refreshIfStale() {
+    if (!isSearcherStale()) {
+      refreshesSkippedCounter.increment();
+      return;
+    }
+    synchronized (refreshLock) {
+      // Concurrent searches only need to refresh the searcher once.
+      if (isSearcherStale()) {
+        refresh();
+      } else {
+        refreshesSkippedCounter.increment();
+      }
+    }
+  }
+
+  /**
+   * A chunk is searched on the cache nodes many more times than it's written, and every search
+   * visits every segment of the chunk. So, merging the segments once before the chunk is
+   * snapshotted makes all of those searches cheaper. The force merge is rate limited by the merge
+   * scheduler, so it doesn't starve indexing on this node.
+   */
+  @Override
+  public void forceMerge() {
+    if (forceMergeMaxSegments <= 0) {
+      return;
+    }
+    forceMergeTimer.record(
+        () -> {
+          LOG.debug("Indexer starting force merge for: " + indexDirectory.getDirectory());
+          try {
+            syncForceMerge();
+            LOG.debug("Indexer finished force merge for: " + indexDirectory.getDirectory());
+          } catch (IOException | RuntimeException e) {
+            // The chunk can still be snapshotted without merging its segments.
+            forceMergeFailedCounter.increment();
+            LOG.error("Force merge failed for: " + indexDirectory.getDirectory(), e);
+          }
+        });
+  }
+
+  private void syncForceMerge() throws IOException {
+    // Merging the segments can take a while, so the lock is only held to commit.
+    Optional<IndexWriter> writer = indexWriter;
+    if (writer.isEmpty()) {
+      return;
+    }
+    syncCommit();
+    int segmentsBefore = SegmentInfos.readLatestCommit(indexDirectory).size();
+    if (segmentsBefore <= forceMergeMaxSegments) {
+      return;
+    }
+    writer.get().forceMerge(forceMergeMaxSegments, true);
+    syncCommit();
+    int segmentsAfter = SegmentInfos.readLatestCommit(indexDirectory).size();
+    forceMergedSegmentsCounter.increment(segmentsBefore - segmentsAfter);
+  }
+
+  private boolean isSearcherStale() {
+    return System.nanoTime() - lastRefreshTimeNanos >= refreshDuration.toNanos();
+  }
+
   @Override
   public boolean isOpen() {
     return indexWriter.isPresent();
@@ -302,6 +513,32 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
     return null;
   }
 
+  @Override
+  public boolean writeTermBloomFilters(IndexCommit indexCommit, File file) throws IOException {
+    // Only the terms of keyword fields are indexed as is, so only those can be looked up by the
+    // terms of a query string.
+    ConcurrentHashMap<String, LuceneFieldDef> schema = getSchema();
+    List<String> fields =
+        termBloomFilterConfig.getFieldsList().stream()
+            .filter(
+                field ->
+                    schema.containsKey(field) && schema.get(field).fieldType == FieldType.STRING)
+            .collect(Collectors.toList());
+    if (fields.isEmpty()) {
+      return false;
+    }
+
+    double falsePositiveProbability =
+        termBloomFilterConfig.getFalsePositiveProbability() > 0
+            ? termBloomFilterConfig.getFalsePositiveProbability()
+            : TermBloomFilters.DEFAULT_FALSE_POSITIVE_PROBABILITY;
+    try (DirectoryReader indexReader = DirectoryReader.open(indexCommit);
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+      TermBloomFilters.build(indexReader, fields, falsePositiveProbability).writeTo(outputStream);
+    }
+    return true;
+  }
+
   @Override
   public IndexWriter getIndexWriter() {
     return indexWriter.get();
@@ -319,7 +556,7 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
 
   /**
    * This method closes the log store cleanly and cancels any ongoing tasks. This function cancels
-   * the existing timer but doesn't run a commit or refresh. The users of this class are need to
+   * the scheduled commits but doesn't run a commit or refresh. The users of this class are need to
    * ensure that the data is already committed before close.
    */
   @Override
@@ -331,7 +568,7 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
         return;
       }
 
-      timer.cancel();
+      commitFuture.cancel(false);
       try {
         indexWriter.get().close();
       } catch (IllegalStateException | IOException | NoSuchElementException e) {
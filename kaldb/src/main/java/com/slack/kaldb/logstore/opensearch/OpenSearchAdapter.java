@@ -4,7 +4,12 @@ import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonMap;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.TimeRangeSegmentQuery;
 import com.slack.kaldb.logstore.search.aggregations.AggBuilder;
 import com.slack.kaldb.logstore.search.aggregations.AggBuilderBase;
 import com.slack.kaldb.logstore.search.aggregations.AvgAggBuilder;
@@ -33,8 +38,11 @@ import java.util.Map;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.CollectorManager;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.opensearch.Version;
 import org.opensearch.cluster.ClusterModule;
@@ -53,9 +61,9 @@ import org.opensearch.index.analysis.IndexAnalyzers;
 import org.opensearch.index.analysis.NamedAnalyzer;
 import org.opensearch.index.fielddata.IndexFieldDataCache;
 import org.opensearch.index.fielddata.IndexFieldDataService;
+import org.opensearch.index.mapper.DocumentMapper;
 import org.opensearch.index.mapper.MappedFieldType;
 import org.opensearch.index.mapper.MapperService;
-import org.opensearch.index.query.BoolQueryBuilder;
 import org.opensearch.index.query.QueryShardContext;
 import org.opensearch.index.query.QueryStringQueryBuilder;
 import org.opensearch.index.query.RangeQueryBuilder;
@@ -112,6 +120,12 @@ import org.slf4j.LoggerFactory;
 public class OpenSearchAdapter {
   private static final Logger LOG = LoggerFactory.getLogger(OpenSearchAdapter.class);
 
+  // we can make this configurable when SchemaAwareLogDocumentBuilderImpl enforces a limit
+  // set this to a high number for now
+  private static final int TOTAL_FIELDS_LIMIT = 2500;
+
+  private static final int PARSED_QUERY_CACHE_SIZE = 1000;
+
   private final IndexSettings indexSettings;
   private final SimilarityService similarityService;
 
@@ -119,15 +133,26 @@ public class OpenSearchAdapter {
 
   private final Map<String, LuceneFieldDef> chunkSchema;
 
-  // we can make this configurable when SchemaAwareLogDocumentBuilderImpl enforces a limit
-  // set this to a high number for now
-  private static final int TOTAL_FIELDS_LIMIT = 2500;
+  // The parsed query strings of the node, keyed by the query string and the version of the schema
+  // they were parsed with. The searchers of the chunks with the same schema share the parsed
+  // queries.
+  private static final Cache<ParsedQueryKey, Query> PARSED_QUERY_CACHE =
+      CacheBuilder.newBuilder().maximumSize(PARSED_QUERY_CACHE_SIZE).build();
+
+  // The hash of the field mappings of the mapper service, which the query strings are parsed with.
+  // It's updated whenever new fields are registered with the mapper service.
+  private volatile HashCode schemaVersion;
+
+  // The components are only read through equals and hashCode.
+  @SuppressWarnings("UnusedVariable")
+  private record ParsedQueryKey(String queryStr, HashCode schemaVersion) {}
 
   public OpenSearchAdapter(Map<String, LuceneFieldDef> chunkSchema) {
     this.indexSettings = buildIndexSettings();
     this.similarityService = new SimilarityService(indexSettings, null, emptyMap());
     this.mapperService = buildMapperService(indexSettings, similarityService);
     this.chunkSchema = chunkSchema;
+    this.schemaVersion = getSchemaVersion(mapperService);
   }
 
   /**
@@ -156,46 +181,81 @@ public class OpenSearchAdapter {
             similarityService,
             mapperService);
     try {
-      BoolQueryBuilder boolQueryBuilder = new BoolQueryBuilder();
-
       RangeQueryBuilder rangeQueryBuilder =
           new RangeQueryBuilder(LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName)
               .gte(startTimeMsEpoch)
               .lte(endTimeMsEpoch);
-      boolQueryBuilder.filter(rangeQueryBuilder);
+      Query rangeQuery = rangeQueryBuilder.rewrite(queryShardContext).toQuery(queryShardContext);
 
       // todo - dataset?
 
       // Only add the query string clause if this is not attempting to fetch all records
       // Since we do analyze the wildcard this can cause unexpected behavior if only a wildcard is
       // provided
-      if (queryStr != null
-          && !queryStr.isEmpty()
-          && !queryStr.equals("*:*")
-          && !queryStr.equals("*")) {
-        QueryStringQueryBuilder queryStringQueryBuilder = new QueryStringQueryBuilder(queryStr);
-
-        if (queryShardContext.getMapperService().fieldType(LogMessage.SystemField.ALL.fieldName)
-            != null) {
-          queryStringQueryBuilder.defaultField(LogMessage.SystemField.ALL.fieldName);
-          // setting lenient=false will not throw error when the query fails to parse against
-          // numeric fields
-          queryStringQueryBuilder.lenient(false);
-        } else {
-          queryStringQueryBuilder.lenient(true);
-        }
-
-        queryStringQueryBuilder.analyzeWildcard(true);
-
-        boolQueryBuilder.filter(queryStringQueryBuilder);
+      if (queryStr == null
+          || queryStr.isEmpty()
+          || queryStr.equals("*:*")
+          || queryStr.equals("*")) {
+        return new TimeRangeSegmentQuery(
+            rangeQuery,
+            new MatchAllDocsQuery(),
+            LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName,
+            startTimeMsEpoch,
+            endTimeMsEpoch);
       }
-      return boolQueryBuilder.rewrite(queryShardContext).toQuery(queryShardContext);
+
+      Query queryStringQuery = getQueryStringQuery(queryStr, queryShardContext);
+      BooleanQuery filteredQuery =
+          new BooleanQuery.Builder()
+              .add(rangeQuery, BooleanClause.Occur.FILTER)
+              .add(queryStringQuery, BooleanClause.Occur.FILTER)
+              .build();
+      // The same query without the time range, for segments entirely in the time range.
+      BooleanQuery unfilteredQuery =
+          new BooleanQuery.Builder().add(queryStringQuery, BooleanClause.Occur.FILTER).build();
+      return new TimeRangeSegmentQuery(
+          filteredQuery,
+          unfilteredQuery,
+          LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName,
+          startTimeMsEpoch,
+          endTimeMsEpoch);
     } catch (Exception e) {
       LOG.error("Query parse exception", e);
       throw new IllegalArgumentException(e);
     }
   }
 
+  /**
+   * Returns the parsed query string, from the parsed query cache if the same query string was
+   * parsed with the current schema. Parsing the query string is expensive, especially with
+   * analyze_wildcard, and the same queries are repeated by every refresh of a dashboard.
+   */
+  private Query getQueryStringQuery(String queryStr, QueryShardContext queryShardContext)
+      throws IOException {
+    ParsedQueryKey key = new ParsedQueryKey(queryStr, schemaVersion);
+    Query query = PARSED_QUERY_CACHE.getIfPresent(key);
+    if (query != null) {
+      return query;
+    }
+
+    QueryStringQueryBuilder queryStringQueryBuilder = new QueryStringQueryBuilder(queryStr);
+    if (queryShardContext.getMapperService().fieldType(LogMessage.SystemField.ALL.fieldName)
+        != null) {
+      queryStringQueryBuilder.defaultField(LogMessage.SystemField.ALL.fieldName);
+      // setting lenient=false will not throw error when the query fails to parse against
+      // numeric fields
+      queryStringQueryBuilder.lenient(false);
+    } else {
+      queryStringQueryBuilder.lenient(true);
+    }
+
+    queryStringQueryBuilder.analyzeWildcard(true);
+
+    query = queryStringQueryBuilder.rewrite(queryShardContext).toQuery(queryShardContext);
+    PARSED_QUERY_CACHE.put(key, query);
+    return query;
+  }
+
   /**
    * For each defined field in the chunk schema, this will check if the field is already registered,
    * and if not attempt to register it with the mapper service
@@ -203,22 +263,34 @@ public class OpenSearchAdapter {
   public void reloadSchema() {
     // todo - see SchemaAwareLogDocumentBuilderImpl.getDefaultLuceneFieldDefinitions
     //  this needs to be adapted to include other field types once we have support
+    boolean fieldsRegistered = false;
     for (Map.Entry<String, LuceneFieldDef> entry : chunkSchema.entrySet()) {
       try {
         if (entry.getValue().fieldType == FieldType.TEXT) {
-          tryRegisterField(mapperService, entry.getValue().name, b -> b.field("type", "text"));
+          fieldsRegistered |=
+              tryRegisterField(mapperService, entry.getValue().name, b -> b.field("type", "text"));
         } else if (entry.getValue().fieldType == FieldType.STRING) {
-          tryRegisterField(mapperService, entry.getValue().name, b -> b.field("type", "keyword"));
+          fieldsRegistered |=
+              tryRegisterField(
+                  mapperService, entry.getValue().name, b -> b.field("type", "keyword"));
         } else if (entry.getValue().fieldType == FieldType.INTEGER) {
-          tryRegisterField(mapperService, entry.getValue().name, b -> b.field("type", "integer"));
+          fieldsRegistered |=
+              tryRegisterField(
+                  mapperService, entry.getValue().name, b -> b.field("type", "integer"));
         } else if (entry.getValue().fieldType == FieldType.LONG) {
-          tryRegisterField(mapperService, entry.getValue().name, b -> b.field("type", "long"));
+          fieldsRegistered |=
+              tryRegisterField(mapperService, entry.getValue().name, b -> b.field("type", "long"));
         } else if (entry.getValue().fieldType == FieldType.DOUBLE) {
-          tryRegisterField(mapperService, entry.getValue().name, b -> b.field("type", "double"));
+          fieldsRegistered |=
+              tryRegisterField(
+                  mapperService, entry.getValue().name, b -> b.field("type", "double"));
         } else if (entry.getValue().fieldType == FieldType.FLOAT) {
-          tryRegisterField(mapperService, entry.getValue().name, b -> b.field("type", "float"));
+          fieldsRegistered |=
+              tryRegisterField(mapperService, entry.getValue().name, b -> b.field("type", "float"));
         } else if (entry.getValue().fieldType == FieldType.BOOLEAN) {
-          tryRegisterField(mapperService, entry.getValue().name, b -> b.field("type", "boolean"));
+          fieldsRegistered |=
+              tryRegisterField(
+                  mapperService, entry.getValue().name, b -> b.field("type", "boolean"));
         } else {
           LOG.warn(
               "Field type '{}' is not yet currently supported for field '{}'",
@@ -229,6 +301,20 @@ public class OpenSearchAdapter {
         LOG.error("Error parsing schema mapping for {}", entry.getValue().toString(), e);
       }
     }
+    if (fieldsRegistered) {
+      // The queries parsed with the previous schema may have parsed the new fields differently.
+      schemaVersion = getSchemaVersion(mapperService);
+    }
+  }
+
+  /** Returns the hash of the field mappings that are registered with the mapper service. */
+  private static HashCode getSchemaVersion(MapperService mapperService) {
+    DocumentMapper documentMapper = mapperService.documentMapper();
+    if (documentMapper == null) {
+      return Hashing.sha256().hashBytes(new byte[0]);
+    }
+    return Hashing.sha256()
+        .hashBytes(BytesReference.toBytes(documentMapper.mappingSource().uncompressed()));
   }
 
   protected static XContentBuilder mapping(
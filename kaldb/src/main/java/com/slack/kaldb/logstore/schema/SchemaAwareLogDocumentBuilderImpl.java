@@ -1,6 +1,8 @@
 package com.slack.kaldb.logstore.schema;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
 import com.slack.kaldb.logstore.DocumentBuilder;
@@ -9,13 +11,23 @@ import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.metadata.schema.FieldType;
 import com.slack.kaldb.metadata.schema.LuceneFieldDef;
 import com.slack.kaldb.util.JsonUtil;
+import com.slack.kaldb.writer.SpanFormatter;
+import com.slack.kaldb.writer.SpanLogMessage;
+import com.slack.service.murron.trace.Trace;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import org.apache.logging.log4j.util.Strings;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +64,8 @@ public class SchemaAwareLogDocumentBuilderImpl implements DocumentBuilder<LogMes
       boolean enableFullTextSearch) {
     ImmutableMap.Builder<String, LuceneFieldDef> fieldDefBuilder = ImmutableMap.builder();
 
+    // The source is only stored, so its type is never used to index or query it. With
+    // binarySpanSource the source of a span is stored as bytes under this text definition.
     addTextField(fieldDefBuilder, LogMessage.SystemField.SOURCE.fieldName, true, false);
     addTextField(fieldDefBuilder, LogMessage.ReservedField.MESSAGE.fieldName, false, true);
     if (enableFullTextSearch) {
@@ -133,91 +147,135 @@ public class SchemaAwareLogDocumentBuilderImpl implements DocumentBuilder<LogMes
     return indexFieldConflictPolicy;
   }
 
+  /**
+   * A node in a trie of the nested field paths seen by this document builder. Each node caches the
+   * dotted field name of its path, so the name of a nested field is built once per chunk instead of
+   * once per message.
+   */
+  private static final class FieldPath {
+    private final String fieldName;
+    private final ConcurrentHashMap<String, FieldPath> children = new ConcurrentHashMap<>();
+
+    private FieldPath(String fieldName) {
+      this.fieldName = fieldName;
+    }
+
+    private FieldPath child(String key) {
+      FieldPath child = children.get(key);
+      if (child == null) {
+        child =
+            children.computeIfAbsent(
+                key, k -> new FieldPath(fieldName.isBlank() ? k : fieldName + "." + k));
+      }
+      return child;
+    }
+  }
+
+  private final FieldPath rootFieldPath = new FieldPath("");
+
+  private void addField(final Document doc, final String key, final Object value) {
+    addField(doc, key, value, rootFieldPath, 0);
+  }
+
   private void addField(
       final Document doc,
       final String key,
       final Object value,
-      final String keyPrefix,
+      final FieldPath parentPath,
       int nestingDepth) {
     // If value is a list, convert the value to a String and index the field.
     if (value instanceof List) {
-      addField(doc, key, Strings.join((List) value, ','), keyPrefix, nestingDepth);
+      addField(doc, key, Strings.join((List) value, ','), parentPath, nestingDepth);
       return;
     }
 
-    String fieldName = keyPrefix.isBlank() || keyPrefix.isEmpty() ? key : keyPrefix + "." + key;
     // Ingest nested map field recursively upto max nesting. After that index it as a string.
     if (value instanceof Map) {
       if (nestingDepth >= MAX_NESTING_DEPTH) {
         // Once max nesting depth is reached, index the field as a string.
-        addField(doc, key, value.toString(), keyPrefix, nestingDepth + 1);
+        addField(doc, key, value.toString(), parentPath, nestingDepth + 1);
       } else {
+        final FieldPath fieldPath = parentPath.child(key);
         Map<Object, Object> mapValue = (Map<Object, Object>) value;
-        for (Object k : mapValue.keySet()) {
-          if (k instanceof String) {
-            addField(doc, (String) k, mapValue.get(k), fieldName, nestingDepth + 1);
+        for (Map.Entry<Object, Object> entry : mapValue.entrySet()) {
+          if (entry.getKey() instanceof String) {
+            addField(doc, (String) entry.getKey(), entry.getValue(), fieldPath, nestingDepth + 1);
           } else {
             throw new FieldDefMismatchException(
                 String.format(
-                    "Field %s, %s has an non-string type which is unsupported", k, value));
+                    "Field %s, %s has an non-string type which is unsupported",
+                    entry.getKey(), value));
           }
         }
       }
       return;
     }
 
+    // Top level keys are used as is, so only nested keys need a lookup in the field path trie.
+    final String fieldName = parentPath == rootFieldPath ? key : parentPath.child(key).fieldName;
     FieldType valueType = getJsonType(value);
-    if (!fieldDefMap.containsKey(fieldName)) {
-      indexNewField(doc, fieldName, value, valueType);
+    LuceneFieldDef registeredField = fieldDefMap.get(fieldName);
+    if (registeredField == null) {
+      registeredField = indexNewField(doc, fieldName, value, valueType);
+      if (registeredField == null) {
+        return;
+      }
+      // Another indexing thread registered this field first, so index the value against it.
+    }
+    // If the field types are same or the fields are type aliases
+    if (registeredField.fieldType == valueType
+        || FieldType.areTypeAliasedFieldTypes(registeredField.fieldType, valueType)) {
+      // No field conflicts index it using previous description.
+      // Pass in registeredField here since the valueType and registeredField may be aliases
+      indexTypedField(doc, fieldName, value, registeredField);
     } else {
-      LuceneFieldDef registeredField = fieldDefMap.get(fieldName);
-      // If the field types are same or the fields are type aliases
-      if (registeredField.fieldType == valueType
-          || FieldType.areTypeAliasedFieldTypes(registeredField.fieldType, valueType)) {
-        // No field conflicts index it using previous description.
-        // Pass in registeredField here since the valueType and registeredField may be aliases
-        indexTypedField(doc, fieldName, value, registeredField);
-      } else {
-        // There is a field type conflict, index it using the field conflict policy.
-        switch (indexFieldConflictPolicy) {
-          case DROP_FIELD:
-            LOG.debug("Dropped field {} due to field type conflict", fieldName);
-            droppedFieldsCounter.increment();
-            break;
-          case CONVERT_FIELD_VALUE:
-            convertValueAndIndexField(value, valueType, registeredField, doc, fieldName);
-            LOG.debug(
-                "Converting field {} value from type {} to {} due to type conflict",
-                fieldName,
-                valueType,
-                registeredField.fieldType);
-            convertFieldValueCounter.increment();
-            break;
-          case CONVERT_VALUE_AND_DUPLICATE_FIELD:
-            convertValueAndIndexField(value, valueType, registeredField, doc, fieldName);
-            LOG.debug(
-                "Converting field {} value from type {} to {} due to type conflict",
-                fieldName,
-                valueType,
-                registeredField.fieldType);
-            // Add new field with new type
-            String newFieldName = makeNewFieldOfType(fieldName, valueType);
-            indexNewField(doc, newFieldName, value, valueType);
-            LOG.debug(
-                "Added new field {} of type {} due to type conflict", newFieldName, valueType);
-            convertAndDuplicateFieldCounter.increment();
-            break;
-          case RAISE_ERROR:
-            throw new FieldDefMismatchException(
-                String.format(
-                    "Field type for field %s is %s but new value is of type  %s. ",
-                    fieldName, registeredField.fieldType, valueType));
-        }
+      // There is a field type conflict, index it using the field conflict policy.
+      switch (indexFieldConflictPolicy) {
+        case DROP_FIELD:
+          LOG.debug("Dropped field {} due to field type conflict", fieldName);
+          droppedFieldsCounter.increment();
+          break;
+        case CONVERT_FIELD_VALUE:
+          convertValueAndIndexField(value, valueType, registeredField, doc, fieldName);
+          LOG.debug(
+              "Converting field {} value from type {} to {} due to type conflict",
+              fieldName,
+              valueType,
+              registeredField.fieldType);
+          convertFieldValueCounter.increment();
+          break;
+        case CONVERT_VALUE_AND_DUPLICATE_FIELD:
+          convertValueAndIndexField(value, valueType, registeredField, doc, fieldName);
+          LOG.debug(
+              "Converting field {} value from type {} to {} due to type conflict",
+              fieldName,
+              valueType,
+              registeredField.fieldType);
+          // Add new field with new type
+          String newFieldName = makeNewFieldOfType(fieldName, valueType);
+          LuceneFieldDef duplicateField = indexNewField(doc, newFieldName, value, valueType);
+          if (duplicateField != null) {
+            indexTypedField(doc, newFieldName, value, duplicateField);
+          }
+          LOG.debug("Added new field {} of type {} due to type conflict", newFieldName, valueType);
+          convertAndDuplicateFieldCounter.increment();
+          break;
+        case RAISE_ERROR:
+          throw new FieldDefMismatchException(
+              String.format(
+                  "Field type for field %s is %s but new value is of type  %s. ",
+                  fieldName, registeredField.fieldType, valueType));
       }
     }
   }
 
-  private void indexNewField(Document doc, String key, Object value, FieldType valueType) {
+  /**
+   * Register a new field def for the key and index the value with it. Documents may be built from
+   * multiple indexing threads, so if another thread registered the key first, the value isn't
+   * indexed and the previously registered field def is returned instead. Returns null on success.
+   */
+  private LuceneFieldDef indexNewField(
+      Document doc, String key, Object value, FieldType valueType) {
     // If we are seeing a field for the first time index it with default template for the
     // valueType and create a field def.
     if (!defaultPropDescriptionForType.containsKey(valueType)) {
@@ -232,10 +290,14 @@ public class SchemaAwareLogDocumentBuilderImpl implements DocumentBuilder<LogMes
             defaultPropDescription.isStored,
             defaultPropDescription.isIndexed,
             defaultPropDescription.storeDocValue);
+    LuceneFieldDef registeredFieldDef = fieldDefMap.putIfAbsent(key, newFieldDef);
+    if (registeredFieldDef != null) {
+      return registeredFieldDef;
+    }
     // add the document to this field.
     totalFieldsCounter.increment();
-    fieldDefMap.put(key, newFieldDef);
     indexTypedField(doc, key, value, newFieldDef);
+    return null;
   }
 
   static String makeNewFieldOfType(String key, FieldType valueType) {
@@ -266,9 +328,14 @@ public class SchemaAwareLogDocumentBuilderImpl implements DocumentBuilder<LogMes
     }
   }
 
-  private static void indexTypedField(
-      Document doc, String key, Object value, LuceneFieldDef fieldDef) {
-    fieldDef.fieldType.addField(doc, key, value, fieldDef);
+  private void indexTypedField(Document doc, String key, Object value, LuceneFieldDef fieldDef) {
+    if (fieldDef.fieldType == FieldType.TEXT
+        && !textFieldsWithPositions.isEmpty()
+        && !textFieldsWithPositions.contains(key)) {
+      FieldType.addTextFieldWithoutPositions(doc, key, value, fieldDef);
+    } else {
+      fieldDef.fieldType.addField(doc, key, value, fieldDef);
+    }
   }
 
   private static FieldType getJsonType(Object value) {
@@ -298,11 +365,36 @@ public class SchemaAwareLogDocumentBuilderImpl implements DocumentBuilder<LogMes
       FieldConflictPolicy fieldConflictPolicy,
       boolean enableFullTextSearch,
       MeterRegistry meterRegistry) {
+    return build(fieldConflictPolicy, enableFullTextSearch, false, meterRegistry);
+  }
+
+  public static SchemaAwareLogDocumentBuilderImpl build(
+      FieldConflictPolicy fieldConflictPolicy,
+      boolean enableFullTextSearch,
+      boolean binarySpanSource,
+      MeterRegistry meterRegistry) {
+    return build(
+        fieldConflictPolicy, enableFullTextSearch, binarySpanSource, Set.of(), meterRegistry);
+  }
+
+  /**
+   * Positions take up a large part of the postings of a text field, but are only used by phrase
+   * queries. So, only the text fields in textFieldsWithPositions index positions. All the text
+   * fields index positions if textFieldsWithPositions is empty.
+   */
+  public static SchemaAwareLogDocumentBuilderImpl build(
+      FieldConflictPolicy fieldConflictPolicy,
+      boolean enableFullTextSearch,
+      boolean binarySpanSource,
+      Set<String> textFieldsWithPositions,
+      MeterRegistry meterRegistry) {
     // Add basic fields by default
     return new SchemaAwareLogDocumentBuilderImpl(
         fieldConflictPolicy,
         getDefaultLuceneFieldDefinitions(enableFullTextSearch),
         enableFullTextSearch,
+        binarySpanSource,
+        textFieldsWithPositions,
         meterRegistry);
   }
 
@@ -314,6 +406,8 @@ public class SchemaAwareLogDocumentBuilderImpl implements DocumentBuilder<LogMes
 
   private final FieldConflictPolicy indexFieldConflictPolicy;
   private final boolean enableFullTextSearch;
+  private final boolean binarySpanSource;
+  private final Set<String> textFieldsWithPositions;
   private final ConcurrentHashMap<String, LuceneFieldDef> fieldDefMap = new ConcurrentHashMap<>();
   private final Counter droppedFieldsCounter;
   private final Counter convertErrorCounter;
@@ -325,9 +419,13 @@ public class SchemaAwareLogDocumentBuilderImpl implements DocumentBuilder<LogMes
       FieldConflictPolicy indexFieldConflictPolicy,
       final Map<String, LuceneFieldDef> initialFields,
       boolean enableFullTextSearch,
+      boolean binarySpanSource,
+      Set<String> textFieldsWithPositions,
       MeterRegistry meterRegistry) {
     this.indexFieldConflictPolicy = indexFieldConflictPolicy;
     this.enableFullTextSearch = enableFullTextSearch;
+    this.binarySpanSource = binarySpanSource;
+    this.textFieldsWithPositions = textFieldsWithPositions;
     // Note: Consider adding field name as a tag to help debugging, but it's high cardinality.
     droppedFieldsCounter = meterRegistry.counter(DROP_FIELDS_COUNTER);
     convertFieldValueCounter = meterRegistry.counter(CONVERT_FIELD_VALUE_COUNTER);
@@ -341,30 +439,193 @@ public class SchemaAwareLogDocumentBuilderImpl implements DocumentBuilder<LogMes
 
   @Override
   public Document fromMessage(LogMessage message) throws JsonProcessingException {
+    if (message instanceof SpanLogMessage) {
+      return fromSpan((SpanLogMessage) message);
+    }
+
     Document doc = new Document();
-    addField(doc, LogMessage.SystemField.INDEX.fieldName, message.getIndex(), "", 0);
+    addField(doc, LogMessage.SystemField.INDEX.fieldName, message.getIndex());
     addField(
         doc,
         LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName,
-        message.getTimestamp().toEpochMilli(),
-        "",
-        0);
-    addField(doc, LogMessage.ReservedField.TYPE.fieldName, message.getType(), "", 0);
-    addField(doc, LogMessage.SystemField.ID.fieldName, message.getId(), "", 0);
+        message.getTimestamp().toEpochMilli());
+    addField(doc, LogMessage.ReservedField.TYPE.fieldName, message.getType());
+    addField(doc, LogMessage.SystemField.ID.fieldName, message.getId());
 
     final String msgString = JsonUtil.writeAsString(message.toWireMessage());
-    addField(doc, LogMessage.SystemField.SOURCE.fieldName, msgString, "", 0);
+    addField(doc, LogMessage.SystemField.SOURCE.fieldName, msgString);
     if (enableFullTextSearch) {
-      addField(doc, LogMessage.SystemField.ALL.fieldName, msgString, "", 0);
+      addField(doc, LogMessage.SystemField.ALL.fieldName, msgString);
     }
 
-    for (String key : message.getSource().keySet()) {
-      addField(doc, key, message.getSource().get(key), "", 0);
+    for (Map.Entry<String, Object> entry : message.getSource().entrySet()) {
+      addField(doc, entry.getKey(), entry.getValue());
     }
     LOG.trace("Lucene document {} for message {}", doc, message);
     return doc;
   }
 
+  /**
+   * Builds a document directly from the span tags, instead of converting the span into a json map
+   * and serializing the message to fill the source field. The fields and the source are the same as
+   * the ones built for a LogMessage created by SpanFormatter.toLogMessage: when tags repeat a key,
+   * the last tag wins, and a tag overrides the reserved span field with the same key.
+   *
+   * <p>When binarySpanSource is set, the source field stores the span protobuf instead of json. The
+   * json is then only written if it's needed for the full text search field.
+   */
+  private Document fromSpan(SpanLogMessage message) throws JsonProcessingException {
+    final Trace.Span span = message.getSpan();
+    Document doc = new Document();
+    addField(doc, LogMessage.SystemField.INDEX.fieldName, message.getIndex());
+    addField(
+        doc,
+        LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName,
+        message.getTimestamp().toEpochMilli());
+    addField(doc, LogMessage.ReservedField.TYPE.fieldName, message.getType());
+    addField(doc, LogMessage.SystemField.ID.fieldName, message.getId());
+
+    // Write the source with the same layout as a serialized LogWireMessage, while indexing the
+    // source fields as we go.
+    final boolean writeJson = !binarySpanSource || enableFullTextSearch;
+    StringWriter sourceWriter = writeJson ? new StringWriter(span.getSerializedSize() * 2) : null;
+    try (JsonGenerator generator = writeJson ? JsonUtil.createGenerator(sourceWriter) : null) {
+      if (generator != null) {
+        generator.writeStartObject();
+        generator.writeStringField("id", message.getId());
+        generator.writeObjectField("timestamp", message.getTimestamp());
+        generator.writeObjectFieldStart("source");
+      }
+
+      // A field can only hold a single value, so the tags are collapsed with the last tag of a key
+      // winning, like the json map built by SpanFormatter.toLogMessage.
+      Map<String, Trace.KeyValue> tags = collapseSpanTags(span);
+      if (!tags.containsKey(LogMessage.ReservedField.PARENT_ID.fieldName)) {
+        addSpanField(
+            doc,
+            generator,
+            LogMessage.ReservedField.PARENT_ID.fieldName,
+            span.getParentId().toStringUtf8());
+      }
+      if (!tags.containsKey(LogMessage.ReservedField.TRACE_ID.fieldName)) {
+        addSpanField(
+            doc,
+            generator,
+            LogMessage.ReservedField.TRACE_ID.fieldName,
+            span.getTraceId().toStringUtf8());
+      }
+      if (!tags.containsKey(LogMessage.ReservedField.NAME.fieldName)) {
+        addSpanField(doc, generator, LogMessage.ReservedField.NAME.fieldName, span.getName());
+      }
+      if (!tags.containsKey(LogMessage.ReservedField.DURATION_MS.fieldName)) {
+        addSpanField(
+            doc,
+            generator,
+            LogMessage.ReservedField.DURATION_MS.fieldName,
+            Duration.of(span.getDuration(), ChronoUnit.MICROS).toMillis());
+      }
+      if (message.hasInvalidTimestamp()
+          && !tags.containsKey(LogMessage.ReservedField.KALDB_INVALID_TIMESTAMP.fieldName)) {
+        addSpanField(
+            doc,
+            generator,
+            LogMessage.ReservedField.KALDB_INVALID_TIMESTAMP.fieldName,
+            span.getTimestamp());
+      }
+
+      for (Trace.KeyValue tag : tags.values()) {
+        String key = tag.getKey();
+        int valueType = tag.getVType().getNumber();
+        if (valueType == 0) {
+          addSpanField(doc, generator, key, tag.getVStr());
+        } else if (valueType == 1) {
+          if (generator != null) {
+            generator.writeBooleanField(key, tag.getVBool());
+          }
+          addField(doc, key, tag.getVBool());
+        } else if (valueType == 2) {
+          addSpanField(doc, generator, key, tag.getVInt64());
+        } else if (valueType == 3) {
+          if (generator != null) {
+            generator.writeNumberField(key, tag.getVFloat64());
+          }
+          addField(doc, key, tag.getVFloat64());
+        } else {
+          addSpanField(doc, generator, key, SpanFormatter.encodeBinaryTagValue(tag.getVBinary()));
+        }
+      }
+      addSpanField(
+          doc,
+          generator,
+          LogMessage.ReservedField.SERVICE_NAME.fieldName,
+          SpanFormatter.getServiceName(span));
+
+      if (generator != null) {
+        generator.writeEndObject();
+        generator.writeStringField("index", message.getIndex());
+        generator.writeStringField("type", message.getType());
+        generator.writeEndObject();
+      }
+      if (binarySpanSource) {
+        doc.add(new StoredField(LogMessage.SystemField.SOURCE.fieldName, message.toSourceBytes()));
+      }
+    } catch (JsonProcessingException e) {
+      throw e;
+    } catch (IOException e) {
+      // Writing to a string writer or a byte array doesn't do any I/O, so handle this like
+      // ObjectMapper does.
+      throw JsonMappingException.fromUnexpectedIOE(e);
+    }
+
+    if (writeJson) {
+      final String msgString = sourceWriter.toString();
+      if (!binarySpanSource) {
+        addField(doc, LogMessage.SystemField.SOURCE.fieldName, msgString);
+      }
+      if (enableFullTextSearch) {
+        addField(doc, LogMessage.SystemField.ALL.fieldName, msgString);
+      }
+    }
+    LOG.trace("Lucene document {} for span {}", doc, span);
+    return doc;
+  }
+
+  /**
+   * Returns the tags of the span by key, with the last tag of a key winning. The service name is
+   * always set from the span, so its tags are left out, as are a string tag with the key "type" and
+   * the tags with an unknown value type.
+   */
+  private static Map<String, Trace.KeyValue> collapseSpanTags(Trace.Span span) {
+    Map<String, Trace.KeyValue> tags = new LinkedHashMap<>(span.getTagsCount());
+    for (Trace.KeyValue tag : span.getTagsList()) {
+      String key = tag.getKey();
+      int valueType = tag.getVType().getNumber();
+      if (valueType < 0 || valueType > 4) {
+        LOG.warn("Skipping field with unknown value type {} with key {}", valueType, key);
+      } else if (!key.equals(LogMessage.ReservedField.SERVICE_NAME.fieldName)
+          && !(valueType == 0 && key.equals(LogMessage.ReservedField.TYPE.fieldName))) {
+        tags.put(key, tag);
+      }
+    }
+    return tags;
+  }
+
+  private void addSpanField(Document doc, JsonGenerator generator, String key, String value)
+      throws IOException {
+    if (generator != null) {
+      generator.writeStringField(key, value);
+    }
+    addField(doc, key, value);
+  }
+
+  private void addSpanField(Document doc, JsonGenerator generator, String key, long value)
+      throws IOException {
+    if (generator != null) {
+      generator.writeNumberField(key, value);
+    }
+    addField(doc, key, value);
+  }
+
   @Override
   public ConcurrentHashMap<String, LuceneFieldDef> getSchema() {
     return fieldDefMap;
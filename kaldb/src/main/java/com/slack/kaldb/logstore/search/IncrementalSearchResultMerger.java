@@ -0,0 +1,52 @@
+package com.slack.kaldb.logstore.search;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.slack.kaldb.logstore.LogMessage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges the partial results of a streaming search as they arrive. The results are merged in
+ * batches, so only the merged result and a batch of partial results are held in memory instead of
+ * all the partial results, and the aggregations are reduced once per batch instead of once per
+ * partial result.
+ */
+public class IncrementalSearchResultMerger<T extends LogMessage> {
+  @VisibleForTesting static final int MERGE_BATCH_SIZE = 16;
+
+  private final SearchResultAggregator<T> searchResultAggregator;
+  private final List<SearchResult<T>> pendingResults = new ArrayList<>();
+  private SearchResult<T> mergedResult = new SearchResult<>(new ArrayList<>(), 0, 0, 0, 0, 0, null);
+
+  public IncrementalSearchResultMerger(SearchQuery searchQuery) {
+    this.searchResultAggregator = new SearchResultAggregatorImpl<>(searchQuery);
+  }
+
+  public synchronized void add(SearchResult<T> searchResult) {
+    pendingResults.add(searchResult);
+    if (pendingResults.size() >= MERGE_BATCH_SIZE) {
+      merge();
+    }
+  }
+
+  /**
+   * Returns the merge of all the results added so far. Like the result of a node, the aggregations
+   * are only partially reduced, so the result still needs a final aggregation.
+   */
+  public synchronized SearchResult<T> getMergedResult() {
+    merge();
+    return mergedResult;
+  }
+
+  private void merge() {
+    if (pendingResults.isEmpty()) {
+      return;
+    }
+    // The merged result goes first, so its aggregation is reused by the reduce.
+    List<SearchResult<T>> searchResults = new ArrayList<>(pendingResults.size() + 1);
+    searchResults.add(mergedResult);
+    searchResults.addAll(pendingResults);
+    mergedResult = searchResultAggregator.aggregate(searchResults, false);
+    pendingResults.clear();
+  }
+}
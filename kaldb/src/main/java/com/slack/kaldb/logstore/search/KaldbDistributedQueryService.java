@@ -1,19 +1,18 @@
 package com.slack.kaldb.logstore.search;
 
-import static com.slack.kaldb.chunk.ChunkInfo.containsDataInTimeRange;
-
 import brave.ScopedSpan;
 import brave.Tracing;
 import brave.grpc.GrpcTracing;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.linecorp.armeria.client.grpc.GrpcClients;
 import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.metadata.core.KaldbMetadataStoreChangeListener;
 import com.slack.kaldb.metadata.dataset.DatasetMetadataStore;
-import com.slack.kaldb.metadata.dataset.DatasetPartitionMetadata;
 import com.slack.kaldb.metadata.search.SearchMetadata;
 import com.slack.kaldb.metadata.search.SearchMetadataStore;
 import com.slack.kaldb.metadata.snapshot.SnapshotMetadata;
@@ -21,26 +20,31 @@ import com.slack.kaldb.metadata.snapshot.SnapshotMetadataStore;
 import com.slack.kaldb.proto.service.KaldbSearch;
 import com.slack.kaldb.proto.service.KaldbServiceGrpc;
 import com.slack.kaldb.server.KaldbQueryServiceBase;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import java.io.Closeable;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,8 +61,6 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase implemen
   private static final Logger LOG = LoggerFactory.getLogger(KaldbDistributedQueryService.class);
 
   private final SearchMetadataStore searchMetadataStore;
-  private final SnapshotMetadataStore snapshotMetadataStore;
-  private final DatasetMetadataStore datasetMetadataStore;
 
   // There can be 100s of nodes to query the schema. Tecnically asking 1 node is enough.
   // But to be in the safe we query upto 5 nodes
@@ -71,6 +73,8 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase implemen
 
   protected final Map<String, KaldbServiceGrpc.KaldbServiceFutureStub> stubs =
       new ConcurrentHashMap<>();
+  private final Map<String, KaldbServiceGrpc.KaldbServiceStub> streamingStubs =
+      new ConcurrentHashMap<>();
 
   public static final String DISTRIBUTED_QUERY_APDEX_SATISFIED =
       "distributed_query_apdex_satisfied";
@@ -89,12 +93,28 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase implemen
   private final Counter distributedQueryApdexFrustrated;
   private final Counter distributedQueryTotalSnapshots;
   private final Counter distributedQuerySnapshotsWithReplicas;
+
+  public static final String DISTRIBUTED_QUERY_HEDGED_REQUESTS =
+      "distributed_query_hedged_requests";
+  public static final String DISTRIBUTED_QUERY_HEDGED_REQUESTS_WON =
+      "distributed_query_hedged_requests_won";
+
+  private final Counter distributedQueryHedgedRequests;
+  private final Counter distributedQueryHedgedRequestsWon;
   // Timeouts are structured such that we always attempt to return a successful response, as we
   // include metadata that should always be present. The Armeria timeout is used at the top request,
   // distributed query is used as a deadline for all nodes to return, and the local query timeout
   // is used for controlling lucene future timeouts.
   private final Duration requestTimeout;
   private final Duration defaultQueryTimeout;
+  // Skips the snapshots that can't match the query string, or null to search all the snapshots.
+  private final SnapshotBloomFilterPruner snapshotBloomFilterPruner;
+  // Tracks the latency and load of the nodes, to pick the replicas of the snapshots to search.
+  private final ReplicaSelector replicaSelector = new ReplicaSelector();
+  // Finds the snapshots and search metadata of a query without filtering all of them.
+  private final SnapshotIndex snapshotIndex;
+  // Hedges the searches of slow nodes, or null to wait for every node.
+  private final RequestHedger requestHedger;
   private final ScheduledExecutorService executorService =
       Executors.newSingleThreadScheduledExecutor();
   private ScheduledFuture<?> pendingStubUpdate;
@@ -113,9 +133,49 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase implemen
       MeterRegistry meterRegistry,
       Duration requestTimeout,
       Duration defaultQueryTimeout) {
+    this(
+        searchMetadataStore,
+        snapshotMetadataStore,
+        datasetMetadataStore,
+        meterRegistry,
+        requestTimeout,
+        defaultQueryTimeout,
+        null);
+  }
+
+  public KaldbDistributedQueryService(
+      SearchMetadataStore searchMetadataStore,
+      SnapshotMetadataStore snapshotMetadataStore,
+      DatasetMetadataStore datasetMetadataStore,
+      MeterRegistry meterRegistry,
+      Duration requestTimeout,
+      Duration defaultQueryTimeout,
+      SnapshotBloomFilterPruner snapshotBloomFilterPruner) {
+    this(
+        searchMetadataStore,
+        snapshotMetadataStore,
+        datasetMetadataStore,
+        meterRegistry,
+        requestTimeout,
+        defaultQueryTimeout,
+        snapshotBloomFilterPruner,
+        null);
+  }
+
+  public KaldbDistributedQueryService(
+      SearchMetadataStore searchMetadataStore,
+      SnapshotMetadataStore snapshotMetadataStore,
+      DatasetMetadataStore datasetMetadataStore,
+      MeterRegistry meterRegistry,
+      Duration requestTimeout,
+      Duration defaultQueryTimeout,
+      SnapshotBloomFilterPruner snapshotBloomFilterPruner,
+      RequestHedger requestHedger) {
+    this.snapshotBloomFilterPruner = snapshotBloomFilterPruner;
+    this.requestHedger = requestHedger;
+    this.snapshotIndex =
+        new SnapshotIndex(snapshotMetadataStore, searchMetadataStore, datasetMetadataStore);
     this.searchMetadataStore = searchMetadataStore;
-    this.snapshotMetadataStore = snapshotMetadataStore;
-    this.datasetMetadataStore = datasetMetadataStore;
     this.requestTimeout = requestTimeout;
     this.defaultQueryTimeout = defaultQueryTimeout;
     searchMetadataTotalChangeCounter = meterRegistry.counter(SEARCH_METADATA_TOTAL_CHANGE_COUNTER);
@@ -127,6 +187,9 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase implemen
     this.distributedQueryTotalSnapshots = meterRegistry.counter(DISTRIBUTED_QUERY_TOTAL_SNAPSHOTS);
     this.distributedQuerySnapshotsWithReplicas =
         meterRegistry.counter(DISTRIBUTED_QUERY_SNAPSHOTS_WITH_REPLICAS);
+    this.distributedQueryHedgedRequests = meterRegistry.counter(DISTRIBUTED_QUERY_HEDGED_REQUESTS);
+    this.distributedQueryHedgedRequestsWon =
+        meterRegistry.counter(DISTRIBUTED_QUERY_HEDGED_REQUESTS_WON);
 
     // start listening for new events
     this.searchMetadataStore.addListener(searchMetadataListener);
@@ -177,6 +240,7 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase implemen
                 LOG.debug("SearchMetadata listener event. Removing server={}", server);
                 if (!latestSearchServers.contains(server)) {
                   stubs.remove(server);
+                  streamingStubs.remove(server);
                   removedStubs.getAndIncrement();
                 }
               });
@@ -201,22 +265,44 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase implemen
         .withCompression("gzip");
   }
 
+  private KaldbServiceGrpc.KaldbServiceStub getKaldbServiceStreamingGrpcClient(String server) {
+    return GrpcClients.builder(server)
+        .build(KaldbServiceGrpc.KaldbServiceStub.class)
+        .withCompression("gzip");
+  }
+
   @VisibleForTesting
   protected static Map<String, List<String>> getNodesAndSnapshotsToQuery(
       Map<String, List<SearchMetadata>> searchMetadataNodesBySnapshotName) {
+    return getNodesAndSnapshotsToQuery(searchMetadataNodesBySnapshotName, new ReplicaSelector());
+  }
+
+  @VisibleForTesting
+  protected static Map<String, List<String>> getNodesAndSnapshotsToQuery(
+      Map<String, List<SearchMetadata>> searchMetadataNodesBySnapshotName,
+      ReplicaSelector replicaSelector) {
     ScopedSpan getQueryNodesSpan =
         Tracing.currentTracer()
             .startScopedSpan("KaldbDistributedQueryService.getNodesAndSnapshotsToQuery");
+    // The snapshots with the fewest replicas are assigned first, so that the snapshots with more
+    // replicas can be assigned around them.
+    List<List<SearchMetadata>> searchMetadataLists =
+        new ArrayList<>(searchMetadataNodesBySnapshotName.values());
+    Collections.shuffle(searchMetadataLists);
+    searchMetadataLists.sort(Comparator.comparingInt(List::size));
     Map<String, List<String>> nodeUrlToSnapshotNames = new HashMap<>();
-    for (List<SearchMetadata> searchMetadataList : searchMetadataNodesBySnapshotName.values()) {
+    for (List<SearchMetadata> searchMetadataList : searchMetadataLists) {
       SearchMetadata searchMetadata =
-          KaldbDistributedQueryService.pickSearchNodeToQuery(searchMetadataList);
+          KaldbDistributedQueryService.pickSearchNodeToQuery(
+              searchMetadataList, replicaSelector, nodeUrlToSnapshotNames);
 
       if (nodeUrlToSnapshotNames.containsKey(searchMetadata.url)) {
-        nodeUrlToSnapshotNames.get(searchMetadata.url).add(getRawSnapshotName(searchMetadata));
+        nodeUrlToSnapshotNames
+            .get(searchMetadata.url)
+            .add(SnapshotIndex.getRawSnapshotName(searchMetadata));
       } else {
         List<String> snapshotNames = new ArrayList<>();
-        snapshotNames.add(getRawSnapshotName(searchMetadata));
+        snapshotNames.add(SnapshotIndex.getRawSnapshotName(searchMetadata));
         nodeUrlToSnapshotNames.put(searchMetadata.url, snapshotNames);
       }
     }
@@ -225,97 +311,16 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase implemen
     return nodeUrlToSnapshotNames;
   }
 
-  @VisibleForTesting
-  protected static Map<String, List<SearchMetadata>> getMatchingSearchMetadata(
-      SearchMetadataStore searchMetadataStore, Map<String, SnapshotMetadata> snapshotsToSearch) {
-    // iterate every search metadata whose snapshot needs to be searched.
-    // if there are multiple search metadata nodes then pick the most on based on
-    // pickSearchNodeToQuery
-    ScopedSpan getMatchingSearchMetadataSpan =
-        Tracing.currentTracer()
-            .startScopedSpan("KaldbDistributedQueryService.getMatchingSearchMetadata");
-
-    Map<String, List<SearchMetadata>> searchMetadataGroupedByName = new HashMap<>();
-    for (SearchMetadata searchMetadata : searchMetadataStore.listSync()) {
-      if (!snapshotsToSearch.containsKey(searchMetadata.snapshotName)) {
-        continue;
-      }
-
-      String rawSnapshotName = KaldbDistributedQueryService.getRawSnapshotName(searchMetadata);
-      if (searchMetadataGroupedByName.containsKey(rawSnapshotName)) {
-        searchMetadataGroupedByName.get(rawSnapshotName).add(searchMetadata);
-      } else {
-        List<SearchMetadata> searchMetadataList = new ArrayList<>();
-        searchMetadataList.add(searchMetadata);
-        searchMetadataGroupedByName.put(rawSnapshotName, searchMetadataList);
-      }
-    }
-    getMatchingSearchMetadataSpan.finish();
-    return searchMetadataGroupedByName;
-  }
-
-  @VisibleForTesting
-  protected static Map<String, SnapshotMetadata> getMatchingSnapshots(
-      SnapshotMetadataStore snapshotMetadataStore,
-      DatasetMetadataStore datasetMetadataStore,
-      long queryStartTimeEpochMs,
-      long queryEndTimeEpochMs,
-      String dataset) {
-    ScopedSpan findPartitionsToQuerySpan =
-        Tracing.currentTracer()
-            .startScopedSpan("KaldbDistributedQueryService.findPartitionsToQuery");
-
-    List<DatasetPartitionMetadata> partitions =
-        DatasetPartitionMetadata.findPartitionsToQuery(
-            datasetMetadataStore, queryStartTimeEpochMs, queryEndTimeEpochMs, dataset);
-    findPartitionsToQuerySpan.finish();
-
-    // find all snapshots that match time window and partition
-    ScopedSpan snapshotsToSearchSpan =
-        Tracing.currentTracer().startScopedSpan("KaldbDistributedQueryService.snapshotsToSearch");
-    Map<String, SnapshotMetadata> snapshotsToSearch = new HashMap<>();
-    for (SnapshotMetadata snapshotMetadata : snapshotMetadataStore.listSync()) {
-      if (containsDataInTimeRange(
-              snapshotMetadata.startTimeEpochMs,
-              snapshotMetadata.endTimeEpochMs,
-              queryStartTimeEpochMs,
-              queryEndTimeEpochMs)
-          && isSnapshotInPartition(snapshotMetadata, partitions)) {
-        snapshotsToSearch.put(snapshotMetadata.name, snapshotMetadata);
-      }
-    }
-    snapshotsToSearchSpan.finish();
-    return snapshotsToSearch;
-  }
-
-  public static boolean isSnapshotInPartition(
-      SnapshotMetadata snapshotMetadata, List<DatasetPartitionMetadata> partitions) {
-    for (DatasetPartitionMetadata partition : partitions) {
-      if (partition.partitions.contains(snapshotMetadata.partitionId)
-          && containsDataInTimeRange(
-              partition.startTimeEpochMs,
-              partition.endTimeEpochMs,
-              snapshotMetadata.startTimeEpochMs,
-              snapshotMetadata.endTimeEpochMs)) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-  private static String getRawSnapshotName(SearchMetadata searchMetadata) {
-    return searchMetadata.snapshotName.startsWith("LIVE")
-        ? searchMetadata.snapshotName.substring(5) // LIVE_
-        : searchMetadata.snapshotName;
-  }
-
   /*
    If there is only one node hosting the snapshot use that
    If the same snapshot exists on indexer and cache node prefer cache
-   If there are multiple cache nodes, pick a cache node at random
+   If there are multiple cache nodes, pick the cache node that is expected to answer first, given
+   the snapshots of the query that were already assigned to the nodes
   */
   private static SearchMetadata pickSearchNodeToQuery(
-      List<SearchMetadata> queryableSearchMetadataNodes) {
+      List<SearchMetadata> queryableSearchMetadataNodes,
+      ReplicaSelector replicaSelector,
+      Map<String, List<String>> nodeUrlToSnapshotNames) {
     if (queryableSearchMetadataNodes.size() == 1) {
       return queryableSearchMetadataNodes.get(0);
     } else {
@@ -328,10 +333,40 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase implemen
       if (cacheNodeHostedSearchMetadata.size() == 1) {
         return cacheNodeHostedSearchMetadata.get(0);
       } else {
-        return cacheNodeHostedSearchMetadata.get(
-            ThreadLocalRandom.current().nextInt(cacheNodeHostedSearchMetadata.size()));
+        return pickFastestReplica(
+            cacheNodeHostedSearchMetadata.isEmpty()
+                ? queryableSearchMetadataNodes
+                : cacheNodeHostedSearchMetadata,
+            replicaSelector,
+            nodeUrlToSnapshotNames);
+      }
+    }
+  }
+
+  /**
+   * Picks the replica on the node that is expected to answer first, given the snapshots of the
+   * query that were already assigned to the nodes.
+   */
+  private static SearchMetadata pickFastestReplica(
+      List<SearchMetadata> searchMetadataReplicas,
+      ReplicaSelector replicaSelector,
+      Map<String, List<String>> nodeUrlToSnapshotNames) {
+    // Nodes with the same score are picked at random.
+    List<SearchMetadata> candidates = new ArrayList<>(searchMetadataReplicas);
+    Collections.shuffle(candidates);
+    SearchMetadata fastestSearchMetadata = null;
+    double fastestScore = Double.MAX_VALUE;
+    for (SearchMetadata searchMetadata : candidates) {
+      double score =
+          replicaSelector.getScore(
+              searchMetadata.url,
+              nodeUrlToSnapshotNames.getOrDefault(searchMetadata.url, List.of()).size());
+      if (fastestSearchMetadata == null || score < fastestScore) {
+        fastestSearchMetadata = searchMetadata;
+        fastestScore = score;
       }
     }
+    return fastestSearchMetadata;
   }
 
   private KaldbServiceGrpc.KaldbServiceFutureStub getStub(String url) {
@@ -345,92 +380,468 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase implemen
     }
   }
 
+  private KaldbServiceGrpc.KaldbServiceStub getStreamingStub(String url) {
+    return streamingStubs.computeIfAbsent(url, this::getKaldbServiceStreamingGrpcClient);
+  }
+
+  /**
+   * Returns true if snapshots in the time range of the query were skipped because they only hold
+   * data past the search after cursor. The hits of those snapshots aren't counted, so the total
+   * hits are only a lower bound.
+   */
+  private boolean skippedSnapshotsPastSearchAfter(SearchQuery searchQuery, int matchingSnapshots) {
+    if (searchQuery.getResultStartTimeEpochMs() == searchQuery.startTimeEpochMs
+        && searchQuery.getResultEndTimeEpochMs() == searchQuery.endTimeEpochMs) {
+      return false;
+    }
+    return matchingSnapshots
+        < snapshotIndex
+            .getMatchingSnapshots(
+                searchQuery.startTimeEpochMs, searchQuery.endTimeEpochMs, searchQuery.dataset)
+            .size();
+  }
+
   private List<SearchResult<LogMessage>> distributedSearch(
       final KaldbSearch.SearchRequest distribSearchReq) {
     LOG.debug("Starting distributed search for request: {}", distribSearchReq);
     ScopedSpan span =
         Tracing.currentTracer().startScopedSpan("KaldbDistributedQueryService.distributedSearch");
 
+    // The snapshots that only hold data past the search after cursor of the query, in the sort
+    // order of the query, are skipped.
+    SearchQuery searchQuery = SearchResultUtils.fromSearchRequest(distribSearchReq);
+    long resultStartTimeEpochMs = searchQuery.getResultStartTimeEpochMs();
+    long resultEndTimeEpochMs = searchQuery.getResultEndTimeEpochMs();
     Map<String, SnapshotMetadata> snapshotsMatchingQuery =
-        getMatchingSnapshots(
-            snapshotMetadataStore,
-            datasetMetadataStore,
-            distribSearchReq.getStartTimeEpochMs(),
-            distribSearchReq.getEndTimeEpochMs(),
-            distribSearchReq.getDataset());
+        resultEndTimeEpochMs < resultStartTimeEpochMs
+            ? new HashMap<>()
+            : snapshotIndex.getMatchingSnapshots(
+                resultStartTimeEpochMs, resultEndTimeEpochMs, distribSearchReq.getDataset());
+    boolean skippedSnapshots =
+        skippedSnapshotsPastSearchAfter(searchQuery, snapshotsMatchingQuery.size());
+    if (snapshotBloomFilterPruner != null) {
+      snapshotsMatchingQuery =
+          snapshotBloomFilterPruner.prune(
+              snapshotsMatchingQuery, distribSearchReq.getQueryString());
+    }
 
     // for each matching snapshot, we find the search metadata nodes that we can potentially query
     Map<String, List<SearchMetadata>> searchMetadataNodesMatchingQuery =
-        getMatchingSearchMetadata(searchMetadataStore, snapshotsMatchingQuery);
+        snapshotIndex.getMatchingSearchMetadata(snapshotsMatchingQuery);
 
     // from the list of search metadata nodes per snapshot, pick one. Additionally map it to the
     // underlying URL to query
     Map<String, List<String>> nodesAndSnapshotsToQuery =
-        getNodesAndSnapshotsToQuery(searchMetadataNodesMatchingQuery);
+        getNodesAndSnapshotsToQuery(searchMetadataNodesMatchingQuery, replicaSelector);
 
     span.tag("queryServerCount", String.valueOf(nodesAndSnapshotsToQuery.size()));
-    List<ListenableFuture<SearchResult<LogMessage>>> queryServers = new ArrayList<>(stubs.size());
+    // The nodes stream the result of every chunk as soon as it is searched, and the results are
+    // merged as they arrive, so a slow chunk doesn't hold back the results of the other chunks.
+    IncrementalSearchResultMerger<LogMessage> resultMerger =
+        new IncrementalSearchResultMerger<>(searchQuery);
+    if (skippedSnapshots) {
+      // An empty result that only marks the merged total hits as a lower bound.
+      resultMerger.add(new SearchResult<>(new ArrayList<>(), 0, 0, 0, 0, 0, 0, 0, true, null));
+    }
+    List<SnapshotsSearch> snapshotsSearches = new ArrayList<>(nodesAndSnapshotsToQuery.size());
     for (Map.Entry<String, List<String>> searchNode : nodesAndSnapshotsToQuery.entrySet()) {
-      KaldbServiceGrpc.KaldbServiceFutureStub stub = getStub(searchNode.getKey());
-      if (stub == null) {
-        // TODO: insert a failed result in the results object that we return from this method
-        // mimicing
-        continue;
-      }
-
-      KaldbSearch.SearchRequest localSearchReq =
-          distribSearchReq.toBuilder().addAllChunkIds(searchNode.getValue()).build();
-
-      // make sure all underlying futures finish executing (successful/cancelled/failed/other)
-      // and cannot be pending when the successfulAsList.get(SAME_TIMEOUT_MS) runs
-      ListenableFuture<KaldbSearch.SearchResult> searchRequest =
-          stub.withDeadlineAfter(defaultQueryTimeout.toMillis(), TimeUnit.MILLISECONDS)
-              .withInterceptors(
-                  GrpcTracing.newBuilder(Tracing.current()).build().newClientInterceptor())
-              .search(localSearchReq);
-      Function<KaldbSearch.SearchResult, SearchResult<LogMessage>> searchRequestTransform =
-          SearchResultUtils::fromSearchResultProtoOrEmpty;
+      SnapshotsSearch snapshotsSearch =
+          new SnapshotsSearch(
+              searchNode.getKey(), searchNode.getValue(), distribSearchReq, resultMerger);
+      snapshotsSearch.start();
+      snapshotsSearches.add(snapshotsSearch);
+    }
 
-      queryServers.add(
-          Futures.transform(
-              searchRequest, searchRequestTransform::apply, MoreExecutors.directExecutor()));
+    // The snapshots of the nodes that are slower to answer than most node requests are searched on
+    // other nodes too.
+    ScheduledFuture<?> hedgeFuture = null;
+    long hedgeDelayNanos = requestHedger != null ? requestHedger.getHedgeDelayNanos() : -1;
+    if (hedgeDelayNanos >= 0) {
+      hedgeFuture =
+          executorService.schedule(
+              Tracing.current()
+                  .currentTraceContext()
+                  .wrap(
+                      () ->
+                          snapshotsSearches.forEach(
+                              snapshotsSearch ->
+                                  snapshotsSearch.hedge(searchMetadataNodesMatchingQuery))),
+              hedgeDelayNanos,
+              TimeUnit.NANOSECONDS);
     }
 
-    Future<List<SearchResult<LogMessage>>> searchFuture = Futures.successfulAsList(queryServers);
+    Future<List<Void>> searchFuture =
+        Futures.successfulAsList(
+            snapshotsSearches.stream().map(snapshotsSearch -> snapshotsSearch.completed).toList());
     try {
-      List<SearchResult<LogMessage>> searchResults =
-          searchFuture.get(requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
-      LOG.debug("searchResults.size={} searchResults={}", searchResults.size(), searchResults);
-
-      List<SearchResult<LogMessage>> response = new ArrayList(searchResults.size());
-      for (SearchResult<LogMessage> searchResult : searchResults) {
-        response.add(searchResult == null ? SearchResult.empty() : searchResult);
-      }
-      return response;
+      searchFuture.get(requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+      SearchResult<LogMessage> searchResult = resultMerger.getMergedResult();
+      LOG.debug("searchResult={}", searchResult);
+      return List.of(searchResult);
     } catch (TimeoutException e) {
       // We provide a deadline to the stub of "defaultQueryTimeout" - if this is sufficiently lower
       // than the request timeout, we would expect searchFuture.get(requestTimeout) to never throw
       // an exception. This however doesn't necessarily hold true if the query node is CPU
       // saturated, and there is not enough cpu time to fail the pending stub queries that have
-      // exceeded their deadline - causing the searchFuture get to fail with a timeout.
+      // exceeded their deadline - causing the searchFuture get to fail with a timeout. The results
+      // that were already streamed are returned, and the snapshots of the nodes that didn't
+      // complete are counted as timed out.
       LOG.error(
           "Search failed with timeout exception. This is potentially due to CPU saturation of the query node.",
           e);
       span.error(e);
-      return List.of(SearchResult.empty());
+      snapshotsSearches.forEach(SnapshotsSearch::finishUnsearched);
+      return List.of(resultMerger.getMergedResult());
     } catch (Exception e) {
       LOG.error("Search failed with ", e);
       span.error(e);
-      return List.of(SearchResult.empty());
+      return List.of(resultMerger.getMergedResult());
     } finally {
-      // always request future cancellation, so that any exceptions or incomplete futures don't
-      // continue to consume CPU on work that will not be used
+      // always cancel the searches, so that any incomplete streams don't continue to consume CPU
+      // on work that will not be used
+      if (hedgeFuture != null) {
+        hedgeFuture.cancel(false);
+      }
       searchFuture.cancel(false);
+      snapshotsSearches.forEach(SnapshotsSearch::cancel);
       LOG.debug("Finished distributed search for request: {}", distribSearchReq);
       span.finish();
     }
   }
 
+  /**
+   * The search of the snapshots assigned to a node. If the node is slow to answer, the same
+   * snapshots are also searched on other nodes holding replicas of them. Only the results of
+   * whichever side answers first are merged, and the other side is cancelled. Both sides search all
+   * the snapshots, so the results of the winning side count every snapshot, even if a node of the
+   * winning side fails.
+   */
+  private class SnapshotsSearch {
+    private final KaldbSearch.SearchRequest distribSearchReq;
+    private final IncrementalSearchResultMerger<LogMessage> resultMerger;
+    private final NodeSearch primary;
+    private final SettableFuture<Void> completed = SettableFuture.create();
+
+    // guarded by this
+    private final List<NodeSearch> hedges = new ArrayList<>();
+    private final Set<NodeSearch> finishedNodeSearches = new HashSet<>();
+    // The failures of the nodes that failed while the other side was still searching. They are
+    // only merged if the side of the node wins.
+    private final Map<NodeSearch, SearchResult<LogMessage>> heldFailures = new HashMap<>();
+    private Boolean hedgeWon = null;
+
+    private SnapshotsSearch(
+        String url,
+        List<String> snapshotNames,
+        KaldbSearch.SearchRequest distribSearchReq,
+        IncrementalSearchResultMerger<LogMessage> resultMerger) {
+      this.distribSearchReq = distribSearchReq;
+      this.resultMerger = resultMerger;
+      this.primary = new NodeSearch(url, snapshotNames, this, false);
+    }
+
+    private void start() {
+      if (requestHedger != null) {
+        requestHedger.requestStarted();
+      }
+      primary.start();
+    }
+
+    /**
+     * Searches the snapshots on the other nodes holding replicas of them, unless the node already
+     * answered, a snapshot has no other replica, or the hedging budget is used up.
+     */
+    private void hedge(Map<String, List<SearchMetadata>> searchMetadataBySnapshot) {
+      Map<String, List<String>> hedgeNodesAndSnapshots = new HashMap<>();
+      for (String snapshotName : primary.searchRequest.getChunkIdsList()) {
+        List<SearchMetadata> replicas = new ArrayList<>();
+        for (SearchMetadata searchMetadata :
+            searchMetadataBySnapshot.getOrDefault(snapshotName, List.of())) {
+          if (!searchMetadata.url.equals(primary.url)) {
+            replicas.add(searchMetadata);
+          }
+        }
+        if (replicas.isEmpty()) {
+          return;
+        }
+        SearchMetadata searchMetadata =
+            pickFastestReplica(replicas, replicaSelector, hedgeNodesAndSnapshots);
+        hedgeNodesAndSnapshots
+            .computeIfAbsent(searchMetadata.url, (k) -> new ArrayList<>())
+            .add(snapshotName);
+      }
+
+      synchronized (this) {
+        if (hedgeWon != null
+            || finishedNodeSearches.contains(primary)
+            || !requestHedger.tryAcquire(hedgeNodesAndSnapshots.size())) {
+          return;
+        }
+        LOG.debug("Hedging the search of node {} on {}", primary.url, hedgeNodesAndSnapshots);
+        for (Map.Entry<String, List<String>> hedgeNode : hedgeNodesAndSnapshots.entrySet()) {
+          NodeSearch hedge = new NodeSearch(hedgeNode.getKey(), hedgeNode.getValue(), this, true);
+          hedges.add(hedge);
+          // The hedges are started while holding the lock, so that they are cancelled if the
+          // node answers in the meantime.
+          hedge.start();
+        }
+      }
+      distributedQueryHedgedRequests.increment(hedgeNodesAndSnapshots.size());
+    }
+
+    /**
+     * Merges a result of a node, if the side of the node answered first. The first result of a side
+     * wins, unless it's a failure while the other side is still searching.
+     */
+    private void add(
+        NodeSearch nodeSearch, SearchResult<LogMessage> result, boolean last, boolean failed) {
+      List<NodeSearch> losers = List.of();
+      synchronized (this) {
+        if (last) {
+          finishedNodeSearches.add(nodeSearch);
+        }
+        if (hedgeWon == null) {
+          if (failed && isSearching(!nodeSearch.hedged)) {
+            heldFailures.put(nodeSearch, result);
+            return;
+          }
+          hedgeWon = nodeSearch.hedged;
+          for (NodeSearch winner : getSide(hedgeWon)) {
+            SearchResult<LogMessage> heldFailure = heldFailures.remove(winner);
+            if (heldFailure != null) {
+              resultMerger.add(heldFailure);
+            }
+          }
+          heldFailures.clear();
+          losers = getSide(!hedgeWon);
+        }
+        if (hedgeWon == nodeSearch.hedged) {
+          resultMerger.add(result);
+        }
+        if (!isSearching(hedgeWon)) {
+          completed.set(null);
+        }
+      }
+      if (!losers.isEmpty()) {
+        if (hedgeWon) {
+          distributedQueryHedgedRequestsWon.increment();
+        }
+        losers.forEach(NodeSearch::cancelLoser);
+      }
+    }
+
+    /** Completes the search if a node finished without returning its last result. */
+    private synchronized void nodeSearchCompleted(NodeSearch nodeSearch) {
+      finishedNodeSearches.add(nodeSearch);
+      if ((hedgeWon != null && !isSearching(hedgeWon))
+          || (!isSearching(false) && !isSearching(true))) {
+        completed.set(null);
+      }
+    }
+
+    private List<NodeSearch> getSide(boolean hedged) {
+      return hedged ? List.copyOf(hedges) : List.of(primary);
+    }
+
+    private boolean isSearching(boolean hedged) {
+      for (NodeSearch nodeSearch : getSide(hedged)) {
+        if (!finishedNodeSearches.contains(nodeSearch)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Counts the snapshots that weren't searched yet as timed out. */
+    private void finishUnsearched() {
+      List<NodeSearch> nodeSearches;
+      synchronized (this) {
+        nodeSearches = new ArrayList<>(hedges);
+      }
+      primary.finishUnsearched(true);
+      nodeSearches.forEach(nodeSearch -> nodeSearch.finishUnsearched(true));
+    }
+
+    private void cancel() {
+      List<NodeSearch> nodeSearches;
+      synchronized (this) {
+        nodeSearches = new ArrayList<>(hedges);
+      }
+      primary.cancel();
+      nodeSearches.forEach(NodeSearch::cancel);
+    }
+  }
+
+  /**
+   * The streaming search of snapshots on one node, which merges the results of the node as they
+   * arrive. If the node doesn't support streaming searches yet, the node is searched with a regular
+   * search instead. If the node fails or times out, the snapshots it didn't search are counted as
+   * failed or timed out.
+   */
+  private class NodeSearch
+      implements ClientResponseObserver<KaldbSearch.SearchRequest, KaldbSearch.SearchResult> {
+    private final String url;
+    private final KaldbSearch.SearchRequest searchRequest;
+    private final SnapshotsSearch snapshotsSearch;
+    // Whether this node searches the snapshots of a slow node.
+    private final boolean hedged;
+    private final SettableFuture<Void> completed = SettableFuture.create();
+    private volatile ClientCallStreamObserver<KaldbSearch.SearchRequest> requestStream;
+    // Whether the search was cancelled because the other side answered first.
+    private volatile boolean lost = false;
+    // The snapshots searched so far, and whether the node was counted in the merged result.
+    private int searchedSnapshots = 0;
+    private boolean finished = false;
+    private long startNanos;
+
+    private NodeSearch(
+        String url, List<String> snapshotNames, SnapshotsSearch snapshotsSearch, boolean hedged) {
+      this.url = url;
+      this.searchRequest =
+          snapshotsSearch.distribSearchReq.toBuilder().addAllChunkIds(snapshotNames).build();
+      this.snapshotsSearch = snapshotsSearch;
+      this.hedged = hedged;
+    }
+
+    private void start() {
+      startNanos = System.nanoTime();
+      replicaSelector.requestStarted(url);
+      completed.addListener(this::recordLatency, MoreExecutors.directExecutor());
+      getStreamingStub(url)
+          .withDeadlineAfter(defaultQueryTimeout.toMillis(), TimeUnit.MILLISECONDS)
+          .withInterceptors(
+              GrpcTracing.newBuilder(Tracing.current()).build().newClientInterceptor())
+          .streamingSearch(searchRequest, this);
+    }
+
+    private void recordLatency() {
+      if (lost) {
+        replicaSelector.requestCancelled(url);
+        return;
+      }
+      long latencyNanos = System.nanoTime() - startNanos;
+      boolean successful = isSuccessful(completed);
+      replicaSelector.requestCompleted(url, latencyNanos, !successful);
+      if (successful && requestHedger != null) {
+        requestHedger.requestCompleted(latencyNanos);
+      }
+    }
+
+    private void cancel() {
+      if (!completed.isDone() && requestStream != null) {
+        requestStream.cancel("Distributed search completed", null);
+      }
+    }
+
+    private void cancelLoser() {
+      lost = true;
+      if (!completed.isDone() && requestStream != null) {
+        requestStream.cancel("Another node answered first", null);
+      }
+    }
+
+    /**
+     * Counts the node as failed, and the snapshots that it didn't search as failed or timed out,
+     * unless the node already returned its last result. The total hits are a lower bound if any
+     * snapshot was not searched.
+     */
+    private void finishUnsearched(boolean timedOut) {
+      SearchResult<LogMessage> result;
+      synchronized (this) {
+        if (finished) {
+          return;
+        }
+        finished = true;
+        int unsearchedSnapshots = Math.max(0, searchRequest.getChunkIdsCount() - searchedSnapshots);
+        result =
+            new SearchResult<>(
+                new ArrayList<>(),
+                0,
+                1,
+                1,
+                unsearchedSnapshots,
+                0,
+                timedOut ? unsearchedSnapshots : 0,
+                0,
+                unsearchedSnapshots > 0,
+                null);
+      }
+      snapshotsSearch.add(this, result, true, true);
+    }
+
+    private void fail(Throwable t) {
+      finishUnsearched(Status.fromThrowable(t).getCode() == Status.Code.DEADLINE_EXCEEDED);
+      completed.setException(t);
+    }
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<KaldbSearch.SearchRequest> requestStream) {
+      this.requestStream = requestStream;
+    }
+
+    @Override
+    public void onNext(KaldbSearch.SearchResult searchResult) {
+      boolean last;
+      synchronized (this) {
+        if (finished) {
+          return;
+        }
+        // Only the last result of a node counts the node.
+        finished = searchResult.getTotalNodes() > 0;
+        last = finished;
+        searchedSnapshots += searchResult.getTotalSnapshots();
+      }
+      snapshotsSearch.add(
+          this, SearchResultUtils.fromSearchResultProtoOrEmpty(searchResult), last, false);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      if (Status.fromThrowable(t).getCode() == Status.Code.UNIMPLEMENTED) {
+        LOG.debug("Node {} doesn't support streaming searches", url);
+        ListenableFuture<KaldbSearch.SearchResult> searchResult =
+            getStub(url)
+                .withDeadlineAfter(defaultQueryTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .withInterceptors(
+                    GrpcTracing.newBuilder(Tracing.current()).build().newClientInterceptor())
+                .search(searchRequest);
+        Futures.addCallback(
+            searchResult,
+            new FutureCallback<>() {
+              @Override
+              public void onSuccess(KaldbSearch.SearchResult result) {
+                onNext(result);
+                completed.set(null);
+                snapshotsSearch.nodeSearchCompleted(NodeSearch.this);
+              }
+
+              @Override
+              public void onFailure(Throwable t) {
+                fail(t);
+              }
+            },
+            MoreExecutors.directExecutor());
+        return;
+      }
+      fail(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      completed.set(null);
+      snapshotsSearch.nodeSearchCompleted(this);
+    }
+  }
+
+  private static boolean isSuccessful(Future<?> future) {
+    try {
+      Futures.getDone(future);
+      return true;
+    } catch (ExecutionException | CancellationException e) {
+      return false;
+    }
+  }
+
   public KaldbSearch.SearchResult doSearch(final KaldbSearch.SearchRequest request) {
     try {
       List<SearchResult<LogMessage>> searchResults = distributedSearch(request);
@@ -472,21 +883,19 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase implemen
         Tracing.currentTracer().startScopedSpan("KaldbDistributedQueryService.distributedSchema");
 
     Map<String, SnapshotMetadata> snapshotsMatchingQuery =
-        getMatchingSnapshots(
-            snapshotMetadataStore,
-            datasetMetadataStore,
+        snapshotIndex.getMatchingSnapshots(
             distribSchemaReq.getStartTimeEpochMs(),
             distribSchemaReq.getEndTimeEpochMs(),
             distribSchemaReq.getDataset());
 
     // for each matching snapshot, we find the search metadata nodes that we can potentially query
     Map<String, List<SearchMetadata>> searchMetadataNodesMatchingQuery =
-        getMatchingSearchMetadata(searchMetadataStore, snapshotsMatchingQuery);
+        snapshotIndex.getMatchingSearchMetadata(snapshotsMatchingQuery);
 
     // from the list of search metadata nodes per snapshot, pick one. Additionally map it to the
     // underlying URL to query
     Map<String, List<String>> nodesAndSnapshotsToQuery =
-        getNodesAndSnapshotsToQuery(searchMetadataNodesMatchingQuery);
+        getNodesAndSnapshotsToQuery(searchMetadataNodesMatchingQuery, replicaSelector);
 
     List<ListenableFuture<KaldbSearch.SchemaResult>> queryServers = new ArrayList<>(stubs.size());
 
@@ -549,5 +958,9 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase implemen
   @Override
   public void close() {
     this.searchMetadataStore.removeListener(searchMetadataListener);
+    snapshotIndex.close();
+    if (snapshotBloomFilterPruner != null) {
+      snapshotBloomFilterPruner.close();
+    }
   }
 }
@@ -8,6 +8,8 @@ import com.slack.kaldb.proto.service.KaldbSearch;
 import com.slack.kaldb.server.KaldbQueryServiceBase;
 import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,12 +36,33 @@ public class KaldbLocalQueryService<T> extends KaldbQueryServiceBase {
     KaldbSearch.SearchResult result = SearchResultUtils.toSearchResultProto(searchResult);
     span.tag("totalNodes", String.valueOf(result.getTotalNodes()));
     span.tag("failedNodes", String.valueOf(result.getFailedNodes()));
-    span.tag("hitCount", String.valueOf(result.getHitsCount()));
+    span.tag("hitCount", String.valueOf(result.getHitsCount() + result.getSearchHitsCount()));
     span.finish();
     LOG.debug("Finished search request: {}", request);
     return result;
   }
 
+  @Override
+  public void doStreamingSearch(
+      KaldbSearch.SearchRequest request, Consumer<KaldbSearch.SearchResult> resultConsumer) {
+    LOG.debug("Received streaming search request: {}", request);
+    ScopedSpan span =
+        Tracing.currentTracer().startScopedSpan("KaldbLocalQueryService.doStreamingSearch");
+    SearchQuery query = SearchResultUtils.fromSearchRequest(request);
+    span.tag("query", query.toString());
+    AtomicInteger resultCount = new AtomicInteger();
+    chunkManager.streamingQuery(
+        query,
+        defaultQueryTimeout,
+        (searchResult) -> {
+          resultConsumer.accept(SearchResultUtils.toSearchResultProto(searchResult));
+          resultCount.incrementAndGet();
+        });
+    span.tag("resultCount", String.valueOf(resultCount.get()));
+    span.finish();
+    LOG.debug("Finished streaming search request: {}", request);
+  }
+
   @Override
   public KaldbSearch.SchemaResult getSchema(KaldbSearch.SchemaRequest request) {
     LOG.debug("Received schema request: {}", request);
@@ -0,0 +1,77 @@
+package com.slack.kaldb.logstore.search;
+
+import com.slack.kaldb.proto.config.KaldbConfigs;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LRUQueryCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The lucene query cache of a node. Lucene caches the matching documents of frequently used filters
+ * per segment, and the searchers of all chunks use lucene's default query cache, so it is shared by
+ * all the chunks of the node. The filters of log searches, like the dataset or a service name, are
+ * repeated across the chunks, so once cached they are read as bitsets instead of being searched.
+ */
+public class KaldbQueryCache {
+  private static final Logger LOG = LoggerFactory.getLogger(KaldbQueryCache.class);
+
+  public static final String QUERY_CACHE_HITS = "kaldb_query_cache_hits";
+  public static final String QUERY_CACHE_MISSES = "kaldb_query_cache_misses";
+  public static final String QUERY_CACHE_HIT_RATIO = "kaldb_query_cache_hit_ratio";
+  public static final String QUERY_CACHE_EVICTIONS = "kaldb_query_cache_evictions";
+  public static final String QUERY_CACHE_RAM_BYTES = "kaldb_query_cache_ram_bytes";
+  public static final String QUERY_CACHE_SIZE = "kaldb_query_cache_size";
+
+  // The max number of cached filters of lucene's default query cache.
+  private static final int DEFAULT_MAX_QUERIES = 1000;
+
+  private KaldbQueryCache() {}
+
+  /**
+   * Sets the default query cache and caching policy of lucene, which are used by all searchers
+   * created afterwards, and registers their metrics. Returns the query cache of the node.
+   */
+  public static LRUQueryCache initDefaultQueryCache(
+      KaldbConfigs.QueryCacheConfig queryCacheConfig, MeterRegistry meterRegistry) {
+    LRUQueryCache queryCache;
+    if (queryCacheConfig.getMaxSizeBytes() > 0) {
+      int maxQueries =
+          queryCacheConfig.getMaxQueries() > 0
+              ? queryCacheConfig.getMaxQueries()
+              : DEFAULT_MAX_QUERIES;
+      queryCache = new LRUQueryCache(maxQueries, queryCacheConfig.getMaxSizeBytes());
+      IndexSearcher.setDefaultQueryCache(queryCache);
+      LOG.info(
+          "Using a query cache with a max size of {} bytes and {} queries",
+          queryCacheConfig.getMaxSizeBytes(),
+          maxQueries);
+    } else {
+      // The default query cache of lucene is always an LRUQueryCache.
+      queryCache = (LRUQueryCache) IndexSearcher.getDefaultQueryCache();
+      LOG.info("Using the default lucene query cache");
+    }
+    IndexSearcher.setDefaultQueryCachingPolicy(new LogQueryCachingPolicy());
+
+    FunctionCounter.builder(QUERY_CACHE_HITS, queryCache, LRUQueryCache::getHitCount)
+        .register(meterRegistry);
+    FunctionCounter.builder(QUERY_CACHE_MISSES, queryCache, LRUQueryCache::getMissCount)
+        .register(meterRegistry);
+    FunctionCounter.builder(QUERY_CACHE_EVICTIONS, queryCache, LRUQueryCache::getEvictionCount)
+        .register(meterRegistry);
+    Gauge.builder(QUERY_CACHE_HIT_RATIO, queryCache, KaldbQueryCache::hitRatio)
+        .register(meterRegistry);
+    Gauge.builder(QUERY_CACHE_RAM_BYTES, queryCache, LRUQueryCache::ramBytesUsed)
+        .register(meterRegistry);
+    Gauge.builder(QUERY_CACHE_SIZE, queryCache, LRUQueryCache::getCacheSize)
+        .register(meterRegistry);
+    return queryCache;
+  }
+
+  private static double hitRatio(LRUQueryCache queryCache) {
+    long lookups = queryCache.getTotalCount();
+    return lookups == 0 ? 0 : (double) queryCache.getHitCount() / lookups;
+  }
+}
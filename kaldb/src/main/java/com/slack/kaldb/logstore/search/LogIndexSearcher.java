@@ -4,6 +4,25 @@ import com.slack.kaldb.logstore.search.aggregations.AggBuilder;
 import java.io.Closeable;
 
 public interface LogIndexSearcher<T> extends Closeable {
+  default SearchResult<T> search(
+      String dataset,
+      String query,
+      long minTime,
+      long maxTime,
+      int howMany,
+      AggBuilder aggBuilder) {
+    return search(
+        dataset, query, minTime, maxTime, howMany, null, SearchQuery.SortOrder.DESC, aggBuilder);
+  }
+
+  /** Searches for the hits in the sort order that sort after the search after hit, if set. */
   SearchResult<T> search(
-      String dataset, String query, long minTime, long maxTime, int howMany, AggBuilder aggBuilder);
+      String dataset,
+      String query,
+      long minTime,
+      long maxTime,
+      int howMany,
+      SearchQuery.SearchAfter searchAfter,
+      SearchQuery.SortOrder sortOrder,
+      AggBuilder aggBuilder);
 }
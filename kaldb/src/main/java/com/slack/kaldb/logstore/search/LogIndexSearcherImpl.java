@@ -11,30 +11,51 @@ import com.google.common.base.Stopwatch;
 import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.logstore.LogMessage.SystemField;
 import com.slack.kaldb.logstore.LogWireMessage;
+import com.slack.kaldb.logstore.LuceneIndexStoreImpl;
 import com.slack.kaldb.logstore.opensearch.OpenSearchAdapter;
 import com.slack.kaldb.logstore.search.aggregations.AggBuilder;
 import com.slack.kaldb.metadata.schema.LuceneFieldDef;
 import com.slack.kaldb.util.JsonUtil;
+import com.slack.kaldb.writer.SpanLogMessage;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.BulkScorer;
+import org.apache.lucene.search.CollectionTerminatedException;
 import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MultiCollectorManager;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.SortField.Type;
 import org.apache.lucene.search.TopFieldCollector;
 import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TotalHitCountCollectorManager;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.opensearch.search.aggregations.InternalAggregation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,6 +108,8 @@ public class LogIndexSearcherImpl implements LogIndexSearcher<LogMessage> {
       long startTimeMsEpoch,
       long endTimeMsEpoch,
       int howMany,
+      SearchQuery.SearchAfter searchAfter,
+      SearchQuery.SortOrder sortOrder,
       AggBuilder aggBuilder) {
 
     ensureNonEmptyString(dataset, "dataset should be a non-empty string");
@@ -94,7 +117,6 @@ public class LogIndexSearcherImpl implements LogIndexSearcher<LogMessage> {
     ensureTrue(startTimeMsEpoch >= 0, "start time should be non-negative value");
     ensureTrue(startTimeMsEpoch < endTimeMsEpoch, "end time should be greater than start time");
     ensureTrue(howMany >= 0, "hits requested should not be negative.");
-    ensureTrue(howMany > 0 || aggBuilder != null, "Hits or aggregation should be requested.");
 
     ScopedSpan span = Tracing.currentTracer().startScopedSpan("LogIndexSearcherImpl.search");
     span.tag("dataset", dataset);
@@ -102,6 +124,10 @@ public class LogIndexSearcherImpl implements LogIndexSearcher<LogMessage> {
     span.tag("startTimeMsEpoch", String.valueOf(startTimeMsEpoch));
     span.tag("endTimeMsEpoch", String.valueOf(endTimeMsEpoch));
     span.tag("howMany", String.valueOf(howMany));
+    span.tag("sortOrder", sortOrder.toString());
+    if (searchAfter != null) {
+      span.tag("searchAfter", searchAfter.toString());
+    }
 
     Stopwatch elapsedTime = Stopwatch.createStarted();
     try {
@@ -114,12 +140,32 @@ public class LogIndexSearcherImpl implements LogIndexSearcher<LogMessage> {
               dataset, queryStr, startTimeMsEpoch, endTimeMsEpoch, searcher);
       span.tag("lucene_query", query.toString());
       try {
+        // The query is rewritten once for the searches and the counts below.
+        Query rewrittenQuery = searcher.rewrite(query);
         List<LogMessage> results;
+        TotalHits totalHits;
         InternalAggregation internalAggregation = null;
+        // Searches the segments of the chunk concurrently while the node has idle cores.
+        IndexSearcher querySearcher = SegmentSearchExecutor.getSearcher(searcher);
 
-        if (howMany > 0) {
+        if (howMany > 0 && aggBuilder == null && sortOrder == SearchQuery.SortOrder.ASC) {
+          // Only a window of documents of each segment is scored, which IndexSearcher.search can't
+          // do, so the segments are searched one after the other on this thread with the searcher
+          // instead of concurrently with the querySearcher. The windows are small, though.
+          TopFieldDocs topFieldDocs =
+              searchOldestHits(searcher, rewrittenQuery, howMany, searchAfter);
+          results = fetchLogMessages(searcher, topFieldDocs.scoreDocs);
+          // The hits before the windows at the end of the segments weren't counted.
+          totalHits =
+              new TotalHits(
+                  topFieldDocs.totalHits.value, TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO);
+        } else if (howMany > 0) {
           CollectorManager<TopFieldCollector, TopFieldDocs> topFieldCollector =
-              buildTopFieldCollector(howMany, aggBuilder != null ? Integer.MAX_VALUE : howMany);
+              buildTopFieldCollector(
+                  howMany,
+                  aggBuilder != null ? Integer.MAX_VALUE : howMany,
+                  searchAfter,
+                  sortOrder);
           MultiCollectorManager collectorManager;
           if (aggBuilder != null) {
             collectorManager =
@@ -129,26 +175,48 @@ public class LogIndexSearcherImpl implements LogIndexSearcher<LogMessage> {
           } else {
             collectorManager = new MultiCollectorManager(topFieldCollector);
           }
-          Object[] collector = searcher.search(query, collectorManager);
+          Object[] collector = querySearcher.search(rewrittenQuery, collectorManager);
 
-          ScoreDoc[] hits = ((TopFieldDocs) collector[0]).scoreDocs;
-          results = new ArrayList<>(hits.length);
-          for (ScoreDoc hit : hits) {
-            results.add(buildLogMessage(searcher, hit));
-          }
+          TopFieldDocs topFieldDocs = (TopFieldDocs) collector[0];
+          results = fetchLogMessages(searcher, topFieldDocs.scoreDocs);
+          totalHits = topFieldDocs.totalHits;
           if (aggBuilder != null) {
             internalAggregation = (InternalAggregation) collector[1];
           }
+        } else if (aggBuilder != null) {
+          results = Collections.emptyList();
+          Object[] collector =
+              querySearcher.search(
+                  rewrittenQuery,
+                  new MultiCollectorManager(
+                      new TotalHitCountCollectorManager(),
+                      openSearchAdapter.getCollectorManager(aggBuilder, searcher, query)));
+          totalHits = new TotalHits((Integer) collector[0], TotalHits.Relation.EQUAL_TO);
+          internalAggregation = (InternalAggregation) collector[1];
         } else {
+          // Only the hits are counted. The segments that are entirely in the time range are
+          // counted from the index statistics, without visiting their hits.
           results = Collections.emptyList();
-          internalAggregation =
-              searcher.search(
-                  query, openSearchAdapter.getCollectorManager(aggBuilder, searcher, query));
+          totalHits =
+              new TotalHits(querySearcher.count(rewrittenQuery), TotalHits.Relation.EQUAL_TO);
         }
+        if (totalHits.relation == TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO) {
+          totalHits = countHitsFromIndexStatistics(searcher, rewrittenQuery, totalHits);
+        }
+        span.tag("totalHits", totalHits.toString());
 
         elapsedTime.stop();
         return new SearchResult<>(
-            results, elapsedTime.elapsed(TimeUnit.MICROSECONDS), 0, 0, 1, 1, internalAggregation);
+            results,
+            elapsedTime.elapsed(TimeUnit.MICROSECONDS),
+            0,
+            0,
+            1,
+            1,
+            0,
+            totalHits.value,
+            totalHits.relation == TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO,
+            internalAggregation);
       } finally {
         searcherManager.release(searcher);
       }
@@ -160,10 +228,156 @@ public class LogIndexSearcherImpl implements LogIndexSearcher<LogMessage> {
     }
   }
 
-  private LogMessage buildLogMessage(IndexSearcher searcher, ScoreDoc hit) {
+  /**
+   * Searches for the oldest hits. The segments are sorted by timestamp descending, so the oldest
+   * hits of a segment are its last documents. Instead of collecting every hit of the segment, only
+   * a window of documents at the end of the segment is collected, which is doubled until it holds
+   * enough hits. Segments that aren't sorted like the index are collected in full.
+   */
+  private static TopFieldDocs searchOldestHits(
+      IndexSearcher searcher,
+      Query rewrittenQuery,
+      int howMany,
+      SearchQuery.SearchAfter searchAfter)
+      throws IOException {
+    TopFieldCollector collector =
+        TopFieldCollector.create(
+            buildSort(SearchQuery.SortOrder.ASC), howMany, buildAfter(searchAfter), howMany);
+    Weight weight = searcher.createWeight(rewrittenQuery, collector.scoreMode(), 1);
+    for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+      int minDoc = 0;
+      if (LuceneIndexStoreImpl.INDEX_SORT.equals(leaf.reader().getMetaData().getSort())) {
+        minDoc = getOldestHitsMinDoc(weight, leaf, howMany, searchAfter);
+      }
+      BulkScorer bulkScorer = weight.bulkScorer(leaf);
+      if (bulkScorer == null) {
+        continue;
+      }
+      try {
+        bulkScorer.score(
+            collector.getLeafCollector(leaf),
+            leaf.reader().getLiveDocs(),
+            minDoc,
+            leaf.reader().maxDoc());
+      } catch (CollectionTerminatedException e) {
+        // The collector doesn't need any more hits from this segment.
+      }
+    }
+    return collector.topDocs();
+  }
+
+  /**
+   * Counts the hits with Weight.count, which answers from the index statistics without visiting the
+   * hits, for example when a segment is entirely in the time range. If a segment can't be counted
+   * this way, the total hits that were collected are returned instead.
+   */
+  private static TotalHits countHitsFromIndexStatistics(
+      IndexSearcher searcher, Query rewrittenQuery, TotalHits totalHits) throws IOException {
+    Weight weight = searcher.createWeight(rewrittenQuery, ScoreMode.COMPLETE_NO_SCORES, 1);
+    long count = 0;
+    for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+      int leafCount = weight.count(leaf);
+      if (leafCount == -1) {
+        return totalHits;
+      }
+      count += leafCount;
+    }
+    return new TotalHits(count, TotalHits.Relation.EQUAL_TO);
+  }
+
+  /**
+   * Returns the first document of the smallest window at the end of the segment that holds howMany
+   * hits. Only the hits that are newer than the search after cursor are counted, so the window also
+   * holds every hit with the timestamp of the cursor.
+   */
+  private static int getOldestHitsMinDoc(
+      Weight weight, LeafReaderContext leaf, int howMany, SearchQuery.SearchAfter searchAfter)
+      throws IOException {
+    int maxDoc = leaf.reader().maxDoc();
+    int window = howMany;
+    while (window < maxDoc) {
+      int minDoc = maxDoc - window;
+      if (countHits(weight, leaf, minDoc, searchAfter) >= howMany) {
+        return minDoc;
+      }
+      window = (int) Math.min(2L * window, maxDoc);
+    }
+    return 0;
+  }
+
+  private static int countHits(
+      Weight weight, LeafReaderContext leaf, int minDoc, SearchQuery.SearchAfter searchAfter)
+      throws IOException {
+    Scorer scorer = weight.scorer(leaf);
+    if (scorer == null) {
+      return 0;
+    }
+    Bits liveDocs = leaf.reader().getLiveDocs();
+    NumericDocValues timestamps =
+        DocValues.getNumeric(leaf.reader(), SystemField.TIME_SINCE_EPOCH.fieldName);
+    DocIdSetIterator iterator = scorer.iterator();
+    int count = 0;
+    for (int doc = iterator.advance(minDoc);
+        doc != DocIdSetIterator.NO_MORE_DOCS;
+        doc = iterator.nextDoc()) {
+      if (liveDocs != null && !liveDocs.get(doc)) {
+        continue;
+      }
+      if (searchAfter != null
+          && (!timestamps.advanceExact(doc)
+              || timestamps.longValue() <= searchAfter.timestampEpochMs())) {
+        continue;
+      }
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Fetches the sources of the hits, in the order of the hits. The hits are read in doc id order,
+   * with one stored fields reader per segment, so every compressed block of stored fields is only
+   * decompressed once for the hits it holds. Only the source field is read from the documents.
+   */
+  private static List<LogMessage> fetchLogMessages(IndexSearcher searcher, ScoreDoc[] hits)
+      throws IOException {
+    ScopedSpan span = Tracing.currentTracer().startScopedSpan("LogIndexSearcherImpl.fetch");
+    span.tag("hits", String.valueOf(hits.length));
+    try {
+      Integer[] hitsByDocId = new Integer[hits.length];
+      for (int i = 0; i < hits.length; i++) {
+        hitsByDocId[i] = i;
+      }
+      Arrays.sort(hitsByDocId, Comparator.comparingInt(i -> hits[i].doc));
+
+      LogMessage[] logMessages = new LogMessage[hits.length];
+      List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+      LeafReaderContext leaf = null;
+      StoredFields storedFields = null;
+      SourceFieldVisitor sourceFieldVisitor = new SourceFieldVisitor();
+      for (int hitIndex : hitsByDocId) {
+        int docId = hits[hitIndex].doc;
+        if (leaf == null || docId >= leaf.docBase + leaf.reader().maxDoc()) {
+          leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+          storedFields = leaf.reader().storedFields();
+        }
+        sourceFieldVisitor.reset();
+        storedFields.document(docId - leaf.docBase, sourceFieldVisitor);
+        logMessages[hitIndex] = buildLogMessage(sourceFieldVisitor);
+      }
+      return Arrays.asList(logMessages);
+    } finally {
+      span.finish();
+    }
+  }
+
+  private static LogMessage buildLogMessage(SourceFieldVisitor sourceFieldVisitor) {
     String s = "";
     try {
-      s = searcher.doc(hit.doc).get(SystemField.SOURCE.fieldName);
+      // Span sources may be stored as binary protobuf, which is only decoded into a map on demand.
+      if (sourceFieldVisitor.binarySource != null) {
+        return SpanLogMessage.fromSourceBytes(new BytesRef(sourceFieldVisitor.binarySource));
+      }
+      s = sourceFieldVisitor.stringSource;
       LogWireMessage wireMessage = JsonUtil.read(s, LogWireMessage.class);
       return new LogMessage(
           wireMessage.getIndex(),
@@ -176,24 +390,80 @@ public class LogIndexSearcherImpl implements LogIndexSearcher<LogMessage> {
     }
   }
 
+  /** Reads the source field of a document, and stops reading the document once it's found. */
+  private static class SourceFieldVisitor extends StoredFieldVisitor {
+    private byte[] binarySource;
+    private String stringSource;
+
+    private void reset() {
+      binarySource = null;
+      stringSource = null;
+    }
+
+    @Override
+    public Status needsField(FieldInfo fieldInfo) {
+      if (binarySource != null || stringSource != null) {
+        return Status.STOP;
+      }
+      return fieldInfo.name.equals(SystemField.SOURCE.fieldName) ? Status.YES : Status.NO;
+    }
+
+    @Override
+    public void binaryField(FieldInfo fieldInfo, byte[] value) {
+      binarySource = value;
+    }
+
+    @Override
+    public void stringField(FieldInfo fieldInfo, String value) {
+      stringSource = value;
+    }
+  }
+
   /**
    * Builds a top field collector for the requested amount of results, with the option to set the
    * totalHitsThreshold. If the totalHitsThreshold is set to Integer.MAX_VALUE it will force a
    * ScoreMode.COMPLETE, iterating over all documents at the expense of a longer query time. This
    * value can be set to equal howMany to allow early exiting (ScoreMode.TOP_SCORES), but should
    * only be done when all collectors are tolerant of an early exit.
+   *
+   * <p>The hits of every chunk sort the same way, so a search after cursor means the same on every
+   * chunk. The hits that sort before the cursor, or at the cursor, are skipped.
    */
   private CollectorManager<TopFieldCollector, TopFieldDocs> buildTopFieldCollector(
-      int howMany, int totalHitsThreshold) {
+      int howMany,
+      int totalHitsThreshold,
+      SearchQuery.SearchAfter searchAfter,
+      SearchQuery.SortOrder sortOrder) {
     if (howMany > 0) {
-      SortField sortField = new SortField(SystemField.TIME_SINCE_EPOCH.fieldName, Type.LONG, true);
       return TopFieldCollector.createSharedManager(
-          new Sort(sortField), howMany, null, totalHitsThreshold);
+          buildSort(sortOrder), howMany, buildAfter(searchAfter), totalHitsThreshold);
     } else {
       return null;
     }
   }
 
+  /**
+   * The hits are sorted by timestamp descending, with ties sorted by id, like the index. An
+   * ascending sort is the exact reverse, so ties are sorted by id descending.
+   */
+  private static Sort buildSort(SearchQuery.SortOrder sortOrder) {
+    boolean descending = sortOrder == SearchQuery.SortOrder.DESC;
+    return new Sort(
+        new SortField(SystemField.TIME_SINCE_EPOCH.fieldName, Type.LONG, descending),
+        new SortField(SystemField.ID.fieldName, Type.STRING, !descending));
+  }
+
+  private static FieldDoc buildAfter(SearchQuery.SearchAfter searchAfter) {
+    if (searchAfter == null) {
+      return null;
+    }
+    // Hits that are equal to the cursor are tie broken by doc id, so the max doc id skips them.
+    return new FieldDoc(
+        Integer.MAX_VALUE,
+        Float.NaN,
+        new Object[] {searchAfter.timestampEpochMs(), new BytesRef(searchAfter.id())});
+  }
+
   @Override
   public void close() {
     try {
@@ -0,0 +1,92 @@
+package com.slack.kaldb.logstore.search;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.PointInSetQuery;
+import org.apache.lucene.search.PointRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * A query caching policy for log searches. Like lucene's UsageTrackingQueryCachingPolicy, it caches
+ * the filters that were used recently, but it also caches term queries. Lucene never caches them
+ * since a single term is cheap to search, but the term filters of log searches, like a dataset or a
+ * service name, are repeated on every chunk of almost every search.
+ */
+public class LogQueryCachingPolicy implements QueryCachingPolicy {
+  // The number of recent filters the usage is tracked for.
+  private static final int HISTORY_SIZE = 256;
+
+  // Filters that are expensive to search, like wildcards and ranges, are cached on the 2nd use.
+  private static final int MIN_FREQUENCY_COSTLY = 2;
+  private static final int MIN_FREQUENCY_TERM = 3;
+  private static final int MIN_FREQUENCY = 5;
+
+  private final int[] history = new int[HISTORY_SIZE];
+  private final Map<Integer, Integer> frequencies = new HashMap<>();
+  private int historySize = 0;
+  private int nextHistoryIndex = 0;
+
+  private static boolean shouldNeverCache(Query query) {
+    if (query instanceof MatchAllDocsQuery || query instanceof MatchNoDocsQuery) {
+      // Matching all or no documents is as fast as reading a cached result.
+      return true;
+    }
+    return query instanceof BooleanQuery && ((BooleanQuery) query).clauses().isEmpty();
+  }
+
+  private static boolean isCostly(Query query) {
+    return query instanceof MultiTermQuery
+        || query instanceof TermInSetQuery
+        || query instanceof PointRangeQuery
+        || query instanceof PointInSetQuery;
+  }
+
+  private static int minFrequencyToCache(Query query) {
+    if (isCostly(query)) {
+      return MIN_FREQUENCY_COSTLY;
+    }
+    if (query instanceof TermQuery) {
+      return MIN_FREQUENCY_TERM;
+    }
+    return MIN_FREQUENCY;
+  }
+
+  @Override
+  public void onUse(Query query) {
+    if (shouldNeverCache(query)) {
+      return;
+    }
+    // Only the hash of the query is tracked, so the history doesn't hold on to the queries.
+    int hashCode = query.hashCode();
+    synchronized (this) {
+      if (historySize == HISTORY_SIZE) {
+        frequencies.computeIfPresent(
+            history[nextHistoryIndex], (key, frequency) -> frequency == 1 ? null : frequency - 1);
+      } else {
+        historySize++;
+      }
+      history[nextHistoryIndex] = hashCode;
+      nextHistoryIndex = (nextHistoryIndex + 1) % HISTORY_SIZE;
+      frequencies.merge(hashCode, 1, Integer::sum);
+    }
+  }
+
+  @Override
+  public boolean shouldCache(Query query) {
+    if (shouldNeverCache(query)) {
+      return false;
+    }
+    return frequency(query) >= minFrequencyToCache(query);
+  }
+
+  synchronized int frequency(Query query) {
+    return frequencies.getOrDefault(query.hashCode(), 0);
+  }
+}
@@ -0,0 +1,115 @@
+package com.slack.kaldb.logstore.search;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ranks the nodes holding a replica of a snapshot by how fast they are expected to search it,
+ * similar to the replica ranking of C3. The query node tracks the latency of every node as an
+ * exponentially weighted moving average, along with its outstanding requests and recent failures.
+ * The score of a node grows with the cube of its queue, so a node that is slow or busy is only
+ * picked once the other replicas have more queued work than it does.
+ *
+ * <p>The replicas of the snapshots of a query are picked jointly: every snapshot already assigned
+ * to a node counts towards the queue of that node, so the snapshots of a query are spread across
+ * the replicas instead of piling onto the node that currently looks fastest.
+ */
+public class ReplicaSelector {
+  // The weight of the latest latency in the moving average.
+  private static final double LATENCY_ALPHA = 0.3;
+  // Nodes without a latency yet are assumed to be fast, so they are tried.
+  private static final double MIN_LATENCY_NANOS = Duration.ofMillis(1).toNanos();
+  // A node that just failed has its score multiplied by up to this factor.
+  private static final double FAILURE_PENALTY = 10;
+  // The failure rate of a node halves when it had no failures for this long.
+  private static final long FAILURE_HALF_LIFE_NANOS = Duration.ofSeconds(30).toNanos();
+
+  private final Map<String, NodeStats> nodeStats = new ConcurrentHashMap<>();
+
+  /** Counts a request to the node until it completes. */
+  public void requestStarted(String url) {
+    nodeStats.computeIfAbsent(url, (k) -> new NodeStats()).requestStarted();
+  }
+
+  /** Updates the latency and failure rate of the node with a completed request. */
+  public void requestCompleted(String url, long latencyNanos, boolean failed) {
+    nodeStats
+        .computeIfAbsent(url, (k) -> new NodeStats())
+        .requestCompleted(latencyNanos, failed, System.nanoTime());
+  }
+
+  /**
+   * Stops counting a request that was cancelled because another node answered first, without
+   * updating the latency of the node.
+   */
+  public void requestCancelled(String url) {
+    nodeStats.computeIfAbsent(url, (k) -> new NodeStats()).requestCancelled();
+  }
+
+  /**
+   * Returns the score of the node if the given number of snapshots of a query are already assigned
+   * to it. The node with the lowest score is expected to answer first.
+   */
+  public double getScore(String url, int assignedSnapshots) {
+    NodeStats stats = nodeStats.get(url);
+    if (stats == null) {
+      double queue = 1 + assignedSnapshots;
+      return MIN_LATENCY_NANOS * queue * queue * queue;
+    }
+    return stats.getScore(assignedSnapshots, System.nanoTime());
+  }
+
+  @VisibleForTesting
+  int getOutstandingRequests(String url) {
+    NodeStats stats = nodeStats.get(url);
+    return stats == null ? 0 : stats.outstandingRequests;
+  }
+
+  private static class NodeStats {
+    private int outstandingRequests = 0;
+    private double latencyNanos = MIN_LATENCY_NANOS;
+    private boolean hasLatency = false;
+    private double failureRate = 0;
+    private long failureRateUpdatedNanos = 0;
+
+    private synchronized void requestStarted() {
+      outstandingRequests++;
+    }
+
+    private synchronized void requestCancelled() {
+      outstandingRequests = Math.max(0, outstandingRequests - 1);
+    }
+
+    private synchronized void requestCompleted(long latencyNanos, boolean failed, long nowNanos) {
+      outstandingRequests = Math.max(0, outstandingRequests - 1);
+      if (hasLatency) {
+        this.latencyNanos = LATENCY_ALPHA * latencyNanos + (1 - LATENCY_ALPHA) * this.latencyNanos;
+      } else {
+        this.latencyNanos = latencyNanos;
+        hasLatency = true;
+      }
+      failureRate =
+          LATENCY_ALPHA * (failed ? 1 : 0) + (1 - LATENCY_ALPHA) * getFailureRate(nowNanos);
+      failureRateUpdatedNanos = nowNanos;
+    }
+
+    private double getFailureRate(long nowNanos) {
+      if (failureRate == 0) {
+        return 0;
+      }
+      return failureRate
+          * Math.pow(0.5, (double) (nowNanos - failureRateUpdatedNanos) / FAILURE_HALF_LIFE_NANOS);
+    }
+
+    private synchronized double getScore(int assignedSnapshots, long nowNanos) {
+      double queue = 1 + outstandingRequests + assignedSnapshots;
+      return Math.max(MIN_LATENCY_NANOS, latencyNanos)
+          * queue
+          * queue
+          * queue
+          * (1 + FAILURE_PENALTY * getFailureRate(nowNanos));
+    }
+  }
+}
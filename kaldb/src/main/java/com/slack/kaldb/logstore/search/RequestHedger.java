@@ -0,0 +1,81 @@
+package com.slack.kaldb.logstore.search;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Arrays;
+
+/**
+ * Decides when the search of a slow node is hedged by searching the same snapshots on other nodes.
+ * A node request is hedged once it has been running for longer than the configured percentile of
+ * the recent node request latencies. The hedged requests are limited to a budget: every node
+ * request earns a fraction of a hedged request, so the hedged requests stay below the configured
+ * share of the node requests, even if every node is slow.
+ */
+public class RequestHedger {
+  // The recent node request latencies the percentile is computed from.
+  private static final int LATENCY_SAMPLES = 1000;
+  // Requests are not hedged until enough latencies are known.
+  @VisibleForTesting static final int MIN_LATENCY_SAMPLES = 20;
+  // The hedged requests that can be saved up while nodes are fast.
+  private static final int MAX_BUDGET_REQUESTS = 10;
+
+  private final double latencyPercentile;
+  private final double budgetPercent;
+
+  // guarded by this
+  private final long[] latencySamples = new long[LATENCY_SAMPLES];
+  private int latencySampleCount = 0;
+  private int nextLatencySample = 0;
+  // The saved up hedged requests, in percent of a request.
+  private double budget = 0;
+
+  /**
+   * @param latencyPercentile the percentile of the node request latencies after which a request is
+   *     hedged, between 0 and 100
+   * @param budgetPercent the max hedged requests, in percent of the node requests
+   */
+  public RequestHedger(double latencyPercentile, double budgetPercent) {
+    checkArgument(
+        latencyPercentile > 0 && latencyPercentile < 100,
+        "latencyPercentile must be between 0 and 100");
+    checkArgument(budgetPercent >= 0, "budgetPercent cannot be negative");
+    this.latencyPercentile = latencyPercentile;
+    this.budgetPercent = budgetPercent;
+  }
+
+  /** Adds to the budget of hedged requests for a node request. */
+  public synchronized void requestStarted() {
+    budget = Math.min(MAX_BUDGET_REQUESTS * 100, budget + budgetPercent);
+  }
+
+  /** Records the latency of a node request that completed. */
+  public synchronized void requestCompleted(long latencyNanos) {
+    latencySamples[nextLatencySample] = latencyNanos;
+    nextLatencySample = (nextLatencySample + 1) % LATENCY_SAMPLES;
+    latencySampleCount = Math.min(LATENCY_SAMPLES, latencySampleCount + 1);
+  }
+
+  /**
+   * Returns the time after which a node request is hedged, or -1 if requests are not hedged because
+   * too few latencies are known.
+   */
+  public synchronized long getHedgeDelayNanos() {
+    if (latencySampleCount < MIN_LATENCY_SAMPLES) {
+      return -1;
+    }
+    long[] latencies = Arrays.copyOf(latencySamples, latencySampleCount);
+    Arrays.sort(latencies);
+    int index = (int) Math.ceil(latencyPercentile / 100 * latencies.length) - 1;
+    return latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+  }
+
+  /** Takes the given number of hedged requests from the budget, if the budget allows them. */
+  public synchronized boolean tryAcquire(int hedgedRequests) {
+    if (budget < hedgedRequests * 100) {
+      return false;
+    }
+    budget -= hedgedRequests * 100;
+    return true;
+  }
+}
@@ -14,6 +14,9 @@ public class SearchQuery {
   public final int howMany;
   public final AggBuilder aggBuilder;
   public final List<String> chunkIds;
+  // Only the hits that sort after this hit are returned, if set.
+  public final SearchAfter searchAfter;
+  public final SortOrder sortOrder;
 
   public SearchQuery(
       String dataset,
@@ -23,6 +26,40 @@ public class SearchQuery {
       int howMany,
       AggBuilder aggBuilder,
       List<String> chunkIds) {
+    this(dataset, queryStr, startTimeEpochMs, endTimeEpochMs, howMany, aggBuilder, chunkIds, null);
+  }
+
+  public SearchQuery(
+      String dataset,
+      String queryStr,
+      long startTimeEpochMs,
+      long endTimeEpochMs,
+      int howMany,
+      AggBuilder aggBuilder,
+      List<String> chunkIds,
+      SearchAfter searchAfter) {
+    this(
+        dataset,
+        queryStr,
+        startTimeEpochMs,
+        endTimeEpochMs,
+        howMany,
+        aggBuilder,
+        chunkIds,
+        searchAfter,
+        SortOrder.DESC);
+  }
+
+  public SearchQuery(
+      String dataset,
+      String queryStr,
+      long startTimeEpochMs,
+      long endTimeEpochMs,
+      int howMany,
+      AggBuilder aggBuilder,
+      List<String> chunkIds,
+      SearchAfter searchAfter,
+      SortOrder sortOrder) {
     this.dataset = dataset;
     this.queryStr = queryStr;
     this.startTimeEpochMs = startTimeEpochMs;
@@ -30,6 +67,32 @@ public class SearchQuery {
     this.howMany = howMany;
     this.aggBuilder = aggBuilder;
     this.chunkIds = chunkIds;
+    this.searchAfter = searchAfter;
+    this.sortOrder = sortOrder;
+  }
+
+  /**
+   * Returns the start of the time range of the data that can be part of the result of the query. A
+   * query that only returns hits sorted by timestamp ascending doesn't need the data that is older
+   * than its search after cursor. The aggregations still need all the data.
+   */
+  public long getResultStartTimeEpochMs() {
+    if (searchAfter != null && aggBuilder == null && sortOrder == SortOrder.ASC) {
+      return Math.max(startTimeEpochMs, searchAfter.timestampEpochMs());
+    }
+    return startTimeEpochMs;
+  }
+
+  /**
+   * Returns the end of the time range of the data that can be part of the result of the query. A
+   * query that only returns hits sorted by timestamp descending doesn't need the data that is newer
+   * than its search after cursor. The aggregations still need all the data.
+   */
+  public long getResultEndTimeEpochMs() {
+    if (searchAfter != null && aggBuilder == null && sortOrder == SortOrder.DESC) {
+      return Math.min(endTimeEpochMs, searchAfter.timestampEpochMs());
+    }
+    return endTimeEpochMs;
   }
 
   @Override
@@ -51,6 +114,25 @@ public class SearchQuery {
         + chunkIds
         + ", aggBuilder="
         + aggBuilder
+        + ", searchAfter="
+        + searchAfter
+        + ", sortOrder="
+        + sortOrder
         + '}';
   }
+
+  /**
+   * The position of a hit in the sort order of the hits, which are sorted by timestamp with ties
+   * sorted by id.
+   */
+  public record SearchAfter(long timestampEpochMs, String id) {}
+
+  /**
+   * The order of the hits by timestamp. Hits with the same timestamp are sorted by id, and an
+   * ascending sort is the exact reverse of a descending sort.
+   */
+  public enum SortOrder {
+    DESC,
+    ASC
+  }
 }
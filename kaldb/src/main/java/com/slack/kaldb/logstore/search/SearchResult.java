@@ -20,6 +20,14 @@ public class SearchResult<T> {
   public final int totalNodes;
   public final int totalSnapshots;
   public final int snapshotsWithReplicas;
+  // The snapshots that were not searched before the query timed out. These are also counted in
+  // totalSnapshots, but not in snapshotsWithReplicas.
+  public final int timedOutSnapshots;
+
+  // The number of hits that matched the query, which can be more than the hits that were returned.
+  // When totalHitsLowerBound is set, more hits than totalHits may have matched.
+  public final long totalHits;
+  public final boolean totalHitsLowerBound;
 
   public final InternalAggregation internalAggregation;
 
@@ -30,6 +38,9 @@ public class SearchResult<T> {
     this.totalNodes = 0;
     this.totalSnapshots = 0;
     this.snapshotsWithReplicas = 0;
+    this.timedOutSnapshots = 0;
+    this.totalHits = 0;
+    this.totalHitsLowerBound = false;
     this.internalAggregation = null;
   }
 
@@ -42,12 +53,59 @@ public class SearchResult<T> {
       int totalSnapshots,
       int snapshotsWithReplicas,
       InternalAggregation internalAggregation) {
+    this(
+        hits,
+        tookMicros,
+        failedNodes,
+        totalNodes,
+        totalSnapshots,
+        snapshotsWithReplicas,
+        0,
+        internalAggregation);
+  }
+
+  public SearchResult(
+      List<T> hits,
+      long tookMicros,
+      int failedNodes,
+      int totalNodes,
+      int totalSnapshots,
+      int snapshotsWithReplicas,
+      int timedOutSnapshots,
+      InternalAggregation internalAggregation) {
+    this(
+        hits,
+        tookMicros,
+        failedNodes,
+        totalNodes,
+        totalSnapshots,
+        snapshotsWithReplicas,
+        timedOutSnapshots,
+        hits.size(),
+        false,
+        internalAggregation);
+  }
+
+  public SearchResult(
+      List<T> hits,
+      long tookMicros,
+      int failedNodes,
+      int totalNodes,
+      int totalSnapshots,
+      int snapshotsWithReplicas,
+      int timedOutSnapshots,
+      long totalHits,
+      boolean totalHitsLowerBound,
+      InternalAggregation internalAggregation) {
     this.hits = hits;
     this.tookMicros = tookMicros;
     this.failedNodes = failedNodes;
     this.totalNodes = totalNodes;
     this.totalSnapshots = totalSnapshots;
     this.snapshotsWithReplicas = snapshotsWithReplicas;
+    this.timedOutSnapshots = timedOutSnapshots;
+    this.totalHits = totalHits;
+    this.totalHitsLowerBound = totalHitsLowerBound;
     this.internalAggregation = internalAggregation;
   }
 
@@ -66,6 +124,12 @@ public class SearchResult<T> {
         + totalSnapshots
         + ", snapshotsWithReplicas="
         + snapshotsWithReplicas
+        + ", timedOutSnapshots="
+        + timedOutSnapshots
+        + ", totalHits="
+        + totalHits
+        + ", totalHitsLowerBound="
+        + totalHitsLowerBound
         + ", internalAggregation="
         + internalAggregation
         + '}';
@@ -83,6 +147,9 @@ public class SearchResult<T> {
     if (totalNodes != that.totalNodes) return false;
     if (totalSnapshots != that.totalSnapshots) return false;
     if (snapshotsWithReplicas != that.snapshotsWithReplicas) return false;
+    if (timedOutSnapshots != that.timedOutSnapshots) return false;
+    if (totalHits != that.totalHits) return false;
+    if (totalHitsLowerBound != that.totalHitsLowerBound) return false;
     if (!hits.equals(that.hits)) return false;
 
     // todo - this is pending a PR to OpenSearch to address
@@ -101,6 +168,9 @@ public class SearchResult<T> {
     result = 31 * result + totalNodes;
     result = 31 * result + totalSnapshots;
     result = 31 * result + snapshotsWithReplicas;
+    result = 31 * result + timedOutSnapshots;
+    result = 31 * result + (int) (totalHits ^ (totalHits >>> 32));
+    result = 31 * result + (totalHitsLowerBound ? 1 : 0);
     result = 31 * result + internalAggregation.hashCode();
     return result;
   }
@@ -1,5 +1,6 @@
 package com.slack.kaldb.logstore.search;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.logstore.opensearch.KaldbBigArrays;
 import com.slack.kaldb.logstore.opensearch.OpenSearchAdapter;
@@ -7,16 +8,24 @@ import com.slack.kaldb.logstore.opensearch.ScriptServiceProvider;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.stream.Collectors;
 import org.opensearch.search.aggregations.InternalAggregation;
 import org.opensearch.search.aggregations.pipeline.PipelineAggregator;
 
 /**
  * This class will merge multiple search results into a single search result. Takes all the hits
- * from all the search results and returns the topK most recent results. The histogram will be
+ * from all the search results and returns the topK results in the sort order. The histogram will be
  * merged using the histogram merge function.
  */
 public class SearchResultAggregatorImpl<T extends LogMessage> implements SearchResultAggregator<T> {
+  // The hits are sorted by timestamp descending and then by id, like the index. An ascending sort
+  // is the exact reverse.
+  private static final Comparator<LogMessage> DESCENDING_HITS =
+      Comparator.comparingLong((LogMessage hit) -> hit.getTimestamp().toEpochMilli())
+          .reversed()
+          .thenComparing(LogMessage::getId);
+  private static final Comparator<LogMessage> ASCENDING_HITS = DESCENDING_HITS.reversed();
 
   private final SearchQuery searchQuery;
 
@@ -31,6 +40,9 @@ public class SearchResultAggregatorImpl<T extends LogMessage> implements SearchR
     int totalNodes = 0;
     int totalSnapshots = 0;
     int snapshpotReplicas = 0;
+    int timedOutSnapshots = 0;
+    long totalHits = 0;
+    boolean totalHitsLowerBound = false;
     List<InternalAggregation> internalAggregationList = new ArrayList<>();
 
     for (SearchResult<T> searchResult : searchResults) {
@@ -39,6 +51,9 @@ public class SearchResultAggregatorImpl<T extends LogMessage> implements SearchR
       totalNodes += searchResult.totalNodes;
       totalSnapshots += searchResult.totalSnapshots;
       snapshpotReplicas += searchResult.snapshotsWithReplicas;
+      timedOutSnapshots += searchResult.timedOutSnapshots;
+      totalHits += searchResult.totalHits;
+      totalHitsLowerBound |= searchResult.totalHitsLowerBound;
       if (searchResult.internalAggregation != null) {
         internalAggregationList.add(searchResult.internalAggregation);
       }
@@ -83,15 +98,7 @@ public class SearchResultAggregatorImpl<T extends LogMessage> implements SearchR
       }
     }
 
-    // TODO: Instead of sorting all hits using a bounded priority queue of size k is more efficient.
-    List<T> resultHits =
-        searchResults.stream()
-            .flatMap(r -> r.hits.stream())
-            .sorted(
-                Comparator.comparing(
-                    (T m) -> m.getTimestamp().toEpochMilli(), Comparator.reverseOrder()))
-            .limit(searchQuery.howMany)
-            .collect(Collectors.toList());
+    List<T> resultHits = mergeHits(searchResults, searchQuery.howMany, searchQuery.sortOrder);
 
     return new SearchResult<>(
         resultHits,
@@ -100,6 +107,81 @@ public class SearchResultAggregatorImpl<T extends LogMessage> implements SearchR
         totalNodes,
         totalSnapshots,
         snapshpotReplicas,
+        timedOutSnapshots,
+        totalHits,
+        totalHitsLowerBound,
         internalAggregation);
   }
+
+  /**
+   * Merges the hits of all the search results into the first howMany hits in the sort order. The
+   * hits of every search result are already sorted in the sort order, so this is a k-way merge that
+   * stops after howMany hits, instead of sorting all the hits. Hits with the same timestamp and id
+   * are returned in the order of the search results.
+   */
+  @VisibleForTesting
+  static <T extends LogMessage> List<T> mergeHits(
+      List<SearchResult<T>> searchResults, int howMany, SearchQuery.SortOrder sortOrder) {
+    Comparator<LogMessage> hitComparator =
+        sortOrder == SearchQuery.SortOrder.ASC ? ASCENDING_HITS : DESCENDING_HITS;
+    PriorityQueue<HitCursor<T>> cursors =
+        new PriorityQueue<>(
+            Math.max(1, searchResults.size()),
+            (cursor, other) -> {
+              int compare = hitComparator.compare(cursor.hit(), other.hit());
+              return compare != 0
+                  ? compare
+                  : Integer.compare(cursor.searchResultIndex, other.searchResultIndex);
+            });
+    int totalHits = 0;
+    for (int i = 0; i < searchResults.size(); i++) {
+      List<T> hits = searchResults.get(i).hits;
+      if (!hits.isEmpty()) {
+        cursors.add(new HitCursor<>(sortedHits(hits, hitComparator), i));
+        totalHits += hits.size();
+      }
+    }
+
+    List<T> resultHits = new ArrayList<>(Math.min(howMany, totalHits));
+    while (resultHits.size() < howMany && !cursors.isEmpty()) {
+      HitCursor<T> cursor = cursors.poll();
+      resultHits.add(cursor.hit());
+      if (cursor.next()) {
+        cursors.add(cursor);
+      }
+    }
+    return resultHits;
+  }
+
+  // Only sorts the hits if they aren't already sorted in the sort order.
+  private static <T extends LogMessage> List<T> sortedHits(
+      List<T> hits, Comparator<LogMessage> hitComparator) {
+    for (int i = 1; i < hits.size(); i++) {
+      if (hitComparator.compare(hits.get(i - 1), hits.get(i)) > 0) {
+        return hits.stream().sorted(hitComparator).collect(Collectors.toList());
+      }
+    }
+    return hits;
+  }
+
+  /** The position of the merge in the hits of one search result. */
+  private static final class HitCursor<T extends LogMessage> {
+    private final List<T> hits;
+    private final int searchResultIndex;
+    private int position = 0;
+
+    private HitCursor(List<T> hits, int searchResultIndex) {
+      this.hits = hits;
+      this.searchResultIndex = searchResultIndex;
+    }
+
+    private T hit() {
+      return hits.get(position);
+    }
+
+    private boolean next() {
+      position++;
+      return position < hits.size();
+    }
+  }
 }
@@ -4,6 +4,7 @@ import brave.ScopedSpan;
 import brave.Tracing;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.logstore.LogWireMessage;
 import com.slack.kaldb.logstore.opensearch.OpenSearchInternalAggregation;
@@ -26,6 +27,7 @@ import com.slack.kaldb.logstore.search.aggregations.UniqueCountAggBuilder;
 import com.slack.kaldb.metadata.schema.FieldType;
 import com.slack.kaldb.proto.service.KaldbSearch;
 import com.slack.kaldb.util.JsonUtil;
+import com.slack.kaldb.writer.SpanLogMessage;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -606,7 +608,15 @@ public class SearchResultUtils {
         searchRequest.getEndTimeEpochMs(),
         searchRequest.getHowMany(),
         fromSearchAggregations(searchRequest.getAggregations()),
-        searchRequest.getChunkIdsList());
+        searchRequest.getChunkIdsList(),
+        searchRequest.hasSearchAfter()
+            ? new SearchQuery.SearchAfter(
+                searchRequest.getSearchAfter().getTimestampEpochMs(),
+                searchRequest.getSearchAfter().getId())
+            : null,
+        searchRequest.getSortOrder() == KaldbSearch.SearchRequest.SortOrder.ASC
+            ? SearchQuery.SortOrder.ASC
+            : SearchQuery.SortOrder.DESC);
   }
 
   public static SearchResult<LogMessage> fromSearchResultProtoOrEmpty(
@@ -620,25 +630,46 @@ public class SearchResultUtils {
 
   public static SearchResult<LogMessage> fromSearchResultProto(
       KaldbSearch.SearchResult protoSearchResult) throws IOException {
-    List<LogMessage> hits = new ArrayList<>(protoSearchResult.getHitsCount());
-
-    for (ByteString bytes : protoSearchResult.getHitsList().asByteStringList()) {
-      LogWireMessage hit = JsonUtil.read(bytes.toStringUtf8(), LogWireMessage.class);
-      LogMessage message = LogMessage.fromWireMessage(hit);
-      hits.add(message);
-    }
-
     return new SearchResult<>(
-        hits,
+        fromSearchHitsProto(protoSearchResult),
         protoSearchResult.getTookMicros(),
         protoSearchResult.getFailedNodes(),
         protoSearchResult.getTotalNodes(),
         protoSearchResult.getTotalSnapshots(),
         protoSearchResult.getSnapshotsWithReplicas(),
+        protoSearchResult.getTimedOutSnapshots(),
+        protoSearchResult.getTotalHits(),
+        protoSearchResult.getTotalHitsLowerBound(),
         OpenSearchInternalAggregation.fromByteArray(
             protoSearchResult.getInternalAggregations().toByteArray()));
   }
 
+  /** Returns the hits of a search result, whether they were sent as json or as search hits. */
+  public static List<LogMessage> fromSearchHitsProto(KaldbSearch.SearchResult protoSearchResult)
+      throws IOException {
+    List<LogMessage> hits =
+        new ArrayList<>(protoSearchResult.getHitsCount() + protoSearchResult.getSearchHitsCount());
+    for (ByteString bytes : protoSearchResult.getHitsList().asByteStringList()) {
+      hits.add(fromJsonHit(bytes));
+    }
+    for (KaldbSearch.SearchHit searchHit : protoSearchResult.getSearchHitsList()) {
+      hits.add(fromSearchHitProto(searchHit));
+    }
+    return hits;
+  }
+
+  public static LogMessage fromSearchHitProto(KaldbSearch.SearchHit searchHit) throws IOException {
+    if (searchHit.hasSpan()) {
+      return SpanLogMessage.fromSourceBytes(searchHit.getSpan());
+    }
+    return fromJsonHit(searchHit.getJsonBytes());
+  }
+
+  private static LogMessage fromJsonHit(ByteString bytes) throws IOException {
+    LogWireMessage hit = JsonUtil.read(bytes.toStringUtf8(), LogWireMessage.class);
+    return LogMessage.fromWireMessage(hit);
+  }
+
   public static FieldType fromSchemaDefinitionProto(
       KaldbSearch.SchemaDefinition protoSchemaDefinition) {
     if (protoSchemaDefinition.getType().equals(KaldbSearch.FieldType.TEXT)) {
@@ -713,7 +744,9 @@ public class SearchResultUtils {
     span.tag("totalNodes", String.valueOf(searchResult.totalNodes));
     span.tag("totalSnapshots", String.valueOf(searchResult.totalSnapshots));
     span.tag("snapshotsWithReplicas", String.valueOf(searchResult.snapshotsWithReplicas));
+    span.tag("timedOutSnapshots", String.valueOf(searchResult.timedOutSnapshots));
     span.tag("hits", String.valueOf(searchResult.hits.size()));
+    span.tag("totalHits", String.valueOf(searchResult.totalHits));
 
     KaldbSearch.SearchResult.Builder searchResultBuilder = KaldbSearch.SearchResult.newBuilder();
     searchResultBuilder.setTookMicros(searchResult.tookMicros);
@@ -721,17 +754,26 @@ public class SearchResultUtils {
     searchResultBuilder.setTotalNodes(searchResult.totalNodes);
     searchResultBuilder.setTotalSnapshots(searchResult.totalSnapshots);
     searchResultBuilder.setSnapshotsWithReplicas(searchResult.snapshotsWithReplicas);
-
-    // Set hits
-    ArrayList<String> protoHits = new ArrayList<>(searchResult.hits.size());
-    for (T hit : searchResult.hits) {
-      try {
-        protoHits.add(JsonUtil.writeAsString(hit));
-      } catch (JsonProcessingException e) {
-        throw new IllegalArgumentException(e);
+    searchResultBuilder.setTimedOutSnapshots(searchResult.timedOutSnapshots);
+    searchResultBuilder.setTotalHits(searchResult.totalHits);
+    searchResultBuilder.setTotalHitsLowerBound(searchResult.totalHitsLowerBound);
+
+    // Set hits. The span sources are sent as is, instead of being serialized to json.
+    if (searchResult.hits.stream().anyMatch(hit -> hit instanceof SpanLogMessage)) {
+      for (T hit : searchResult.hits) {
+        searchResultBuilder.addSearchHits(toSearchHitProto(hit));
       }
+    } else {
+      ArrayList<String> protoHits = new ArrayList<>(searchResult.hits.size());
+      for (T hit : searchResult.hits) {
+        try {
+          protoHits.add(JsonUtil.writeAsString(hit));
+        } catch (JsonProcessingException e) {
+          throw new IllegalArgumentException(e);
+        }
+      }
+      searchResultBuilder.addAllHits(protoHits);
     }
-    searchResultBuilder.addAllHits(protoHits);
 
     ByteString bytes =
         ByteString.copyFrom(
@@ -740,4 +782,17 @@ public class SearchResultUtils {
     span.finish();
     return searchResultBuilder.build();
   }
+
+  private static KaldbSearch.SearchHit toSearchHitProto(Object hit) {
+    try {
+      if (hit instanceof SpanLogMessage spanHit) {
+        return KaldbSearch.SearchHit.newBuilder()
+            .setSpan(UnsafeByteOperations.unsafeWrap(spanHit.toSourceBytes()))
+            .build();
+      }
+      return KaldbSearch.SearchHit.newBuilder().setJson(JsonUtil.writeAsString(hit)).build();
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
 }
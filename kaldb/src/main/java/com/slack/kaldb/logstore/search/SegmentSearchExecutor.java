@@ -0,0 +1,145 @@
+package com.slack.kaldb.logstore.search;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.slack.kaldb.proto.config.KaldbConfigs;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Searches the segments of a chunk concurrently. A chunk query runs on a single thread of the chunk
+ * query pool, so a query that only matches one or two large chunks leaves most cores of the node
+ * idle. While fewer chunk queries are pending on the node than it has cores, the segments of a
+ * chunk are grouped into slices that are searched concurrently on the threads of this executor.
+ * Once there is a chunk query for every core, the chunks are searched on a single thread as before,
+ * since splitting them up would only add overhead.
+ */
+public class SegmentSearchExecutor {
+  private static final Logger LOG = LoggerFactory.getLogger(SegmentSearchExecutor.class);
+
+  public static final String CONCURRENT_SEGMENT_SEARCHES = "kaldb_concurrent_segment_searches";
+
+  // Lucene's default slice sizes.
+  private static final int DEFAULT_MAX_DOCS_PER_SLICE = 250_000;
+  private static final int DEFAULT_MAX_SEGMENTS_PER_SLICE = 5;
+
+  // The chunk queries of the node that are queued or running.
+  private static final AtomicInteger pendingChunkQueries = new AtomicInteger();
+
+  private static volatile ExecutorService executor = null;
+  private static volatile int maxDocsPerSlice = DEFAULT_MAX_DOCS_PER_SLICE;
+  private static volatile int maxSegmentsPerSlice = DEFAULT_MAX_SEGMENTS_PER_SLICE;
+  private static volatile int maxPendingChunkQueries = 0;
+  private static volatile Counter concurrentSegmentSearches = null;
+
+  private SegmentSearchExecutor() {}
+
+  /**
+   * Starts the threads that search the segments of the chunks concurrently, if configured. The
+   * segments of a chunk are only searched concurrently while fewer chunk queries are pending than
+   * the node has cores.
+   */
+  public static void init(
+      KaldbConfigs.SegmentSearchConfig segmentSearchConfig, MeterRegistry meterRegistry) {
+    init(segmentSearchConfig, Runtime.getRuntime().availableProcessors(), meterRegistry);
+  }
+
+  @VisibleForTesting
+  static synchronized void init(
+      KaldbConfigs.SegmentSearchConfig segmentSearchConfig,
+      int maxPendingChunkQueries,
+      MeterRegistry meterRegistry) {
+    ExecutorService previousExecutor = executor;
+    executor = null;
+    if (previousExecutor != null) {
+      previousExecutor.shutdown();
+    }
+
+    if (segmentSearchConfig.getThreadCount() <= 0) {
+      LOG.info("Searching the segments of a chunk on the chunk query thread");
+      return;
+    }
+    SegmentSearchExecutor.maxDocsPerSlice =
+        segmentSearchConfig.getMaxDocsPerSlice() > 0
+            ? segmentSearchConfig.getMaxDocsPerSlice()
+            : DEFAULT_MAX_DOCS_PER_SLICE;
+    SegmentSearchExecutor.maxSegmentsPerSlice =
+        segmentSearchConfig.getMaxSegmentsPerSlice() > 0
+            ? segmentSearchConfig.getMaxSegmentsPerSlice()
+            : DEFAULT_MAX_SEGMENTS_PER_SLICE;
+    SegmentSearchExecutor.maxPendingChunkQueries = maxPendingChunkQueries;
+    concurrentSegmentSearches = meterRegistry.counter(CONCURRENT_SEGMENT_SEARCHES);
+    // The index searcher searches the slices on the calling thread once the queue of this fixed
+    // thread pool is full, so the segment searches can't pile up.
+    executor =
+        Executors.newFixedThreadPool(
+            segmentSearchConfig.getThreadCount(),
+            new ThreadFactoryBuilder()
+                .setNameFormat("segment-search-%d")
+                .setUncaughtExceptionHandler(
+                    (t, e) -> LOG.error("Exception on thread {}: {}", t.getName(), e))
+                .build());
+    LOG.info(
+        "Searching the segments of a chunk concurrently with {} threads while fewer than {} chunk queries are pending",
+        segmentSearchConfig.getThreadCount(),
+        maxPendingChunkQueries);
+  }
+
+  /** Counts the chunk queries that were submitted, until they complete. */
+  public static void chunkQueriesSubmitted(int chunkQueries) {
+    pendingChunkQueries.addAndGet(chunkQueries);
+  }
+
+  public static void chunkQueryCompleted() {
+    pendingChunkQueries.decrementAndGet();
+  }
+
+  @VisibleForTesting
+  static int getPendingChunkQueries() {
+    return pendingChunkQueries.get();
+  }
+
+  /**
+   * Returns a searcher of the same index that searches its segments concurrently, or the given
+   * searcher if the segments are searched on the calling thread.
+   */
+  public static IndexSearcher getSearcher(IndexSearcher searcher) {
+    ExecutorService executor = SegmentSearchExecutor.executor;
+    if (executor == null
+        || pendingChunkQueries.get() >= maxPendingChunkQueries
+        || searcher.getIndexReader().leaves().size() <= 1) {
+      return searcher;
+    }
+    IndexSearcher concurrentSearcher = new SlicedIndexSearcher(searcher.getIndexReader(), executor);
+    if (concurrentSearcher.getSlices().length <= 1) {
+      return searcher;
+    }
+    concurrentSegmentSearches.increment();
+    return concurrentSearcher;
+  }
+
+  /**
+   * An index searcher that groups the segments into slices of the configured size. The slices are
+   * computed by the constructor of the index searcher, before the fields of a subclass are set, so
+   * the slice sizes are read from the static config.
+   */
+  private static class SlicedIndexSearcher extends IndexSearcher {
+    private SlicedIndexSearcher(IndexReader indexReader, ExecutorService executor) {
+      super(indexReader, executor);
+    }
+
+    @Override
+    protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+      return slices(leaves, maxDocsPerSlice, maxSegmentsPerSlice);
+    }
+  }
+}
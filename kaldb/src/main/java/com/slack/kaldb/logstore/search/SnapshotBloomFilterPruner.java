@@ -0,0 +1,128 @@
+package com.slack.kaldb.logstore.search;
+
+import static com.slack.kaldb.chunk.ReadWriteChunk.LIVE_SNAPSHOT_PREFIX;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.slack.kaldb.blobfs.BlobFs;
+import com.slack.kaldb.metadata.snapshot.SnapshotMetadata;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.lucene.search.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Skips the snapshots of a distributed query that can't match it, using the term bloom filters
+ * uploaded with the snapshots. The bloom filters are downloaded in the background the first time a
+ * snapshot is queried, and until then the snapshot is always searched, so pruning never delays a
+ * query.
+ */
+public class SnapshotBloomFilterPruner implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(SnapshotBloomFilterPruner.class);
+
+  public static final String SNAPSHOTS_PRUNED_BY_BLOOM_FILTERS =
+      "kaldb_snapshots_pruned_by_bloom_filters";
+
+  private static final int LOADER_THREADS = 2;
+
+  private final BlobFs blobFs;
+  private final Cache<String, TermBloomFilters> bloomFilters;
+  private final Set<String> pendingLoads = ConcurrentHashMap.newKeySet();
+  private final ExecutorService loaderExecutor;
+  private final Counter snapshotsPruned;
+
+  /** Creates a pruner that caches up to maxCacheBytes of bloom filters. */
+  public SnapshotBloomFilterPruner(BlobFs blobFs, long maxCacheBytes, MeterRegistry meterRegistry) {
+    this.blobFs = blobFs;
+    this.bloomFilters =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxCacheBytes)
+            .<String, TermBloomFilters>weigher(
+                (snapshotId, value) -> (int) Math.min(value.getSizeBytes() + 1, Integer.MAX_VALUE))
+            .build();
+    this.loaderExecutor =
+        Executors.newFixedThreadPool(
+            LOADER_THREADS,
+            new ThreadFactoryBuilder()
+                .setNameFormat("snapshot-bloom-filter-loader-%d")
+                .setDaemon(true)
+                .build());
+    this.snapshotsPruned = meterRegistry.counter(SNAPSHOTS_PRUNED_BY_BLOOM_FILTERS);
+  }
+
+  /**
+   * Returns the snapshots that might match the query string. A snapshot is dropped, along with the
+   * live snapshot of the same chunk, only if its bloom filters show the query can't match it.
+   */
+  public Map<String, SnapshotMetadata> prune(
+      Map<String, SnapshotMetadata> snapshots, String queryStr) {
+    Query query = TermBloomFilters.parseQuery(queryStr);
+    if (query == null) {
+      return snapshots;
+    }
+
+    Map<String, SnapshotMetadata> snapshotsToSearch = new HashMap<>(snapshots);
+    for (SnapshotMetadata snapshot : snapshots.values()) {
+      if (SnapshotMetadata.isLive(snapshot)) {
+        continue;
+      }
+      TermBloomFilters snapshotBloomFilters = getOrLoad(snapshot);
+      if (snapshotBloomFilters != null && !snapshotBloomFilters.mightMatch(query)) {
+        snapshotsToSearch.remove(snapshot.name);
+        snapshotsToSearch.remove(LIVE_SNAPSHOT_PREFIX + snapshot.name);
+        snapshotsPruned.increment();
+      }
+    }
+    return snapshotsToSearch;
+  }
+
+  private TermBloomFilters getOrLoad(SnapshotMetadata snapshot) {
+    TermBloomFilters snapshotBloomFilters = bloomFilters.getIfPresent(snapshot.snapshotId);
+    if (snapshotBloomFilters == null && pendingLoads.add(snapshot.snapshotId)) {
+      loaderExecutor.execute(() -> load(snapshot));
+    }
+    return snapshotBloomFilters;
+  }
+
+  private void load(SnapshotMetadata snapshot) {
+    try {
+      URI uri = URI.create(snapshot.snapshotPath).resolve(TermBloomFilters.FILE_NAME);
+      if (blobFs.exists(uri)) {
+        try (InputStream inputStream = new BufferedInputStream(blobFs.open(uri))) {
+          bloomFilters.put(snapshot.snapshotId, TermBloomFilters.readFrom(inputStream));
+        }
+      } else {
+        // The snapshot was uploaded without bloom filters, so it can never be skipped.
+        bloomFilters.put(snapshot.snapshotId, TermBloomFilters.EMPTY);
+      }
+    } catch (Exception e) {
+      // The load is retried the next time the snapshot is queried.
+      LOG.warn("Failed to load the term bloom filters of snapshot {}", snapshot, e);
+    } finally {
+      pendingLoads.remove(snapshot.snapshotId);
+    }
+  }
+
+  @VisibleForTesting
+  boolean isLoaded(String snapshotId) {
+    return bloomFilters.getIfPresent(snapshotId) != null;
+  }
+
+  @Override
+  public void close() {
+    loaderExecutor.shutdownNow();
+  }
+}
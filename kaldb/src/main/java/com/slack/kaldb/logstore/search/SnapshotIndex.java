@@ -0,0 +1,400 @@
+package com.slack.kaldb.logstore.search;
+
+import static com.slack.kaldb.chunk.ChunkInfo.containsDataInTimeRange;
+import static com.slack.kaldb.metadata.dataset.DatasetPartitionMetadata.MATCH_ALL_DATASET;
+
+import brave.ScopedSpan;
+import brave.Tracing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.slack.kaldb.metadata.core.KaldbMetadataStoreChangeListener;
+import com.slack.kaldb.metadata.dataset.DatasetMetadata;
+import com.slack.kaldb.metadata.dataset.DatasetMetadataStore;
+import com.slack.kaldb.metadata.dataset.DatasetPartitionMetadata;
+import com.slack.kaldb.metadata.search.SearchMetadata;
+import com.slack.kaldb.metadata.search.SearchMetadataStore;
+import com.slack.kaldb.metadata.snapshot.SnapshotMetadata;
+import com.slack.kaldb.metadata.snapshot.SnapshotMetadataStore;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An index of the snapshots and search metadata of the cluster, used by the query service to find
+ * the snapshots of a query without filtering every snapshot. The snapshots of every partition are
+ * kept in an interval tree by their time range, and the search metadata is grouped by snapshot, so
+ * finding the snapshots of a query costs O(log n + matches).
+ *
+ * <p>The index is built from the store caches once, and then every change the store listeners
+ * report is applied to the node it's about, on a thread of the index. The listeners don't tell a
+ * created node from a deleted one, so a node that isn't in the store cache anymore is removed from
+ * the index. A change only copies the interval tree of the partition of the snapshot, and queries
+ * read the index without locking.
+ */
+public class SnapshotIndex implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(SnapshotIndex.class);
+
+  private final SnapshotMetadataStore snapshotMetadataStore;
+  private final SearchMetadataStore searchMetadataStore;
+  private final DatasetMetadataStore datasetMetadataStore;
+
+  // Applies the changes to the index in the order they were reported. The changes are applied off
+  // the threads of the store caches, since looking up a node waits for its cache to be initialized.
+  private final ExecutorService updateExecutor =
+      Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("snapshot-index-%d")
+              .setUncaughtExceptionHandler(
+                  (t, e) -> LOG.error("Exception on thread {}: {}", t.getName(), e))
+              .build());
+
+  private final KaldbMetadataStoreChangeListener<SnapshotMetadata> snapshotListener =
+      (snapshotMetadata) -> applyChange(() -> updateSnapshot(snapshotMetadata));
+  private final KaldbMetadataStoreChangeListener<SearchMetadata> searchMetadataListener =
+      (searchMetadata) -> applyChange(() -> updateSearchMetadata(searchMetadata));
+  private final KaldbMetadataStoreChangeListener<DatasetMetadata> datasetListener =
+      (datasetMetadata) -> applyChange(() -> updateDataset(datasetMetadata));
+
+  // The snapshots and search metadata in the index by name, to find the version of a node to
+  // remove. They're only used by the update thread.
+  private final Map<String, SnapshotMetadata> snapshotsByName = new HashMap<>();
+  private final Map<String, SearchMetadata> searchMetadataByName = new HashMap<>();
+
+  private final Map<String, SnapshotIntervalTree> snapshotsByPartition = new ConcurrentHashMap<>();
+  private final Map<String, List<SearchMetadata>> searchMetadataBySnapshot =
+      new ConcurrentHashMap<>();
+  private final Map<String, List<DatasetPartitionMetadata>> partitionsByDataset =
+      new ConcurrentHashMap<>();
+
+  public SnapshotIndex(
+      SnapshotMetadataStore snapshotMetadataStore,
+      SearchMetadataStore searchMetadataStore,
+      DatasetMetadataStore datasetMetadataStore) {
+    this.snapshotMetadataStore = snapshotMetadataStore;
+    this.searchMetadataStore = searchMetadataStore;
+    this.datasetMetadataStore = datasetMetadataStore;
+
+    // The listeners are added first, so no change is missed. A change that is applied before the
+    // index is built is overwritten by the store caches, which already hold it.
+    snapshotMetadataStore.addListener(snapshotListener);
+    searchMetadataStore.addListener(searchMetadataListener);
+    datasetMetadataStore.addListener(datasetListener);
+    try {
+      updateExecutor.submit(this::build).get();
+    } catch (InterruptedException | ExecutionException e) {
+      close();
+      throw new IllegalStateException("Error building the snapshot index", e);
+    }
+  }
+
+  /**
+   * Returns the snapshots of the dataset with data in the time range, by snapshot name. A snapshot
+   * matches if its partition was assigned to the dataset at some point in the time range.
+   */
+  public Map<String, SnapshotMetadata> getMatchingSnapshots(
+      long queryStartTimeEpochMs, long queryEndTimeEpochMs, String dataset) {
+    ScopedSpan span = Tracing.currentTracer().startScopedSpan("SnapshotIndex.getMatchingSnapshots");
+    Map<String, SnapshotMetadata> matchingSnapshots = new HashMap<>();
+    for (DatasetPartitionMetadata partition :
+        findPartitionsToQuery(queryStartTimeEpochMs, queryEndTimeEpochMs, dataset)) {
+      for (String partitionId : partition.partitions) {
+        SnapshotIntervalTree snapshots = snapshotsByPartition.get(partitionId);
+        if (snapshots == null) {
+          continue;
+        }
+        snapshots.forEachOverlapping(
+            queryStartTimeEpochMs,
+            queryEndTimeEpochMs,
+            (snapshotMetadata) -> {
+              if (containsDataInTimeRange(
+                  partition.startTimeEpochMs,
+                  partition.endTimeEpochMs,
+                  snapshotMetadata.startTimeEpochMs,
+                  snapshotMetadata.endTimeEpochMs)) {
+                matchingSnapshots.put(snapshotMetadata.name, snapshotMetadata);
+              }
+            });
+      }
+    }
+    span.tag("matchingSnapshots", String.valueOf(matchingSnapshots.size()));
+    span.finish();
+    return matchingSnapshots;
+  }
+
+  /**
+   * Returns the search metadata of the snapshots, grouped by the name of the snapshot without the
+   * live snapshot prefix.
+   */
+  public Map<String, List<SearchMetadata>> getMatchingSearchMetadata(
+      Map<String, SnapshotMetadata> snapshotsToSearch) {
+    Map<String, List<SearchMetadata>> searchMetadataGroupedByName = new HashMap<>();
+    for (String snapshotName : snapshotsToSearch.keySet()) {
+      List<SearchMetadata> searchMetadataList = searchMetadataBySnapshot.get(snapshotName);
+      if (searchMetadataList == null) {
+        continue;
+      }
+      for (SearchMetadata searchMetadata : searchMetadataList) {
+        searchMetadataGroupedByName
+            .computeIfAbsent(getRawSnapshotName(searchMetadata), (k) -> new ArrayList<>())
+            .add(searchMetadata);
+      }
+    }
+    return searchMetadataGroupedByName;
+  }
+
+  private List<DatasetPartitionMetadata> findPartitionsToQuery(
+      long startTimeEpochMs, long endTimeEpochMs, String dataset) {
+    List<DatasetPartitionMetadata> datasetPartitions;
+    if (dataset.equals("*") || dataset.equals(MATCH_ALL_DATASET)) {
+      datasetPartitions = new ArrayList<>();
+      partitionsByDataset.values().forEach(datasetPartitions::addAll);
+    } else {
+      datasetPartitions = partitionsByDataset.getOrDefault(dataset, List.of());
+    }
+
+    List<DatasetPartitionMetadata> partitions = new ArrayList<>();
+    for (DatasetPartitionMetadata partition : datasetPartitions) {
+      if (containsDataInTimeRange(
+          partition.startTimeEpochMs, partition.endTimeEpochMs, startTimeEpochMs, endTimeEpochMs)) {
+        partitions.add(partition);
+      }
+    }
+    return partitions;
+  }
+
+  private void applyChange(Runnable change) {
+    updateExecutor.execute(
+        () -> {
+          try {
+            change.run();
+          } catch (RuntimeException e) {
+            // The change may be lost, so rebuild the index from the store caches.
+            LOG.error("Error updating the snapshot index, rebuilding it", e);
+            build();
+          }
+        });
+  }
+
+  private void build() {
+    Map<String, List<SnapshotMetadata>> snapshots = new HashMap<>();
+    snapshotsByName.clear();
+    for (SnapshotMetadata snapshotMetadata : snapshotMetadataStore.listSync()) {
+      snapshotsByName.put(snapshotMetadata.name, snapshotMetadata);
+      snapshots
+          .computeIfAbsent(snapshotMetadata.partitionId, (k) -> new ArrayList<>())
+          .add(snapshotMetadata);
+    }
+    snapshotsByPartition.keySet().retainAll(snapshots.keySet());
+    snapshots.forEach(
+        (partitionId, partitionSnapshots) ->
+            snapshotsByPartition.put(partitionId, new SnapshotIntervalTree(partitionSnapshots)));
+
+    Map<String, List<SearchMetadata>> searchMetadata = new HashMap<>();
+    searchMetadataByName.clear();
+    for (SearchMetadata metadata : searchMetadataStore.listSync()) {
+      searchMetadataByName.put(metadata.name, metadata);
+      searchMetadata.computeIfAbsent(metadata.snapshotName, (k) -> new ArrayList<>()).add(metadata);
+    }
+    searchMetadataBySnapshot.keySet().retainAll(searchMetadata.keySet());
+    searchMetadataBySnapshot.putAll(searchMetadata);
+
+    Map<String, List<DatasetPartitionMetadata>> datasets = new HashMap<>();
+    for (DatasetMetadata datasetMetadata : datasetMetadataStore.listSync()) {
+      datasets.put(datasetMetadata.name, datasetMetadata.partitionConfigs);
+    }
+    partitionsByDataset.keySet().retainAll(datasets.keySet());
+    partitionsByDataset.putAll(datasets);
+  }
+
+  private void updateSnapshot(SnapshotMetadata changedSnapshot) {
+    SnapshotMetadata snapshot =
+        snapshotMetadataStore.hasSync(changedSnapshot.getPartition(), changedSnapshot.name)
+            ? changedSnapshot
+            : null;
+    SnapshotMetadata indexedSnapshot =
+        snapshot == null
+            ? snapshotsByName.remove(changedSnapshot.name)
+            : snapshotsByName.put(snapshot.name, snapshot);
+    // The trees are replaced instead of changed, since queries may be reading them.
+    boolean samePartition =
+        snapshot != null
+            && indexedSnapshot != null
+            && snapshot.partitionId.equals(indexedSnapshot.partitionId);
+    if (indexedSnapshot != null && !samePartition) {
+      snapshotsByPartition.computeIfPresent(
+          indexedSnapshot.partitionId,
+          (partitionId, snapshots) -> snapshots.replace(indexedSnapshot, null));
+    }
+    if (snapshot != null) {
+      SnapshotMetadata replacedSnapshot = samePartition ? indexedSnapshot : null;
+      snapshotsByPartition.compute(
+          snapshot.partitionId,
+          (partitionId, snapshots) ->
+              snapshots == null
+                  ? new SnapshotIntervalTree(List.of(snapshot))
+                  : snapshots.replace(replacedSnapshot, snapshot));
+    }
+  }
+
+  private void updateSearchMetadata(SearchMetadata changedSearchMetadata) {
+    SearchMetadata searchMetadata =
+        searchMetadataStore.hasSync(changedSearchMetadata.name) ? changedSearchMetadata : null;
+    SearchMetadata indexedSearchMetadata =
+        searchMetadata == null
+            ? searchMetadataByName.remove(changedSearchMetadata.name)
+            : searchMetadataByName.put(searchMetadata.name, searchMetadata);
+    // The lists are replaced instead of changed, since queries may be reading them.
+    if (indexedSearchMetadata != null) {
+      searchMetadataBySnapshot.computeIfPresent(
+          indexedSearchMetadata.snapshotName,
+          (snapshotName, searchMetadataList) -> {
+            List<SearchMetadata> newSearchMetadataList = new ArrayList<>(searchMetadataList);
+            newSearchMetadataList.remove(indexedSearchMetadata);
+            if (searchMetadata != null && searchMetadata.snapshotName.equals(snapshotName)) {
+              newSearchMetadataList.add(searchMetadata);
+            }
+            return newSearchMetadataList.isEmpty() ? null : newSearchMetadataList;
+          });
+    }
+    if (searchMetadata != null
+        && (indexedSearchMetadata == null
+            || !indexedSearchMetadata.snapshotName.equals(searchMetadata.snapshotName))) {
+      searchMetadataBySnapshot.compute(
+          searchMetadata.snapshotName,
+          (snapshotName, searchMetadataList) -> {
+            List<SearchMetadata> newSearchMetadataList =
+                searchMetadataList == null
+                    ? new ArrayList<>(1)
+                    : new ArrayList<>(searchMetadataList);
+            newSearchMetadataList.add(searchMetadata);
+            return newSearchMetadataList;
+          });
+    }
+  }
+
+  private void updateDataset(DatasetMetadata changedDataset) {
+    if (datasetMetadataStore.hasSync(changedDataset.name)) {
+      partitionsByDataset.put(changedDataset.name, changedDataset.partitionConfigs);
+    } else {
+      partitionsByDataset.remove(changedDataset.name);
+    }
+  }
+
+  /** Returns the name of the snapshot of the search metadata without the live snapshot prefix. */
+  static String getRawSnapshotName(SearchMetadata searchMetadata) {
+    return searchMetadata.snapshotName.startsWith("LIVE")
+        ? searchMetadata.snapshotName.substring(5) // LIVE_
+        : searchMetadata.snapshotName;
+  }
+
+  @Override
+  public void close() {
+    snapshotMetadataStore.removeListener(snapshotListener);
+    searchMetadataStore.removeListener(searchMetadataListener);
+    datasetMetadataStore.removeListener(datasetListener);
+    updateExecutor.shutdownNow();
+  }
+
+  /**
+   * An interval tree of snapshots, stored as a balanced binary search tree over the snapshots
+   * sorted by their start time. Every node of the tree holds the max end time of its subtree, so
+   * subtrees that end before the query are skipped. A tree isn't changed once it's built.
+   */
+  private static class SnapshotIntervalTree {
+    private final SnapshotMetadata[] snapshots;
+    private final long[] maxEndTimes;
+
+    private SnapshotIntervalTree(List<SnapshotMetadata> snapshots) {
+      this(sortByStartTime(snapshots.toArray(new SnapshotMetadata[0])));
+    }
+
+    private SnapshotIntervalTree(SnapshotMetadata[] sortedSnapshots) {
+      this.snapshots = sortedSnapshots;
+      this.maxEndTimes = new long[this.snapshots.length];
+      computeMaxEndTimes(0, this.snapshots.length);
+    }
+
+    private static SnapshotMetadata[] sortByStartTime(SnapshotMetadata[] snapshots) {
+      Arrays.sort(snapshots, Comparator.comparingLong(snapshot -> snapshot.startTimeEpochMs));
+      return snapshots;
+    }
+
+    /**
+     * Returns a tree without the old snapshot and with the new snapshot, either of which may be
+     * null, or null if the tree would be empty. The snapshots are still sorted, so this costs O(n).
+     */
+    private SnapshotIntervalTree replace(
+        SnapshotMetadata oldSnapshot, SnapshotMetadata newSnapshot) {
+      List<SnapshotMetadata> newSnapshots = new ArrayList<>(snapshots.length + 1);
+      boolean added = newSnapshot == null;
+      for (SnapshotMetadata snapshot : snapshots) {
+        if (!added && newSnapshot.startTimeEpochMs < snapshot.startTimeEpochMs) {
+          newSnapshots.add(newSnapshot);
+          added = true;
+        }
+        if (snapshot != oldSnapshot) {
+          newSnapshots.add(snapshot);
+        }
+      }
+      if (!added) {
+        newSnapshots.add(newSnapshot);
+      }
+      return newSnapshots.isEmpty()
+          ? null
+          : new SnapshotIntervalTree(newSnapshots.toArray(new SnapshotMetadata[0]));
+    }
+
+    private long computeMaxEndTimes(int from, int to) {
+      if (from >= to) {
+        return Long.MIN_VALUE;
+      }
+      int mid = (from + to) >>> 1;
+      maxEndTimes[mid] =
+          Math.max(
+              snapshots[mid].endTimeEpochMs,
+              Math.max(computeMaxEndTimes(from, mid), computeMaxEndTimes(mid + 1, to)));
+      return maxEndTimes[mid];
+    }
+
+    private void forEachOverlapping(
+        long startTimeEpochMs, long endTimeEpochMs, Consumer<SnapshotMetadata> consumer) {
+      forEachOverlapping(0, snapshots.length, startTimeEpochMs, endTimeEpochMs, consumer);
+    }
+
+    private void forEachOverlapping(
+        int from,
+        int to,
+        long startTimeEpochMs,
+        long endTimeEpochMs,
+        Consumer<SnapshotMetadata> consumer) {
+      if (from >= to) {
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      if (maxEndTimes[mid] < startTimeEpochMs) {
+        return;
+      }
+      forEachOverlapping(from, mid, startTimeEpochMs, endTimeEpochMs, consumer);
+      if (snapshots[mid].startTimeEpochMs <= endTimeEpochMs) {
+        if (containsDataInTimeRange(
+            snapshots[mid].startTimeEpochMs,
+            snapshots[mid].endTimeEpochMs,
+            startTimeEpochMs,
+            endTimeEpochMs)) {
+          consumer.accept(snapshots[mid]);
+        }
+        forEachOverlapping(mid + 1, to, startTimeEpochMs, endTimeEpochMs, consumer);
+      }
+    }
+  }
+}
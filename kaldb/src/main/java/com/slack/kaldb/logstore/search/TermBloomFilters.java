@@ -0,0 +1,189 @@
+package com.slack.kaldb.logstore.search;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
+import com.google.common.io.CountingInputStream;
+import com.slack.kaldb.logstore.LogMessage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Bloom filters of the terms of a few high cardinality keyword fields of a chunk, like trace ids.
+ * They are built when the chunk is snapshotted, and uploaded with the snapshot, so the query
+ * service can skip the snapshots that can't contain the terms a query requires.
+ */
+public class TermBloomFilters {
+  public static final String FILE_NAME = "term_bloom_filters.bin";
+
+  public static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+  // Bloom filters that can't skip any snapshot, for snapshots without bloom filters.
+  public static final TermBloomFilters EMPTY = new TermBloomFilters(Map.of(), 0);
+
+  private static final int VERSION = 1;
+
+  private enum BytesRefFunnel implements Funnel<BytesRef> {
+    INSTANCE;
+
+    @Override
+    public void funnel(BytesRef from, PrimitiveSink into) {
+      into.putBytes(from.bytes, from.offset, from.length);
+    }
+  }
+
+  private final Map<String, BloomFilter<BytesRef>> bloomFilters;
+  private final long sizeBytes;
+
+  private TermBloomFilters(Map<String, BloomFilter<BytesRef>> bloomFilters, long sizeBytes) {
+    this.bloomFilters = bloomFilters;
+    this.sizeBytes = sizeBytes;
+  }
+
+  /** Builds the bloom filters of the terms of the fields in the index. */
+  public static TermBloomFilters build(
+      IndexReader indexReader, Collection<String> fields, double falsePositiveProbability)
+      throws IOException {
+    Map<String, BloomFilter<BytesRef>> bloomFilters = new HashMap<>();
+    for (String field : fields) {
+      // The term count of a segment is exact, but a term can be counted in more than 1 segment.
+      long termCount = 0;
+      for (LeafReaderContext leaf : indexReader.leaves()) {
+        Terms terms = leaf.reader().terms(field);
+        if (terms != null) {
+          termCount += terms.size() >= 0 ? terms.size() : leaf.reader().maxDoc();
+        }
+      }
+
+      BloomFilter<BytesRef> bloomFilter =
+          BloomFilter.create(
+              BytesRefFunnel.INSTANCE, Math.max(termCount, 1), falsePositiveProbability);
+      for (LeafReaderContext leaf : indexReader.leaves()) {
+        Terms terms = leaf.reader().terms(field);
+        if (terms != null) {
+          TermsEnum termsEnum = terms.iterator();
+          for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            bloomFilter.put(term);
+          }
+        }
+      }
+      bloomFilters.put(field, bloomFilter);
+    }
+    return new TermBloomFilters(bloomFilters, 0);
+  }
+
+  public void writeTo(OutputStream outputStream) throws IOException {
+    DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+    dataOutputStream.writeInt(VERSION);
+    dataOutputStream.writeInt(bloomFilters.size());
+    for (Map.Entry<String, BloomFilter<BytesRef>> entry : bloomFilters.entrySet()) {
+      dataOutputStream.writeUTF(entry.getKey());
+      entry.getValue().writeTo(dataOutputStream);
+    }
+    dataOutputStream.flush();
+  }
+
+  public static TermBloomFilters readFrom(InputStream inputStream) throws IOException {
+    CountingInputStream countingInputStream = new CountingInputStream(inputStream);
+    DataInputStream dataInputStream = new DataInputStream(countingInputStream);
+    int version = dataInputStream.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unknown term bloom filters version " + version);
+    }
+    int fieldCount = dataInputStream.readInt();
+    Map<String, BloomFilter<BytesRef>> bloomFilters = new HashMap<>(fieldCount);
+    for (int i = 0; i < fieldCount; i++) {
+      String field = dataInputStream.readUTF();
+      bloomFilters.put(field, BloomFilter.readFrom(dataInputStream, BytesRefFunnel.INSTANCE));
+    }
+    return new TermBloomFilters(bloomFilters, countingInputStream.getCount());
+  }
+
+  /** The size of the serialized bloom filters this was read from. */
+  public long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  /** Returns false if the term is definitely not in the index. */
+  public boolean mightContain(Term term) {
+    BloomFilter<BytesRef> bloomFilter = bloomFilters.get(term.field());
+    return bloomFilter == null || bloomFilter.mightContain(term.bytes());
+  }
+
+  /**
+   * Returns false if the query definitely doesn't match any document of the index, because it
+   * requires a term that is not in the index.
+   */
+  public boolean mightMatch(Query query) {
+    if (bloomFilters.isEmpty()) {
+      return true;
+    }
+    if (query instanceof TermQuery) {
+      return mightContain(((TermQuery) query).getTerm());
+    }
+    if (query instanceof BoostQuery) {
+      return mightMatch(((BoostQuery) query).getQuery());
+    }
+    if (query instanceof BooleanQuery) {
+      boolean hasRequiredClauses = false;
+      boolean hasShouldClauses = false;
+      boolean shouldClauseMightMatch = false;
+      for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+        switch (clause.getOccur()) {
+          case MUST, FILTER -> {
+            if (!mightMatch(clause.getQuery())) {
+              return false;
+            }
+            hasRequiredClauses = true;
+          }
+          case SHOULD -> {
+            hasShouldClauses = true;
+            shouldClauseMightMatch |= mightMatch(clause.getQuery());
+          }
+          case MUST_NOT -> {}
+        }
+      }
+      // Without required clauses, at least 1 of the optional clauses has to match.
+      return hasRequiredClauses || !hasShouldClauses || shouldClauseMightMatch;
+    }
+    return true;
+  }
+
+  /**
+   * Parses a query string into a query of the terms it requires, or returns null if it can't be
+   * parsed. The values of keyword fields are not analyzed, so they are parsed without an analyzer.
+   */
+  public static Query parseQuery(String queryStr) {
+    if (queryStr == null || queryStr.isEmpty() || queryStr.equals("*:*") || queryStr.equals("*")) {
+      return null;
+    }
+    QueryParser queryParser =
+        new QueryParser(LogMessage.SystemField.ALL.fieldName, new KeywordAnalyzer());
+    queryParser.setAllowLeadingWildcard(true);
+    try {
+      return queryParser.parse(queryStr);
+    } catch (ParseException | RuntimeException e) {
+      return null;
+    }
+  }
+}
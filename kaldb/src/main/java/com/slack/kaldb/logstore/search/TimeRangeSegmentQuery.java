@@ -0,0 +1,170 @@
+package com.slack.kaldb.logstore.search;
+
+import java.io.IOException;
+import java.util.Objects;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BulkScorer;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Matches;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+
+/**
+ * Every search filters on a time range, but most segments of a chunk are either entirely inside or
+ * entirely outside of that range. This query picks one of two queries per segment, using the min
+ * and max timestamps lucene already records in the points index of every segment:
+ *
+ * <ul>
+ *   <li>A segment with no timestamps in the range is skipped.
+ *   <li>A segment with all timestamps in the range is searched with the unfiltered query, so the
+ *       time range isn't evaluated for every document.
+ *   <li>Other segments are searched with the time range filtered query.
+ * </ul>
+ */
+public class TimeRangeSegmentQuery extends Query {
+  private final Query filteredQuery;
+  private final Query unfilteredQuery;
+  private final String timestampField;
+  private final long startTimeMsEpoch;
+  private final long endTimeMsEpoch;
+
+  public TimeRangeSegmentQuery(
+      Query filteredQuery,
+      Query unfilteredQuery,
+      String timestampField,
+      long startTimeMsEpoch,
+      long endTimeMsEpoch) {
+    this.filteredQuery = filteredQuery;
+    this.unfilteredQuery = unfilteredQuery;
+    this.timestampField = timestampField;
+    this.startTimeMsEpoch = startTimeMsEpoch;
+    this.endTimeMsEpoch = endTimeMsEpoch;
+  }
+
+  // Like Lucene's own queries, the rewritten queries are compared by reference, since a query
+  // returns itself from rewrite once it can't be rewritten any further.
+  @SuppressWarnings("ReferenceEquality")
+  @Override
+  public Query rewrite(IndexReader reader) throws IOException {
+    Query rewrittenFilteredQuery = filteredQuery.rewrite(reader);
+    Query rewrittenUnfilteredQuery = unfilteredQuery.rewrite(reader);
+    if (rewrittenFilteredQuery != filteredQuery || rewrittenUnfilteredQuery != unfilteredQuery) {
+      return new TimeRangeSegmentQuery(
+          rewrittenFilteredQuery,
+          rewrittenUnfilteredQuery,
+          timestampField,
+          startTimeMsEpoch,
+          endTimeMsEpoch);
+    }
+    return super.rewrite(reader);
+  }
+
+  @Override
+  public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost)
+      throws IOException {
+    Weight filteredWeight = filteredQuery.createWeight(searcher, scoreMode, boost);
+    Weight unfilteredWeight = unfilteredQuery.createWeight(searcher, scoreMode, boost);
+    return new Weight(this) {
+      // Returns the weight to search the segment with, or null if the segment can be skipped.
+      private Weight segmentWeight(LeafReaderContext context) throws IOException {
+        PointValues timestamps = context.reader().getPointValues(timestampField);
+        if (timestamps == null) {
+          // No document in this segment has a timestamp, so none of them are in the range.
+          return null;
+        }
+        long minTimestamp = LongPoint.decodeDimension(timestamps.getMinPackedValue(), 0);
+        long maxTimestamp = LongPoint.decodeDimension(timestamps.getMaxPackedValue(), 0);
+        if (maxTimestamp < startTimeMsEpoch || minTimestamp > endTimeMsEpoch) {
+          return null;
+        }
+        if (minTimestamp >= startTimeMsEpoch
+            && maxTimestamp <= endTimeMsEpoch
+            && timestamps.getDocCount() == context.reader().maxDoc()) {
+          return unfilteredWeight;
+        }
+        return filteredWeight;
+      }
+
+      @Override
+      public Scorer scorer(LeafReaderContext context) throws IOException {
+        Weight weight = segmentWeight(context);
+        return weight == null ? null : weight.scorer(context);
+      }
+
+      @Override
+      public BulkScorer bulkScorer(LeafReaderContext context) throws IOException {
+        Weight weight = segmentWeight(context);
+        return weight == null ? null : weight.bulkScorer(context);
+      }
+
+      @Override
+      public int count(LeafReaderContext context) throws IOException {
+        Weight weight = segmentWeight(context);
+        return weight == null ? 0 : weight.count(context);
+      }
+
+      @Override
+      public Matches matches(LeafReaderContext context, int doc) throws IOException {
+        Weight weight = segmentWeight(context);
+        return weight == null ? null : weight.matches(context, doc);
+      }
+
+      @Override
+      public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+        Weight weight = segmentWeight(context);
+        if (weight == null) {
+          return Explanation.noMatch("segment has no timestamps in the time range");
+        }
+        return weight.explain(context, doc);
+      }
+
+      @Override
+      public boolean isCacheable(LeafReaderContext context) {
+        return filteredWeight.isCacheable(context) && unfilteredWeight.isCacheable(context);
+      }
+    };
+  }
+
+  @Override
+  public void visit(QueryVisitor visitor) {
+    // The filtered query matches the same terms as the unfiltered query, and the time range.
+    filteredQuery.visit(visitor.getSubVisitor(BooleanClause.Occur.MUST, this));
+  }
+
+  @Override
+  public String toString(String field) {
+    return filteredQuery.toString(field);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!sameClassAs(other)) {
+      return false;
+    }
+    TimeRangeSegmentQuery that = (TimeRangeSegmentQuery) other;
+    return startTimeMsEpoch == that.startTimeMsEpoch
+        && endTimeMsEpoch == that.endTimeMsEpoch
+        && timestampField.equals(that.timestampField)
+        && filteredQuery.equals(that.filteredQuery)
+        && unfilteredQuery.equals(that.unfilteredQuery);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(
+        classHash(),
+        filteredQuery,
+        unfilteredQuery,
+        timestampField,
+        startTimeMsEpoch,
+        endTimeMsEpoch);
+  }
+}
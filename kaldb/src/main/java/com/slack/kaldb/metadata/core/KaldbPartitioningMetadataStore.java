@@ -175,6 +175,12 @@ public class KaldbPartitioningMetadataStore<T extends KaldbPartitionedMetadata>
     }
   }
 
+  /** Returns true if the node is in the cache of the store of the partition. */
+  public boolean hasSync(String partition, String path) {
+    KaldbMetadataStore<T> store = metadataStoreMap.get(partition);
+    return store != null && store.hasSync(path);
+  }
+
   /**
    * Attempts to find the metadata without knowledge of the partition it exists in. Use of this
    * should be avoided if possible, preferring the getAsync.
@@ -24,6 +24,7 @@ import org.apache.lucene.document.SortedNumericDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
@@ -366,6 +367,38 @@ public enum FieldType {
     return null;
   }
 
+  // A text field that only indexes doc ids and term frequencies, so it can't be phrase queried.
+  private static final org.apache.lucene.document.FieldType TEXT_WITHOUT_POSITIONS_TYPE =
+      textWithoutPositionsType(TextField.TYPE_NOT_STORED);
+  private static final org.apache.lucene.document.FieldType STORED_TEXT_WITHOUT_POSITIONS_TYPE =
+      textWithoutPositionsType(TextField.TYPE_STORED);
+
+  private static org.apache.lucene.document.FieldType textWithoutPositionsType(
+      org.apache.lucene.document.FieldType textType) {
+    org.apache.lucene.document.FieldType fieldType =
+        new org.apache.lucene.document.FieldType(textType);
+    fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+    fieldType.freeze();
+    return fieldType;
+  }
+
+  /** Adds a text field without positions, with the same stored fields as a TEXT field. */
+  public static void addTextFieldWithoutPositions(
+      Document doc, String name, Object value, LuceneFieldDef fieldDef) {
+    if (fieldDef.isIndexed) {
+      doc.add(
+          new Field(
+              name,
+              (String) value,
+              fieldDef.isStored
+                  ? STORED_TEXT_WITHOUT_POSITIONS_TYPE
+                  : TEXT_WITHOUT_POSITIONS_TYPE));
+    }
+    if (fieldDef.isStored) {
+      doc.add(new StoredField(name, (String) value));
+    }
+  }
+
   private static Field.Store getStoreEnum(boolean isStored) {
     return isStored ? Field.Store.YES : Field.Store.NO;
   }
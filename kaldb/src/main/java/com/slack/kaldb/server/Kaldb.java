@@ -7,6 +7,7 @@ import com.slack.kaldb.blobfs.BlobFs;
 import com.slack.kaldb.blobfs.s3.S3CrtBlobFs;
 import com.slack.kaldb.chunkManager.CachingChunkManager;
 import com.slack.kaldb.chunkManager.ChunkCleanerService;
+import com.slack.kaldb.chunkManager.ChunkManagerBase;
 import com.slack.kaldb.chunkManager.IndexingChunkManager;
 import com.slack.kaldb.clusterManager.ClusterHpaMetricService;
 import com.slack.kaldb.clusterManager.ClusterMonitorService;
@@ -21,6 +22,10 @@ import com.slack.kaldb.elasticsearchApi.ElasticsearchApiService;
 import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.logstore.search.KaldbDistributedQueryService;
 import com.slack.kaldb.logstore.search.KaldbLocalQueryService;
+import com.slack.kaldb.logstore.search.KaldbQueryCache;
+import com.slack.kaldb.logstore.search.RequestHedger;
+import com.slack.kaldb.logstore.search.SegmentSearchExecutor;
+import com.slack.kaldb.logstore.search.SnapshotBloomFilterPruner;
 import com.slack.kaldb.metadata.cache.CacheSlotMetadataStore;
 import com.slack.kaldb.metadata.core.CloseableLifecycleManager;
 import com.slack.kaldb.metadata.core.CuratorBuilder;
@@ -126,6 +131,10 @@ public class Kaldb {
 
   public void start() throws Exception {
     setupSystemMetrics(prometheusMeterRegistry);
+    KaldbQueryCache.initDefaultQueryCache(
+        kaldbConfig.getQueryCacheConfig(), prometheusMeterRegistry);
+    SegmentSearchExecutor.init(kaldbConfig.getSegmentSearchConfig(), prometheusMeterRegistry);
+    ChunkManagerBase.registerQueryMetrics(prometheusMeterRegistry);
     addShutdownHook();
 
     curatorFramework =
@@ -206,6 +215,18 @@ public class Kaldb {
 
       Duration requestTimeout =
           Duration.ofMillis(kaldbConfig.getQueryConfig().getServerConfig().getRequestTimeoutMs());
+      long termBloomFilterCacheSizeBytes =
+          kaldbConfig.getQueryConfig().getTermBloomFilterCacheSizeBytes();
+      SnapshotBloomFilterPruner snapshotBloomFilterPruner =
+          termBloomFilterCacheSizeBytes > 0
+              ? new SnapshotBloomFilterPruner(blobFs, termBloomFilterCacheSizeBytes, meterRegistry)
+              : null;
+      double hedgeLatencyPercentile = kaldbConfig.getQueryConfig().getHedgeLatencyPercentile();
+      RequestHedger requestHedger =
+          hedgeLatencyPercentile > 0
+              ? new RequestHedger(
+                  hedgeLatencyPercentile, kaldbConfig.getQueryConfig().getHedgeBudgetPercent())
+              : null;
       KaldbDistributedQueryService kaldbDistributedQueryService =
           new KaldbDistributedQueryService(
               searchMetadataStore,
@@ -213,7 +234,9 @@ public class Kaldb {
               datasetMetadataStore,
               meterRegistry,
               requestTimeout,
-              Duration.ofMillis(kaldbConfig.getQueryConfig().getDefaultQueryTimeoutMs()));
+              Duration.ofMillis(kaldbConfig.getQueryConfig().getDefaultQueryTimeoutMs()),
+              snapshotBloomFilterPruner,
+              requestHedger);
       // todo - close the kaldbDistributedQueryService once done (depends on
       // https://github.com/slackhq/kaldb/pull/564)
       final int serverPort = kaldbConfig.getQueryConfig().getServerConfig().getServerPort();
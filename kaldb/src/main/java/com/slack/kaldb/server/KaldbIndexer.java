@@ -71,7 +71,13 @@ public class KaldbIndexer extends AbstractExecutionThreadService {
         INDEXER_DATA_TRANSFORMER_MAP.get(indexerConfig.getDataTransformer());
     LogMessageWriterImpl logMessageWriterImpl =
         new LogMessageWriterImpl(chunkManager, messageTransformer);
-    this.kafkaConsumer = new KaldbKafkaConsumer(kafkaConfig, logMessageWriterImpl, meterRegistry);
+    this.kafkaConsumer =
+        new KaldbKafkaConsumer(
+            kafkaConfig,
+            logMessageWriterImpl,
+            meterRegistry,
+            indexerConfig.getIndexingThreadCount(),
+            chunkManager.getIndexedOffsetTracker());
   }
 
   @Override
@@ -4,6 +4,7 @@ import com.slack.kaldb.proto.service.KaldbSearch;
 import com.slack.kaldb.proto.service.KaldbServiceGrpc;
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,6 +29,23 @@ public abstract class KaldbQueryServiceBase extends KaldbServiceGrpc.KaldbServic
     }
   }
 
+  @Override
+  public void streamingSearch(
+      KaldbSearch.SearchRequest request,
+      StreamObserver<KaldbSearch.SearchResult> responseObserver) {
+    LOG.info(
+        String.format(
+            "Streaming search request received: '%s'", request.toString().replace("\n", ", ")));
+
+    try {
+      doStreamingSearch(request, responseObserver::onNext);
+      responseObserver.onCompleted();
+    } catch (Exception e) {
+      LOG.error("Error completing streaming search request", e);
+      responseObserver.onError(Status.UNKNOWN.withDescription(e.getMessage()).asException());
+    }
+  }
+
   @Override
   public void schema(
       KaldbSearch.SchemaRequest request,
@@ -46,5 +64,14 @@ public abstract class KaldbQueryServiceBase extends KaldbServiceGrpc.KaldbServic
 
   public abstract KaldbSearch.SearchResult doSearch(KaldbSearch.SearchRequest request);
 
+  /**
+   * Sends the partial results of the search to the consumer as they complete. By default, the
+   * result of the search is sent once it completes.
+   */
+  public void doStreamingSearch(
+      KaldbSearch.SearchRequest request, Consumer<KaldbSearch.SearchResult> resultConsumer) {
+    resultConsumer.accept(doSearch(request));
+  }
+
   public abstract KaldbSearch.SchemaResult getSchema(KaldbSearch.SchemaRequest request);
 }
@@ -43,6 +43,9 @@ public class ValidateKaldbConfig {
         indexerConfig.getServerConfig().getRequestTimeoutMs()
             > indexerConfig.getDefaultQueryTimeoutMs(),
         "IndexerConfig requestTimeoutMs must be higher than defaultQueryTimeoutMs");
+    checkArgument(
+        indexerConfig.getIndexingThreadCount() >= 0,
+        "IndexerConfig indexingThreadCount cannot be negative");
   }
 
   private static void validateQueryConfig(KaldbConfigs.QueryServiceConfig queryConfig) {
@@ -56,6 +59,13 @@ public class ValidateKaldbConfig {
         queryConfig.getServerConfig().getRequestTimeoutMs()
             > queryConfig.getDefaultQueryTimeoutMs(),
         "QueryConfig requestTimeoutMs must be higher than defaultQueryTimeoutMs");
+    checkArgument(
+        queryConfig.getHedgeLatencyPercentile() >= 0
+            && queryConfig.getHedgeLatencyPercentile() < 100,
+        "QueryConfig hedgeLatencyPercentile must be between 0 and 100");
+    checkArgument(
+        queryConfig.getHedgeBudgetPercent() >= 0,
+        "QueryConfig hedgeBudgetPercent cannot be negative");
   }
 
   private static void validateCacheConfig(KaldbConfigs.CacheConfig cacheConfig) {
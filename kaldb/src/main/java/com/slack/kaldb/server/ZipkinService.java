@@ -19,6 +19,7 @@ import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.logstore.LogWireMessage;
 import com.slack.kaldb.proto.service.KaldbSearch;
 import com.slack.kaldb.util.JsonUtil;
+import com.slack.kaldb.writer.SpanLogMessage;
 import java.io.IOException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
@@ -118,12 +119,21 @@ public class ZipkinService {
   private static List<LogWireMessage> searchResultToLogWireMessage(
       KaldbSearch.SearchResult searchResult) throws IOException {
     List<ByteString> hitsByteList = searchResult.getHitsList().asByteStringList();
-    List<LogWireMessage> messages = new ArrayList<>(hitsByteList.size());
+    List<LogWireMessage> messages =
+        new ArrayList<>(hitsByteList.size() + searchResult.getSearchHitsCount());
     for (ByteString byteString : hitsByteList) {
       LogWireMessage hit = JsonUtil.read(byteString.toStringUtf8(), LogWireMessage.class);
       // LogMessage message = LogMessage.fromWireMessage(hit);
       messages.add(hit);
     }
+    for (KaldbSearch.SearchHit searchHit : searchResult.getSearchHitsList()) {
+      if (searchHit.hasSpan()) {
+        // The source map of a span is built from the span, so it isn't copied.
+        messages.add(SpanLogMessage.fromSourceBytes(searchHit.getSpan()));
+      } else {
+        messages.add(JsonUtil.read(searchHit.getJson(), LogWireMessage.class));
+      }
+    }
     return messages;
   }
 
@@ -224,9 +234,8 @@ public class ZipkinService {
     span.tag("endTimeEpochMs", String.valueOf(endTimeEpochMs));
     span.tag("howMany", String.valueOf(howMany));
 
-    // TODO: when MAX_SPANS is hit the results will look weird because the index is sorted in
-    // reverse timestamp and the spans returned will be the tail. We should support sort in the
-    // search request
+    // The spans are sorted by timestamp ascending, so when MAX_SPANS is hit the spans returned are
+    // the start of the trace instead of its tail.
     KaldbSearch.SearchRequest.Builder searchRequestBuilder = KaldbSearch.SearchRequest.newBuilder();
     KaldbSearch.SearchResult searchResult =
         searcher.doSearch(
@@ -236,6 +245,7 @@ public class ZipkinService {
                 .setStartTimeEpochMs(startTime)
                 .setEndTimeEpochMs(endTime)
                 .setHowMany(howMany)
+                .setSortOrder(KaldbSearch.SearchRequest.SortOrder.ASC)
                 .build());
     // we don't account for any failed nodes in the searchResult today
     List<LogWireMessage> messages = searchResultToLogWireMessage(searchResult);
@@ -1,5 +1,6 @@
 package com.slack.kaldb.util;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser.Feature;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -9,6 +10,7 @@ import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 
 public class JsonUtil {
@@ -27,6 +29,11 @@ public class JsonUtil {
     return ourInstance.mapper.writeValueAsString(obj);
   }
 
+  /** Creates a streaming generator that serializes objects the same way as writeAsString. */
+  public static JsonGenerator createGenerator(Writer writer) throws IOException {
+    return ourInstance.mapper.createGenerator(writer);
+  }
+
   // TODO: Ensure this class templating works here.
   public static <T> T read(String s, Class<T> cls) throws IOException {
     return ourInstance.mapper.readValue(s, cls);
@@ -6,6 +6,7 @@ import com.slack.kaldb.preprocessor.KaldbSerdes;
 import com.slack.service.murron.Murron;
 import com.slack.service.murron.trace.Trace;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.common.serialization.Deserializer;
@@ -38,10 +39,12 @@ import org.slf4j.LoggerFactory;
  * spans, the transformation function would look as follows: ConsumerRecord -> MurronMessage ->
  * List<Span> -> List<LogMessage>.
  *
- * <p>In future, when all the logs are written only as spans, we can directly convert a span to a
- * Lucene Document, obviating the need for MurronMessage and LogMessage wrappers. Meanwhile, we pass
- * in a data transformation function to this class as input so we can abstract away the specific
- * details of the message format from the indexer.
+ * <p>Spans are converted into a SpanLogMessage, which keeps the span instead of building a json
+ * map. The document builder converts the span directly into a Lucene Document, skipping the json
+ * map and the json serialization of the message. In future, when all the logs are written only as
+ * spans, we can drop the LogMessage wrapper entirely. Meanwhile, we pass in a data transformation
+ * function to this class as input so we can abstract away the specific details of the message
+ * format from the indexer.
  *
  * <p>In the long term, we want to index only spans since spans offer several advantages over basic
  * logs like standardization, provide a service centric log view, ability to ingest and query logs
@@ -62,15 +65,14 @@ public class LogMessageWriterImpl implements MessageWriter {
         final Murron.MurronMessage murronMsg =
             murronMessageDeserializer.deserialize("", record.value());
         Trace.Span apiSpan = MurronLogFormatter.fromApiLog(murronMsg);
-        return SpanFormatter.toLogMessage(Trace.ListOfSpans.newBuilder().addSpans(apiSpan).build());
+        return List.of(SpanFormatter.toSpanLogMessage(apiSpan));
       };
 
   // A protobuf Trace.Span
   public static final LogMessageTransformer traceSpanTransformer =
       (ConsumerRecord<String, byte[]> record) -> {
         final Trace.Span span = Trace.Span.parseFrom(record.value());
-        final Trace.ListOfSpans listOfSpans = Trace.ListOfSpans.newBuilder().addSpans(span).build();
-        return SpanFormatter.toLogMessage(listOfSpans);
+        return List.of(SpanFormatter.toSpanLogMessage(span));
       };
 
   private final ChunkManager<LogMessage> chunkManager;
@@ -86,16 +88,8 @@ public class LogMessageWriterImpl implements MessageWriter {
   public boolean insertRecord(ConsumerRecord<String, byte[]> record) throws IOException {
     if (record == null) return false;
 
-    final List<LogMessage> logMessages;
-    try {
-      logMessages = this.dataTransformer.toLogMessage(record);
-      // Ideally, we should return true when logMessages are empty. But, fail the record, since we
-      // don't expect any empty records or we may have a bug in earlier code.
-      if (logMessages.isEmpty()) return false;
-    } catch (Exception e) {
-      LOG.warn("Parsing consumer record: {} failed with an exception.", record, e);
-      return false;
-    }
+    final List<LogMessage> logMessages = toLogMessages(record);
+    if (logMessages == null) return false;
 
     final int avgMsgSize = record.serializedValueSize() / logMessages.size();
     for (LogMessage logMessage : logMessages) {
@@ -108,4 +102,58 @@ public class LogMessageWriterImpl implements MessageWriter {
     }
     return true;
   }
+
+  /**
+   * Insert a poll worth of records into the chunk manager as one batch, so the chunk manager only
+   * pays the per message overhead once. Records that fail to parse are skipped and counted in the
+   * returned failure count.
+   */
+  @Override
+  public int insertRecords(Iterable<ConsumerRecord<String, byte[]>> records) throws IOException {
+    int failedRecords = 0;
+    List<LogMessage> batch = new ArrayList<>();
+    long batchSize = 0;
+    long batchMaxOffset = -1;
+    String batchPartitionId = null;
+    for (ConsumerRecord<String, byte[]> record : records) {
+      final List<LogMessage> logMessages = toLogMessages(record);
+      if (logMessages == null) {
+        failedRecords++;
+        continue;
+      }
+
+      // A batch is added to a single chunk, so it can't span partitions.
+      final String partitionId = String.valueOf(record.partition());
+      if (batchPartitionId != null && !batchPartitionId.equals(partitionId)) {
+        chunkManager.addMessages(batch, batchSize, batchPartitionId, batchMaxOffset);
+        batch = new ArrayList<>();
+        batchSize = 0;
+        batchMaxOffset = -1;
+      }
+      batchPartitionId = partitionId;
+      batch.addAll(logMessages);
+      batchSize += record.serializedValueSize();
+      batchMaxOffset = Math.max(batchMaxOffset, record.offset());
+    }
+    if (!batch.isEmpty()) {
+      chunkManager.addMessages(batch, batchSize, batchPartitionId, batchMaxOffset);
+    }
+    return failedRecords;
+  }
+
+  // Returns the log messages in a record, or null if the record should be counted as a failure.
+  private List<LogMessage> toLogMessages(ConsumerRecord<String, byte[]> record) {
+    if (record == null) return null;
+
+    try {
+      final List<LogMessage> logMessages = this.dataTransformer.toLogMessage(record);
+      // Ideally, an empty record shouldn't be a failure. But, fail the record, since we don't
+      // expect any empty records or we may have a bug in earlier code.
+      if (logMessages.isEmpty()) return null;
+      return logMessages;
+    } catch (Exception e) {
+      LOG.warn("Parsing consumer record: {} failed with an exception.", record, e);
+      return null;
+    }
+  }
 }
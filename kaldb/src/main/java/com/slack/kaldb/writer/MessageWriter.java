@@ -8,4 +8,7 @@ import org.apache.kafka.clients.consumer.ConsumerRecord;
  */
 public interface MessageWriter {
   boolean insertRecord(ConsumerRecord<String, byte[]> record) throws IOException;
+
+  // Insert a batch of records and return the number of records that failed.
+  int insertRecords(Iterable<ConsumerRecord<String, byte[]>> records) throws IOException;
 }
@@ -151,9 +151,54 @@ public class SpanFormatter {
   public static LogMessage toLogMessage(Trace.Span span) {
     if (span == null) return null;
 
-    Map<String, Object> jsonMap = new HashMap<>();
+    // TODO: Use a microsecond resolution, instead of millisecond resolution.
+    Instant timestamp = Instant.ofEpochMilli(span.getTimestamp() / 1000);
+    boolean invalidTimestamp = !isValidTimestamp(timestamp);
+    if (invalidTimestamp) {
+      // set the timestamp to ingest time
+      timestamp = Instant.now();
+    }
+
+    // Drop the type field from LogMessage since with spans it doesn't make sense.
+    return LogMessage.fromWireMessage(
+        new LogWireMessage(
+            getServiceName(span),
+            getMessageType(span),
+            span.getId().toStringUtf8(),
+            timestamp,
+            toSourceMap(span, invalidTimestamp)));
+  }
 
-    String id = span.getId().toStringUtf8();
+  /**
+   * Converts a span into a LogMessage without building a source map. The index, type, id and
+   * timestamp are computed the same way as toLogMessage, and the document builder indexes the tags
+   * directly from the span.
+   */
+  public static LogMessage toSpanLogMessage(Trace.Span span) {
+    if (span == null) return null;
+
+    Instant timestamp = Instant.ofEpochMilli(span.getTimestamp() / 1000);
+    boolean invalidTimestamp = !isValidTimestamp(timestamp);
+    if (invalidTimestamp) {
+      timestamp = Instant.now();
+    }
+    return toSpanLogMessage(span, timestamp, invalidTimestamp);
+  }
+
+  static SpanLogMessage toSpanLogMessage(
+      Trace.Span span, Instant timestamp, boolean invalidTimestamp) {
+    return new SpanLogMessage(
+        LogMessage.computedIndexName(getServiceName(span)),
+        getMessageType(span),
+        span.getId().toStringUtf8(),
+        timestamp,
+        span,
+        invalidTimestamp);
+  }
+
+  /** Returns the source map of a LogMessage created from this span. */
+  public static Map<String, Object> toSourceMap(Trace.Span span, boolean invalidTimestamp) {
+    Map<String, Object> jsonMap = new HashMap<>();
 
     // Set these fields even if they are empty so we can always search these fields.
     jsonMap.put(LogMessage.ReservedField.PARENT_ID.fieldName, span.getParentId().toStringUtf8());
@@ -163,31 +208,19 @@ public class SpanFormatter {
         LogMessage.ReservedField.DURATION_MS.fieldName,
         Duration.of(span.getDuration(), ChronoUnit.MICROS).toMillis());
 
-    // TODO: Use a microsecond resolution, instead of millisecond resolution.
-    Instant timestamp = Instant.ofEpochMilli(span.getTimestamp() / 1000);
-    if (!isValidTimestamp(timestamp)) {
+    if (invalidTimestamp) {
       // we use an attribute here so we can find the offending logs easily
       jsonMap.put(LogMessage.ReservedField.KALDB_INVALID_TIMESTAMP.fieldName, span.getTimestamp());
-      // set the timestamp to ingest time
-      timestamp = Instant.now();
     }
 
-    String indexName = "";
-    String msgType = DEFAULT_LOG_MESSAGE_TYPE;
     for (Trace.KeyValue tag : span.getTagsList()) {
       String key = tag.getKey();
       int valueType = tag.getVType().getNumber();
       if (valueType == 0) {
         if (key.equals(LogMessage.ReservedField.TYPE.fieldName)) {
-          msgType = tag.getVStr();
           continue;
         }
         jsonMap.put(key, tag.getVStr());
-        if (key.equals(LogMessage.ReservedField.SERVICE_NAME.fieldName)) {
-          indexName = tag.getVStr();
-          // Also, add service name to the map so can search by service name also.
-          jsonMap.put(LogMessage.ReservedField.SERVICE_NAME.fieldName, indexName);
-        }
       } else if (valueType == 1) {
         jsonMap.put(key, tag.getVBool());
       } else if (valueType == 2) {
@@ -201,32 +234,32 @@ public class SpanFormatter {
       }
     }
 
-    if (indexName.isEmpty()) {
-      indexName = DEFAULT_INDEX_NAME;
+    // Also, add service name to the map so can search by service name also.
+    jsonMap.put(LogMessage.ReservedField.SERVICE_NAME.fieldName, getServiceName(span));
+    return jsonMap;
+  }
+
+  /** The service name of the span, which is also used as the index name. */
+  public static String getServiceName(Trace.Span span) {
+    String serviceName = "";
+    for (Trace.KeyValue tag : span.getTagsList()) {
+      if (tag.getVType().getNumber() == 0
+          && tag.getKey().equals(LogMessage.ReservedField.SERVICE_NAME.fieldName)) {
+        serviceName = tag.getVStr();
+      }
     }
-    jsonMap.put(LogMessage.ReservedField.SERVICE_NAME.fieldName, indexName);
-
-    //  This logging is in place to debug span parsing exceptions. Once this pipeline
-    //  is more stable remove this code.
-    // try {
-    //      return LogMessage.fromWireMessage(new LogWireMessage(indexName, msgType, id, jsonMap));
-    //    } catch (Exception e) {
-    //      try {
-    //        LOG.info(
-    //            "span conversion failed: "
-    //                + JsonFormat.printer()
-    //                    .includingDefaultValueFields()
-    //                    .omittingInsignificantWhitespace()
-    //                    .print(span));
-    //      } catch (InvalidProtocolBufferException invalidProtocolBufferException) {
-    //        invalidProtocolBufferException.printStackTrace();
-    //      }
-    //      throw e;
-    //    }
+    return serviceName.isEmpty() ? DEFAULT_INDEX_NAME : serviceName;
+  }
 
-    // Drop the type field from LogMessage since with spans it doesn't make sense.
-    return LogMessage.fromWireMessage(
-        new LogWireMessage(indexName, msgType, id, timestamp, jsonMap));
+  private static String getMessageType(Trace.Span span) {
+    String msgType = DEFAULT_LOG_MESSAGE_TYPE;
+    for (Trace.KeyValue tag : span.getTagsList()) {
+      if (tag.getVType().getNumber() == 0
+          && tag.getKey().equals(LogMessage.ReservedField.TYPE.fieldName)) {
+        msgType = tag.getVStr();
+      }
+    }
+    return msgType;
   }
 
   // TODO: For now assuming that the tags in ListOfSpans is empty. Handle this case in future.
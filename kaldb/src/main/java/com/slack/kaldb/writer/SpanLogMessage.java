@@ -0,0 +1,94 @@
+package com.slack.kaldb.writer;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.service.murron.trace.Trace;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * A LogMessage that is backed by a Trace.Span. The document builder indexes the span tags directly
+ * from the protobuf, so the source map of this message is only built if someone asks for it.
+ *
+ * <p>A span log message can also be stored as a binary source: the timestamp of the message in
+ * milliseconds followed by the span protobuf. The timestamp is stored since it may have been set to
+ * the ingest time, and can't be recomputed from the span later.
+ */
+public class SpanLogMessage extends LogMessage {
+  private static final int TIMESTAMP_BYTES = Long.BYTES;
+
+  private final Trace.Span span;
+  private final boolean invalidTimestamp;
+  private volatile Map<String, Object> source;
+
+  SpanLogMessage(
+      String index,
+      String type,
+      String messageId,
+      Instant timestamp,
+      Trace.Span span,
+      boolean invalidTimestamp) {
+    super(index, type, messageId, timestamp, Collections.emptyMap());
+    this.span = span;
+    this.invalidTimestamp = invalidTimestamp;
+  }
+
+  @JsonIgnore
+  public Trace.Span getSpan() {
+    return span;
+  }
+
+  /** True if the span timestamp was out of range and the timestamp was set to ingest time. */
+  public boolean hasInvalidTimestamp() {
+    return invalidTimestamp;
+  }
+
+  @Override
+  public Map<String, Object> getSource() {
+    // The super class validates the source while this class is still being constructed.
+    if (span == null) {
+      return super.getSource();
+    }
+    if (source == null) {
+      source = SpanFormatter.toSourceMap(span, invalidTimestamp);
+    }
+    return source;
+  }
+
+  /** Serialize this message into the binary source format. */
+  public byte[] toSourceBytes() throws IOException {
+    int spanSize = span.getSerializedSize();
+    byte[] sourceBytes = new byte[TIMESTAMP_BYTES + spanSize];
+    ByteBuffer.wrap(sourceBytes).putLong(getTimestamp().toEpochMilli());
+    CodedOutputStream output =
+        CodedOutputStream.newInstance(sourceBytes, TIMESTAMP_BYTES, spanSize);
+    span.writeTo(output);
+    output.checkNoSpaceLeft();
+    return sourceBytes;
+  }
+
+  /** Deserialize a message from the binary source format. */
+  public static SpanLogMessage fromSourceBytes(BytesRef sourceBytes) throws IOException {
+    return fromSourceBytes(
+        ByteBuffer.wrap(sourceBytes.bytes, sourceBytes.offset, sourceBytes.length));
+  }
+
+  /** Deserialize a message from the binary source format. */
+  public static SpanLogMessage fromSourceBytes(ByteString sourceBytes) throws IOException {
+    return fromSourceBytes(sourceBytes.asReadOnlyByteBuffer());
+  }
+
+  private static SpanLogMessage fromSourceBytes(ByteBuffer buffer) throws IOException {
+    Instant timestamp = Instant.ofEpochMilli(buffer.getLong());
+    Trace.Span span = Trace.Span.parseFrom(buffer);
+    // An invalid timestamp is replaced with the ingest time, so it won't match the span anymore.
+    boolean invalidTimestamp = timestamp.toEpochMilli() != span.getTimestamp() / 1000;
+    return SpanFormatter.toSpanLogMessage(span, timestamp, invalidTimestamp);
+  }
+}
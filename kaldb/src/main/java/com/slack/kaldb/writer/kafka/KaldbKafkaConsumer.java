@@ -6,7 +6,10 @@ import static java.lang.Integer.parseInt;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.math.IntMath;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.slack.kaldb.chunkManager.IndexedOffsetTracker;
 import com.slack.kaldb.proto.config.KaldbConfigs;
 import com.slack.kaldb.server.KaldbConfig;
 import com.slack.kaldb.writer.LogMessageWriterImpl;
@@ -14,16 +17,20 @@ import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.binder.kafka.KafkaClientMetrics;
 import java.io.IOException;
+import java.math.RoundingMode;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
@@ -124,10 +131,32 @@ public class KaldbKafkaConsumer {
   private final Counter recordsReceivedCounter;
   private final Counter recordsFailedCounter;
 
+  // Fields used when indexing records from multiple threads. The executor is null when records are
+  // indexed on the consumer thread.
+  private final ThreadPoolExecutor indexingExecutor;
+  private final int indexingThreadCount;
+  private final IndexedOffsetTracker indexedOffsetTracker;
+  private final AtomicReference<Exception> indexingFailure = new AtomicReference<>();
+
   public KaldbKafkaConsumer(
       KaldbConfigs.KafkaConfig kafkaConfig,
       LogMessageWriterImpl logMessageWriterImpl,
       MeterRegistry meterRegistry) {
+    this(kafkaConfig, logMessageWriterImpl, meterRegistry, 1, null);
+  }
+
+  /**
+   * Create a consumer that indexes records from indexingThreadCount threads. The kafka consumer
+   * itself isn't thread safe, so records are still polled on a single thread and handed off to the
+   * indexing threads through a blocking queue. Every handed off offset is registered with the
+   * indexedOffsetTracker, so the chunk manager knows which offsets are fully indexed.
+   */
+  public KaldbKafkaConsumer(
+      KaldbConfigs.KafkaConfig kafkaConfig,
+      LogMessageWriterImpl logMessageWriterImpl,
+      MeterRegistry meterRegistry,
+      int indexingThreadCount,
+      IndexedOffsetTracker indexedOffsetTracker) {
 
     topicPartition =
         getTopicPartition(kafkaConfig.getKafkaTopic(), kafkaConfig.getKafkaTopicPartition());
@@ -141,6 +170,29 @@ public class KaldbKafkaConsumer {
 
     kafkaConsumer = new KafkaConsumer<>(consumerProps);
     new KafkaClientMetrics(kafkaConsumer).bindTo(meterRegistry);
+
+    this.indexingThreadCount = indexingThreadCount;
+    if (indexingThreadCount > 1) {
+      checkNotNull(indexedOffsetTracker, "An offset tracker is required to index in parallel");
+      LOG.info(
+          "Indexing records from partition {} using {} threads",
+          topicPartition,
+          indexingThreadCount);
+      this.indexedOffsetTracker = indexedOffsetTracker;
+      // Each poll is split into one batch per thread, so the queue holds a few polls worth of
+      // records.
+      this.indexingExecutor =
+          new ThreadPoolExecutor(
+              indexingThreadCount,
+              indexingThreadCount,
+              0L,
+              TimeUnit.MILLISECONDS,
+              new BlockingArrayBlockingQueue<>(indexingThreadCount * 4),
+              new ThreadFactoryBuilder().setNameFormat("kafka-indexing-%d").build());
+    } else {
+      this.indexedOffsetTracker = null;
+      this.indexingExecutor = null;
+    }
   }
 
   private void validateKafkaConfig(Properties props) {
@@ -187,6 +239,19 @@ public class KaldbKafkaConsumer {
   }
 
   public void close() {
+    if (indexingExecutor != null) {
+      // Finish indexing the records that were already handed off to the indexing threads.
+      indexingExecutor.shutdown();
+      try {
+        if (!indexingExecutor.awaitTermination(
+            KaldbConfig.DEFAULT_START_STOP_DURATION.toMillis(), TimeUnit.MILLISECONDS)) {
+          LOG.warn("Timed out waiting for indexing threads of partition:{}", topicPartition);
+        }
+      } catch (InterruptedException e) {
+        LOG.warn("Interrupted waiting for indexing threads of partition:{}", topicPartition, e);
+        Thread.currentThread().interrupt();
+      }
+    }
     LOG.info("Closing kafka consumer for partition:{}", topicPartition);
     kafkaConsumer.close(KaldbConfig.DEFAULT_START_STOP_DURATION);
     LOG.info("Closed kafka consumer for partition:{}", topicPartition);
@@ -247,15 +312,23 @@ public class KaldbKafkaConsumer {
   }
 
   public void consumeMessages(final long kafkaPollTimeoutMs) throws IOException {
+    throwOnIndexingFailure();
     ConsumerRecords<String, byte[]> records = pollWithRetry(kafkaPollTimeoutMs);
     int recordCount = records.count();
     LOG.debug("Fetched records={} from partition:{}", recordCount, topicPartition.partition());
     if (recordCount > 0) {
       recordsReceivedCounter.increment(recordCount);
-      int recordFailures = 0;
-      for (ConsumerRecord<String, byte[]> record : records) {
-        if (!logMessageWriterImpl.insertRecord(record)) recordFailures++;
+      if (indexingExecutor != null) {
+        // Split the poll into one batch per indexing thread.
+        List<ConsumerRecord<String, byte[]>> recordList = new ArrayList<>(recordCount);
+        records.forEach(recordList::add);
+        int batchSize = IntMath.divide(recordCount, indexingThreadCount, RoundingMode.CEILING);
+        for (List<ConsumerRecord<String, byte[]>> batch : Lists.partition(recordList, batchSize)) {
+          indexRecordsInParallel(batch);
+        }
+        return;
       }
+      int recordFailures = logMessageWriterImpl.insertRecords(records);
       recordsFailedCounter.increment(recordFailures);
       LOG.debug(
           "Processed {} records. Success: {}, Failed: {}",
@@ -265,6 +338,63 @@ public class KaldbKafkaConsumer {
     }
   }
 
+  /**
+   * Hand off a batch of records to the indexing threads. The offsets are registered before the hand
+   * off, since the records may be indexed before this method returns. Failed records are also
+   * marked as complete, since they are skipped just like in the single threaded path.
+   */
+  private void indexRecordsInParallel(List<ConsumerRecord<String, byte[]>> batch) {
+    for (ConsumerRecord<String, byte[]> record : batch) {
+      indexedOffsetTracker.register(record.offset());
+    }
+    try {
+      indexingExecutor.execute(
+          () -> {
+            try {
+              recordsFailedCounter.increment(logMessageWriterImpl.insertRecords(batch));
+            } catch (Exception e) {
+              LOG.error(
+                  "Failed to index records at offsets {} to {} from {}",
+                  batch.get(0).offset(),
+                  batch.get(batch.size() - 1).offset(),
+                  topicPartition,
+                  e);
+              indexingFailure.compareAndSet(null, e);
+            } finally {
+              completeOffsets(batch);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      completeOffsets(batch);
+      throw e;
+    }
+  }
+
+  private void completeOffsets(List<ConsumerRecord<String, byte[]>> batch) {
+    for (ConsumerRecord<String, byte[]> record : batch) {
+      indexedOffsetTracker.complete(record.offset());
+    }
+  }
+
+  /**
+   * Exceptions on the indexing threads can't be thrown to the caller directly. So, we rethrow the
+   * first one on the next call to consume messages, so storage errors stop the indexer like they do
+   * in the single threaded path.
+   */
+  private void throwOnIndexingFailure() throws IOException {
+    Exception e = indexingFailure.get();
+    if (e == null) {
+      return;
+    }
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    }
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+    throw new IOException("Indexing failed on an indexing thread", e);
+  }
+
   /**
    * The default offer method on array blocking queue class fails an insert an element when the
    * queue is full. So, we override the offer method here to wait when inserting the item until the
@@ -0,0 +1,169 @@
+package com.slack.kaldb.chunk;
+
+import static com.slack.kaldb.chunk.ChunkResultCache.RESULT_CACHE_BYTES;
+import static com.slack.kaldb.chunk.ChunkResultCache.RESULT_CACHE_HITS;
+import static com.slack.kaldb.chunk.ChunkResultCache.RESULT_CACHE_MISSES;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import brave.Tracing;
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.SearchQuery;
+import com.slack.kaldb.logstore.search.SearchResult;
+import com.slack.kaldb.logstore.search.aggregations.AggBuilder;
+import com.slack.kaldb.logstore.search.aggregations.AvgAggBuilder;
+import com.slack.kaldb.logstore.search.aggregations.MaxAggBuilder;
+import com.slack.kaldb.testlib.MessageUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ChunkResultCacheTest {
+  private static final long CHUNK_START_TIME_MS = 1_000_000;
+  private static final long CHUNK_END_TIME_MS = 2_000_000;
+
+  private MeterRegistry meterRegistry;
+  private AtomicInteger searchCount;
+
+  @BeforeEach
+  public void setUp() {
+    Tracing.newBuilder().build();
+    meterRegistry = new SimpleMeterRegistry();
+    searchCount = new AtomicInteger();
+  }
+
+  private static ChunkInfo makeChunkInfo(String chunkId) {
+    return new ChunkInfo(
+        chunkId,
+        CHUNK_START_TIME_MS,
+        CHUNK_END_TIME_MS,
+        CHUNK_START_TIME_MS,
+        CHUNK_END_TIME_MS,
+        CHUNK_END_TIME_MS,
+        1,
+        "1",
+        "path");
+  }
+
+  private static SearchQuery makeQuery(
+      String queryStr, long startTimeMs, long endTimeMs, AggBuilder aggBuilder) {
+    return new SearchQuery(
+        MessageUtil.TEST_DATASET_NAME,
+        queryStr,
+        startTimeMs,
+        endTimeMs,
+        10,
+        aggBuilder,
+        Collections.emptyList());
+  }
+
+  private SearchResult<LogMessage> search() {
+    int i = searchCount.incrementAndGet();
+    return new SearchResult<>(
+        List.of(MessageUtil.makeMessage(i, Instant.ofEpochMilli(CHUNK_START_TIME_MS + i))),
+        0,
+        0,
+        1,
+        1,
+        0,
+        null);
+  }
+
+  private double count(String counterName) {
+    return meterRegistry.get(counterName).counter().count();
+  }
+
+  @Test
+  public void testCachesResultsByChunkAndClampedTimeRange() {
+    ChunkResultCache resultCache = new ChunkResultCache(1024 * 1024, meterRegistry);
+    ChunkInfo chunkInfo = makeChunkInfo("chunk1");
+
+    SearchResult<LogMessage> result =
+        resultCache.get(chunkInfo, makeQuery("*:*", 0, 3_000_000, null), this::search);
+    assertThat(result.hits).hasSize(1);
+    assertThat(searchCount.get()).isEqualTo(1);
+    assertThat(count(RESULT_CACHE_MISSES)).isEqualTo(1);
+
+    // Both time ranges cover the entire chunk, and the query string only differs in whitespace.
+    SearchResult<LogMessage> cachedResult =
+        resultCache.get(
+            chunkInfo, makeQuery(" *:* ", 500_000, CHUNK_END_TIME_MS + 10_000, null), this::search);
+    assertThat(searchCount.get()).isEqualTo(1);
+    assertThat(count(RESULT_CACHE_HITS)).isEqualTo(1);
+    assertThat(cachedResult.hits).hasSize(1);
+    assertThat(cachedResult.hits.get(0).getId()).isEqualTo(result.hits.get(0).getId());
+    assertThat(cachedResult.hits.get(0).getTimestamp())
+        .isEqualTo(result.hits.get(0).getTimestamp());
+
+    // A time range that only covers a part of the chunk, or another chunk, is a different entry.
+    resultCache.get(
+        chunkInfo, makeQuery("*:*", CHUNK_START_TIME_MS + 1, 3_000_000, null), this::search);
+    resultCache.get(makeChunkInfo("chunk2"), makeQuery("*:*", 0, 3_000_000, null), this::search);
+    assertThat(searchCount.get()).isEqualTo(3);
+    assertThat(count(RESULT_CACHE_MISSES)).isEqualTo(3);
+    assertThat(resultCache.size()).isEqualTo(3);
+    assertThat(meterRegistry.get(RESULT_CACHE_BYTES).gauge().value()).isPositive();
+  }
+
+  @Test
+  public void testCachesResultsByAggregation() {
+    ChunkResultCache resultCache = new ChunkResultCache(1024 * 1024, meterRegistry);
+    ChunkInfo chunkInfo = makeChunkInfo("chunk1");
+
+    // The agg builders are equal, but they are different aggregations.
+    resultCache.get(
+        chunkInfo,
+        makeQuery("*:*", 0, 3_000_000, new AvgAggBuilder("1", "value", null, null)),
+        this::search);
+    resultCache.get(
+        chunkInfo,
+        makeQuery("*:*", 0, 3_000_000, new MaxAggBuilder("1", "value", null, null)),
+        this::search);
+    assertThat(searchCount.get()).isEqualTo(2);
+
+    resultCache.get(
+        chunkInfo,
+        makeQuery("*:*", 0, 3_000_000, new MaxAggBuilder("1", "value", null, null)),
+        this::search);
+    assertThat(searchCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testInvalidateChunk() {
+    ChunkResultCache resultCache = new ChunkResultCache(1024 * 1024, meterRegistry);
+    resultCache.get(makeChunkInfo("chunk1"), makeQuery("*:*", 0, 3_000_000, null), this::search);
+    resultCache.get(makeChunkInfo("chunk1"), makeQuery("foo", 0, 3_000_000, null), this::search);
+    resultCache.get(makeChunkInfo("chunk2"), makeQuery("*:*", 0, 3_000_000, null), this::search);
+    assertThat(resultCache.size()).isEqualTo(3);
+
+    resultCache.invalidateChunk("chunk1");
+    assertThat(resultCache.size()).isEqualTo(1);
+
+    resultCache.get(makeChunkInfo("chunk1"), makeQuery("*:*", 0, 3_000_000, null), this::search);
+    assertThat(searchCount.get()).isEqualTo(4);
+  }
+
+  @Test
+  public void testEvictsResultsOverTheMaxSize() {
+    ChunkResultCache resultCache = new ChunkResultCache(1024, meterRegistry);
+    for (int i = 0; i < 100; i++) {
+      resultCache.get(
+          makeChunkInfo("chunk" + i), makeQuery("*:*", 0, 3_000_000, null), this::search);
+    }
+    assertThat(resultCache.size()).isLessThan(100);
+    assertThat(meterRegistry.get(RESULT_CACHE_BYTES).gauge().value()).isLessThanOrEqualTo(1024.0);
+  }
+
+  @Test
+  public void testDisabledCache() {
+    ChunkResultCache resultCache = ChunkResultCache.disabled(meterRegistry);
+    resultCache.get(makeChunkInfo("chunk1"), makeQuery("*:*", 0, 3_000_000, null), this::search);
+    resultCache.get(makeChunkInfo("chunk1"), makeQuery("*:*", 0, 3_000_000, null), this::search);
+    assertThat(searchCount.get()).isEqualTo(2);
+    assertThat(resultCache.size()).isEqualTo(0);
+  }
+}
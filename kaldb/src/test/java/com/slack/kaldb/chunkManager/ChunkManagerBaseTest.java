@@ -0,0 +1,282 @@
+package com.slack.kaldb.chunkManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import brave.Tracing;
+import com.slack.kaldb.chunk.Chunk;
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.SearchQuery;
+import com.slack.kaldb.logstore.search.SearchResult;
+import com.slack.kaldb.logstore.search.SearchResultAggregatorImpl;
+import com.slack.kaldb.testlib.MessageUtil;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ChunkManagerBaseTest {
+  private static final SearchQuery QUERY =
+      new SearchQuery(MessageUtil.TEST_DATASET_NAME, "*:*", 0, Long.MAX_VALUE, 10, null, List.of());
+
+  @BeforeEach
+  public void setUp() {
+    Tracing.newBuilder().build();
+  }
+
+  private static class TestChunkManager extends ChunkManagerBase<LogMessage> {
+    private TestChunkManager(List<Chunk<LogMessage>> chunks) {
+      chunkList.addAll(chunks);
+    }
+
+    @Override
+    public void addMessage(LogMessage message, long msgSize, String kafkaPartitionId, long offset) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void addMessages(
+        List<LogMessage> messages, long batchSize, String kafkaPartitionId, long maxOffset) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void startUp() {}
+
+    @Override
+    protected void shutDown() {}
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Chunk<LogMessage> makeChunk(String chunkId) {
+    Chunk<LogMessage> chunk = mock(Chunk.class);
+    when(chunk.id()).thenReturn(chunkId);
+    when(chunk.containsDataInTimeRange(anyLong(), anyLong())).thenReturn(true);
+    return chunk;
+  }
+
+  private static Chunk<LogMessage> makeSearchedChunk(int messageId) {
+    Chunk<LogMessage> chunk = makeChunk("chunk" + messageId);
+    when(chunk.query(any()))
+        .thenReturn(
+            new SearchResult<>(List.of(MessageUtil.makeMessage(messageId)), 0, 0, 0, 1, 1, null));
+    return chunk;
+  }
+
+  private static Chunk<LogMessage> makeSlowChunk() {
+    Chunk<LogMessage> chunk = makeChunk("slowChunk");
+    when(chunk.query(any()))
+        .thenAnswer(
+            invocation -> {
+              // Searches until the query is cancelled.
+              Thread.sleep(Long.MAX_VALUE);
+              return null;
+            });
+    return chunk;
+  }
+
+  @Test
+  public void testQueryReturnsPartialResultsOnTimeout() {
+    TestChunkManager chunkManager =
+        new TestChunkManager(List.of(makeSearchedChunk(1), makeSlowChunk(), makeSearchedChunk(2)));
+
+    SearchResult<LogMessage> result = chunkManager.query(QUERY, Duration.ofMillis(500));
+
+    // The slow chunk times out, but with a single query thread the other chunks may time out too.
+    assertThat(result.totalNodes).isEqualTo(1);
+    assertThat(result.failedNodes).isZero();
+    assertThat(result.totalSnapshots).isEqualTo(3);
+    assertThat(result.timedOutSnapshots).isGreaterThanOrEqualTo(1);
+    assertThat(result.snapshotsWithReplicas + result.timedOutSnapshots).isEqualTo(3);
+    assertThat(result.hits).hasSize(result.snapshotsWithReplicas);
+  }
+
+  @Test
+  public void testStreamingQueryCountsTimedOutChunks() {
+    TestChunkManager chunkManager =
+        new TestChunkManager(List.of(makeSearchedChunk(1), makeSlowChunk(), makeSearchedChunk(2)));
+
+    List<SearchResult<LogMessage>> results = new CopyOnWriteArrayList<>();
+    chunkManager.streamingQuery(QUERY, Duration.ofMillis(500), results::add);
+
+    SearchResult<LogMessage> lastResult = results.get(results.size() - 1);
+    assertThat(lastResult.totalNodes).isEqualTo(1);
+    assertThat(lastResult.timedOutSnapshots).isGreaterThanOrEqualTo(1);
+
+    SearchResult<LogMessage> result =
+        new SearchResultAggregatorImpl<LogMessage>(QUERY).aggregate(results, false);
+    assertThat(result.totalNodes).isEqualTo(1);
+    assertThat(result.totalSnapshots).isEqualTo(3);
+    assertThat(result.snapshotsWithReplicas + result.timedOutSnapshots).isEqualTo(3);
+    assertThat(result.hits).hasSize(result.snapshotsWithReplicas);
+  }
+
+  @Test
+  public void testQueryCountsFailedChunks() {
+    Chunk<LogMessage> errorChunk = makeChunk("errorChunk");
+    when(errorChunk.query(any())).thenThrow(new IllegalStateException("error"));
+    Chunk<LogMessage> invalidQueryChunk = makeChunk("invalidQueryChunk");
+    when(invalidQueryChunk.query(any())).thenThrow(new IllegalArgumentException("invalid"));
+    TestChunkManager chunkManager =
+        new TestChunkManager(List.of(makeSearchedChunk(1), errorChunk, invalidQueryChunk));
+
+    SearchResult<LogMessage> result = chunkManager.query(QUERY, Duration.ofSeconds(10));
+
+    assertThat(result.hits).hasSize(1);
+    assertThat(result.totalNodes).isEqualTo(1);
+    assertThat(result.totalSnapshots).isEqualTo(3);
+    assertThat(result.snapshotsWithReplicas).isEqualTo(1);
+    assertThat(result.timedOutSnapshots).isZero();
+  }
+
+  @Test
+  public void testTotalHitsAreALowerBoundIfChunksAreNotSearched() {
+    TestChunkManager chunkManager =
+        new TestChunkManager(List.of(makeSearchedChunk(1), makeSearchedChunk(2)));
+    SearchResult<LogMessage> result = chunkManager.query(QUERY, Duration.ofSeconds(10));
+    assertThat(result.totalHits).isEqualTo(2);
+    assertThat(result.totalHitsLowerBound).isFalse();
+
+    Chunk<LogMessage> errorChunk = makeChunk("errorChunk");
+    when(errorChunk.query(any())).thenThrow(new IllegalStateException("error"));
+    chunkManager = new TestChunkManager(List.of(makeSearchedChunk(1), errorChunk));
+    result = chunkManager.query(QUERY, Duration.ofSeconds(10));
+    assertThat(result.totalHits).isEqualTo(1);
+    assertThat(result.totalHitsLowerBound).isTrue();
+
+    chunkManager = new TestChunkManager(List.of(makeSearchedChunk(1), makeSlowChunk()));
+    List<SearchResult<LogMessage>> results = new CopyOnWriteArrayList<>();
+    chunkManager.streamingQuery(QUERY, Duration.ofMillis(500), results::add);
+    SearchResult<LogMessage> lastResult = results.get(results.size() - 1);
+    assertThat(lastResult.timedOutSnapshots).isGreaterThanOrEqualTo(1);
+    assertThat(lastResult.totalHitsLowerBound).isTrue();
+    result = new SearchResultAggregatorImpl<LogMessage>(QUERY).aggregate(results, false);
+    assertThat(result.totalHitsLowerBound).isTrue();
+  }
+
+  @Test
+  public void testQueryFailsIfNoChunkWasSearched() {
+    Chunk<LogMessage> invalidQueryChunk = makeChunk("invalidQueryChunk");
+    when(invalidQueryChunk.query(any())).thenThrow(new IllegalArgumentException("invalid"));
+    TestChunkManager chunkManager = new TestChunkManager(List.of(invalidQueryChunk));
+
+    assertThatThrownBy(() -> chunkManager.query(QUERY, Duration.ofSeconds(10)))
+        .hasRootCauseInstanceOf(IllegalArgumentException.class);
+
+    List<SearchResult<LogMessage>> results = new ArrayList<>();
+    assertThatThrownBy(
+            () -> chunkManager.streamingQuery(QUERY, Duration.ofSeconds(10), results::add))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThat(results).isEmpty();
+  }
+
+  @Test
+  public void testChunksPastTheSearchAfterCursorAreSkipped() {
+    Chunk<LogMessage> olderChunk = makeSearchedChunk(1);
+    when(olderChunk.containsDataInTimeRange(anyLong(), anyLong()))
+        .thenAnswer(invocation -> invocation.<Long>getArgument(0) <= 100);
+    Chunk<LogMessage> newerChunk = makeSearchedChunk(2);
+    when(newerChunk.containsDataInTimeRange(anyLong(), anyLong()))
+        .thenAnswer(invocation -> invocation.<Long>getArgument(1) >= 200);
+    TestChunkManager chunkManager = new TestChunkManager(List.of(olderChunk, newerChunk));
+
+    SearchQuery query =
+        new SearchQuery(
+            MessageUtil.TEST_DATASET_NAME,
+            "*:*",
+            0,
+            1000,
+            10,
+            null,
+            List.of(),
+            new SearchQuery.SearchAfter(150, "1"));
+    SearchResult<LogMessage> result = chunkManager.query(query, Duration.ofSeconds(10));
+
+    assertThat(result.hits).hasSize(1);
+    assertThat(result.totalSnapshots).isEqualTo(1);
+    verify(newerChunk, never()).query(any());
+  }
+
+  @Test
+  public void testChunksBeforeTheAscendingSearchAfterCursorAreSkipped() {
+    Chunk<LogMessage> olderChunk = makeSearchedChunk(1);
+    when(olderChunk.containsDataInTimeRange(anyLong(), anyLong()))
+        .thenAnswer(invocation -> invocation.<Long>getArgument(0) <= 100);
+    Chunk<LogMessage> newerChunk = makeSearchedChunk(2);
+    when(newerChunk.containsDataInTimeRange(anyLong(), anyLong()))
+        .thenAnswer(invocation -> invocation.<Long>getArgument(1) >= 200);
+    TestChunkManager chunkManager = new TestChunkManager(List.of(olderChunk, newerChunk));
+
+    SearchQuery query =
+        new SearchQuery(
+            MessageUtil.TEST_DATASET_NAME,
+            "*:*",
+            0,
+            1000,
+            10,
+            null,
+            List.of(),
+            new SearchQuery.SearchAfter(150, "1"),
+            SearchQuery.SortOrder.ASC);
+    SearchResult<LogMessage> result = chunkManager.query(query, Duration.ofSeconds(10));
+
+    assertThat(result.hits).hasSize(1);
+    assertThat(result.totalSnapshots).isEqualTo(1);
+    verify(olderChunk, never()).query(any());
+  }
+
+  @Test
+  public void testTotalHitsAreALowerBoundIfChunksPastTheSearchAfterCursorAreSkipped() {
+    Chunk<LogMessage> olderChunk = makeSearchedChunk(1);
+    when(olderChunk.containsDataInTimeRange(anyLong(), anyLong()))
+        .thenAnswer(invocation -> invocation.<Long>getArgument(0) <= 100);
+    Chunk<LogMessage> newerChunk = makeSearchedChunk(2);
+    when(newerChunk.containsDataInTimeRange(anyLong(), anyLong()))
+        .thenAnswer(invocation -> invocation.<Long>getArgument(1) >= 200);
+    TestChunkManager chunkManager = new TestChunkManager(List.of(olderChunk, newerChunk));
+
+    // The hits of the newer chunk aren't counted, so the total hits shrink from the first page.
+    SearchQuery query =
+        new SearchQuery(
+            MessageUtil.TEST_DATASET_NAME,
+            "*:*",
+            0,
+            1000,
+            10,
+            null,
+            List.of(),
+            new SearchQuery.SearchAfter(150, "1"));
+    SearchResult<LogMessage> result = chunkManager.query(query, Duration.ofSeconds(10));
+    assertThat(result.totalHits).isEqualTo(1);
+    assertThat(result.totalHitsLowerBound).isTrue();
+
+    List<SearchResult<LogMessage>> results = new CopyOnWriteArrayList<>();
+    chunkManager.streamingQuery(query, Duration.ofSeconds(10), results::add);
+    result = new SearchResultAggregatorImpl<LogMessage>(query).aggregate(results, false);
+    assertThat(result.totalHits).isEqualTo(1);
+    assertThat(result.totalHitsLowerBound).isTrue();
+
+    // A cursor that doesn't skip any chunk keeps the total hits exact.
+    query =
+        new SearchQuery(
+            MessageUtil.TEST_DATASET_NAME,
+            "*:*",
+            0,
+            1000,
+            10,
+            null,
+            List.of(),
+            new SearchQuery.SearchAfter(500, "1"));
+    result = chunkManager.query(query, Duration.ofSeconds(10));
+    assertThat(result.totalHits).isEqualTo(2);
+    assertThat(result.totalHitsLowerBound).isFalse();
+  }
+}
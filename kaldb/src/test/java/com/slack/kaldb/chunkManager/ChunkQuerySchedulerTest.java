@@ -0,0 +1,199 @@
+package com.slack.kaldb.chunkManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.slack.kaldb.chunkManager.ChunkQueryScheduler.QueryLane;
+import com.slack.kaldb.logstore.search.SearchQuery;
+import com.slack.kaldb.logstore.search.aggregations.AvgAggBuilder;
+import com.slack.kaldb.logstore.search.aggregations.DateHistogramAggBuilder;
+import com.slack.kaldb.logstore.search.aggregations.TermsAggBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ChunkQuerySchedulerTest {
+  private static final long HOUR_MS = 60 * 60 * 1000;
+
+  // Queues the tasks of the scheduler, so the test decides when a query thread is free.
+  private final List<Runnable> queryThreadTasks = new ArrayList<>();
+  private final List<String> executedQueries = new ArrayList<>();
+  private ChunkQueryScheduler scheduler;
+
+  @BeforeEach
+  public void setUp() {
+    queryThreadTasks.clear();
+    executedQueries.clear();
+    scheduler = new ChunkQueryScheduler(queryThreadTasks::add);
+  }
+
+  private static SearchQuery makeSearchQuery(String dataset, long timeRangeMs) {
+    return new SearchQuery(dataset, "*:*", 0, timeRangeMs, 10, null, List.of());
+  }
+
+  private static SearchQuery makeAggregationQuery(String dataset) {
+    return new SearchQuery(
+        dataset,
+        "*:*",
+        0,
+        HOUR_MS,
+        0,
+        new TermsAggBuilder("1", List.of(), "service", null, 10, 1, Map.of()),
+        List.of());
+  }
+
+  private ListenableFuture<String> submit(SearchQuery query, String name) {
+    return scheduler.submit(
+        query,
+        () -> {
+          executedQueries.add(name);
+          return name;
+        });
+  }
+
+  private void runQueryThreadTasks() {
+    queryThreadTasks.forEach(Runnable::run);
+    queryThreadTasks.clear();
+  }
+
+  @Test
+  public void testQueryLanes() {
+    assertThat(ChunkQueryScheduler.getLane(makeSearchQuery("test", HOUR_MS)))
+        .isEqualTo(QueryLane.SEARCH);
+    assertThat(ChunkQueryScheduler.getLane(makeSearchQuery("test", 7 * 24 * HOUR_MS)))
+        .isEqualTo(QueryLane.LONG_RANGE_SEARCH);
+    assertThat(ChunkQueryScheduler.getLane(makeAggregationQuery("test")))
+        .isEqualTo(QueryLane.AGGREGATION);
+
+    // A plain date histogram is what a log search requests along with the hits.
+    SearchQuery histogramQuery =
+        new SearchQuery(
+            "test",
+            "*:*",
+            0,
+            HOUR_MS,
+            10,
+            new DateHistogramAggBuilder("1", "_timesinceepoch", "1m"),
+            List.of());
+    assertThat(ChunkQueryScheduler.getLane(histogramQuery)).isEqualTo(QueryLane.SEARCH);
+
+    SearchQuery histogramWithSubAggregationQuery =
+        new SearchQuery(
+            "test",
+            "*:*",
+            0,
+            HOUR_MS,
+            10,
+            new DateHistogramAggBuilder(
+                "1",
+                "_timesinceepoch",
+                "1m",
+                null,
+                1,
+                null,
+                Map.of(),
+                List.of(new AvgAggBuilder("2", "duration_ms", null, null))),
+            List.of());
+    assertThat(ChunkQueryScheduler.getLane(histogramWithSubAggregationQuery))
+        .isEqualTo(QueryLane.AGGREGATION);
+  }
+
+  @Test
+  public void testSearchesAreNotQueuedBehindAggregations() {
+    List<ListenableFuture<String>> futures = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      futures.add(submit(makeAggregationQuery("test"), "agg" + i));
+    }
+    for (int i = 0; i < 10; i++) {
+      futures.add(submit(makeSearchQuery("test", HOUR_MS), "search" + i));
+    }
+    assertThat(scheduler.getQueueDepth(QueryLane.AGGREGATION)).isEqualTo(10);
+    assertThat(scheduler.getQueueDepth(QueryLane.SEARCH)).isEqualTo(10);
+
+    runQueryThreadTasks();
+
+    // The searches get 6 turns for every turn of the aggregations, instead of waiting for all of
+    // them.
+    assertThat(executedQueries).hasSize(20);
+    assertThat(executedQueries.subList(0, 8))
+        .containsExactly(
+            "search0", "agg0", "search1", "search2", "search3", "search4", "search5", "search6");
+    assertThat(executedQueries.indexOf("search9")).isLessThan(executedQueries.indexOf("agg3"));
+    assertThat(futures).allMatch(ListenableFuture::isDone);
+    assertThat(scheduler.getQueueDepth(QueryLane.AGGREGATION)).isZero();
+    assertThat(scheduler.getQueueDepth(QueryLane.SEARCH)).isZero();
+  }
+
+  @Test
+  public void testDatasetsTakeTurnsWithinALane() {
+    List<ListenableFuture<String>> futures = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      futures.add(submit(makeSearchQuery("busy", HOUR_MS), "busy" + i));
+    }
+    futures.add(submit(makeSearchQuery("quiet", HOUR_MS), "quiet0"));
+
+    runQueryThreadTasks();
+
+    assertThat(executedQueries).containsExactly("busy0", "quiet0", "busy1", "busy2");
+    assertThat(futures).allMatch(ListenableFuture::isDone);
+  }
+
+  @Test
+  public void testCancelledQueriesAreSkipped() throws Exception {
+    ListenableFuture<String> cancelled = submit(makeSearchQuery("test", HOUR_MS), "cancelled");
+    ListenableFuture<String> searched = submit(makeSearchQuery("test", HOUR_MS), "searched");
+    cancelled.cancel(true);
+
+    runQueryThreadTasks();
+
+    assertThat(executedQueries).containsExactly("searched");
+    assertThat(cancelled.isCancelled()).isTrue();
+    assertThat(searched.get()).isEqualTo("searched");
+  }
+
+  @Test
+  public void testQueueMetrics() {
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    scheduler.registerMetrics(meterRegistry);
+
+    List<ListenableFuture<String>> futures =
+        List.of(
+            submit(makeAggregationQuery("test"), "agg"),
+            submit(makeSearchQuery("test", HOUR_MS), "search"),
+            submit(makeSearchQuery("test", 7 * 24 * HOUR_MS), "longSearch"));
+
+    for (QueryLane queryLane : QueryLane.values()) {
+      assertThat(
+              meterRegistry
+                  .get(ChunkQueryScheduler.CHUNK_QUERY_QUEUE_DEPTH)
+                  .tag("lane", queryLane.name())
+                  .gauge()
+                  .value())
+          .isEqualTo(1);
+    }
+
+    runQueryThreadTasks();
+
+    assertThat(futures).allMatch(ListenableFuture::isDone);
+    for (QueryLane queryLane : QueryLane.values()) {
+      assertThat(
+              meterRegistry
+                  .get(ChunkQueryScheduler.CHUNK_QUERY_QUEUE_DEPTH)
+                  .tag("lane", queryLane.name())
+                  .gauge()
+                  .value())
+          .isZero();
+      assertThat(
+              meterRegistry
+                  .get(ChunkQueryScheduler.CHUNK_QUERY_WAIT_TIME)
+                  .tag("lane", queryLane.name())
+                  .timer()
+                  .count())
+          .isEqualTo(1);
+    }
+  }
+}
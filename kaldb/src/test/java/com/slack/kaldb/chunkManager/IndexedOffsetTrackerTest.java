@@ -0,0 +1,75 @@
+package com.slack.kaldb.chunkManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class IndexedOffsetTrackerTest {
+
+  @Test
+  public void testEmptyTracker() {
+    IndexedOffsetTracker tracker = new IndexedOffsetTracker();
+    assertThat(tracker.isTracking()).isFalse();
+    assertThat(tracker.getHighestContiguousOffset()).isEqualTo(-1);
+  }
+
+  @Test
+  public void testOutOfOrderCompletion() {
+    IndexedOffsetTracker tracker = new IndexedOffsetTracker();
+    for (long i = 0; i < 5; i++) {
+      tracker.register(i);
+    }
+    assertThat(tracker.isTracking()).isTrue();
+    assertThat(tracker.getHighestContiguousOffset()).isEqualTo(-1);
+
+    tracker.complete(1);
+    tracker.complete(3);
+    assertThat(tracker.getHighestContiguousOffset()).isEqualTo(-1);
+
+    tracker.complete(0);
+    assertThat(tracker.getHighestContiguousOffset()).isEqualTo(1);
+
+    tracker.complete(2);
+    assertThat(tracker.getHighestContiguousOffset()).isEqualTo(3);
+
+    tracker.complete(4);
+    assertThat(tracker.getHighestContiguousOffset()).isEqualTo(4);
+  }
+
+  @Test
+  public void testOffsetGaps() {
+    IndexedOffsetTracker tracker = new IndexedOffsetTracker();
+    tracker.register(10);
+    tracker.register(15);
+    tracker.register(20);
+
+    tracker.complete(10);
+    tracker.complete(20);
+    assertThat(tracker.getHighestContiguousOffset()).isEqualTo(14);
+
+    tracker.complete(15);
+    assertThat(tracker.getHighestContiguousOffset()).isEqualTo(20);
+
+    // Completing an offset twice is a no-op.
+    tracker.complete(15);
+    assertThat(tracker.getHighestContiguousOffset()).isEqualTo(20);
+  }
+
+  @Test
+  public void testConcurrentCompletion() throws InterruptedException {
+    IndexedOffsetTracker tracker = new IndexedOffsetTracker();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    for (long i = 0; i < 10000; i++) {
+      final long offset = i;
+      tracker.register(offset);
+      executor.execute(() -> tracker.complete(offset));
+      assertThat(tracker.getHighestContiguousOffset()).isLessThanOrEqualTo(offset);
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(tracker.getHighestContiguousOffset()).isEqualTo(9999);
+  }
+}
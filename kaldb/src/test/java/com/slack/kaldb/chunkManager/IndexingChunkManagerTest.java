@@ -67,6 +67,7 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -704,6 +705,125 @@ public class IndexingChunkManagerTest {
     checkMetadata(3, 2, 1, 2, 1);
   }
 
+  @Test
+  public void testParallelAddMessagesWithRollover() throws Exception {
+    ChunkRollOverStrategy chunkRollOverStrategy =
+        new DiskOrMessageCountBasedRolloverStrategy(metricsRegistry, 10 * 1024 * 1024 * 1024L, 10L);
+    initChunkManager(
+        chunkRollOverStrategy, S3_TEST_BUCKET, MoreExecutors.newDirectExecutorService());
+
+    IndexedOffsetTracker offsetTracker = chunkManager.getIndexedOffsetTracker();
+    List<LogMessage> messages = MessageUtil.makeMessagesWithTimeDifference(1, 25);
+    ExecutorService indexingExecutor = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<>();
+    int offset = 1;
+    for (LogMessage m : messages) {
+      final long messageOffset = offset++;
+      offsetTracker.register(messageOffset);
+      futures.add(
+          indexingExecutor.submit(
+              () -> {
+                try {
+                  chunkManager.addMessage(
+                      m, m.toString().length(), TEST_KAFKA_PARTITION_ID, messageOffset);
+                } finally {
+                  offsetTracker.complete(messageOffset);
+                }
+                return null;
+              }));
+    }
+    for (Future<?> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    indexingExecutor.shutdown();
+
+    assertThat(getCount(MESSAGES_RECEIVED_COUNTER, metricsRegistry)).isEqualTo(25);
+    assertThat(getCount(MESSAGES_FAILED_COUNTER, metricsRegistry)).isEqualTo(0);
+    assertThat(getCount(ROLLOVERS_FAILED, metricsRegistry)).isEqualTo(0);
+    assertThat(getCount(ROLLOVERS_COMPLETED, metricsRegistry)).isGreaterThanOrEqualTo(1);
+    assertThat(offsetTracker.getHighestContiguousOffset()).isEqualTo(25);
+
+    // Rolled over chunks only claim offsets that were fully indexed at roll over time.
+    List<Long> rolledOverMaxOffsets =
+        chunkManager.getChunkList().stream()
+            .filter(chunk -> chunk != chunkManager.getActiveChunk())
+            .map(chunk -> chunk.info().getMaxOffset())
+            .sorted()
+            .collect(Collectors.toList());
+    assertThat(rolledOverMaxOffsets).isNotEmpty();
+    assertThat(rolledOverMaxOffsets).allMatch(maxOffset -> maxOffset <= 25);
+
+    // The last message may have rolled over the active chunk too.
+    if (chunkManager.getActiveChunk() != null) {
+      chunkManager.getActiveChunk().commit();
+    }
+    assertThat(searchAndGetHitCount(chunkManager, "Message25", 0, MAX_TIME)).isEqualTo(1);
+    assertThat(searchAndGetHitCount(chunkManager, "Message1", 0, MAX_TIME)).isEqualTo(1);
+  }
+
+  @Test
+  public void testRollOverUsesContiguousIndexedOffset() throws Exception {
+    ChunkRollOverStrategy chunkRollOverStrategy =
+        new DiskOrMessageCountBasedRolloverStrategy(metricsRegistry, 10 * 1024 * 1024 * 1024L, 10L);
+    initChunkManager(
+        chunkRollOverStrategy, S3_TEST_BUCKET, MoreExecutors.newDirectExecutorService());
+
+    IndexedOffsetTracker offsetTracker = chunkManager.getIndexedOffsetTracker();
+    List<LogMessage> messages = MessageUtil.makeMessagesWithTimeDifference(1, 3);
+    offsetTracker.register(1);
+    offsetTracker.register(2);
+    offsetTracker.register(3);
+
+    // Offset 2 is still being indexed when the chunk is rolled over.
+    chunkManager.addMessage(messages.get(0), 100, TEST_KAFKA_PARTITION_ID, 1);
+    offsetTracker.complete(1);
+    chunkManager.addMessage(messages.get(2), 100, TEST_KAFKA_PARTITION_ID, 3);
+    offsetTracker.complete(3);
+
+    ReadWriteChunk<LogMessage> chunk = chunkManager.getActiveChunk();
+    assertThat(chunk.info().getMaxOffset()).isEqualTo(3);
+    chunkManager.rollOverActiveChunk();
+    assertThat(getCount(ROLLOVERS_COMPLETED, metricsRegistry)).isEqualTo(1);
+    assertThat(chunk.info().getMaxOffset()).isEqualTo(1);
+  }
+
+  @Test
+  public void testAddMessageBatches() throws Exception {
+    ChunkRollOverStrategy chunkRollOverStrategy =
+        new DiskOrMessageCountBasedRolloverStrategy(metricsRegistry, 10 * 1024 * 1024 * 1024L, 10L);
+    initChunkManager(
+        chunkRollOverStrategy, S3_TEST_BUCKET, MoreExecutors.newDirectExecutorService());
+
+    List<LogMessage> messages = MessageUtil.makeMessagesWithTimeDifference(1, 20, 1000);
+    chunkManager.addMessages(messages.subList(0, 8), 800, TEST_KAFKA_PARTITION_ID, 8);
+    ReadWriteChunk<LogMessage> chunk1 = chunkManager.getActiveChunk();
+    assertThat(getCount(MESSAGES_RECEIVED_COUNTER, metricsRegistry)).isEqualTo(8);
+    assertThat(getValue(LIVE_MESSAGES_INDEXED, metricsRegistry)).isEqualTo(8);
+    assertThat(getValue(LIVE_BYTES_INDEXED, metricsRegistry)).isEqualTo(800);
+    assertThat(chunk1.info().getMaxOffset()).isEqualTo(8);
+    assertThat(chunk1.info().getDataStartTimeEpochMs())
+        .isEqualTo(messages.get(0).getTimestamp().toEpochMilli());
+    assertThat(chunk1.info().getDataEndTimeEpochMs())
+        .isEqualTo(messages.get(7).getTimestamp().toEpochMilli());
+
+    // The roll over is only checked after the whole batch is indexed.
+    chunkManager.addMessages(messages.subList(8, 16), 800, TEST_KAFKA_PARTITION_ID, 16);
+    assertThat(getCount(MESSAGES_RECEIVED_COUNTER, metricsRegistry)).isEqualTo(16);
+    assertThat(getValue(LIVE_MESSAGES_INDEXED, metricsRegistry)).isEqualTo(0);
+    await().until(() -> getCount(ROLLOVERS_COMPLETED, metricsRegistry) == 1);
+    assertThat(chunk1.info().getMaxOffset()).isEqualTo(16);
+    assertThat(chunk1.info().getDataEndTimeEpochMs())
+        .isEqualTo(messages.get(15).getTimestamp().toEpochMilli());
+
+    chunkManager.addMessages(messages.subList(16, 20), 400, TEST_KAFKA_PARTITION_ID, 20);
+    assertThat(chunkManager.getChunkList().size()).isEqualTo(2);
+    assertThat(getValue(LIVE_MESSAGES_INDEXED, metricsRegistry)).isEqualTo(4);
+    assertThat(chunkManager.getActiveChunk().info().getMaxOffset()).isEqualTo(20);
+    chunkManager.getActiveChunk().commit();
+    testChunkManagerSearch(chunkManager, "Message16", 1, 2, 2);
+    testChunkManagerSearch(chunkManager, "Message17", 1, 2, 2);
+  }
+
   // Adding messages to an already rolled over chunk fails.
   @Test
   public void testAddMessagesToChunkWithRollover() throws Exception {
@@ -106,6 +106,8 @@ public class ElasticsearchApiServiceTest {
 
     assertThat(aggregatedRes.status().code()).isEqualTo(200);
     assertThat(jsonNode.findValue("hits").get("hits").size()).isEqualTo(100);
+    assertThat(jsonNode.findValue("hits").get("total").get("value").asInt()).isEqualTo(100);
+    assertThat(jsonNode.findValue("hits").get("total").get("relation").asText()).isEqualTo("eq");
     assertThat(
             jsonNode
                 .findValue("hits")
@@ -289,6 +291,40 @@ public class ElasticsearchApiServiceTest {
     assertThat(jsonNode.findValue("hits").get("hits").size()).isEqualTo(0);
   }
 
+  @Test
+  public void testPartialResultsReportTimedOutShards() throws Exception {
+    KaldbQueryServiceBase searcher = mock(KaldbQueryServiceBase.class);
+    when(searcher.doSearch(any()))
+        .thenReturn(
+            KaldbSearch.SearchResult.newBuilder()
+                .setTotalNodes(2)
+                .setFailedNodes(1)
+                .setTotalSnapshots(5)
+                .setSnapshotsWithReplicas(3)
+                .setTimedOutSnapshots(1)
+                .build());
+    ElasticsearchApiService serviceUnderTest = new ElasticsearchApiService(searcher);
+
+    String postBody =
+        Resources.toString(
+            Resources.getResource("elasticsearchApi/multisearch_query_10results.ndjson"),
+            Charset.defaultCharset());
+    HttpResponse response = serviceUnderTest.multiSearch(postBody);
+
+    // handle response
+    AggregatedHttpResponse aggregatedRes = response.aggregate().join();
+    String body = aggregatedRes.content(StandardCharsets.UTF_8);
+    JsonNode jsonNode = new ObjectMapper().readTree(body).get("responses").get(0);
+
+    assertThat(aggregatedRes.status().code()).isEqualTo(200);
+    assertThat(jsonNode.get("timed_out").asBoolean()).isTrue();
+    assertThat(jsonNode.get("_shards").get("total").asInt()).isEqualTo(5);
+    assertThat(jsonNode.get("_shards").get("successful").asInt()).isEqualTo(3);
+    assertThat(jsonNode.get("_shards").get("skipped").asInt()).isZero();
+    assertThat(jsonNode.get("_shards").get("failed").asInt()).isEqualTo(2);
+    assertThat(jsonNode.get("_debug").get("failed_nodes").asText()).isEqualTo("1");
+  }
+
   @Test
   public void testIndexMapping() throws IOException {
     KaldbQueryServiceBase searcher = mock(KaldbQueryServiceBase.class);
@@ -36,6 +36,40 @@ public class OpenSearchRequestTest {
     assertThat(request.getQueryString()).isEqualTo("*:*");
     assertThat(request.getStartTimeEpochMs()).isEqualTo(1680551083859L);
     assertThat(request.getEndTimeEpochMs()).isEqualTo(1680554683859L);
+    assertThat(request.hasSearchAfter()).isFalse();
+    assertThat(request.getSortOrder()).isEqualTo(KaldbSearch.SearchRequest.SortOrder.DESC);
+  }
+
+  @Test
+  public void testSortAscending() throws Exception {
+    String rawRequest = getRawQueryString("sort_ascending");
+
+    OpenSearchRequest openSearchRequest = new OpenSearchRequest();
+    List<KaldbSearch.SearchRequest> parsedRequestList =
+        openSearchRequest.parseHttpPostBody(rawRequest);
+
+    assertThat(parsedRequestList.size()).isEqualTo(1);
+
+    KaldbSearch.SearchRequest request = parsedRequestList.get(0);
+    assertThat(request.getHowMany()).isEqualTo(100);
+    assertThat(request.getSortOrder()).isEqualTo(KaldbSearch.SearchRequest.SortOrder.ASC);
+  }
+
+  @Test
+  public void testSearchAfter() throws Exception {
+    String rawRequest = getRawQueryString("search_after");
+
+    OpenSearchRequest openSearchRequest = new OpenSearchRequest();
+    List<KaldbSearch.SearchRequest> parsedRequestList =
+        openSearchRequest.parseHttpPostBody(rawRequest);
+
+    assertThat(parsedRequestList.size()).isEqualTo(1);
+
+    KaldbSearch.SearchRequest request = parsedRequestList.get(0);
+    assertThat(request.getHowMany()).isEqualTo(100);
+    assertThat(request.hasSearchAfter()).isTrue();
+    assertThat(request.getSearchAfter().getTimestampEpochMs()).isEqualTo(1680554000000L);
+    assertThat(request.getSearchAfter().getId()).isEqualTo("message-42");
   }
 
   @Test
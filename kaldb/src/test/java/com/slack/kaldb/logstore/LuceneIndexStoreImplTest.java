@@ -5,15 +5,22 @@ import static com.slack.kaldb.logstore.BlobFsUtils.copyFromS3;
 import static com.slack.kaldb.logstore.BlobFsUtils.copyToLocalPath;
 import static com.slack.kaldb.logstore.BlobFsUtils.copyToS3;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.COMMITS_TIMER;
+import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.COMMIT_LAG_TIMER;
+import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.FORCE_MERGED_SEGMENTS_COUNTER;
+import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.FORCE_MERGE_FAILED_COUNTER;
+import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.FORCE_MERGE_TIMER;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.MESSAGES_FAILED_COUNTER;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.MESSAGES_RECEIVED_COUNTER;
+import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.REFRESHES_SKIPPED_COUNTER;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.REFRESHES_TIMER;
+import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.REFRESH_LAG_TIMER;
 import static com.slack.kaldb.testlib.MetricsUtil.getCount;
 import static com.slack.kaldb.testlib.MetricsUtil.getTimerCount;
 import static com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherExtension.MAX_TIME;
 import static com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherExtension.addMessages;
 import static com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherExtension.findAllMessages;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
 import static org.awaitility.Awaitility.await;
 
 import brave.Tracing;
@@ -25,22 +32,37 @@ import com.slack.kaldb.logstore.LogMessage.ReservedField;
 import com.slack.kaldb.logstore.schema.SchemaAwareLogDocumentBuilderImpl;
 import com.slack.kaldb.logstore.search.LogIndexSearcherImpl;
 import com.slack.kaldb.logstore.search.SearchResult;
+import com.slack.kaldb.logstore.search.TermBloomFilters;
 import com.slack.kaldb.logstore.search.aggregations.DateHistogramAggBuilder;
+import com.slack.kaldb.proto.config.KaldbConfigs;
 import com.slack.kaldb.testlib.MessageUtil;
 import com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherExtension;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import org.apache.lucene.codecs.lucene90.Lucene90StoredFieldsFormat;
+import org.apache.lucene.codecs.perfield.PerFieldPostingsFormat;
+import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -241,6 +263,26 @@ public class LuceneIndexStoreImplTest {
       assertThat(getTimerCount(COMMITS_TIMER, logStore.metricsRegistry)).isEqualTo(0);
     }
 
+    @Test
+    public void testAddMessagesSkipsFailedMessages() {
+      String hugeField =
+          IntStream.range(1, 10000).boxed().map(String::valueOf).collect(Collectors.joining(""));
+      List<LogMessage> messages =
+          new ArrayList<>(MessageUtil.makeMessagesWithTimeDifference(1, 98));
+      messages.add(MessageUtil.makeMessage(99, Map.of(ReservedField.HOSTNAME.fieldName, 20000)));
+      // Rejected by the index writer, which fails the whole batch.
+      messages.add(MessageUtil.makeMessage(100, Map.of("hugefield", hugeField)));
+      logStore.logStore.addMessages(messages);
+      logStore.logStore.commit();
+      logStore.logStore.refresh();
+
+      Collection<LogMessage> results =
+          findAllMessages(logStore.logSearcher, MessageUtil.TEST_DATASET_NAME, "identifier", 1000);
+      assertThat(results.size()).isEqualTo(98);
+      assertThat(getCount(MESSAGES_RECEIVED_COUNTER, logStore.metricsRegistry)).isEqualTo(100);
+      assertThat(getCount(MESSAGES_FAILED_COUNTER, logStore.metricsRegistry)).isEqualTo(2);
+    }
+
     @Test
     public void testFieldSearch() throws InterruptedException {
       LogMessage msg =
@@ -510,14 +552,13 @@ public class LuceneIndexStoreImplTest {
 
       await()
           .until(
-              () ->
-                  findAllMessages(
-                              testLogStore.logSearcher,
-                              MessageUtil.TEST_DATASET_NAME,
-                              "Message1",
-                              10)
-                          .size()
-                      == 1);
+              () -> {
+                testLogStore.logStore.refreshIfStale();
+                return findAllMessages(
+                            testLogStore.logSearcher, MessageUtil.TEST_DATASET_NAME, "Message1", 10)
+                        .size()
+                    == 1;
+              });
 
       assertThat(getCount(MESSAGES_RECEIVED_COUNTER, testLogStore.metricsRegistry)).isEqualTo(100);
       assertThat(getCount(MESSAGES_FAILED_COUNTER, testLogStore.metricsRegistry)).isEqualTo(0);
@@ -530,6 +571,253 @@ public class LuceneIndexStoreImplTest {
           .until(
               () -> getTimerCount(COMMITS_TIMER, testLogStore.metricsRegistry),
               (value) -> value >= 1 && value <= 3);
+      assertThat(getTimerCount(COMMIT_LAG_TIMER, testLogStore.metricsRegistry))
+          .isEqualTo(getTimerCount(COMMITS_TIMER, testLogStore.metricsRegistry));
+    }
+
+    @Test
+    public void testRefreshOnlyWhenSearcherIsStale() {
+      addMessages(testLogStore.logStore, 1, 100, false);
+
+      // The searcher isn't refreshed by the scheduled commits.
+      await()
+          .until(
+              () -> getTimerCount(COMMITS_TIMER, testLogStore.metricsRegistry),
+              (value) -> value >= 1);
+      assertThat(getTimerCount(REFRESHES_TIMER, testLogStore.metricsRegistry)).isEqualTo(0);
+      assertThat(
+              findAllMessages(
+                  testLogStore.logSearcher, MessageUtil.TEST_DATASET_NAME, "Message1", 10))
+          .isEmpty();
+
+      // The searcher is older than the refresh duration, so it's refreshed once.
+      testLogStore.logStore.refreshIfStale();
+      testLogStore.logStore.refreshIfStale();
+      assertThat(getTimerCount(REFRESHES_TIMER, testLogStore.metricsRegistry)).isEqualTo(1);
+      assertThat(getTimerCount(REFRESH_LAG_TIMER, testLogStore.metricsRegistry)).isEqualTo(1);
+      assertThat(getCount(REFRESHES_SKIPPED_COUNTER, testLogStore.metricsRegistry)).isEqualTo(1);
+      assertThat(
+              findAllMessages(
+                  testLogStore.logSearcher, MessageUtil.TEST_DATASET_NAME, "Message1", 10))
+          .hasSize(1);
+    }
+  }
+
+  @Nested
+  public class CodecConfigTests {
+    @TempDir private File tempFolder;
+
+    private LuceneIndexStoreImpl makeLogStore(KaldbConfigs.LuceneCodecConfig codecConfig)
+        throws IOException {
+      return LuceneIndexStoreImpl.makeLogStore(
+          tempFolder,
+          KaldbConfigs.LuceneConfig.newBuilder()
+              .setCommitDurationSecs(60)
+              .setRefreshDurationSecs(60)
+              .setCodecConfig(codecConfig)
+              .build(),
+          new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void testCodecConfig() throws IOException {
+      KaldbConfigs.LuceneCodecConfig codecConfig =
+          KaldbConfigs.LuceneCodecConfig.newBuilder()
+              .setBestCompression(true)
+              .putPostingsFormats(LogMessage.SystemField.ID.fieldName, "FST50")
+              .addTextFieldsWithPositions(LogMessage.SystemField.ALL.fieldName)
+              .build();
+      LuceneIndexStoreImpl logStore = makeLogStore(codecConfig);
+      addMessages(logStore, 1, 100, true);
+
+      IndexSearcher searcher = logStore.getSearcherManager().acquire();
+      try {
+        assertThat(searcher.getIndexReader().leaves()).isNotEmpty();
+        for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+          SegmentReader reader = (SegmentReader) leaf.reader();
+          assertThat(reader.getSegmentInfo().info.getAttribute(Lucene90StoredFieldsFormat.MODE_KEY))
+              .isEqualTo(Lucene90StoredFieldsFormat.Mode.BEST_COMPRESSION.name());
+
+          FieldInfos fieldInfos = reader.getFieldInfos();
+          assertThat(
+                  fieldInfos
+                      .fieldInfo(LogMessage.SystemField.ID.fieldName)
+                      .getAttribute(PerFieldPostingsFormat.PER_FIELD_FORMAT_KEY))
+              .isEqualTo("FST50");
+          assertThat(
+                  fieldInfos
+                      .fieldInfo(ReservedField.TYPE.fieldName)
+                      .getAttribute(PerFieldPostingsFormat.PER_FIELD_FORMAT_KEY))
+              .isEqualTo("Lucene90");
+          assertThat(fieldInfos.fieldInfo(ReservedField.MESSAGE.fieldName).getIndexOptions())
+              .isEqualTo(IndexOptions.DOCS_AND_FREQS);
+        }
+      } finally {
+        logStore.getSearcherManager().release(searcher);
+        logStore.close();
+      }
+    }
+
+    @Test
+    public void testDefaultCodecConfig() throws IOException {
+      LuceneIndexStoreImpl logStore =
+          makeLogStore(KaldbConfigs.LuceneCodecConfig.getDefaultInstance());
+      addMessages(logStore, 1, 100, true);
+
+      IndexSearcher searcher = logStore.getSearcherManager().acquire();
+      try {
+        for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+          SegmentReader reader = (SegmentReader) leaf.reader();
+          assertThat(reader.getSegmentInfo().info.getAttribute(Lucene90StoredFieldsFormat.MODE_KEY))
+              .isEqualTo(Lucene90StoredFieldsFormat.Mode.BEST_SPEED.name());
+          assertThat(
+                  reader
+                      .getFieldInfos()
+                      .fieldInfo(ReservedField.MESSAGE.fieldName)
+                      .getIndexOptions())
+              .isEqualTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        }
+      } finally {
+        logStore.getSearcherManager().release(searcher);
+        logStore.close();
+      }
+    }
+
+    @Test
+    public void testUnknownPostingsFormat() {
+      KaldbConfigs.LuceneCodecConfig codecConfig =
+          KaldbConfigs.LuceneCodecConfig.newBuilder()
+              .putPostingsFormats(ReservedField.HOSTNAME.fieldName, "unknown")
+              .build();
+      assertThatIllegalArgumentException().isThrownBy(() -> makeLogStore(codecConfig));
+    }
+  }
+
+  @Nested
+  public class ForceMergeTests {
+    @TempDir private File tempFolder;
+
+    private final SimpleMeterRegistry metricsRegistry = new SimpleMeterRegistry();
+
+    private LuceneIndexStoreImpl makeLogStore(int forceMergeMaxSegments) throws IOException {
+      return LuceneIndexStoreImpl.makeLogStore(
+          tempFolder,
+          KaldbConfigs.LuceneConfig.newBuilder()
+              .setCommitDurationSecs(60)
+              .setRefreshDurationSecs(60)
+              .setForceMergeMaxSegments(forceMergeMaxSegments)
+              .setForceMergeMaxMbPerSec(100)
+              .build(),
+          metricsRegistry);
+    }
+
+    @Test
+    public void testForceMerge() throws IOException {
+      LuceneIndexStoreImpl logStore = makeLogStore(1);
+      addMessages(logStore, 1, 10, true);
+      addMessages(logStore, 11, 20, true);
+      addMessages(logStore, 21, 30, true);
+      assertThat(SegmentInfos.readLatestCommit(logStore.getDirectory()).size()).isEqualTo(3);
+
+      logStore.forceMerge();
+      assertThat(SegmentInfos.readLatestCommit(logStore.getDirectory()).size()).isEqualTo(1);
+      assertThat(getTimerCount(FORCE_MERGE_TIMER, metricsRegistry)).isEqualTo(1);
+      assertThat(getCount(FORCE_MERGED_SEGMENTS_COUNTER, metricsRegistry)).isEqualTo(2);
+      assertThat(getCount(FORCE_MERGE_FAILED_COUNTER, metricsRegistry)).isEqualTo(0);
+
+      // The index is already merged, so there is nothing to do.
+      logStore.forceMerge();
+      assertThat(getTimerCount(FORCE_MERGE_TIMER, metricsRegistry)).isEqualTo(2);
+      assertThat(getCount(FORCE_MERGED_SEGMENTS_COUNTER, metricsRegistry)).isEqualTo(2);
+
+      logStore.refresh();
+      LogIndexSearcherImpl logSearcher =
+          new LogIndexSearcherImpl(logStore.getSearcherManager(), logStore.getSchema());
+      assertThat(findAllMessages(logSearcher, MessageUtil.TEST_DATASET_NAME, "*:*", 100))
+          .hasSize(30);
+      logStore.close();
+    }
+
+    @Test
+    public void testForceMergeDisabled() throws IOException {
+      LuceneIndexStoreImpl logStore = makeLogStore(0);
+      addMessages(logStore, 1, 10, true);
+      addMessages(logStore, 11, 20, true);
+
+      logStore.forceMerge();
+      assertThat(SegmentInfos.readLatestCommit(logStore.getDirectory()).size()).isEqualTo(2);
+      assertThat(getTimerCount(FORCE_MERGE_TIMER, metricsRegistry)).isEqualTo(0);
+      logStore.close();
+    }
+  }
+
+  @Nested
+  public class TermBloomFilterTests {
+    @TempDir private File tempFolder;
+
+    private LuceneIndexStoreImpl makeLogStore(List<String> fields) throws IOException {
+      return LuceneIndexStoreImpl.makeLogStore(
+          tempFolder,
+          KaldbConfigs.LuceneConfig.newBuilder()
+              .setCommitDurationSecs(60)
+              .setRefreshDurationSecs(60)
+              .setTermBloomFilterConfig(
+                  KaldbConfigs.TermBloomFilterConfig.newBuilder().addAllFields(fields).build())
+              .build(),
+          new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void testWriteTermBloomFilters() throws IOException {
+      // The message field is analyzed, so its terms are not added to the bloom filters.
+      LuceneIndexStoreImpl logStore =
+          makeLogStore(
+              List.of(LogMessage.SystemField.ID.fieldName, ReservedField.MESSAGE.fieldName));
+      addMessages(logStore, 1, 100, true);
+
+      File file = new File(tempFolder, TermBloomFilters.FILE_NAME);
+      IndexCommit indexCommit = logStore.getIndexCommit();
+      try {
+        assertThat(logStore.writeTermBloomFilters(indexCommit, file)).isTrue();
+      } finally {
+        logStore.releaseIndexCommit(indexCommit);
+        logStore.close();
+      }
+
+      TermBloomFilters termBloomFilters;
+      try (InputStream inputStream = new FileInputStream(file)) {
+        termBloomFilters = TermBloomFilters.readFrom(inputStream);
+      }
+      assertThat(termBloomFilters.getSizeBytes()).isEqualTo(file.length());
+      for (int i = 1; i <= 100; i++) {
+        assertThat(
+                termBloomFilters.mightContain(
+                    new Term(LogMessage.SystemField.ID.fieldName, "Message" + i)))
+            .isTrue();
+      }
+      assertThat(
+              termBloomFilters.mightContain(
+                  new Term(LogMessage.SystemField.ID.fieldName, "Message1000")))
+          .isFalse();
+      assertThat(termBloomFilters.mightContain(new Term(ReservedField.MESSAGE.fieldName, "foo")))
+          .isTrue();
+    }
+
+    @Test
+    public void testNoTermBloomFiltersWithoutKeywordFields() throws IOException {
+      LuceneIndexStoreImpl logStore =
+          makeLogStore(List.of(ReservedField.MESSAGE.fieldName, "unknownField"));
+      addMessages(logStore, 1, 10, true);
+
+      File file = new File(tempFolder, TermBloomFilters.FILE_NAME);
+      IndexCommit indexCommit = logStore.getIndexCommit();
+      try {
+        assertThat(logStore.writeTermBloomFilters(indexCommit, file)).isFalse();
+        assertThat(file).doesNotExist();
+      } finally {
+        logStore.releaseIndexCommit(indexCommit);
+        logStore.close();
+      }
     }
   }
 
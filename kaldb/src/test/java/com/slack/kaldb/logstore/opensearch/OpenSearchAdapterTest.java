@@ -18,11 +18,15 @@ import com.slack.kaldb.logstore.search.aggregations.MovingAvgAggBuilder;
 import com.slack.kaldb.logstore.search.aggregations.MovingFunctionAggBuilder;
 import com.slack.kaldb.logstore.search.aggregations.SumAggBuilder;
 import com.slack.kaldb.logstore.search.aggregations.UniqueCountAggBuilder;
+import com.slack.kaldb.metadata.schema.LuceneFieldDef;
 import com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherExtension;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.opensearch.search.aggregations.AbstractAggregationBuilder;
@@ -71,6 +75,54 @@ public class OpenSearchAdapterTest {
                     null));
   }
 
+  @Test
+  public void reparsesCachedQueriesAfterSchemaChanges() throws IOException {
+    ConcurrentHashMap<String, LuceneFieldDef> chunkSchema = new ConcurrentHashMap<>();
+    OpenSearchAdapter adapter = new OpenSearchAdapter(chunkSchema);
+    IndexSearcher indexSearcher = logStoreAndSearcherRule.logStore.getSearcherManager().acquire();
+
+    Query unmappedFieldQuery = adapter.buildQuery("foo", "duration:1", 0, 100, indexSearcher);
+    assertThat(adapter.buildQuery("foo", "duration:1", 0, 100, indexSearcher))
+        .isEqualTo(unmappedFieldQuery);
+    assertThat(adapter.buildQuery("foo", "duration:1", 50, 200, indexSearcher))
+        .isNotEqualTo(unmappedFieldQuery);
+
+    // Once the field is in the schema the query is parsed again, with the new field type.
+    chunkSchema.put("duration", new LuceneFieldDef("duration", "long", true, true, true));
+    adapter.reloadSchema();
+    Query longFieldQuery = adapter.buildQuery("foo", "duration:1", 0, 100, indexSearcher);
+    assertThat(longFieldQuery).isNotEqualTo(unmappedFieldQuery);
+    assertThat(longFieldQuery.toString()).contains("duration:[1 TO 1]");
+  }
+
+  @Test
+  public void sharesCachedQueriesBetweenAdaptersWithTheSameSchema() throws IOException {
+    IndexSearcher indexSearcher = logStoreAndSearcherRule.logStore.getSearcherManager().acquire();
+    OpenSearchAdapter longSchemaAdapter =
+        new OpenSearchAdapter(
+            Map.of("duration", new LuceneFieldDef("duration", "long", true, true, true)));
+    longSchemaAdapter.reloadSchema();
+    OpenSearchAdapter otherLongSchemaAdapter =
+        new OpenSearchAdapter(
+            Map.of("duration", new LuceneFieldDef("duration", "long", true, true, true)));
+    otherLongSchemaAdapter.reloadSchema();
+    OpenSearchAdapter stringSchemaAdapter =
+        new OpenSearchAdapter(
+            Map.of("duration", new LuceneFieldDef("duration", "string", true, true, true)));
+    stringSchemaAdapter.reloadSchema();
+
+    Query longFieldQuery = longSchemaAdapter.buildQuery("foo", "duration:1", 0, 100, indexSearcher);
+    assertThat(otherLongSchemaAdapter.buildQuery("foo", "duration:1", 0, 100, indexSearcher))
+        .isEqualTo(longFieldQuery);
+
+    // The query was cached for the long field, but this adapter parses it as a keyword field.
+    Query stringFieldQuery =
+        stringSchemaAdapter.buildQuery("foo", "duration:1", 0, 100, indexSearcher);
+    assertThat(stringFieldQuery).isNotEqualTo(longFieldQuery);
+    assertThat(stringFieldQuery.toString()).contains("duration:1");
+    assertThat(stringFieldQuery.toString()).doesNotContain("duration:[1 TO 1]");
+  }
+
   @Test
   public void collectorManagerCorrectlyReducesListOfCollectors() throws IOException {
     AvgAggBuilder avgAggBuilder1 =
@@ -0,0 +1,277 @@
+package com.slack.kaldb.logstore.schema;
+
+import static com.slack.kaldb.logstore.schema.SchemaAwareLogDocumentBuilderImpl.FieldConflictPolicy.CONVERT_VALUE_AND_DUPLICATE_FIELD;
+import static com.slack.kaldb.logstore.schema.SchemaAwareLogDocumentBuilderImpl.build;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import brave.Tracing;
+import com.google.protobuf.ByteString;
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.LogWireMessage;
+import com.slack.kaldb.logstore.LuceneIndexStoreImpl;
+import com.slack.kaldb.logstore.search.LogIndexSearcherImpl;
+import com.slack.kaldb.testlib.SpanUtil;
+import com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherExtension;
+import com.slack.kaldb.util.JsonUtil;
+import com.slack.kaldb.writer.SpanFormatter;
+import com.slack.kaldb.writer.SpanLogMessage;
+import com.slack.service.murron.trace.Trace;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SpanDocumentBuilderTest {
+
+  @BeforeAll
+  public static void beforeClass() {
+    Tracing.newBuilder().build();
+  }
+
+  private static List<String> fieldsOf(Document document) {
+    return document.getFields().stream()
+        .filter(f -> !f.name().equals(LogMessage.SystemField.SOURCE.fieldName))
+        .filter(f -> !f.name().equals(LogMessage.SystemField.ALL.fieldName))
+        .map(SpanDocumentBuilderTest::describe)
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  private static String describe(IndexableField field) {
+    return field.name()
+        + ":"
+        + field.getClass().getSimpleName()
+        + ":"
+        + field.stringValue()
+        + ":"
+        + field.numericValue()
+        + ":"
+        + field.binaryValue();
+  }
+
+  private static void assertSameDocument(Trace.Span span) throws IOException {
+    LogMessage spanMessage = SpanFormatter.toSpanLogMessage(span);
+    assertThat(spanMessage).isInstanceOf(SpanLogMessage.class);
+    LogMessage mapMessage = SpanFormatter.toLogMessage(span);
+
+    assertThat(spanMessage.getIndex()).isEqualTo(mapMessage.getIndex());
+    assertThat(spanMessage.getType()).isEqualTo(mapMessage.getType());
+    assertThat(spanMessage.getId()).isEqualTo(mapMessage.getId());
+    assertThat(spanMessage.getSource()).isEqualTo(mapMessage.getSource());
+
+    SchemaAwareLogDocumentBuilderImpl spanDocBuilder =
+        build(CONVERT_VALUE_AND_DUPLICATE_FIELD, true, new SimpleMeterRegistry());
+    SchemaAwareLogDocumentBuilderImpl mapDocBuilder =
+        build(CONVERT_VALUE_AND_DUPLICATE_FIELD, true, new SimpleMeterRegistry());
+    Document spanDocument = spanDocBuilder.fromMessage(spanMessage);
+    Document mapDocument = mapDocBuilder.fromMessage(mapMessage);
+
+    assertThat(fieldsOf(spanDocument)).isEqualTo(fieldsOf(mapDocument));
+    assertThat(spanDocBuilder.getSchema().keySet()).isEqualTo(mapDocBuilder.getSchema().keySet());
+
+    LogWireMessage spanSource =
+        JsonUtil.read(
+            spanDocument.get(LogMessage.SystemField.SOURCE.fieldName), LogWireMessage.class);
+    LogWireMessage mapSource =
+        JsonUtil.read(
+            mapDocument.get(LogMessage.SystemField.SOURCE.fieldName), LogWireMessage.class);
+    assertThat(spanSource.getIndex()).isEqualTo(mapSource.getIndex());
+    assertThat(spanSource.getType()).isEqualTo(mapSource.getType());
+    assertThat(spanSource.getId()).isEqualTo(mapSource.getId());
+    assertThat(spanSource.getTimestamp()).isEqualTo(mapSource.getTimestamp());
+    assertThat(spanSource.getSource()).isEqualTo(mapSource.getSource());
+    assertThat(spanDocument.get(LogMessage.SystemField.ALL.fieldName))
+        .isEqualTo(spanDocument.get(LogMessage.SystemField.SOURCE.fieldName));
+  }
+
+  @Test
+  public void testSpanDocumentMatchesLogMessageDocument() throws IOException {
+    final long timestampMicros = Instant.now().toEpochMilli() * 1000;
+    Trace.Span span =
+        SpanUtil.makeSpan(
+            "traceId", "1", "0", timestampMicros, 5000, "testName", "test-service", "testType");
+    assertSameDocument(span);
+  }
+
+  @Test
+  public void testSpanWithDuplicatedTag() throws IOException {
+    final long timestampMicros = Instant.now().toEpochMilli() * 1000;
+    Trace.Span span =
+        SpanUtil.makeSpan(
+                "traceId", "1", "0", timestampMicros, 5000, "testName", "test-service", "testType")
+            .toBuilder()
+            .addTags(
+                Trace.KeyValue.newBuilder()
+                    .setKey("http_method")
+                    .setVType(Trace.ValueType.STRING)
+                    .setVStr("GET")
+                    .build())
+            .addTags(
+                Trace.KeyValue.newBuilder()
+                    .setKey("http_method")
+                    .setVType(Trace.ValueType.STRING)
+                    .setVStr("POST")
+                    .build())
+            .build();
+    assertSameDocument(span);
+
+    Document document =
+        build(CONVERT_VALUE_AND_DUPLICATE_FIELD, true, new SimpleMeterRegistry())
+            .fromMessage(SpanFormatter.toSpanLogMessage(span));
+    assertThat(document.getValues("http_method")).containsOnly("POST");
+  }
+
+  @Test
+  public void testSpanWithNameTag() throws IOException {
+    final long timestampMicros = Instant.now().toEpochMilli() * 1000;
+    Trace.Span span =
+        SpanUtil.makeSpan(
+                "traceId", "1", "0", timestampMicros, 5000, "testName", "test-service", "testType")
+            .toBuilder()
+            .addTags(
+                Trace.KeyValue.newBuilder()
+                    .setKey(LogMessage.ReservedField.NAME.fieldName)
+                    .setVType(Trace.ValueType.STRING)
+                    .setVStr("tagName")
+                    .build())
+            .build();
+    assertSameDocument(span);
+
+    Document document =
+        build(CONVERT_VALUE_AND_DUPLICATE_FIELD, true, new SimpleMeterRegistry())
+            .fromMessage(SpanFormatter.toSpanLogMessage(span));
+    assertThat(document.getValues(LogMessage.ReservedField.NAME.fieldName)).containsOnly("tagName");
+  }
+
+  @Test
+  public void testSpanWithInvalidTimestampAndNoServiceName() throws IOException {
+    Trace.Span span =
+        Trace.Span.newBuilder()
+            .setId(ByteString.copyFromUtf8("2"))
+            .setTraceId(ByteString.copyFromUtf8("traceId"))
+            .setName("noService")
+            .setTimestamp(1000)
+            .setDuration(2000)
+            .addTags(
+                Trace.KeyValue.newBuilder()
+                    .setKey("binary")
+                    .setVType(Trace.ValueType.BINARY)
+                    .setVBinary(ByteString.copyFromUtf8("bytes"))
+                    .build())
+            .build();
+    LogMessage spanMessage = SpanFormatter.toSpanLogMessage(span);
+    assertThat(spanMessage.getIndex()).isEqualTo(SpanFormatter.DEFAULT_INDEX_NAME);
+    assertThat(((SpanLogMessage) spanMessage).hasInvalidTimestamp()).isTrue();
+
+    Document document =
+        build(CONVERT_VALUE_AND_DUPLICATE_FIELD, true, new SimpleMeterRegistry())
+            .fromMessage(spanMessage);
+    assertThat(document.getField(LogMessage.ReservedField.KALDB_INVALID_TIMESTAMP.fieldName))
+        .isNotNull();
+    assertThat(document.get(LogMessage.ReservedField.SERVICE_NAME.fieldName))
+        .isEqualTo(SpanFormatter.DEFAULT_INDEX_NAME);
+    assertThat(document.get("binary"))
+        .isEqualTo(SpanFormatter.encodeBinaryTagValue(ByteString.copyFromUtf8("bytes")));
+  }
+
+  @Test
+  public void testBinarySpanSource() throws IOException {
+    final long timestampMicros = Instant.now().toEpochMilli() * 1000;
+    Trace.Span span =
+        SpanUtil.makeSpan(
+            "traceId", "1", "0", timestampMicros, 5000, "testName", "test-service", "testType");
+    LogMessage spanMessage = SpanFormatter.toSpanLogMessage(span);
+
+    Document binaryDocument =
+        build(CONVERT_VALUE_AND_DUPLICATE_FIELD, false, true, new SimpleMeterRegistry())
+            .fromMessage(spanMessage);
+    Document jsonDocument =
+        build(CONVERT_VALUE_AND_DUPLICATE_FIELD, false, false, new SimpleMeterRegistry())
+            .fromMessage(spanMessage);
+    assertThat(fieldsOf(binaryDocument)).isEqualTo(fieldsOf(jsonDocument));
+    assertThat(binaryDocument.getField(LogMessage.SystemField.ALL.fieldName)).isNull();
+
+    BytesRef sourceBytes =
+        binaryDocument.getField(LogMessage.SystemField.SOURCE.fieldName).binaryValue();
+    assertThat(sourceBytes).isNotNull();
+    SpanLogMessage decoded = SpanLogMessage.fromSourceBytes(sourceBytes);
+    assertThat(decoded.getSpan()).isEqualTo(span);
+    assertThat(decoded.hasInvalidTimestamp()).isFalse();
+    assertThat(decoded.getIndex()).isEqualTo(spanMessage.getIndex());
+    assertThat(decoded.getType()).isEqualTo(spanMessage.getType());
+    assertThat(decoded.getId()).isEqualTo(spanMessage.getId());
+    assertThat(decoded.getTimestamp()).isEqualTo(spanMessage.getTimestamp());
+    assertThat(decoded.getSource()).isEqualTo(SpanFormatter.toLogMessage(span).getSource());
+
+    // The full text field still needs the json source.
+    Document fullTextDocument =
+        build(CONVERT_VALUE_AND_DUPLICATE_FIELD, true, true, new SimpleMeterRegistry())
+            .fromMessage(spanMessage);
+    assertThat(fullTextDocument.getField(LogMessage.SystemField.SOURCE.fieldName).binaryValue())
+        .isNotNull();
+    assertThat(fullTextDocument.get(LogMessage.SystemField.ALL.fieldName))
+        .isEqualTo(jsonDocument.get(LogMessage.SystemField.SOURCE.fieldName));
+  }
+
+  @Test
+  public void testBinarySpanSourceWithInvalidTimestamp() throws IOException {
+    Trace.Span span =
+        SpanUtil.makeSpan("traceId", "1", "0", 1000, 5000, "testName", "test-service", "testType");
+    SpanLogMessage spanMessage = (SpanLogMessage) SpanFormatter.toSpanLogMessage(span);
+    assertThat(spanMessage.hasInvalidTimestamp()).isTrue();
+
+    SpanLogMessage decoded =
+        SpanLogMessage.fromSourceBytes(new BytesRef(spanMessage.toSourceBytes()));
+    assertThat(decoded.hasInvalidTimestamp()).isTrue();
+    assertThat(decoded.getTimestamp().toEpochMilli())
+        .isEqualTo(spanMessage.getTimestamp().toEpochMilli());
+    assertThat(decoded.getSource()).isEqualTo(spanMessage.getSource());
+  }
+
+  @Test
+  public void testSearchBinarySpanSource(@TempDir File tempFolder) throws IOException {
+    LuceneIndexStoreImpl logStore =
+        LuceneIndexStoreImpl.makeLogStore(
+            tempFolder,
+            Duration.ofMinutes(5),
+            Duration.ofMinutes(5),
+            false,
+            true,
+            CONVERT_VALUE_AND_DUPLICATE_FIELD,
+            new SimpleMeterRegistry());
+    LogIndexSearcherImpl logSearcher =
+        new LogIndexSearcherImpl(logStore.getSearcherManager(), logStore.getSchema());
+    try {
+      final long timestampMicros = Instant.now().toEpochMilli() * 1000;
+      Trace.Span span =
+          SpanUtil.makeSpan(
+              "traceId", "1", "0", timestampMicros, 5000, "testName", "test-service", "testType");
+      LogMessage spanMessage = SpanFormatter.toSpanLogMessage(span);
+      logStore.addMessage(spanMessage);
+      logStore.commit();
+      logStore.refresh();
+
+      List<LogMessage> hits =
+          TemporaryLogStoreAndSearcherExtension.findAllMessages(
+              logSearcher, spanMessage.getIndex(), "name:testName", 10);
+      assertThat(hits.size()).isEqualTo(1);
+      assertThat(hits.get(0).getId()).isEqualTo(spanMessage.getId());
+      assertThat(hits.get(0).getTimestamp()).isEqualTo(spanMessage.getTimestamp());
+      assertThat(hits.get(0).getSource()).isEqualTo(spanMessage.getSource());
+      assertThat(JsonUtil.writeAsString(hits.get(0)))
+          .isEqualTo(JsonUtil.writeAsString(SpanFormatter.toLogMessage(span)));
+    } finally {
+      logSearcher.close();
+      logStore.close();
+    }
+  }
+}
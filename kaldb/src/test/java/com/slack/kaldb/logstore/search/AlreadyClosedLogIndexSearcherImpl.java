@@ -12,6 +12,8 @@ public class AlreadyClosedLogIndexSearcherImpl implements LogIndexSearcher<LogMe
       long minTime,
       long maxTime,
       int howMany,
+      SearchQuery.SearchAfter searchAfter,
+      SearchQuery.SortOrder sortOrder,
       AggBuilder aggBuilder) {
     throw new AlreadyClosedException("Failed to acquire an index searcher");
   }
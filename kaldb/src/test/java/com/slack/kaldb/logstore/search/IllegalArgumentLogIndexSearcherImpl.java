@@ -11,6 +11,8 @@ public class IllegalArgumentLogIndexSearcherImpl implements LogIndexSearcher<Log
       long minTime,
       long maxTime,
       int howMany,
+      SearchQuery.SearchAfter searchAfter,
+      SearchQuery.SortOrder sortOrder,
       AggBuilder aggBuilder) {
     throw new IllegalArgumentException("Failed to acquire an index searcher");
   }
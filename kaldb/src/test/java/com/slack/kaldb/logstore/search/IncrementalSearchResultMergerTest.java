@@ -0,0 +1,67 @@
+package com.slack.kaldb.logstore.search;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.testlib.MessageUtil;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class IncrementalSearchResultMergerTest {
+  private static SearchQuery makeQuery(int howMany) {
+    return new SearchQuery(
+        MessageUtil.TEST_DATASET_NAME, "*:*", 0, Long.MAX_VALUE, howMany, null, List.of());
+  }
+
+  @Test
+  public void testMergesResultsAcrossBatches() {
+    Instant startTime = LocalDateTime.of(2020, 1, 1, 1, 0, 0).atZone(ZoneOffset.UTC).toInstant();
+    IncrementalSearchResultMerger<LogMessage> resultMerger =
+        new IncrementalSearchResultMerger<>(makeQuery(25));
+
+    int resultCount = IncrementalSearchResultMerger.MERGE_BATCH_SIZE * 2 + 3;
+    List<LogMessage> allHits = new ArrayList<>();
+    for (int i = 0; i < resultCount; i++) {
+      List<LogMessage> hits =
+          MessageUtil.makeMessagesWithTimeDifference(
+              i * 5 + 1, i * 5 + 5, 1000 * 100, startTime.plusSeconds(i));
+      Collections.reverse(hits);
+      allHits.addAll(hits);
+      resultMerger.add(new SearchResult<>(hits, i, i % 2, 0, 1, 0, null));
+    }
+    // The last result of a node only counts the node.
+    resultMerger.add(new SearchResult<>(new ArrayList<>(), 0, 0, 1, 0, 0, null));
+
+    SearchResult<LogMessage> mergedResult = resultMerger.getMergedResult();
+    List<LogMessage> expectedHits =
+        allHits.stream()
+            .sorted(
+                Comparator.comparing(
+                    (LogMessage m) -> m.getTimestamp().toEpochMilli(), Comparator.reverseOrder()))
+            .limit(25)
+            .collect(Collectors.toList());
+    assertThat(mergedResult.hits).containsExactlyElementsOf(expectedHits);
+    assertThat(mergedResult.tookMicros).isEqualTo(resultCount - 1);
+    assertThat(mergedResult.failedNodes).isEqualTo(resultCount / 2);
+    assertThat(mergedResult.totalNodes).isEqualTo(1);
+    assertThat(mergedResult.totalSnapshots).isEqualTo(resultCount);
+    assertThat(mergedResult.internalAggregation).isNull();
+  }
+
+  @Test
+  public void testEmptyMerge() {
+    IncrementalSearchResultMerger<LogMessage> resultMerger =
+        new IncrementalSearchResultMerger<>(makeQuery(10));
+    SearchResult<LogMessage> mergedResult = resultMerger.getMergedResult();
+    assertThat(mergedResult.hits).isEmpty();
+    assertThat(mergedResult.totalNodes).isZero();
+    assertThat(mergedResult.totalSnapshots).isZero();
+  }
+}
@@ -3,8 +3,6 @@ package com.slack.kaldb.logstore.search;
 import static com.slack.kaldb.chunk.ChunkInfo.toSnapshotMetadata;
 import static com.slack.kaldb.chunk.ReadWriteChunk.LIVE_SNAPSHOT_PREFIX;
 import static com.slack.kaldb.chunk.ReadWriteChunk.toSearchMetadata;
-import static com.slack.kaldb.logstore.search.KaldbDistributedQueryService.getMatchingSearchMetadata;
-import static com.slack.kaldb.logstore.search.KaldbDistributedQueryService.getMatchingSnapshots;
 import static com.slack.kaldb.logstore.search.KaldbDistributedQueryService.getNodesAndSnapshotsToQuery;
 import static com.slack.kaldb.metadata.snapshot.SnapshotMetadata.LIVE_SNAPSHOT_PATH;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -18,9 +16,12 @@ import static org.mockito.Mockito.when;
 
 import brave.Tracing;
 import com.google.common.util.concurrent.Futures;
+import com.linecorp.armeria.server.Server;
+import com.linecorp.armeria.server.grpc.GrpcService;
 import com.slack.kaldb.chunk.ChunkInfo;
 import com.slack.kaldb.chunk.ReadOnlyChunkImpl;
 import com.slack.kaldb.chunk.SearchContext;
+import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.metadata.core.CuratorBuilder;
 import com.slack.kaldb.metadata.core.KaldbMetadataTestUtils;
 import com.slack.kaldb.metadata.dataset.DatasetMetadata;
@@ -34,10 +35,15 @@ import com.slack.kaldb.proto.config.KaldbConfigs;
 import com.slack.kaldb.proto.metadata.Metadata;
 import com.slack.kaldb.proto.service.KaldbSearch;
 import com.slack.kaldb.proto.service.KaldbServiceGrpc;
+import com.slack.kaldb.testlib.MessageUtil;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +51,7 @@ import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.curator.test.TestingServer;
 import org.apache.curator.x.async.AsyncCuratorFramework;
@@ -824,6 +831,363 @@ public class KaldbDistributedQueryServiceTest {
     assertThat(searchNodes.size()).isEqualTo(0);
   }
 
+  private static Server startSearchNode(KaldbServiceGrpc.KaldbServiceImplBase searchService) {
+    Server server =
+        Server.builder()
+            .http(0)
+            .service(GrpcService.builder().addService(searchService).build())
+            .build();
+    server.start().join();
+    return server;
+  }
+
+  private static KaldbSearch.SearchResult makeSearchResult(
+      List<LogMessage> hits, int totalNodes, int totalSnapshots) {
+    return SearchResultUtils.toSearchResultProto(
+        new SearchResult<>(hits, 0, 0, totalNodes, totalSnapshots, 0, null));
+  }
+
+  @Test
+  public void testStreamingSearch() {
+    Instant endTime = Instant.now();
+    Instant startTime = endTime.minus(1, ChronoUnit.HOURS);
+    LogMessage hit1 = MessageUtil.makeMessage(1, endTime.minus(3, ChronoUnit.MINUTES));
+    LogMessage hit2 = MessageUtil.makeMessage(2, endTime.minus(2, ChronoUnit.MINUTES));
+    LogMessage hit3 = MessageUtil.makeMessage(3, endTime.minus(1, ChronoUnit.MINUTES));
+
+    // A node that streams the results of its chunks, and a node that doesn't support streaming.
+    Server streamingNode =
+        startSearchNode(
+            new KaldbServiceGrpc.KaldbServiceImplBase() {
+              @Override
+              public void streamingSearch(
+                  KaldbSearch.SearchRequest request,
+                  StreamObserver<KaldbSearch.SearchResult> responseObserver) {
+                assertThat(request.getChunkIdsList()).containsExactly("snapshot1");
+                responseObserver.onNext(makeSearchResult(List.of(hit1), 0, 1));
+                responseObserver.onNext(makeSearchResult(List.of(hit3), 0, 1));
+                responseObserver.onNext(makeSearchResult(List.of(), 1, 0));
+                responseObserver.onCompleted();
+              }
+            });
+    Server unaryNode =
+        startSearchNode(
+            new KaldbServiceGrpc.KaldbServiceImplBase() {
+              @Override
+              public void search(
+                  KaldbSearch.SearchRequest request,
+                  StreamObserver<KaldbSearch.SearchResult> responseObserver) {
+                assertThat(request.getChunkIdsList()).containsExactly("snapshot2");
+                responseObserver.onNext(makeSearchResult(List.of(hit2), 1, 1));
+                responseObserver.onCompleted();
+              }
+            });
+
+    try {
+      SearchMetadataStore searchMetadataStoreMock = mock(SearchMetadataStore.class);
+      when(searchMetadataStoreMock.listSync())
+          .thenReturn(
+              List.of(
+                  new SearchMetadata(
+                      "search1",
+                      "snapshot1",
+                      "gproto+http://127.0.0.1:" + streamingNode.activeLocalPort()),
+                  new SearchMetadata(
+                      "search2",
+                      "snapshot2",
+                      "gproto+http://127.0.0.1:" + unaryNode.activeLocalPort())));
+      SnapshotMetadataStore snapshotMetadataStoreMock = mock(SnapshotMetadataStore.class);
+      when(snapshotMetadataStoreMock.listSync())
+          .thenReturn(
+              List.of(
+                  new SnapshotMetadata(
+                      "snapshot1",
+                      "/1",
+                      startTime.toEpochMilli(),
+                      endTime.toEpochMilli(),
+                      10,
+                      "1",
+                      Metadata.IndexType.LOGS_LUCENE9),
+                  new SnapshotMetadata(
+                      "snapshot2",
+                      "/2",
+                      startTime.toEpochMilli(),
+                      endTime.toEpochMilli(),
+                      10,
+                      "1",
+                      Metadata.IndexType.LOGS_LUCENE9)));
+      DatasetMetadataStore datasetMetadataStoreMock = mock(DatasetMetadataStore.class);
+      when(datasetMetadataStoreMock.listSync())
+          .thenReturn(
+              List.of(
+                  new DatasetMetadata(
+                      "foo",
+                      "foo",
+                      10,
+                      List.of(new DatasetPartitionMetadata(1, Long.MAX_VALUE, List.of("1"))),
+                      "")));
+
+      KaldbDistributedQueryService distributedQueryService =
+          new KaldbDistributedQueryService(
+              searchMetadataStoreMock,
+              snapshotMetadataStoreMock,
+              datasetMetadataStoreMock,
+              new SimpleMeterRegistry(),
+              Duration.of(5, ChronoUnit.SECONDS),
+              Duration.of(5, ChronoUnit.SECONDS));
+      KaldbSearch.SearchResult searchResult =
+          distributedQueryService.doSearch(
+              KaldbSearch.SearchRequest.newBuilder()
+                  .setDataset("foo")
+                  .setQueryString("*:*")
+                  .setStartTimeEpochMs(startTime.toEpochMilli())
+                  .setEndTimeEpochMs(endTime.toEpochMilli())
+                  .setHowMany(10)
+                  .build());
+      distributedQueryService.close();
+
+      assertThat(searchResult.getHitsCount()).isEqualTo(3);
+      assertThat(searchResult.getHits(0)).contains(hit3.getId());
+      assertThat(searchResult.getHits(1)).contains(hit2.getId());
+      assertThat(searchResult.getHits(2)).contains(hit1.getId());
+      assertThat(searchResult.getTotalNodes()).isEqualTo(2);
+      assertThat(searchResult.getFailedNodes()).isZero();
+      assertThat(searchResult.getTotalSnapshots()).isEqualTo(3);
+    } finally {
+      streamingNode.stop().join();
+      unaryNode.stop().join();
+    }
+  }
+
+  @Test
+  public void testStreamingSearchReturnsPartialResultsOnTimeout() {
+    Instant endTime = Instant.now();
+    Instant startTime = endTime.minus(1, ChronoUnit.HOURS);
+    LogMessage hit1 = MessageUtil.makeMessage(1, endTime.minus(3, ChronoUnit.MINUTES));
+    LogMessage hit2 = MessageUtil.makeMessage(2, endTime.minus(2, ChronoUnit.MINUTES));
+
+    // A node that only searches one of its snapshots before the query times out.
+    Server slowNode =
+        startSearchNode(
+            new KaldbServiceGrpc.KaldbServiceImplBase() {
+              @Override
+              public void streamingSearch(
+                  KaldbSearch.SearchRequest request,
+                  StreamObserver<KaldbSearch.SearchResult> responseObserver) {
+                assertThat(request.getChunkIdsList())
+                    .containsExactlyInAnyOrder("snapshot1", "snapshot3");
+                responseObserver.onNext(makeSearchResult(List.of(hit1), 0, 1));
+              }
+            });
+    Server node =
+        startSearchNode(
+            new KaldbServiceGrpc.KaldbServiceImplBase() {
+              @Override
+              public void streamingSearch(
+                  KaldbSearch.SearchRequest request,
+                  StreamObserver<KaldbSearch.SearchResult> responseObserver) {
+                responseObserver.onNext(makeSearchResult(List.of(hit2), 0, 1));
+                responseObserver.onNext(makeSearchResult(List.of(), 1, 0));
+                responseObserver.onCompleted();
+              }
+            });
+
+    try {
+      SearchMetadataStore searchMetadataStoreMock = mock(SearchMetadataStore.class);
+      String slowNodeUrl = "gproto+http://127.0.0.1:" + slowNode.activeLocalPort();
+      when(searchMetadataStoreMock.listSync())
+          .thenReturn(
+              List.of(
+                  new SearchMetadata("search1", "snapshot1", slowNodeUrl),
+                  new SearchMetadata(
+                      "search2", "snapshot2", "gproto+http://127.0.0.1:" + node.activeLocalPort()),
+                  new SearchMetadata("search3", "snapshot3", slowNodeUrl)));
+      SnapshotMetadataStore snapshotMetadataStoreMock = mock(SnapshotMetadataStore.class);
+      List<SnapshotMetadata> snapshots = new ArrayList<>();
+      for (String snapshotId : List.of("snapshot1", "snapshot2", "snapshot3")) {
+        snapshots.add(
+            new SnapshotMetadata(
+                snapshotId,
+                "/" + snapshotId,
+                startTime.toEpochMilli(),
+                endTime.toEpochMilli(),
+                10,
+                "1",
+                Metadata.IndexType.LOGS_LUCENE9));
+      }
+      when(snapshotMetadataStoreMock.listSync()).thenReturn(snapshots);
+      DatasetMetadataStore datasetMetadataStoreMock = mock(DatasetMetadataStore.class);
+      when(datasetMetadataStoreMock.listSync())
+          .thenReturn(
+              List.of(
+                  new DatasetMetadata(
+                      "foo",
+                      "foo",
+                      10,
+                      List.of(new DatasetPartitionMetadata(1, Long.MAX_VALUE, List.of("1"))),
+                      "")));
+
+      KaldbDistributedQueryService distributedQueryService =
+          new KaldbDistributedQueryService(
+              searchMetadataStoreMock,
+              snapshotMetadataStoreMock,
+              datasetMetadataStoreMock,
+              new SimpleMeterRegistry(),
+              Duration.of(5, ChronoUnit.SECONDS),
+              Duration.of(1, ChronoUnit.SECONDS));
+      KaldbSearch.SearchResult searchResult =
+          distributedQueryService.doSearch(
+              KaldbSearch.SearchRequest.newBuilder()
+                  .setDataset("foo")
+                  .setQueryString("*:*")
+                  .setStartTimeEpochMs(startTime.toEpochMilli())
+                  .setEndTimeEpochMs(endTime.toEpochMilli())
+                  .setHowMany(10)
+                  .build());
+      distributedQueryService.close();
+
+      // The results of the slow node that arrived before the timeout are returned.
+      assertThat(searchResult.getHitsCount()).isEqualTo(2);
+      assertThat(searchResult.getHits(0)).contains(hit2.getId());
+      assertThat(searchResult.getHits(1)).contains(hit1.getId());
+      assertThat(searchResult.getTotalNodes()).isEqualTo(2);
+      assertThat(searchResult.getFailedNodes()).isEqualTo(1);
+      assertThat(searchResult.getTotalSnapshots()).isEqualTo(3);
+      assertThat(searchResult.getTimedOutSnapshots()).isEqualTo(1);
+    } finally {
+      slowNode.stop().join();
+      node.stop().join();
+    }
+  }
+
+  @Test
+  public void testSlowNodeSearchIsHedged() {
+    Instant endTime = Instant.now();
+    Instant startTime = endTime.minus(1, ChronoUnit.HOURS);
+    LogMessage hit = MessageUtil.makeMessage(1, endTime.minus(1, ChronoUnit.MINUTES));
+
+    // A cache node that never answers, and an indexer holding the same snapshot.
+    AtomicBoolean slowNodeCancelled = new AtomicBoolean(false);
+    Server slowNode =
+        startSearchNode(
+            new KaldbServiceGrpc.KaldbServiceImplBase() {
+              @Override
+              public void streamingSearch(
+                  KaldbSearch.SearchRequest request,
+                  StreamObserver<KaldbSearch.SearchResult> responseObserver) {
+                ((ServerCallStreamObserver<KaldbSearch.SearchResult>) responseObserver)
+                    .setOnCancelHandler(() -> slowNodeCancelled.set(true));
+              }
+            });
+    Server node =
+        startSearchNode(
+            new KaldbServiceGrpc.KaldbServiceImplBase() {
+              @Override
+              public void streamingSearch(
+                  KaldbSearch.SearchRequest request,
+                  StreamObserver<KaldbSearch.SearchResult> responseObserver) {
+                assertThat(request.getChunkIdsList()).containsExactly("snapshot1");
+                responseObserver.onNext(makeSearchResult(List.of(hit), 0, 1));
+                responseObserver.onNext(makeSearchResult(List.of(), 1, 0));
+                responseObserver.onCompleted();
+              }
+            });
+
+    try {
+      SearchMetadataStore searchMetadataStoreMock = mock(SearchMetadataStore.class);
+      when(searchMetadataStoreMock.listSync())
+          .thenReturn(
+              List.of(
+                  new SearchMetadata(
+                      "search1",
+                      "snapshot1",
+                      "gproto+http://127.0.0.1:" + slowNode.activeLocalPort()),
+                  new SearchMetadata(
+                      "search2",
+                      "LIVE_snapshot1",
+                      "gproto+http://127.0.0.1:" + node.activeLocalPort())));
+      SnapshotMetadataStore snapshotMetadataStoreMock = mock(SnapshotMetadataStore.class);
+      when(snapshotMetadataStoreMock.listSync())
+          .thenReturn(
+              List.of(
+                  new SnapshotMetadata(
+                      "snapshot1",
+                      "/snapshot1",
+                      startTime.toEpochMilli(),
+                      endTime.toEpochMilli(),
+                      10,
+                      "1",
+                      Metadata.IndexType.LOGS_LUCENE9),
+                  new SnapshotMetadata(
+                      "LIVE_snapshot1",
+                      LIVE_SNAPSHOT_PATH,
+                      startTime.toEpochMilli(),
+                      endTime.toEpochMilli(),
+                      10,
+                      "1",
+                      Metadata.IndexType.LOGS_LUCENE9)));
+      DatasetMetadataStore datasetMetadataStoreMock = mock(DatasetMetadataStore.class);
+      when(datasetMetadataStoreMock.listSync())
+          .thenReturn(
+              List.of(
+                  new DatasetMetadata(
+                      "foo",
+                      "foo",
+                      10,
+                      List.of(new DatasetPartitionMetadata(1, Long.MAX_VALUE, List.of("1"))),
+                      "")));
+
+      // The node requests usually take a millisecond, so the slow node is hedged right away.
+      RequestHedger requestHedger = new RequestHedger(50, 100);
+      for (int i = 0; i < RequestHedger.MIN_LATENCY_SAMPLES; i++) {
+        requestHedger.requestCompleted(TimeUnit.MILLISECONDS.toNanos(1));
+      }
+      SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+      KaldbDistributedQueryService distributedQueryService =
+          new KaldbDistributedQueryService(
+              searchMetadataStoreMock,
+              snapshotMetadataStoreMock,
+              datasetMetadataStoreMock,
+              meterRegistry,
+              Duration.of(10, ChronoUnit.SECONDS),
+              Duration.of(5, ChronoUnit.SECONDS),
+              null,
+              requestHedger);
+      KaldbSearch.SearchResult searchResult =
+          distributedQueryService.doSearch(
+              KaldbSearch.SearchRequest.newBuilder()
+                  .setDataset("foo")
+                  .setQueryString("*:*")
+                  .setStartTimeEpochMs(startTime.toEpochMilli())
+                  .setEndTimeEpochMs(endTime.toEpochMilli())
+                  .setHowMany(10)
+                  .build());
+      distributedQueryService.close();
+
+      // Only the results of the node that answered first are returned.
+      assertThat(searchResult.getHitsCount()).isEqualTo(1);
+      assertThat(searchResult.getHits(0)).contains(hit.getId());
+      assertThat(searchResult.getTotalNodes()).isEqualTo(1);
+      assertThat(searchResult.getFailedNodes()).isZero();
+      assertThat(searchResult.getTotalSnapshots()).isEqualTo(1);
+      assertThat(searchResult.getTimedOutSnapshots()).isZero();
+      assertThat(
+              meterRegistry
+                  .counter(KaldbDistributedQueryService.DISTRIBUTED_QUERY_HEDGED_REQUESTS)
+                  .count())
+          .isEqualTo(1);
+      assertThat(
+              meterRegistry
+                  .counter(KaldbDistributedQueryService.DISTRIBUTED_QUERY_HEDGED_REQUESTS_WON)
+                  .count())
+          .isEqualTo(1);
+      await().until(slowNodeCancelled::get);
+    } finally {
+      slowNode.stop().join();
+      node.stop().join();
+    }
+  }
+
   @Test
   public void testSchema() {
     Instant endTime = Instant.now();
@@ -987,6 +1351,36 @@ public class KaldbDistributedQueryServiceTest {
     return snapshotMetadata;
   }
 
+  @Test
+  public void testReplicasArePickedJointlyByNodeLatency() {
+    Map<String, List<SearchMetadata>> searchMetadataBySnapshot = new HashMap<>();
+    for (int i = 0; i < 6; i++) {
+      searchMetadataBySnapshot.put(
+          "snapshot" + i,
+          new ArrayList<>(
+              List.of(
+                  new SearchMetadata("fastSearch" + i, "snapshot" + i, "fastNode"),
+                  new SearchMetadata("slowSearch" + i, "snapshot" + i, "slowNode"))));
+    }
+
+    // Without any latencies yet, the snapshots are spread evenly across the replicas.
+    Map<String, List<String>> nodesAndSnapshots =
+        getNodesAndSnapshotsToQuery(searchMetadataBySnapshot, new ReplicaSelector());
+    assertThat(nodesAndSnapshots.get("fastNode")).hasSize(3);
+    assertThat(nodesAndSnapshots.get("slowNode")).hasSize(3);
+
+    // The fast node gets most of the snapshots, but not all of them, since every snapshot assigned
+    // to it adds to its queue.
+    ReplicaSelector replicaSelector = new ReplicaSelector();
+    replicaSelector.requestStarted("fastNode");
+    replicaSelector.requestCompleted("fastNode", TimeUnit.MILLISECONDS.toNanos(10), false);
+    replicaSelector.requestStarted("slowNode");
+    replicaSelector.requestCompleted("slowNode", TimeUnit.SECONDS.toNanos(1), false);
+    nodesAndSnapshots = getNodesAndSnapshotsToQuery(searchMetadataBySnapshot, replicaSelector);
+    assertThat(nodesAndSnapshots.get("fastNode")).hasSize(5);
+    assertThat(nodesAndSnapshots.get("slowNode")).hasSize(1);
+  }
+
   private Map<String, List<String>> getSearchNodesToQuery(
       SnapshotMetadataStore snapshotMetadataStore,
       SearchMetadataStore searchMetadataStore,
@@ -994,17 +1388,15 @@ public class KaldbDistributedQueryServiceTest {
       long queryStartTimeEpochMs,
       long queryEndTimeEpochMs,
       String dataset) {
-    Map<String, SnapshotMetadata> snapshotsToSearch =
-        getMatchingSnapshots(
-            snapshotMetadataStore,
-            datasetMetadataStore,
-            queryStartTimeEpochMs,
-            queryEndTimeEpochMs,
-            dataset);
+    try (SnapshotIndex snapshotIndex =
+        new SnapshotIndex(snapshotMetadataStore, searchMetadataStore, datasetMetadataStore)) {
+      Map<String, SnapshotMetadata> snapshotsToSearch =
+          snapshotIndex.getMatchingSnapshots(queryStartTimeEpochMs, queryEndTimeEpochMs, dataset);
 
-    Map<String, List<SearchMetadata>> searchMetadataToQuery =
-        getMatchingSearchMetadata(searchMetadataStore, snapshotsToSearch);
+      Map<String, List<SearchMetadata>> searchMetadataToQuery =
+          snapshotIndex.getMatchingSearchMetadata(snapshotsToSearch);
 
-    return getNodesAndSnapshotsToQuery(searchMetadataToQuery);
+      return getNodesAndSnapshotsToQuery(searchMetadataToQuery);
+    }
   }
 }
@@ -33,6 +33,7 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
 import org.junit.jupiter.api.AfterEach;
@@ -433,6 +434,67 @@ public class KaldbLocalQueryServiceTest {
     assertThat(dateHistogram.getBuckets().get(0).getDocCount()).isEqualTo(1);
   }
 
+  @Test
+  public void testKalDbGrpcStreamingSearch() throws IOException {
+    IndexingChunkManager<LogMessage> chunkManager = chunkManagerUtil.chunkManager;
+
+    final Instant startTime =
+        LocalDateTime.of(2020, 10, 1, 10, 10, 0).atZone(ZoneOffset.UTC).toInstant();
+    List<LogMessage> messages = MessageUtil.makeMessagesWithTimeDifference(1, 100, 1000, startTime);
+    int offset = 1;
+    for (LogMessage m : messages) {
+      chunkManager.addMessage(m, m.toString().length(), TEST_KAFKA_PARITION_ID, offset);
+      offset++;
+    }
+
+    String serverName = InProcessServerBuilder.generateName();
+    grpcCleanup.register(
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(new KaldbLocalQueryService<>(chunkManager, Duration.ofSeconds(3)))
+            .build()
+            .start());
+    KaldbServiceGrpc.KaldbServiceBlockingStub blockingKaldbClient =
+        KaldbServiceGrpc.newBlockingStub(
+            grpcCleanup.register(
+                InProcessChannelBuilder.forName(serverName).directExecutor().build()));
+
+    final long chunk1StartTimeMs = startTime.toEpochMilli();
+    final long chunk1EndTimeMs = chunk1StartTimeMs + (10 * 1000);
+    List<KaldbSearch.SearchResult> responses = new ArrayList<>();
+    blockingKaldbClient
+        .streamingSearch(
+            KaldbSearch.SearchRequest.newBuilder()
+                .setDataset(MessageUtil.TEST_DATASET_NAME)
+                .setQueryString("Message1")
+                .setStartTimeEpochMs(chunk1StartTimeMs)
+                .setEndTimeEpochMs(chunk1EndTimeMs)
+                .setHowMany(10)
+                .setAggregations(buildHistogramRequest(chunk1StartTimeMs, chunk1EndTimeMs, 2))
+                .build())
+        .forEachRemaining(responses::add);
+
+    // The result of the chunk, followed by the result that counts the node.
+    assertThat(responses).hasSize(2);
+    KaldbSearch.SearchResult chunkResponse = responses.get(0);
+    assertThat(chunkResponse.getHitsCount()).isEqualTo(1);
+    assertThat(chunkResponse.getHits(0)).contains("Message1");
+    assertThat(chunkResponse.getTotalNodes()).isZero();
+    assertThat(chunkResponse.getTotalSnapshots()).isEqualTo(1);
+    InternalDateHistogram dateHistogram =
+        (InternalDateHistogram)
+            OpenSearchInternalAggregation.fromByteArray(
+                chunkResponse.getInternalAggregations().toByteArray());
+    assertThat(dateHistogram.getBuckets().size()).isEqualTo(1);
+    assertThat(dateHistogram.getBuckets().get(0).getDocCount()).isEqualTo(1);
+
+    KaldbSearch.SearchResult nodeResponse = responses.get(1);
+    assertThat(nodeResponse.getHitsCount()).isZero();
+    assertThat(nodeResponse.getTotalNodes()).isEqualTo(1);
+    assertThat(nodeResponse.getFailedNodes()).isZero();
+    assertThat(nodeResponse.getTotalSnapshots()).isZero();
+  }
+
   @Test
   public void testKalDbGrpcSearchThrowsException() throws IOException {
     // Load test data into chunk manager.
@@ -0,0 +1,71 @@
+package com.slack.kaldb.logstore.search;
+
+import static com.slack.kaldb.logstore.search.KaldbQueryCache.QUERY_CACHE_HITS;
+import static com.slack.kaldb.logstore.search.KaldbQueryCache.QUERY_CACHE_HIT_RATIO;
+import static com.slack.kaldb.logstore.search.KaldbQueryCache.QUERY_CACHE_RAM_BYTES;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.slack.kaldb.proto.config.KaldbConfigs;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LRUQueryCache;
+import org.apache.lucene.search.QueryCache;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class KaldbQueryCacheTest {
+  private QueryCache defaultQueryCache;
+  private QueryCachingPolicy defaultQueryCachingPolicy;
+  private MeterRegistry meterRegistry;
+
+  @BeforeEach
+  public void setUp() {
+    defaultQueryCache = IndexSearcher.getDefaultQueryCache();
+    defaultQueryCachingPolicy = IndexSearcher.getDefaultQueryCachingPolicy();
+    meterRegistry = new SimpleMeterRegistry();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    IndexSearcher.setDefaultQueryCache(defaultQueryCache);
+    IndexSearcher.setDefaultQueryCachingPolicy(defaultQueryCachingPolicy);
+    meterRegistry.close();
+  }
+
+  @Test
+  public void testConfiguresTheDefaultQueryCache() throws IOException {
+    LRUQueryCache queryCache =
+        KaldbQueryCache.initDefaultQueryCache(
+            KaldbConfigs.QueryCacheConfig.newBuilder()
+                .setMaxSizeBytes(1024 * 1024)
+                .setMaxQueries(100)
+                .build(),
+            meterRegistry);
+
+    assertThat(queryCache).isNotSameAs(defaultQueryCache);
+    assertThat(IndexSearcher.getDefaultQueryCache()).isSameAs(queryCache);
+    assertThat(IndexSearcher.getDefaultQueryCachingPolicy())
+        .isInstanceOf(LogQueryCachingPolicy.class);
+    assertThat(new IndexSearcher(new MultiReader()).getQueryCache()).isSameAs(queryCache);
+
+    assertThat(meterRegistry.get(QUERY_CACHE_HITS).functionCounter().count()).isZero();
+    assertThat(meterRegistry.get(QUERY_CACHE_HIT_RATIO).gauge().value()).isZero();
+    assertThat(meterRegistry.get(QUERY_CACHE_RAM_BYTES).gauge().value()).isZero();
+  }
+
+  @Test
+  public void testKeepsTheLuceneQueryCacheByDefault() {
+    LRUQueryCache queryCache =
+        KaldbQueryCache.initDefaultQueryCache(
+            KaldbConfigs.QueryCacheConfig.getDefaultInstance(), meterRegistry);
+
+    assertThat(queryCache).isSameAs(defaultQueryCache);
+    assertThat(IndexSearcher.getDefaultQueryCachingPolicy())
+        .isInstanceOf(LogQueryCachingPolicy.class);
+  }
+}
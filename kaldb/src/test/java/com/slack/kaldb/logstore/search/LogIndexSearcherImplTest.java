@@ -4,6 +4,7 @@ import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.COMMITS_TIMER;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.MESSAGES_FAILED_COUNTER;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.MESSAGES_RECEIVED_COUNTER;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.REFRESHES_TIMER;
+import static com.slack.kaldb.logstore.search.SegmentSearchExecutor.CONCURRENT_SEGMENT_SEARCHES;
 import static com.slack.kaldb.testlib.MessageUtil.TEST_DATASET_NAME;
 import static com.slack.kaldb.testlib.MessageUtil.TEST_SOURCE_LONG_PROPERTY;
 import static com.slack.kaldb.testlib.MessageUtil.TEST_SOURCE_STRING_PROPERTY;
@@ -25,12 +26,16 @@ import com.slack.kaldb.logstore.search.aggregations.MinAggBuilder;
 import com.slack.kaldb.logstore.search.aggregations.MovingAvgAggBuilder;
 import com.slack.kaldb.logstore.search.aggregations.SumAggBuilder;
 import com.slack.kaldb.logstore.search.aggregations.TermsAggBuilder;
+import com.slack.kaldb.proto.config.KaldbConfigs;
 import com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherExtension;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -262,6 +267,214 @@ public class LogIndexSearcherImplTest {
     assertThat(histogram.getBuckets().get(0).getDocCount()).isEqualTo(1);
   }
 
+  @Test
+  public void testConcurrentSegmentSearch() {
+    Instant time = Instant.ofEpochSecond(1593365471);
+    for (int i = 1; i <= 20; i++) {
+      strictLogStore.logStore.addMessage(
+          makeMessageWithIndexAndTimestamp(i, "apple", TEST_DATASET_NAME, time.plusSeconds(i)));
+      // Write the messages to a few segments.
+      if (i % 5 == 0) {
+        strictLogStore.logStore.commit();
+        strictLogStore.logStore.refresh();
+      }
+    }
+
+    SearchResult<LogMessage> serialResult =
+        strictLogStore.logSearcher.search(
+            TEST_DATASET_NAME,
+            "apple",
+            time.toEpochMilli(),
+            time.plusSeconds(30).toEpochMilli(),
+            10,
+            new DateHistogramAggBuilder(
+                "1", LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName, "5s"));
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    SegmentSearchExecutor.init(
+        KaldbConfigs.SegmentSearchConfig.newBuilder()
+            .setThreadCount(2)
+            .setMaxDocsPerSlice(1)
+            .setMaxSegmentsPerSlice(1)
+            .build(),
+        Integer.MAX_VALUE,
+        meterRegistry);
+    SearchResult<LogMessage> concurrentResult;
+    try {
+      concurrentResult =
+          strictLogStore.logSearcher.search(
+              TEST_DATASET_NAME,
+              "apple",
+              time.toEpochMilli(),
+              time.plusSeconds(30).toEpochMilli(),
+              10,
+              new DateHistogramAggBuilder(
+                  "1", LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName, "5s"));
+    } finally {
+      SegmentSearchExecutor.init(
+          KaldbConfigs.SegmentSearchConfig.getDefaultInstance(), meterRegistry);
+    }
+
+    assertThat(meterRegistry.counter(CONCURRENT_SEGMENT_SEARCHES).count()).isEqualTo(1);
+    assertThat(concurrentResult.hits).hasSize(10);
+    assertThat(concurrentResult.hits.stream().map(LogMessage::getId).collect(Collectors.toList()))
+        .containsExactlyElementsOf(
+            serialResult.hits.stream().map(LogMessage::getId).collect(Collectors.toList()));
+    InternalDateHistogram serialHistogram =
+        (InternalDateHistogram) Objects.requireNonNull(serialResult.internalAggregation);
+    InternalDateHistogram concurrentHistogram =
+        (InternalDateHistogram) Objects.requireNonNull(concurrentResult.internalAggregation);
+    assertThat(
+            concurrentHistogram.getBuckets().stream()
+                .map(InternalDateHistogram.Bucket::getDocCount)
+                .collect(Collectors.toList()))
+        .isEqualTo(
+            serialHistogram.getBuckets().stream()
+                .map(InternalDateHistogram.Bucket::getDocCount)
+                .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testHitsAreFetchedInRankOrder() {
+    Instant time = Instant.ofEpochSecond(1593365471);
+    List<String> expectedIds = new ArrayList<>();
+    for (int i = 1; i <= 20; i++) {
+      // The doc order of the messages doesn't match their time order.
+      int seconds = (i * 7) % 20;
+      strictLogStore.logStore.addMessage(
+          makeMessageWithIndexAndTimestamp(
+              i, "apple", TEST_DATASET_NAME, time.plusSeconds(seconds)));
+      if (seconds >= 5) {
+        expectedIds.add(String.valueOf(i));
+      }
+      // Write the messages to a few segments.
+      if (i % 6 == 0) {
+        strictLogStore.logStore.commit();
+        strictLogStore.logStore.refresh();
+      }
+    }
+    strictLogStore.logStore.commit();
+    strictLogStore.logStore.refresh();
+    expectedIds.sort(Comparator.comparingInt(id -> -((Integer.parseInt(id) * 7) % 20)));
+
+    SearchResult<LogMessage> result =
+        strictLogStore.logSearcher.search(
+            TEST_DATASET_NAME,
+            "apple",
+            time.plusSeconds(5).toEpochMilli(),
+            time.plusSeconds(30).toEpochMilli(),
+            100,
+            null);
+    assertThat(result.hits.stream().map(LogMessage::getId).collect(Collectors.toList()))
+        .containsExactlyElementsOf(expectedIds);
+    assertThat(result.hits.get(0).getSource().get(TEST_SOURCE_STRING_PROPERTY))
+        .isEqualTo("String-" + expectedIds.get(0));
+  }
+
+  @Test
+  public void testSearchAfterPagination() {
+    Instant time = Instant.ofEpochSecond(1593365471);
+    List<LogMessage> messages = new ArrayList<>();
+    for (int i = 1; i <= 20; i++) {
+      // Many messages share a timestamp, so the pages are split between messages with the same
+      // timestamp.
+      LogMessage message =
+          makeMessageWithIndexAndTimestamp(i, "apple", TEST_DATASET_NAME, time.plusSeconds(i % 4));
+      strictLogStore.logStore.addMessage(message);
+      messages.add(message);
+      if (i % 7 == 0) {
+        strictLogStore.logStore.commit();
+        strictLogStore.logStore.refresh();
+      }
+    }
+    strictLogStore.logStore.commit();
+    strictLogStore.logStore.refresh();
+    List<String> expectedIds =
+        messages.stream()
+            .sorted(
+                Comparator.comparing((LogMessage m) -> m.getTimestamp().toEpochMilli())
+                    .reversed()
+                    .thenComparing(LogMessage::getId))
+            .map(LogMessage::getId)
+            .collect(Collectors.toList());
+
+    List<String> pagedIds = new ArrayList<>();
+    SearchQuery.SearchAfter searchAfter = null;
+    for (int page = 0; page < 10; page++) {
+      SearchResult<LogMessage> result =
+          strictLogStore.logSearcher.search(
+              TEST_DATASET_NAME,
+              "apple",
+              time.toEpochMilli(),
+              time.plusSeconds(10).toEpochMilli(),
+              3,
+              searchAfter,
+              SearchQuery.SortOrder.DESC,
+              null);
+      if (result.hits.isEmpty()) {
+        break;
+      }
+      assertThat(result.hits.size()).isLessThanOrEqualTo(3);
+      result.hits.forEach(hit -> pagedIds.add(hit.getId()));
+      LogMessage lastHit = result.hits.get(result.hits.size() - 1);
+      searchAfter =
+          new SearchQuery.SearchAfter(lastHit.getTimestamp().toEpochMilli(), lastHit.getId());
+    }
+    assertThat(pagedIds).containsExactlyElementsOf(expectedIds);
+  }
+
+  @Test
+  public void testAscendingSortPagination() {
+    Instant time = Instant.ofEpochSecond(1593365471);
+    List<LogMessage> messages = new ArrayList<>();
+    for (int i = 1; i <= 40; i++) {
+      // The messages of every segment have interleaved timestamps, some of which are the same.
+      LogMessage message =
+          makeMessageWithIndexAndTimestamp(i, "apple", TEST_DATASET_NAME, time.plusSeconds(i % 9));
+      strictLogStore.logStore.addMessage(message);
+      messages.add(message);
+      if (i % 11 == 0) {
+        strictLogStore.logStore.commit();
+        strictLogStore.logStore.refresh();
+      }
+    }
+    strictLogStore.logStore.commit();
+    strictLogStore.logStore.refresh();
+    List<String> expectedIds =
+        messages.stream()
+            .sorted(
+                Comparator.comparing((LogMessage m) -> m.getTimestamp().toEpochMilli())
+                    .reversed()
+                    .thenComparing(LogMessage::getId)
+                    .reversed())
+            .map(LogMessage::getId)
+            .collect(Collectors.toList());
+
+    List<String> pagedIds = new ArrayList<>();
+    SearchQuery.SearchAfter searchAfter = null;
+    for (int page = 0; page < 20; page++) {
+      SearchResult<LogMessage> result =
+          strictLogStore.logSearcher.search(
+              TEST_DATASET_NAME,
+              "apple",
+              time.toEpochMilli(),
+              time.plusSeconds(10).toEpochMilli(),
+              3,
+              searchAfter,
+              SearchQuery.SortOrder.ASC,
+              null);
+      if (result.hits.isEmpty()) {
+        break;
+      }
+      assertThat(result.hits.size()).isLessThanOrEqualTo(3);
+      result.hits.forEach(hit -> pagedIds.add(hit.getId()));
+      LogMessage lastHit = result.hits.get(result.hits.size() - 1);
+      searchAfter =
+          new SearchQuery.SearchAfter(lastHit.getTimestamp().toEpochMilli(), lastHit.getId());
+    }
+    assertThat(pagedIds).containsExactlyElementsOf(expectedIds);
+  }
+
   @Test
   public void testAllQueryWithFullTextSearchEnabled() {
     Instant time = Instant.now();
@@ -1620,19 +1833,66 @@ public class LogIndexSearcherImplTest {
   }
 
   @Test
-  public void testSearchOrHistogramQuery() {
+  public void testCountOnlyQuery() {
     Instant time = Instant.ofEpochSecond(1593365471);
     loadTestData(time);
-    assertThatExceptionOfType(IllegalArgumentException.class)
-        .isThrownBy(
-            () ->
-                strictLogStore.logSearcher.search(
-                    TEST_DATASET_NAME,
-                    "test",
-                    time.toEpochMilli(),
-                    time.plusSeconds(1).toEpochMilli(),
-                    0,
-                    null));
+
+    SearchResult<LogMessage> allApples =
+        strictLogStore.logSearcher.search(
+            TEST_DATASET_NAME,
+            "apple",
+            time.toEpochMilli(),
+            time.plusSeconds(10).toEpochMilli(),
+            0,
+            null);
+    assertThat(allApples.hits).isEmpty();
+    assertThat(allApples.totalHits).isEqualTo(3);
+    assertThat(allApples.totalHitsLowerBound).isFalse();
+
+    SearchResult<LogMessage> someApples =
+        strictLogStore.logSearcher.search(
+            TEST_DATASET_NAME,
+            "apple",
+            time.toEpochMilli(),
+            time.plusSeconds(3).toEpochMilli(),
+            0,
+            null);
+    assertThat(someApples.hits).isEmpty();
+    assertThat(someApples.totalHits).isEqualTo(2);
+    assertThat(someApples.totalHitsLowerBound).isFalse();
+  }
+
+  @Test
+  public void testTotalHitsAreCountedPastHowMany() {
+    Instant time = Instant.ofEpochSecond(1593365471);
+    loadTestData(time);
+
+    // The segment is entirely in the time range, so the hits are counted from the index
+    // statistics even though the search stops collecting after the first hit.
+    SearchResult<LogMessage> result =
+        strictLogStore.logSearcher.search(
+            TEST_DATASET_NAME,
+            "*:*",
+            time.toEpochMilli(),
+            time.plusSeconds(10).toEpochMilli(),
+            1,
+            null);
+    assertThat(result.hits).hasSize(1);
+    assertThat(result.totalHits).isEqualTo(4);
+    assertThat(result.totalHitsLowerBound).isFalse();
+
+    SearchResult<LogMessage> histogramResult =
+        strictLogStore.logSearcher.search(
+            TEST_DATASET_NAME,
+            "*:*",
+            time.toEpochMilli(),
+            time.plusSeconds(10).toEpochMilli(),
+            0,
+            new DateHistogramAggBuilder(
+                "1", LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName, "1s"));
+    assertThat(histogramResult.hits).isEmpty();
+    assertThat(histogramResult.totalHits).isEqualTo(4);
+    assertThat(histogramResult.totalHitsLowerBound).isFalse();
   }
 
   @Test
@@ -0,0 +1,82 @@
+package com.slack.kaldb.logstore.search;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.junit.jupiter.api.Test;
+
+public class LogQueryCachingPolicyTest {
+  private static void use(LogQueryCachingPolicy policy, Query query, int times) {
+    for (int i = 0; i < times; i++) {
+      policy.onUse(query);
+    }
+  }
+
+  @Test
+  public void testCachesTermQueries() {
+    LogQueryCachingPolicy policy = new LogQueryCachingPolicy();
+    Query query = new TermQuery(new Term("service_name", "api"));
+    use(policy, query, 2);
+    assertThat(policy.shouldCache(query)).isFalse();
+    use(policy, query, 1);
+    assertThat(policy.shouldCache(query)).isTrue();
+  }
+
+  @Test
+  public void testCachesCostlyQueriesSooner() {
+    LogQueryCachingPolicy policy = new LogQueryCachingPolicy();
+    Query wildcardQuery = new WildcardQuery(new Term("service_name", "api*"));
+    Query rangeQuery = LongPoint.newRangeQuery("duration", 10, 100);
+    use(policy, wildcardQuery, 1);
+    use(policy, rangeQuery, 1);
+    assertThat(policy.shouldCache(wildcardQuery)).isFalse();
+    assertThat(policy.shouldCache(rangeQuery)).isFalse();
+    use(policy, wildcardQuery, 1);
+    use(policy, rangeQuery, 1);
+    assertThat(policy.shouldCache(wildcardQuery)).isTrue();
+    assertThat(policy.shouldCache(rangeQuery)).isTrue();
+  }
+
+  @Test
+  public void testCachesOtherQueriesLater() {
+    LogQueryCachingPolicy policy = new LogQueryCachingPolicy();
+    Query query =
+        new BooleanQuery.Builder()
+            .add(new TermQuery(new Term("service_name", "api")), BooleanClause.Occur.FILTER)
+            .add(new TermQuery(new Term("level", "error")), BooleanClause.Occur.FILTER)
+            .build();
+    use(policy, query, 4);
+    assertThat(policy.shouldCache(query)).isFalse();
+    use(policy, query, 1);
+    assertThat(policy.shouldCache(query)).isTrue();
+  }
+
+  @Test
+  public void testNeverCachesMatchAllDocs() {
+    LogQueryCachingPolicy policy = new LogQueryCachingPolicy();
+    use(policy, new MatchAllDocsQuery(), 10);
+    assertThat(policy.shouldCache(new MatchAllDocsQuery())).isFalse();
+    assertThat(policy.frequency(new MatchAllDocsQuery())).isZero();
+  }
+
+  @Test
+  public void testForgetsQueriesThatAreNoLongerUsed() {
+    LogQueryCachingPolicy policy = new LogQueryCachingPolicy();
+    Query query = new TermQuery(new Term("service_name", "api"));
+    use(policy, query, 3);
+    assertThat(policy.shouldCache(query)).isTrue();
+
+    for (int i = 0; i < 256; i++) {
+      policy.onUse(new TermQuery(new Term("service_name", "service" + i)));
+    }
+    assertThat(policy.frequency(query)).isZero();
+    assertThat(policy.shouldCache(query)).isFalse();
+  }
+}
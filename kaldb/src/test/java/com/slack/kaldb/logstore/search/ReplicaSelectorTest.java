@@ -0,0 +1,68 @@
+package com.slack.kaldb.logstore.search;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class ReplicaSelectorTest {
+  private static final long LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  @Test
+  public void testSlowerNodesScoreHigher() {
+    ReplicaSelector replicaSelector = new ReplicaSelector();
+    replicaSelector.requestStarted("fast");
+    replicaSelector.requestCompleted("fast", LATENCY_NANOS, false);
+    replicaSelector.requestStarted("slow");
+    replicaSelector.requestCompleted("slow", 10 * LATENCY_NANOS, false);
+
+    assertThat(replicaSelector.getScore("fast", 0)).isLessThan(replicaSelector.getScore("slow", 0));
+    // Enough work queued on the fast node makes the slow node the better pick.
+    assertThat(replicaSelector.getScore("fast", 2))
+        .isGreaterThan(replicaSelector.getScore("slow", 0));
+  }
+
+  @Test
+  public void testOutstandingRequestsAddToTheQueue() {
+    ReplicaSelector replicaSelector = new ReplicaSelector();
+    replicaSelector.requestStarted("busy");
+    replicaSelector.requestCompleted("busy", LATENCY_NANOS, false);
+    replicaSelector.requestStarted("idle");
+    replicaSelector.requestCompleted("idle", LATENCY_NANOS, false);
+    assertThat(replicaSelector.getScore("busy", 0)).isEqualTo(replicaSelector.getScore("idle", 0));
+
+    replicaSelector.requestStarted("busy");
+    replicaSelector.requestStarted("busy");
+    assertThat(replicaSelector.getOutstandingRequests("busy")).isEqualTo(2);
+    assertThat(replicaSelector.getScore("busy", 0))
+        .isEqualTo(replicaSelector.getScore("idle", 2))
+        .isGreaterThan(replicaSelector.getScore("idle", 0));
+
+    replicaSelector.requestCompleted("busy", LATENCY_NANOS, false);
+    replicaSelector.requestCompleted("busy", LATENCY_NANOS, false);
+    assertThat(replicaSelector.getOutstandingRequests("busy")).isZero();
+    assertThat(replicaSelector.getScore("busy", 0)).isEqualTo(replicaSelector.getScore("idle", 0));
+  }
+
+  @Test
+  public void testFailedNodesScoreHigher() {
+    ReplicaSelector replicaSelector = new ReplicaSelector();
+    replicaSelector.requestStarted("healthy");
+    replicaSelector.requestCompleted("healthy", LATENCY_NANOS, false);
+    replicaSelector.requestStarted("failing");
+    replicaSelector.requestCompleted("failing", LATENCY_NANOS, true);
+
+    assertThat(replicaSelector.getScore("failing", 0))
+        .isGreaterThan(replicaSelector.getScore("healthy", 0));
+  }
+
+  @Test
+  public void testUnknownNodesAreTried() {
+    ReplicaSelector replicaSelector = new ReplicaSelector();
+    replicaSelector.requestStarted("known");
+    replicaSelector.requestCompleted("known", LATENCY_NANOS, false);
+
+    assertThat(replicaSelector.getScore("unknown", 0))
+        .isLessThan(replicaSelector.getScore("known", 0));
+  }
+}
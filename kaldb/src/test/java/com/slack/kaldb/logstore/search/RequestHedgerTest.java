@@ -0,0 +1,65 @@
+package com.slack.kaldb.logstore.search;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import org.junit.jupiter.api.Test;
+
+public class RequestHedgerTest {
+  @Test
+  public void testHedgeDelayIsTheLatencyPercentile() {
+    RequestHedger requestHedger = new RequestHedger(95, 5);
+    for (int i = 1; i < RequestHedger.MIN_LATENCY_SAMPLES; i++) {
+      requestHedger.requestCompleted(i);
+    }
+    // Requests are not hedged until enough latencies are known.
+    assertThat(requestHedger.getHedgeDelayNanos()).isEqualTo(-1);
+
+    for (int i = RequestHedger.MIN_LATENCY_SAMPLES; i <= 100; i++) {
+      requestHedger.requestCompleted(i);
+    }
+    assertThat(requestHedger.getHedgeDelayNanos()).isEqualTo(95);
+  }
+
+  @Test
+  public void testOnlyRecentLatenciesAreUsed() {
+    RequestHedger requestHedger = new RequestHedger(50, 5);
+    for (int i = 0; i < 1000; i++) {
+      requestHedger.requestCompleted(1000);
+    }
+    assertThat(requestHedger.getHedgeDelayNanos()).isEqualTo(1000);
+
+    for (int i = 0; i < 1000; i++) {
+      requestHedger.requestCompleted(10);
+    }
+    assertThat(requestHedger.getHedgeDelayNanos()).isEqualTo(10);
+  }
+
+  @Test
+  public void testHedgedRequestsAreLimitedByTheBudget() {
+    RequestHedger requestHedger = new RequestHedger(95, 10);
+    assertThat(requestHedger.tryAcquire(1)).isFalse();
+
+    // Every node request earns a tenth of a hedged request.
+    for (int i = 0; i < 10; i++) {
+      requestHedger.requestStarted();
+    }
+    assertThat(requestHedger.tryAcquire(2)).isFalse();
+    assertThat(requestHedger.tryAcquire(1)).isTrue();
+    assertThat(requestHedger.tryAcquire(1)).isFalse();
+
+    // The saved up budget is capped, so a burst of slow nodes can't hedge every request.
+    for (int i = 0; i < 1000; i++) {
+      requestHedger.requestStarted();
+    }
+    assertThat(requestHedger.tryAcquire(10)).isTrue();
+    assertThat(requestHedger.tryAcquire(1)).isFalse();
+  }
+
+  @Test
+  public void testInvalidConfig() {
+    assertThatIllegalArgumentException().isThrownBy(() -> new RequestHedger(0, 5));
+    assertThatIllegalArgumentException().isThrownBy(() -> new RequestHedger(100, 5));
+    assertThatIllegalArgumentException().isThrownBy(() -> new RequestHedger(95, -1));
+  }
+}
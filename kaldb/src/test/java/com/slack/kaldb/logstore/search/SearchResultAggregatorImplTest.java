@@ -23,6 +23,7 @@ import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -38,6 +39,91 @@ public class SearchResultAggregatorImplTest {
     Tracing.newBuilder().build();
   }
 
+  @Test
+  public void testMergeHitsOfSortedSearchResults() {
+    Instant startTime = LocalDateTime.of(2020, 1, 1, 1, 0, 0).atZone(ZoneOffset.UTC).toInstant();
+    List<SearchResult<LogMessage>> searchResults = new ArrayList<>();
+    List<LogMessage> allHits = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      // Every search result has interleaved timestamps, some of which are the same.
+      List<LogMessage> hits =
+          MessageUtil.makeMessagesWithTimeDifference(
+              i * 10 + 1, i * 10 + 10, 1000 * 5, startTime.plusSeconds(i * 2));
+      Collections.reverse(hits);
+      searchResults.add(new SearchResult<>(hits, 0, 0, 1, 1, 0, null));
+      allHits.addAll(hits);
+    }
+    searchResults.add(new SearchResult<>(Collections.emptyList(), 0, 0, 1, 1, 0, null));
+
+    List<LogMessage> expectedHits =
+        allHits.stream()
+            .sorted(
+                Comparator.comparing(
+                    (LogMessage m) -> m.getTimestamp().toEpochMilli(), Comparator.reverseOrder()))
+            .collect(Collectors.toList());
+    assertThat(SearchResultAggregatorImpl.mergeHits(searchResults, 17, SearchQuery.SortOrder.DESC))
+        .containsExactlyElementsOf(expectedHits.subList(0, 17));
+    assertThat(SearchResultAggregatorImpl.mergeHits(searchResults, 100, SearchQuery.SortOrder.DESC))
+        .containsExactlyElementsOf(expectedHits);
+    assertThat(SearchResultAggregatorImpl.mergeHits(searchResults, 0, SearchQuery.SortOrder.DESC))
+        .isEmpty();
+  }
+
+  @Test
+  public void testMergeHitsInAscendingOrder() {
+    Instant startTime = LocalDateTime.of(2020, 1, 1, 1, 0, 0).atZone(ZoneOffset.UTC).toInstant();
+    List<SearchResult<LogMessage>> searchResults = new ArrayList<>();
+    List<LogMessage> allHits = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      List<LogMessage> hits =
+          MessageUtil.makeMessagesWithTimeDifference(
+              i * 10 + 1, i * 10 + 10, 1000 * 5, startTime.plusSeconds(i * 2));
+      searchResults.add(new SearchResult<>(hits, 0, 0, 1, 1, 0, null));
+      allHits.addAll(hits);
+    }
+
+    List<LogMessage> expectedHits =
+        allHits.stream()
+            .sorted(Comparator.comparing((LogMessage m) -> m.getTimestamp().toEpochMilli()))
+            .collect(Collectors.toList());
+    assertThat(SearchResultAggregatorImpl.mergeHits(searchResults, 17, SearchQuery.SortOrder.ASC))
+        .containsExactlyElementsOf(expectedHits.subList(0, 17));
+    assertThat(SearchResultAggregatorImpl.mergeHits(searchResults, 100, SearchQuery.SortOrder.ASC))
+        .containsExactlyElementsOf(expectedHits);
+  }
+
+  @Test
+  public void testTotalHitsAreSummed() {
+    Instant startTime = LocalDateTime.of(2020, 1, 1, 1, 0, 0).atZone(ZoneOffset.UTC).toInstant();
+    List<LogMessage> hits = MessageUtil.makeMessagesWithTimeDifference(1, 5, 1000, startTime);
+    SearchResult<LogMessage> exactResult =
+        new SearchResult<>(hits, 0, 0, 1, 1, 1, 0, 20, false, null);
+    SearchResult<LogMessage> lowerBoundResult =
+        new SearchResult<>(hits, 0, 0, 1, 1, 1, 0, 30, true, null);
+    SearchQuery searchQuery =
+        new SearchQuery(
+            "testDataSet",
+            "*:*",
+            startTime.toEpochMilli(),
+            startTime.plusSeconds(10).toEpochMilli(),
+            3,
+            null,
+            Collections.emptyList());
+
+    SearchResult<LogMessage> exactAggregation =
+        new SearchResultAggregatorImpl<>(searchQuery)
+            .aggregate(List.of(exactResult, exactResult), true);
+    assertThat(exactAggregation.hits).hasSize(3);
+    assertThat(exactAggregation.totalHits).isEqualTo(40);
+    assertThat(exactAggregation.totalHitsLowerBound).isFalse();
+
+    SearchResult<LogMessage> lowerBoundAggregation =
+        new SearchResultAggregatorImpl<>(searchQuery)
+            .aggregate(List.of(exactResult, lowerBoundResult), true);
+    assertThat(lowerBoundAggregation.totalHits).isEqualTo(50);
+    assertThat(lowerBoundAggregation.totalHitsLowerBound).isTrue();
+  }
+
   @Test
   public void testSimpleSearchResultsAggWithOneResult() throws IOException {
     long tookMs = 10;
@@ -4,6 +4,7 @@ import static com.slack.kaldb.logstore.search.SearchResultUtils.fromValueProto;
 import static com.slack.kaldb.logstore.search.SearchResultUtils.toValueProto;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import brave.Tracing;
 import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.logstore.search.aggregations.AvgAggBuilder;
 import com.slack.kaldb.logstore.search.aggregations.CumulativeSumAggBuilder;
@@ -22,13 +23,22 @@ import com.slack.kaldb.logstore.search.aggregations.TermsAggBuilder;
 import com.slack.kaldb.logstore.search.aggregations.UniqueCountAggBuilder;
 import com.slack.kaldb.metadata.schema.FieldType;
 import com.slack.kaldb.proto.service.KaldbSearch;
+import com.slack.kaldb.testlib.SpanUtil;
+import com.slack.kaldb.writer.SpanFormatter;
+import com.slack.kaldb.writer.SpanLogMessage;
+import java.io.IOException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 public class SearchResultUtilsTest {
+  @BeforeEach
+  public void setUp() {
+    Tracing.newBuilder().build();
+  }
 
   @Test
   public void shouldConvertMinAggToFromProto() {
@@ -448,4 +458,58 @@ public class SearchResultUtilsTest {
     assertThat(filterAggregation.getFiltersMap().get("foo").getQueryString()).isEqualTo("*:*");
     assertThat(filterAggregation.getFiltersMap().get("foo").getAnalyzeWildcard()).isEqualTo(true);
   }
+
+  @Test
+  public void shouldSendSpanHitsAsBinarySources() throws IOException {
+    long timestampMicros = Instant.now().toEpochMilli() * 1000;
+    LogMessage spanHit =
+        SpanFormatter.toSpanLogMessage(
+            SpanUtil.makeSpan(
+                "traceId", "1", "0", timestampMicros, 5000, "testName", "test-service", "type"));
+    LogMessage jsonHit =
+        SpanFormatter.toLogMessage(
+            SpanUtil.makeSpan(
+                "traceId", "2", "0", timestampMicros, 5000, "testName", "test-service", "type"));
+    SearchResult<LogMessage> searchResult =
+        new SearchResult<>(List.of(spanHit, jsonHit), 1, 0, 1, 1, 0, null);
+
+    KaldbSearch.SearchResult protoSearchResult =
+        SearchResultUtils.toSearchResultProto(searchResult);
+    assertThat(protoSearchResult.getHitsCount()).isZero();
+    assertThat(protoSearchResult.getSearchHitsList())
+        .extracting(KaldbSearch.SearchHit::hasSpan)
+        .containsExactly(true, false);
+
+    List<LogMessage> hits = SearchResultUtils.fromSearchResultProto(protoSearchResult).hits;
+    assertThat(hits).extracting(LogMessage::getId).containsExactly("1", "2");
+    assertThat(hits.get(0)).isInstanceOf(SpanLogMessage.class);
+    assertThat(hits.get(0).getTimestamp()).isEqualTo(spanHit.getTimestamp());
+    assertThat(hits.get(0).getSource()).isEqualTo(spanHit.getSource());
+    assertThat(hits.get(1).getIndex()).isEqualTo(jsonHit.getIndex());
+  }
+
+  @Test
+  public void shouldSendJsonHitsAsJson() throws IOException {
+    LogMessage jsonHit =
+        SpanFormatter.toLogMessage(
+            SpanUtil.makeSpan(
+                "traceId",
+                "1",
+                "0",
+                Instant.now().toEpochMilli() * 1000,
+                5000,
+                "testName",
+                "test-service",
+                "type"));
+    SearchResult<LogMessage> searchResult =
+        new SearchResult<>(List.of(jsonHit), 1, 0, 1, 1, 0, null);
+
+    KaldbSearch.SearchResult protoSearchResult =
+        SearchResultUtils.toSearchResultProto(searchResult);
+    assertThat(protoSearchResult.getHitsCount()).isEqualTo(1);
+    assertThat(protoSearchResult.getSearchHitsCount()).isZero();
+    assertThat(SearchResultUtils.fromSearchResultProto(protoSearchResult).hits)
+        .extracting(LogMessage::getId)
+        .containsExactly("1");
+  }
 }
@@ -0,0 +1,103 @@
+package com.slack.kaldb.logstore.search;
+
+import static com.slack.kaldb.logstore.search.SegmentSearchExecutor.CONCURRENT_SEGMENT_SEARCHES;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.slack.kaldb.proto.config.KaldbConfigs;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SegmentSearchExecutorTest {
+  private static final KaldbConfigs.SegmentSearchConfig SEGMENT_SEARCH_CONFIG =
+      KaldbConfigs.SegmentSearchConfig.newBuilder()
+          .setThreadCount(2)
+          .setMaxDocsPerSlice(1)
+          .setMaxSegmentsPerSlice(2)
+          .build();
+
+  private MeterRegistry meterRegistry;
+  private Directory directory;
+  private DirectoryReader indexReader;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    meterRegistry = new SimpleMeterRegistry();
+    directory = new ByteBuffersDirectory();
+    try (IndexWriter indexWriter =
+        new IndexWriter(
+            directory, new IndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+      for (int i = 0; i < 6; i++) {
+        Document document = new Document();
+        document.add(new StringField("id", String.valueOf(i), Field.Store.NO));
+        indexWriter.addDocument(document);
+        indexWriter.commit();
+      }
+    }
+    indexReader = DirectoryReader.open(directory);
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    SegmentSearchExecutor.init(
+        KaldbConfigs.SegmentSearchConfig.getDefaultInstance(), meterRegistry);
+    indexReader.close();
+    directory.close();
+    meterRegistry.close();
+  }
+
+  @Test
+  public void testSearchesTheSegmentsConcurrently() throws IOException {
+    SegmentSearchExecutor.init(SEGMENT_SEARCH_CONFIG, 4, meterRegistry);
+    IndexSearcher searcher = new IndexSearcher(indexReader);
+
+    IndexSearcher concurrentSearcher = SegmentSearchExecutor.getSearcher(searcher);
+    assertThat(concurrentSearcher).isNotSameAs(searcher);
+    assertThat(concurrentSearcher.getExecutor()).isNotNull();
+    assertThat(concurrentSearcher.getSlices()).hasSize(3);
+    assertThat(concurrentSearcher.getIndexReader()).isSameAs(indexReader);
+    assertThat(concurrentSearcher.count(new MatchAllDocsQuery())).isEqualTo(6);
+    assertThat(meterRegistry.counter(CONCURRENT_SEGMENT_SEARCHES).count()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSearchesTheSegmentsSeriallyWhenTheNodeIsBusy() {
+    SegmentSearchExecutor.init(SEGMENT_SEARCH_CONFIG, 4, meterRegistry);
+    IndexSearcher searcher = new IndexSearcher(indexReader);
+
+    int pendingChunkQueries = SegmentSearchExecutor.getPendingChunkQueries();
+    SegmentSearchExecutor.chunkQueriesSubmitted(4);
+    try {
+      assertThat(SegmentSearchExecutor.getSearcher(searcher)).isSameAs(searcher);
+    } finally {
+      for (int i = 0; i < 4; i++) {
+        SegmentSearchExecutor.chunkQueryCompleted();
+      }
+    }
+    assertThat(SegmentSearchExecutor.getPendingChunkQueries()).isEqualTo(pendingChunkQueries);
+    assertThat(SegmentSearchExecutor.getSearcher(searcher)).isNotSameAs(searcher);
+  }
+
+  @Test
+  public void testSearchesTheSegmentsSeriallyByDefault() {
+    SegmentSearchExecutor.init(
+        KaldbConfigs.SegmentSearchConfig.getDefaultInstance(), meterRegistry);
+    IndexSearcher searcher = new IndexSearcher(indexReader);
+
+    assertThat(SegmentSearchExecutor.getSearcher(searcher)).isSameAs(searcher);
+  }
+}
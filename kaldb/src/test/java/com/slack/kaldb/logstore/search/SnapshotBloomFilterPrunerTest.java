@@ -0,0 +1,127 @@
+package com.slack.kaldb.logstore.search;
+
+import static com.slack.kaldb.chunk.ReadWriteChunk.LIVE_SNAPSHOT_PREFIX;
+import static com.slack.kaldb.logstore.search.SnapshotBloomFilterPruner.SNAPSHOTS_PRUNED_BY_BLOOM_FILTERS;
+import static com.slack.kaldb.proto.metadata.Metadata.IndexType.LOGS_LUCENE9;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import com.slack.kaldb.blobfs.LocalBlobFs;
+import com.slack.kaldb.metadata.snapshot.SnapshotMetadata;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SnapshotBloomFilterPrunerTest {
+  @TempDir private Path tempFolder;
+
+  private SimpleMeterRegistry meterRegistry;
+  private SnapshotBloomFilterPruner pruner;
+
+  @BeforeEach
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    pruner = new SnapshotBloomFilterPruner(new LocalBlobFs(), 1024 * 1024, meterRegistry);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    pruner.close();
+  }
+
+  private SnapshotMetadata makeSnapshot(String snapshotId, String... traceIds) throws IOException {
+    File snapshotDir = Files.createDirectory(tempFolder.resolve(snapshotId)).toFile();
+    if (traceIds.length > 0) {
+      try (Directory directory = new ByteBuffersDirectory();
+          IndexWriter indexWriter = new IndexWriter(directory, new IndexWriterConfig())) {
+        for (String traceId : traceIds) {
+          Document document = new Document();
+          document.add(new StringField("trace_id", traceId, Field.Store.NO));
+          indexWriter.addDocument(document);
+        }
+        indexWriter.commit();
+        try (DirectoryReader indexReader = DirectoryReader.open(directory);
+            OutputStream outputStream =
+                new FileOutputStream(new File(snapshotDir, TermBloomFilters.FILE_NAME))) {
+          TermBloomFilters.build(
+                  indexReader,
+                  List.of("trace_id"),
+                  TermBloomFilters.DEFAULT_FALSE_POSITIVE_PROBABILITY)
+              .writeTo(outputStream);
+        }
+      }
+    }
+    return new SnapshotMetadata(
+        snapshotId, snapshotDir.toURI().toString(), 1, 100, 0, "1", LOGS_LUCENE9);
+  }
+
+  private static SnapshotMetadata makeLiveSnapshot(String snapshotId) {
+    return new SnapshotMetadata(
+        LIVE_SNAPSHOT_PREFIX + snapshotId,
+        SnapshotMetadata.LIVE_SNAPSHOT_PATH,
+        1,
+        100,
+        1,
+        "1",
+        LOGS_LUCENE9);
+  }
+
+  @Test
+  public void testPrunesSnapshotsOnceTheBloomFiltersAreLoaded() throws IOException {
+    SnapshotMetadata snapshot1 = makeSnapshot("snapshot1", "trace1", "trace2");
+    SnapshotMetadata snapshot2 = makeSnapshot("snapshot2", "trace3");
+    SnapshotMetadata snapshot3 = makeSnapshot("snapshot3");
+    SnapshotMetadata liveSnapshot2 = makeLiveSnapshot("snapshot2");
+    SnapshotMetadata liveSnapshot4 = makeLiveSnapshot("snapshot4");
+    Map<String, SnapshotMetadata> snapshots =
+        Map.of(
+            snapshot1.name,
+            snapshot1,
+            snapshot2.name,
+            snapshot2,
+            snapshot3.name,
+            snapshot3,
+            liveSnapshot2.name,
+            liveSnapshot2,
+            liveSnapshot4.name,
+            liveSnapshot4);
+
+    // The bloom filters are not loaded yet, so every snapshot is searched.
+    assertThat(pruner.prune(snapshots, "trace_id:trace1")).isEqualTo(snapshots);
+    await()
+        .until(
+            () ->
+                pruner.isLoaded("snapshot1")
+                    && pruner.isLoaded("snapshot2")
+                    && pruner.isLoaded("snapshot3"));
+
+    // Snapshot 3 has no bloom filters, and a live snapshot is only skipped with its snapshot.
+    assertThat(pruner.prune(snapshots, "trace_id:trace1").keySet())
+        .containsExactlyInAnyOrder(snapshot1.name, snapshot3.name, liveSnapshot4.name);
+    assertThat(meterRegistry.counter(SNAPSHOTS_PRUNED_BY_BLOOM_FILTERS).count()).isEqualTo(1);
+
+    assertThat(pruner.prune(snapshots, "trace_id:trace3").keySet())
+        .containsExactlyInAnyOrder(
+            snapshot2.name, snapshot3.name, liveSnapshot2.name, liveSnapshot4.name);
+    assertThat(pruner.prune(snapshots, "*:*")).isEqualTo(snapshots);
+    assertThat(pruner.prune(snapshots, "service_name:foo")).isEqualTo(snapshots);
+  }
+}
@@ -0,0 +1,345 @@
+package com.slack.kaldb.logstore.search;
+
+import static com.slack.kaldb.chunk.ChunkInfo.containsDataInTimeRange;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import brave.Tracing;
+import com.slack.kaldb.metadata.core.KaldbMetadataStoreChangeListener;
+import com.slack.kaldb.metadata.dataset.DatasetMetadata;
+import com.slack.kaldb.metadata.dataset.DatasetMetadataStore;
+import com.slack.kaldb.metadata.dataset.DatasetPartitionMetadata;
+import com.slack.kaldb.metadata.search.SearchMetadata;
+import com.slack.kaldb.metadata.search.SearchMetadataStore;
+import com.slack.kaldb.metadata.snapshot.SnapshotMetadata;
+import com.slack.kaldb.metadata.snapshot.SnapshotMetadataStore;
+import com.slack.kaldb.proto.metadata.Metadata;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+public class SnapshotIndexTest {
+  private SnapshotMetadataStore snapshotMetadataStore;
+  private SearchMetadataStore searchMetadataStore;
+  private DatasetMetadataStore datasetMetadataStore;
+
+  @BeforeEach
+  public void setUp() {
+    Tracing.newBuilder().build();
+    snapshotMetadataStore = mock(SnapshotMetadataStore.class);
+    searchMetadataStore = mock(SearchMetadataStore.class);
+    datasetMetadataStore = mock(DatasetMetadataStore.class);
+  }
+
+  private static SnapshotMetadata makeSnapshot(
+      String name, long startTimeEpochMs, long endTimeEpochMs, String partitionId) {
+    return new SnapshotMetadata(
+        name,
+        "/" + name,
+        startTimeEpochMs,
+        endTimeEpochMs,
+        10,
+        partitionId,
+        Metadata.IndexType.LOGS_LUCENE9);
+  }
+
+  /** Returns the snapshots of the query by filtering every snapshot of the store. */
+  private static Map<String, SnapshotMetadata> getMatchingSnapshotsLinearly(
+      SnapshotMetadataStore snapshotMetadataStore,
+      DatasetMetadataStore datasetMetadataStore,
+      long queryStartTimeEpochMs,
+      long queryEndTimeEpochMs,
+      String dataset) {
+    List<DatasetPartitionMetadata> partitions =
+        DatasetPartitionMetadata.findPartitionsToQuery(
+            datasetMetadataStore, queryStartTimeEpochMs, queryEndTimeEpochMs, dataset);
+    Map<String, SnapshotMetadata> snapshotsToSearch = new HashMap<>();
+    for (SnapshotMetadata snapshotMetadata : snapshotMetadataStore.listSync()) {
+      if (containsDataInTimeRange(
+              snapshotMetadata.startTimeEpochMs,
+              snapshotMetadata.endTimeEpochMs,
+              queryStartTimeEpochMs,
+              queryEndTimeEpochMs)
+          && isSnapshotInPartition(snapshotMetadata, partitions)) {
+        snapshotsToSearch.put(snapshotMetadata.name, snapshotMetadata);
+      }
+    }
+    return snapshotsToSearch;
+  }
+
+  private static boolean isSnapshotInPartition(
+      SnapshotMetadata snapshotMetadata, List<DatasetPartitionMetadata> partitions) {
+    for (DatasetPartitionMetadata partition : partitions) {
+      if (partition.partitions.contains(snapshotMetadata.partitionId)
+          && containsDataInTimeRange(
+              partition.startTimeEpochMs,
+              partition.endTimeEpochMs,
+              snapshotMetadata.startTimeEpochMs,
+              snapshotMetadata.endTimeEpochMs)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the search metadata of the snapshots by filtering every search metadata. */
+  private static Map<String, List<SearchMetadata>> getMatchingSearchMetadataLinearly(
+      SearchMetadataStore searchMetadataStore, Map<String, SnapshotMetadata> snapshotsToSearch) {
+    Map<String, List<SearchMetadata>> searchMetadataGroupedByName = new HashMap<>();
+    for (SearchMetadata searchMetadata : searchMetadataStore.listSync()) {
+      if (snapshotsToSearch.containsKey(searchMetadata.snapshotName)) {
+        searchMetadataGroupedByName
+            .computeIfAbsent(
+                SnapshotIndex.getRawSnapshotName(searchMetadata), (k) -> new ArrayList<>())
+            .add(searchMetadata);
+      }
+    }
+    return searchMetadataGroupedByName;
+  }
+
+  @Test
+  public void testMatchesLinearFiltering() {
+    Random random = new Random(42);
+    List<SnapshotMetadata> snapshots = new ArrayList<>();
+    List<SearchMetadata> searchMetadata = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      long startTime = 1L + random.nextInt(100_000);
+      long endTime = startTime + random.nextInt(5_000);
+      String name = (i % 10 == 0 ? "LIVE_" : "") + "snapshot" + i;
+      snapshots.add(makeSnapshot(name, startTime, endTime, String.valueOf(random.nextInt(8))));
+      searchMetadata.add(new SearchMetadata("search" + i, name, "node" + random.nextInt(20)));
+      if (i % 3 == 0) {
+        searchMetadata.add(new SearchMetadata("replica" + i, name, "node" + random.nextInt(20)));
+      }
+    }
+    when(snapshotMetadataStore.listSync()).thenReturn(snapshots);
+    when(searchMetadataStore.listSync()).thenReturn(searchMetadata);
+    when(datasetMetadataStore.listSync())
+        .thenReturn(
+            List.of(
+                new DatasetMetadata(
+                    "foo",
+                    "foo",
+                    10,
+                    List.of(
+                        new DatasetPartitionMetadata(1, 50_000, List.of("0", "1", "2")),
+                        new DatasetPartitionMetadata(50_001, Long.MAX_VALUE, List.of("2", "3"))),
+                    ""),
+                new DatasetMetadata(
+                    "bar",
+                    "bar",
+                    10,
+                    List.of(new DatasetPartitionMetadata(1, Long.MAX_VALUE, List.of("4", "5"))),
+                    "")));
+
+    SnapshotIndex snapshotIndex =
+        new SnapshotIndex(snapshotMetadataStore, searchMetadataStore, datasetMetadataStore);
+    for (int i = 0; i < 200; i++) {
+      long startTime = 1L + random.nextInt(110_000);
+      long endTime = startTime + random.nextInt(20_000);
+      for (String dataset : List.of("foo", "bar", "*", "unknown")) {
+        Map<String, SnapshotMetadata> expectedSnapshots =
+            getMatchingSnapshotsLinearly(
+                snapshotMetadataStore, datasetMetadataStore, startTime, endTime, dataset);
+        Map<String, SnapshotMetadata> matchingSnapshots =
+            snapshotIndex.getMatchingSnapshots(startTime, endTime, dataset);
+        assertThat(matchingSnapshots).isEqualTo(expectedSnapshots);
+
+        Map<String, List<SearchMetadata>> expectedSearchMetadata =
+            getMatchingSearchMetadataLinearly(searchMetadataStore, expectedSnapshots);
+        Map<String, List<SearchMetadata>> matchingSearchMetadata =
+            snapshotIndex.getMatchingSearchMetadata(matchingSnapshots);
+        assertThat(matchingSearchMetadata.keySet()).isEqualTo(expectedSearchMetadata.keySet());
+        matchingSearchMetadata.forEach(
+            (snapshotName, searchMetadataList) ->
+                assertThat(searchMetadataList)
+                    .containsExactlyInAnyOrderElementsOf(expectedSearchMetadata.get(snapshotName)));
+      }
+    }
+
+    // The stores are only listed once, while they don't change.
+    verify(snapshotMetadataStore, times(1 + 800)).listSync();
+    snapshotIndex.close();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testMatchesLinearFilteringAfterChanges() {
+    Random random = new Random(42);
+    // The index reads the stores on its own thread.
+    Map<String, SnapshotMetadata> snapshots = new ConcurrentHashMap<>();
+    Map<String, SearchMetadata> searchMetadata = new ConcurrentHashMap<>();
+    when(snapshotMetadataStore.listSync())
+        .thenAnswer((invocation) -> new ArrayList<>(snapshots.values()));
+    when(snapshotMetadataStore.hasSync(any(), any()))
+        .thenAnswer((invocation) -> snapshots.containsKey(invocation.<String>getArgument(1)));
+    when(searchMetadataStore.listSync())
+        .thenAnswer((invocation) -> new ArrayList<>(searchMetadata.values()));
+    when(searchMetadataStore.hasSync(any()))
+        .thenAnswer((invocation) -> searchMetadata.containsKey(invocation.<String>getArgument(0)));
+    when(datasetMetadataStore.listSync())
+        .thenReturn(
+            List.of(
+                new DatasetMetadata(
+                    "foo",
+                    "foo",
+                    10,
+                    List.of(new DatasetPartitionMetadata(1, Long.MAX_VALUE, List.of("0", "1"))),
+                    "")));
+    ArgumentCaptor<KaldbMetadataStoreChangeListener<SnapshotMetadata>> snapshotListener =
+        ArgumentCaptor.forClass(KaldbMetadataStoreChangeListener.class);
+    ArgumentCaptor<KaldbMetadataStoreChangeListener<SearchMetadata>> searchMetadataListener =
+        ArgumentCaptor.forClass(KaldbMetadataStoreChangeListener.class);
+
+    SnapshotIndex snapshotIndex =
+        new SnapshotIndex(snapshotMetadataStore, searchMetadataStore, datasetMetadataStore);
+    verify(snapshotMetadataStore).addListener(snapshotListener.capture());
+    verify(searchMetadataStore).addListener(searchMetadataListener.capture());
+
+    // Create, update and delete snapshots and search metadata, which the index learns about from
+    // the listeners only.
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      int change = random.nextInt(3);
+      if (change == 0 || names.isEmpty()) {
+        String name = (i % 10 == 0 ? "LIVE_" : "") + "snapshot" + i;
+        long startTime = 1L + random.nextInt(100_000);
+        SnapshotMetadata snapshot =
+            makeSnapshot(
+                name,
+                startTime,
+                startTime + random.nextInt(5_000),
+                String.valueOf(random.nextInt(2)));
+        SearchMetadata search = new SearchMetadata("search" + i, name, "node" + i);
+        names.add(name);
+        snapshots.put(name, snapshot);
+        searchMetadata.put(search.name, search);
+        snapshotListener.getValue().onMetadataStoreChanged(snapshot);
+        searchMetadataListener.getValue().onMetadataStoreChanged(search);
+      } else if (change == 1) {
+        // A live snapshot that was extended.
+        SnapshotMetadata snapshot = snapshots.get(names.get(random.nextInt(names.size())));
+        SnapshotMetadata updatedSnapshot =
+            makeSnapshot(
+                snapshot.name,
+                snapshot.startTimeEpochMs,
+                snapshot.endTimeEpochMs + random.nextInt(5_000),
+                snapshot.partitionId);
+        snapshots.put(snapshot.name, updatedSnapshot);
+        snapshotListener.getValue().onMetadataStoreChanged(updatedSnapshot);
+      } else {
+        SnapshotMetadata snapshot = snapshots.remove(names.remove(random.nextInt(names.size())));
+        snapshotListener.getValue().onMetadataStoreChanged(snapshot);
+        for (SearchMetadata search : List.copyOf(searchMetadata.values())) {
+          if (search.snapshotName.equals(snapshot.name)) {
+            searchMetadata.remove(search.name);
+            searchMetadataListener.getValue().onMetadataStoreChanged(search);
+          }
+        }
+      }
+    }
+
+    await()
+        .untilAsserted(
+            () ->
+                assertThat(snapshotIndex.getMatchingSnapshots(1, Long.MAX_VALUE, "foo"))
+                    .isEqualTo(snapshots));
+    for (int i = 0; i < 200; i++) {
+      long startTime = 1L + random.nextInt(110_000);
+      long endTime = startTime + random.nextInt(20_000);
+      Map<String, SnapshotMetadata> expectedSnapshots =
+          getMatchingSnapshotsLinearly(
+              snapshotMetadataStore, datasetMetadataStore, startTime, endTime, "foo");
+      Map<String, SnapshotMetadata> matchingSnapshots =
+          snapshotIndex.getMatchingSnapshots(startTime, endTime, "foo");
+      assertThat(matchingSnapshots).isEqualTo(expectedSnapshots);
+      assertThat(snapshotIndex.getMatchingSearchMetadata(matchingSnapshots))
+          .isEqualTo(getMatchingSearchMetadataLinearly(searchMetadataStore, expectedSnapshots));
+    }
+    snapshotIndex.close();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testIndexIsUpdatedWhenTheStoresChange() {
+    ArgumentCaptor<KaldbMetadataStoreChangeListener<SnapshotMetadata>> snapshotListener =
+        ArgumentCaptor.forClass(KaldbMetadataStoreChangeListener.class);
+    ArgumentCaptor<KaldbMetadataStoreChangeListener<SearchMetadata>> searchMetadataListener =
+        ArgumentCaptor.forClass(KaldbMetadataStoreChangeListener.class);
+    SnapshotMetadata snapshot1 = makeSnapshot("snapshot1", 100, 200, "1");
+    SnapshotMetadata snapshot2 = makeSnapshot("snapshot2", 150, 250, "1");
+    SearchMetadata searchMetadata1 = new SearchMetadata("search1", "snapshot1", "node1");
+    SearchMetadata searchMetadata2 = new SearchMetadata("search2", "snapshot2", "node2");
+    when(snapshotMetadataStore.listSync()).thenReturn(List.of(snapshot1));
+    when(searchMetadataStore.listSync()).thenReturn(List.of(searchMetadata1));
+    when(datasetMetadataStore.listSync())
+        .thenReturn(
+            List.of(
+                new DatasetMetadata(
+                    "foo",
+                    "foo",
+                    10,
+                    List.of(new DatasetPartitionMetadata(1, Long.MAX_VALUE, List.of("1"))),
+                    "")));
+
+    SnapshotIndex snapshotIndex =
+        new SnapshotIndex(snapshotMetadataStore, searchMetadataStore, datasetMetadataStore);
+    verify(snapshotMetadataStore).addListener(snapshotListener.capture());
+    verify(searchMetadataStore).addListener(searchMetadataListener.capture());
+    verify(datasetMetadataStore).addListener(any());
+
+    Map<String, SnapshotMetadata> matchingSnapshots =
+        snapshotIndex.getMatchingSnapshots(1, 1000, "foo");
+    assertThat(matchingSnapshots).containsOnlyKeys("snapshot1");
+    assertThat(snapshotIndex.getMatchingSearchMetadata(matchingSnapshots))
+        .isEqualTo(Map.of("snapshot1", List.of(searchMetadata1)));
+
+    // A new snapshot that isn't searchable yet.
+    when(snapshotMetadataStore.hasSync(snapshot2.getPartition(), "snapshot2")).thenReturn(true);
+    snapshotListener.getValue().onMetadataStoreChanged(snapshot2);
+    await()
+        .untilAsserted(
+            () ->
+                assertThat(snapshotIndex.getMatchingSnapshots(1, 1000, "foo"))
+                    .containsOnlyKeys("snapshot1", "snapshot2"));
+    assertThat(
+            snapshotIndex.getMatchingSearchMetadata(
+                snapshotIndex.getMatchingSnapshots(1, 1000, "foo")))
+        .isEqualTo(Map.of("snapshot1", List.of(searchMetadata1)));
+
+    // The snapshot is loaded by a node, and the first snapshot is deleted. The deleted nodes
+    // aren't in the store caches anymore.
+    when(searchMetadataStore.hasSync("search2")).thenReturn(true);
+    snapshotListener.getValue().onMetadataStoreChanged(snapshot1);
+    searchMetadataListener.getValue().onMetadataStoreChanged(searchMetadata1);
+    searchMetadataListener.getValue().onMetadataStoreChanged(searchMetadata2);
+    await()
+        .untilAsserted(
+            () -> {
+              Map<String, SnapshotMetadata> snapshots =
+                  snapshotIndex.getMatchingSnapshots(1, 1000, "foo");
+              assertThat(snapshots).containsOnlyKeys("snapshot2");
+              assertThat(snapshotIndex.getMatchingSearchMetadata(snapshots))
+                  .isEqualTo(Map.of("snapshot2", List.of(searchMetadata2)));
+            });
+
+    // The changes are applied to the index, instead of listing the stores again.
+    verify(snapshotMetadataStore, times(1)).listSync();
+    verify(searchMetadataStore, times(1)).listSync();
+
+    snapshotIndex.close();
+    verify(snapshotMetadataStore).removeListener(snapshotListener.getValue());
+    verify(searchMetadataStore).removeListener(searchMetadataListener.getValue());
+  }
+}
@@ -0,0 +1,108 @@
+package com.slack.kaldb.logstore.search;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TermBloomFiltersTest {
+  private TermBloomFilters termBloomFilters;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    try (Directory directory = new ByteBuffersDirectory();
+        IndexWriter indexWriter = new IndexWriter(directory, new IndexWriterConfig())) {
+      for (int i = 0; i < 100; i++) {
+        Document document = new Document();
+        document.add(new StringField("trace_id", "trace" + i, Field.Store.NO));
+        document.add(new StringField("service_name", "service" + (i % 10), Field.Store.NO));
+        indexWriter.addDocument(document);
+        // Spread the terms over a few segments.
+        if (i % 30 == 0) {
+          indexWriter.commit();
+        }
+      }
+      indexWriter.commit();
+
+      try (DirectoryReader indexReader = DirectoryReader.open(directory)) {
+        assertThat(indexReader.leaves()).hasSizeGreaterThan(1);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        TermBloomFilters.build(
+                indexReader,
+                List.of("trace_id"),
+                TermBloomFilters.DEFAULT_FALSE_POSITIVE_PROBABILITY)
+            .writeTo(outputStream);
+        termBloomFilters =
+            TermBloomFilters.readFrom(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertThat(termBloomFilters.getSizeBytes()).isEqualTo(outputStream.size());
+      }
+    }
+  }
+
+  private boolean mightMatch(String queryStr) {
+    return termBloomFilters.mightMatch(TermBloomFilters.parseQuery(queryStr));
+  }
+
+  @Test
+  public void testMightContain() {
+    for (int i = 0; i < 100; i++) {
+      assertThat(termBloomFilters.mightContain(new Term("trace_id", "trace" + i))).isTrue();
+    }
+    assertThat(termBloomFilters.mightContain(new Term("trace_id", "trace1000"))).isFalse();
+    // Fields without a bloom filter might contain any term.
+    assertThat(termBloomFilters.mightContain(new Term("service_name", "unknown"))).isTrue();
+  }
+
+  @Test
+  public void testMightMatch() {
+    assertThat(mightMatch("trace_id:trace5")).isTrue();
+    assertThat(mightMatch("trace_id:trace1000")).isFalse();
+
+    // Every required term has to be in the index.
+    assertThat(mightMatch("trace_id:trace5 AND service_name:service1")).isTrue();
+    assertThat(mightMatch("trace_id:trace1000 AND service_name:service1")).isFalse();
+    assertThat(mightMatch("+trace_id:trace1000 +service_name:service1")).isFalse();
+    assertThat(mightMatch("(trace_id:trace1000)^2")).isFalse();
+
+    // Any of the optional terms can match.
+    assertThat(mightMatch("trace_id:trace5 OR trace_id:trace1000")).isTrue();
+    assertThat(mightMatch("trace_id:trace1000 OR trace_id:trace2000")).isFalse();
+    assertThat(mightMatch("trace_id:trace1000 OR service_name:service1")).isTrue();
+
+    // Excluded terms, and queries other than terms, can't rule out a match.
+    assertThat(mightMatch("service_name:service1 AND NOT trace_id:trace5")).isTrue();
+    assertThat(mightMatch("NOT trace_id:trace1000")).isTrue();
+    assertThat(mightMatch("trace_id:trace1000*")).isTrue();
+    assertThat(mightMatch("trace_id:[trace1000 TO trace2000]")).isTrue();
+  }
+
+  @Test
+  public void testParseQuery() {
+    assertThat(TermBloomFilters.parseQuery(null)).isNull();
+    assertThat(TermBloomFilters.parseQuery("")).isNull();
+    assertThat(TermBloomFilters.parseQuery("*:*")).isNull();
+    assertThat(TermBloomFilters.parseQuery("trace_id:(")).isNull();
+    assertThat(TermBloomFilters.parseQuery("trace_id:trace1").toString())
+        .isEqualTo("trace_id:trace1");
+  }
+
+  @Test
+  public void testEmptyBloomFilters() {
+    assertThat(TermBloomFilters.EMPTY.mightContain(new Term("trace_id", "trace1000"))).isTrue();
+    assertThat(TermBloomFilters.EMPTY.mightMatch(TermBloomFilters.parseQuery("trace_id:trace1000")))
+        .isTrue();
+  }
+}
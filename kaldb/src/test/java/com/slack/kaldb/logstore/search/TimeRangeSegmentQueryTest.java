@@ -0,0 +1,133 @@
+package com.slack.kaldb.logstore.search;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import brave.Tracing;
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.schema.SchemaAwareLogDocumentBuilderImpl;
+import com.slack.kaldb.testlib.MessageUtil;
+import com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherExtension;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Weight;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+public class TimeRangeSegmentQueryTest {
+  private static final String TIMESTAMP_FIELD = LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName;
+  private static final long START_TIME_MS = 1_000_000;
+
+  @RegisterExtension
+  public TemporaryLogStoreAndSearcherExtension logStore =
+      new TemporaryLogStoreAndSearcherExtension(
+          Duration.ofMinutes(1),
+          Duration.ofMinutes(1),
+          true,
+          SchemaAwareLogDocumentBuilderImpl.FieldConflictPolicy.CONVERT_VALUE_AND_DUPLICATE_FIELD);
+
+  public TimeRangeSegmentQueryTest() throws IOException {}
+
+  @BeforeAll
+  public static void beforeClass() {
+    Tracing.newBuilder().build();
+  }
+
+  @BeforeEach
+  public void setUp() {
+    // Index 3 segments of 10 messages, 100ms apart: [0, 9], [100, 109] and [200, 209].
+    for (int segment = 0; segment < 3; segment++) {
+      List<LogMessage> messages =
+          MessageUtil.makeMessagesWithTimeDifference(
+              segment * 10 + 1,
+              segment * 10 + 10,
+              1,
+              Instant.ofEpochMilli(START_TIME_MS + segment * 100L));
+      for (LogMessage message : messages) {
+        logStore.logStore.addMessage(message);
+      }
+      logStore.logStore.commit();
+    }
+    logStore.logStore.refresh();
+  }
+
+  private List<Weight> segmentWeights(Query query) throws IOException {
+    IndexSearcher searcher = logStore.logStore.getSearcherManager().acquire();
+    try {
+      Weight weight =
+          searcher.createWeight(searcher.rewrite(query), ScoreMode.COMPLETE_NO_SCORES, 1);
+      List<Weight> segmentWeights = new ArrayList<>();
+      for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+        segmentWeights.add(weight.scorer(leaf) == null ? null : weight);
+      }
+      return segmentWeights;
+    } finally {
+      logStore.logStore.getSearcherManager().release(searcher);
+    }
+  }
+
+  private int count(Query query) throws IOException {
+    IndexSearcher searcher = logStore.logStore.getSearcherManager().acquire();
+    try {
+      return searcher.count(query);
+    } finally {
+      logStore.logStore.getSearcherManager().release(searcher);
+    }
+  }
+
+  private TimeRangeSegmentQuery timeRangeQuery(long startTimeMs, long endTimeMs) {
+    return new TimeRangeSegmentQuery(
+        LongPoint.newRangeQuery(TIMESTAMP_FIELD, startTimeMs, endTimeMs),
+        new MatchAllDocsQuery(),
+        TIMESTAMP_FIELD,
+        startTimeMs,
+        endTimeMs);
+  }
+
+  @Test
+  public void testMatchesTheTimeRange() throws IOException {
+    assertThat(count(timeRangeQuery(START_TIME_MS, START_TIME_MS + 1000))).isEqualTo(30);
+    assertThat(count(timeRangeQuery(START_TIME_MS + 100, START_TIME_MS + 205))).isEqualTo(16);
+    assertThat(count(timeRangeQuery(START_TIME_MS + 5, START_TIME_MS + 104))).isEqualTo(10);
+    assertThat(count(timeRangeQuery(START_TIME_MS + 50, START_TIME_MS + 60))).isEqualTo(0);
+    assertThat(count(timeRangeQuery(START_TIME_MS + 1000, START_TIME_MS + 2000))).isEqualTo(0);
+  }
+
+  @Test
+  public void testSkipsSegmentsOutsideTheTimeRange() throws IOException {
+    assertThat(segmentWeights(timeRangeQuery(START_TIME_MS, START_TIME_MS + 1000)))
+        .hasSize(3)
+        .doesNotContainNull();
+    assertThat(segmentWeights(timeRangeQuery(START_TIME_MS + 100, START_TIME_MS + 105)))
+        .filteredOn(weight -> weight != null)
+        .hasSize(1);
+    assertThat(segmentWeights(timeRangeQuery(START_TIME_MS + 50, START_TIME_MS + 60)))
+        .containsOnlyNulls();
+  }
+
+  @Test
+  public void testUsesUnfilteredQueryForSegmentsInTheTimeRange() throws IOException {
+    // The filtered query never matches, so only the segments entirely in the range match.
+    long startTimeMs = START_TIME_MS + 100;
+    long endTimeMs = START_TIME_MS + 205;
+    Query query =
+        new TimeRangeSegmentQuery(
+            new MatchNoDocsQuery(),
+            new MatchAllDocsQuery(),
+            TIMESTAMP_FIELD,
+            startTimeMs,
+            endTimeMs);
+    assertThat(count(query)).isEqualTo(10);
+  }
+}
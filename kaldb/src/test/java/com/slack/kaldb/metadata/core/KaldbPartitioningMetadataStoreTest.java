@@ -317,6 +317,27 @@ class KaldbPartitioningMetadataStoreTest {
     }
   }
 
+  @Test
+  void testHas() throws IOException {
+    try (KaldbPartitioningMetadataStore<ExampleMetadata> partitionedMetadataStore =
+        new KaldbPartitioningMetadataStore<>(
+            curatorFramework,
+            CreateMode.PERSISTENT,
+            new ExampleMetadataSerializer().toModelSerializer(),
+            "/partitioned_has")) {
+
+      ExampleMetadata exampleMetadata = new ExampleMetadata("id");
+      assertThat(partitionedMetadataStore.hasSync(exampleMetadata.getPartition(), "id")).isFalse();
+
+      partitionedMetadataStore.createSync(exampleMetadata);
+      await().until(() -> partitionedMetadataStore.hasSync(exampleMetadata.getPartition(), "id"));
+      assertThat(partitionedMetadataStore.hasSync("unknown", "id")).isFalse();
+
+      partitionedMetadataStore.deleteSync(exampleMetadata);
+      await().until(() -> !partitionedMetadataStore.hasSync(exampleMetadata.getPartition(), "id"));
+    }
+  }
+
   @Test
   void testFind() throws IOException {
     try (KaldbPartitioningMetadataStore<ExampleMetadata> partitionedMetadataStore =
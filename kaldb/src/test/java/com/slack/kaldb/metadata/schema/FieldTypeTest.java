@@ -3,9 +3,48 @@ package com.slack.kaldb.metadata.schema;
 import static com.slack.kaldb.metadata.schema.FieldType.convertFieldValue;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
 import org.junit.jupiter.api.Test;
 
 public class FieldTypeTest {
+  @Test
+  public void testKeywordFieldsOmitNormsAndFrequencies() {
+    Document doc = new Document();
+    FieldType.STRING.addField(
+        doc, "keyword", "value", new LuceneFieldDef("keyword", "string", false, true, true));
+    FieldType.addTextFieldWithoutPositions(
+        doc, "text", "some value", new LuceneFieldDef("text", "text", false, true, false));
+
+    IndexableField keywordField = doc.getFields("keyword")[0];
+    assertThat(keywordField.fieldType().omitNorms()).isTrue();
+    assertThat(keywordField.fieldType().indexOptions()).isEqualTo(IndexOptions.DOCS);
+
+    IndexableField textField = doc.getField("text");
+    assertThat(textField.fieldType().indexOptions()).isEqualTo(IndexOptions.DOCS_AND_FREQS);
+    assertThat(textField.fieldType().stored()).isFalse();
+  }
+
+  @Test
+  public void testTextFieldsWithoutPositionsStoreLikeTextFields() {
+    Document textDoc = new Document();
+    FieldType.TEXT.addField(
+        textDoc, "text", "some value", new LuceneFieldDef("text", "text", true, true, false));
+    Document withoutPositionsDoc = new Document();
+    FieldType.addTextFieldWithoutPositions(
+        withoutPositionsDoc,
+        "text",
+        "some value",
+        new LuceneFieldDef("text", "text", true, true, false));
+
+    assertThat(withoutPositionsDoc.getFields("text")).hasSameSizeAs(textDoc.getFields("text"));
+    assertThat(withoutPositionsDoc.getValues("text")).isEqualTo(textDoc.getValues("text"));
+    assertThat(withoutPositionsDoc.getFields("text")[0].fieldType().stored()).isTrue();
+    assertThat(withoutPositionsDoc.getFields("text")[0].fieldType().indexOptions())
+        .isEqualTo(IndexOptions.DOCS_AND_FREQS);
+  }
+
   @Test
   public void testValueTypeConversionWorks() {
     assertThat(convertFieldValue("1", FieldType.TEXT, FieldType.INTEGER)).isEqualTo(1);
@@ -297,4 +297,48 @@ public class LogMessageWriterImplTest {
 
     assertThat(messageWriter.insertRecord(null)).isFalse();
   }
+
+  @Test
+  public void testInsertRecords() throws IOException {
+    final String serviceName = "test_service";
+    final long timestampMicros =
+        TimeUnit.MICROSECONDS.convert(Instant.now().toEpochMilli(), TimeUnit.MILLISECONDS);
+    List<ConsumerRecord<String, byte[]>> records =
+        IntStream.range(0, 3)
+            .mapToObj(
+                i ->
+                    new ConsumerRecord<>(
+                        "testTopic",
+                        1,
+                        10 + i,
+                        0L,
+                        TimestampType.CREATE_TIME,
+                        0L,
+                        0,
+                        0,
+                        "testKey",
+                        makeSpan(
+                                "t1",
+                                "i" + i,
+                                "p1",
+                                timestampMicros,
+                                1000L,
+                                "testSpanName",
+                                serviceName,
+                                TEST_MESSAGE_TYPE)
+                            .toByteArray()))
+            .collect(Collectors.toList());
+    records.add(1, consumerRecordWithValue("malformed".getBytes()));
+
+    LogMessageWriterImpl messageWriter =
+        new LogMessageWriterImpl(
+            chunkManagerUtil.chunkManager, LogMessageWriterImpl.traceSpanTransformer);
+
+    assertThat(messageWriter.insertRecords(records)).isEqualTo(1);
+    assertThat(getCount(MESSAGES_RECEIVED_COUNTER, metricsRegistry)).isEqualTo(3);
+    assertThat(getCount(MESSAGES_FAILED_COUNTER, metricsRegistry)).isEqualTo(0);
+    assertThat(chunkManagerUtil.chunkManager.getActiveChunk().info().getMaxOffset()).isEqualTo(12);
+    chunkManagerUtil.chunkManager.getActiveChunk().commit();
+    assertThat(searchChunkManager(serviceName, "").hits.size()).isEqualTo(3);
+  }
 }